@@ -0,0 +1,48 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.benchmarks;
+
+import java.lang.reflect.Field;
+import io.github.mzmine.main.MZmineCore;
+import io.github.mzmine.main.impl.MZmineConfigurationImpl;
+
+/**
+ * The parameter sets and some data model classes use MZmineCore.getConfiguration() (e.g. for the
+ * number formats). MZmineCore creates the configuration in main(), which the benchmarks do not
+ * run, so they create a default configuration here.
+ */
+public class BenchmarkEnvironment {
+
+  private static boolean initialized = false;
+
+  public static synchronized void init() {
+    if (initialized)
+      return;
+    try {
+      Field configuration = MZmineCore.class.getDeclaredField("configuration");
+      configuration.setAccessible(true);
+      if (configuration.get(null) == null)
+        configuration.set(null, new MZmineConfigurationImpl());
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("Could not initialize the MZmine configuration", e);
+    }
+    initialized = true;
+  }
+
+}
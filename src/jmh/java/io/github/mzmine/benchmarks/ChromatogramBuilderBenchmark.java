@@ -0,0 +1,87 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import io.github.mzmine.modules.dataprocessing.featdet_chromatogrambuilder.Chromatogram;
+import io.github.mzmine.modules.dataprocessing.featdet_chromatogrambuilder.HighestDataPointConnector;
+import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import io.github.mzmine.project.impl.RawDataFileImpl;
+
+/**
+ * Chromatogram building: connecting the mass lists of all scans to chromatograms
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ChromatogramBuilderBenchmark {
+
+  @Param({"1000"})
+  public int numOfScans;
+
+  @Param({"2000"})
+  public int numOfCompounds;
+
+  private RawDataFileImpl dataFile;
+  private int scanNumbers[];
+  private double massLists[][][];
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    BenchmarkEnvironment.init();
+    SyntheticData data = new SyntheticData(SyntheticData.DEFAULT_SEED);
+    SyntheticData.Compounds compounds = data.compounds(numOfCompounds);
+    dataFile = data.rawDataFile("chromatogram builder benchmark", compounds, numOfScans, 200,
+        false);
+    scanNumbers = dataFile.getScanNumbers(1);
+    massLists = new double[scanNumbers.length][][];
+    for (int s = 0; s < scanNumbers.length; s++) {
+      massLists[s] = data.centroidScan(compounds,
+          dataFile.getScan(scanNumbers[s]).getRetentionTime(), 200);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    dataFile.close();
+  }
+
+  @Benchmark
+  public Chromatogram[] connectDataPoints() {
+    HighestDataPointConnector connector = new HighestDataPointConnector(dataFile, scanNumbers,
+        0.02, 1000.0, new MZTolerance(0.002, 10.0));
+    for (int s = 0; s < scanNumbers.length; s++) {
+      connector.addScan(scanNumbers[s], massLists[s][0], massLists[s][1],
+          massLists[s][0].length);
+    }
+    return connector.finishChromatograms();
+  }
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import io.github.mzmine.modules.dataprocessing.featdet_massdetection.MassDetector;
+import io.github.mzmine.modules.dataprocessing.featdet_massdetection.centroid.CentroidMassDetector;
+import io.github.mzmine.modules.dataprocessing.featdet_massdetection.centroid.CentroidMassDetectorParameters;
+import io.github.mzmine.modules.dataprocessing.featdet_massdetection.exactmass.ExactMassDetector;
+import io.github.mzmine.modules.dataprocessing.featdet_massdetection.exactmass.ExactMassDetectorParameters;
+import io.github.mzmine.modules.dataprocessing.featdet_massdetection.localmaxima.LocalMaxMassDetector;
+import io.github.mzmine.modules.dataprocessing.featdet_massdetection.localmaxima.LocalMaxMassDetectorParameters;
+import io.github.mzmine.modules.dataprocessing.featdet_massdetection.recursive.RecursiveMassDetector;
+import io.github.mzmine.modules.dataprocessing.featdet_massdetection.recursive.RecursiveMassDetectorParameters;
+import io.github.mzmine.modules.dataprocessing.featdet_massdetection.wavelet.WaveletMassDetector;
+import io.github.mzmine.modules.dataprocessing.featdet_massdetection.wavelet.WaveletMassDetectorParameters;
+import io.github.mzmine.parameters.ParameterSet;
+
+/**
+ * Mass detection on profile (or centroided, for the centroid detector) spectra
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MassDetectorBenchmark {
+
+  @Param({"centroid", "exact", "localmax", "recursive", "wavelet"})
+  public String detectorName;
+
+  @Param({"200"})
+  public int numOfScans;
+
+  @Param({"2000"})
+  public int numOfCompounds;
+
+  private MassDetector detector;
+  private ParameterSet parameters;
+  private double spectra[][][];
+
+  @Setup(Level.Trial)
+  public void setup() {
+    BenchmarkEnvironment.init();
+    final double noiseLevel = 200.0;
+    switch (detectorName) {
+      case "centroid":
+        detector = new CentroidMassDetector();
+        parameters = new CentroidMassDetectorParameters();
+        parameters.getParameter(CentroidMassDetectorParameters.noiseLevel).setValue(noiseLevel);
+        break;
+      case "exact":
+        detector = new ExactMassDetector();
+        parameters = new ExactMassDetectorParameters();
+        parameters.getParameter(ExactMassDetectorParameters.noiseLevel).setValue(noiseLevel);
+        break;
+      case "localmax":
+        detector = new LocalMaxMassDetector();
+        parameters = new LocalMaxMassDetectorParameters();
+        parameters.getParameter(LocalMaxMassDetectorParameters.noiseLevel).setValue(noiseLevel);
+        break;
+      case "recursive":
+        detector = new RecursiveMassDetector();
+        parameters = new RecursiveMassDetectorParameters();
+        parameters.getParameter(RecursiveMassDetectorParameters.noiseLevel).setValue(noiseLevel);
+        parameters.getParameter(RecursiveMassDetectorParameters.minimumMZPeakWidth)
+            .setValue(0.001);
+        parameters.getParameter(RecursiveMassDetectorParameters.maximumMZPeakWidth)
+            .setValue(0.1);
+        break;
+      case "wavelet":
+        detector = new WaveletMassDetector();
+        parameters = new WaveletMassDetectorParameters();
+        parameters.getParameter(WaveletMassDetectorParameters.noiseLevel).setValue(noiseLevel);
+        parameters.getParameter(WaveletMassDetectorParameters.scaleLevel).setValue(5);
+        parameters.getParameter(WaveletMassDetectorParameters.waveletWindow).setValue(0.3);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown mass detector " + detectorName);
+    }
+
+    SyntheticData data = new SyntheticData(SyntheticData.DEFAULT_SEED);
+    SyntheticData.Compounds compounds = data.compounds(numOfCompounds);
+    spectra = new double[numOfScans][][];
+    for (int s = 0; s < numOfScans; s++) {
+      double centroid[][] =
+          data.centroidScan(compounds, SyntheticData.retentionTime(s, numOfScans), 200);
+      spectra[s] = detectorName.equals("centroid") ? centroid : data.profileScan(centroid, 15);
+    }
+  }
+
+  @Benchmark
+  public void detectMasses(Blackhole blackhole) {
+    for (double spectrum[][] : spectra)
+      blackhole.consume(
+          detector.getMassValues(spectrum[0], spectrum[1], spectrum[0].length, parameters));
+  }
+
+}
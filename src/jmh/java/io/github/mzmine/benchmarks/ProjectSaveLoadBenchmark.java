@@ -0,0 +1,98 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import io.github.mzmine.datamodel.PeakList;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.modules.io.projectload.version_3_0.PeakListOpenHandler_3_0;
+import io.github.mzmine.modules.io.projectsave.PeakListSaveHandler;
+import io.github.mzmine.project.impl.RawDataFileImpl;
+
+/**
+ * Saving a feature list to and loading it from the project format, in memory so that disk speed
+ * does not affect the result
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ProjectSaveLoadBenchmark {
+
+  @Param({"10"})
+  public int numOfDataFiles;
+
+  @Param({"5000"})
+  public int numOfCompounds;
+
+  private RawDataFileImpl dataFiles[];
+  private PeakList peakList;
+  private final Hashtable<RawDataFile, String> dataFilesIDMap = new Hashtable<>();
+  private final Hashtable<String, RawDataFile> idDataFilesMap = new Hashtable<>();
+  private byte savedPeakList[];
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    BenchmarkEnvironment.init();
+    SyntheticData data = new SyntheticData(SyntheticData.DEFAULT_SEED);
+    SyntheticData.Compounds compounds = data.compounds(numOfCompounds);
+    // Scans without noise peaks, only the scan numbers and retention times are used
+    dataFiles = new RawDataFileImpl[numOfDataFiles];
+    for (int i = 0; i < numOfDataFiles; i++) {
+      dataFiles[i] = data.rawDataFile("sample " + i, data.compounds(0), 500, 0, false);
+      dataFilesIDMap.put(dataFiles[i], String.valueOf(i));
+      idDataFilesMap.put(String.valueOf(i), dataFiles[i]);
+    }
+    peakList = data.peakList("save load benchmark", compounds, dataFiles);
+    savedPeakList = save();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    for (RawDataFileImpl dataFile : dataFiles)
+      dataFile.close();
+  }
+
+  @Benchmark
+  public byte[] save() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    new PeakListSaveHandler(bytes, dataFilesIDMap).savePeakList(peakList);
+    return bytes.toByteArray();
+  }
+
+  @Benchmark
+  public PeakList load() throws IOException {
+    return new PeakListOpenHandler_3_0(idDataFilesMap)
+        .readPeakList(new ByteArrayInputStream(savedPeakList));
+  }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.project.impl.RawDataFileImpl;
+
+/**
+ * Storing data points in and reading them from the data points file of a raw data file
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RawDataFileBenchmark {
+
+  @Param({"1000"})
+  public int numOfScans;
+
+  @Param({"2000"})
+  public int numOfCompounds;
+
+  private List<DataPoint[]> spectra;
+  private RawDataFileImpl dataFile;
+  private int storageIDs[];
+  private int maxDataPoints;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    BenchmarkEnvironment.init();
+    SyntheticData data = new SyntheticData(SyntheticData.DEFAULT_SEED);
+    SyntheticData.Compounds compounds = data.compounds(numOfCompounds);
+    spectra = new ArrayList<>();
+    for (int s = 0; s < numOfScans; s++) {
+      double centroid[][] =
+          data.centroidScan(compounds, SyntheticData.retentionTime(s, numOfScans), 200);
+      DataPoint spectrum[] = SyntheticData.toDataPoints(data.profileScan(centroid, 15));
+      spectra.add(spectrum);
+      maxDataPoints = Math.max(maxDataPoints, spectrum.length);
+    }
+    dataFile = new RawDataFileImpl("read benchmark");
+    storageIDs = dataFile.storeDataPoints(spectra);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    dataFile.close();
+  }
+
+  @Benchmark
+  public void storeOneByOne() throws IOException {
+    RawDataFileImpl file = new RawDataFileImpl("store benchmark");
+    for (DataPoint spectrum[] : spectra)
+      file.storeDataPoints(spectrum);
+    file.close();
+  }
+
+  @Benchmark
+  public void storeBatch() throws IOException {
+    RawDataFileImpl file = new RawDataFileImpl("store benchmark");
+    file.storeDataPoints(spectra);
+    file.close();
+  }
+
+  @Benchmark
+  public void readDataPoints(Blackhole blackhole) throws IOException {
+    for (int id : storageIDs)
+      blackhole.consume(dataFile.readDataPoints(id));
+  }
+
+  @Benchmark
+  public void readPrimitive(Blackhole blackhole) throws IOException {
+    double mzValues[] = new double[maxDataPoints];
+    double intensityValues[] = new double[maxDataPoints];
+    for (int id : storageIDs) {
+      blackhole.consume(dataFile.readDataPoints(id, mzValues, intensityValues));
+      blackhole.consume(intensityValues[0]);
+    }
+  }
+
+  @Benchmark
+  public void readPrimitiveParallel(Blackhole blackhole) {
+    IntStream.range(0, storageIDs.length).parallel().forEach(i -> {
+      double mzValues[] = new double[maxDataPoints];
+      double intensityValues[] = new double[maxDataPoints];
+      try {
+        blackhole.consume(dataFile.readDataPoints(storageIDs[i], mzValues, intensityValues));
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+  }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import com.google.common.collect.Range;
+import io.github.mzmine.datamodel.Scan;
+import io.github.mzmine.project.impl.RawDataFileImpl;
+import io.github.mzmine.util.scans.ScanUtils;
+
+/**
+ * Base peak and TIC calculation of all scans of a raw data file
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ScanUtilsBenchmark {
+
+  @Param({"1000"})
+  public int numOfScans;
+
+  @Param({"2000"})
+  public int numOfCompounds;
+
+  private RawDataFileImpl dataFile;
+  private Scan scans[];
+  private final Range<Double> mzRange = Range.closed(300.0, 700.0);
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    BenchmarkEnvironment.init();
+    SyntheticData data = new SyntheticData(SyntheticData.DEFAULT_SEED);
+    dataFile = data.rawDataFile("scan utils benchmark", data.compounds(numOfCompounds), numOfScans,
+        200, true);
+    int scanNumbers[] = dataFile.getScanNumbers(1);
+    scans = new Scan[scanNumbers.length];
+    for (int i = 0; i < scanNumbers.length; i++)
+      scans[i] = dataFile.getScan(scanNumbers[i]);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    dataFile.close();
+  }
+
+  @Benchmark
+  public void findBasePeak(Blackhole blackhole) {
+    for (Scan scan : scans)
+      blackhole.consume(ScanUtils.findBasePeak(scan, mzRange));
+  }
+
+  @Benchmark
+  public void calculateTIC(Blackhole blackhole) {
+    for (Scan scan : scans)
+      blackhole.consume(ScanUtils.calculateTIC(scan, mzRange));
+  }
+
+}
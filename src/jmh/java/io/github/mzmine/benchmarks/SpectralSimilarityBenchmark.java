@@ -0,0 +1,101 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.parameters.ParameterSet;
+import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import io.github.mzmine.util.scans.similarity.SpectralSimilarityFunction;
+import io.github.mzmine.util.scans.similarity.Weights;
+import io.github.mzmine.util.scans.similarity.impl.composite.CompositeCosineSpectralSimilarity;
+import io.github.mzmine.util.scans.similarity.impl.composite.CompositeCosineSpectralSimilarityParameters;
+import io.github.mzmine.util.scans.similarity.impl.cosine.WeightedCosineSpectralSimilarity;
+import io.github.mzmine.util.scans.similarity.impl.cosine.WeightedCosineSpectralSimilarityParameters;
+
+/**
+ * Spectral similarity of query spectra against library spectra
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SpectralSimilarityBenchmark {
+
+  @Param({"cosine", "composite"})
+  public String similarityName;
+
+  @Param({"1000"})
+  public int numOfPairs;
+
+  @Param({"100"})
+  public int numOfPeaks;
+
+  private SpectralSimilarityFunction function;
+  private ParameterSet parameters;
+  private final MZTolerance mzTolerance = new MZTolerance(0.005, 10.0);
+  private DataPoint library[][], query[][];
+
+  @Setup(Level.Trial)
+  public void setup() {
+    BenchmarkEnvironment.init();
+    if (similarityName.equals("cosine")) {
+      function = new WeightedCosineSpectralSimilarity();
+      parameters = new WeightedCosineSpectralSimilarityParameters();
+      parameters.getParameter(WeightedCosineSpectralSimilarityParameters.weight)
+          .setValue(Weights.MASSBANK);
+      parameters.getParameter(WeightedCosineSpectralSimilarityParameters.minCosine).setValue(0.0);
+      parameters.getParameter(WeightedCosineSpectralSimilarityParameters.removeUnmatched)
+          .setValue(false);
+    } else {
+      function = new CompositeCosineSpectralSimilarity();
+      parameters = new CompositeCosineSpectralSimilarityParameters();
+      parameters.getParameter(CompositeCosineSpectralSimilarityParameters.weight)
+          .setValue(Weights.MASSBANK);
+      parameters.getParameter(CompositeCosineSpectralSimilarityParameters.minCosine)
+          .setValue(0.0);
+      parameters.getParameter(CompositeCosineSpectralSimilarityParameters.removeUnmatched)
+          .setValue(false);
+    }
+
+    SyntheticData data = new SyntheticData(SyntheticData.DEFAULT_SEED);
+    library = new DataPoint[numOfPairs][];
+    query = new DataPoint[numOfPairs][];
+    for (int i = 0; i < numOfPairs; i++) {
+      library[i] = data.randomSpectrum(numOfPeaks);
+      query[i] = data.similarSpectrum(library[i], 0.3);
+    }
+  }
+
+  @Benchmark
+  public void similarity(Blackhole blackhole) {
+    for (int i = 0; i < numOfPairs; i++)
+      blackhole.consume(function.getSimilarity(parameters, mzTolerance, 0, library[i], query[i]));
+  }
+
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.benchmarks;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import com.google.common.collect.Range;
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.datamodel.FeatureStatus;
+import io.github.mzmine.datamodel.MassSpectrumType;
+import io.github.mzmine.datamodel.PolarityType;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.impl.SimpleDataPoint;
+import io.github.mzmine.datamodel.impl.SimpleFeature;
+import io.github.mzmine.datamodel.impl.SimplePeakList;
+import io.github.mzmine.datamodel.impl.SimplePeakListRow;
+import io.github.mzmine.datamodel.impl.SimpleScan;
+import io.github.mzmine.project.impl.RawDataFileImpl;
+
+/**
+ * Seeded generator of synthetic LC-MS data for the benchmarks. The same seed always gives the same
+ * data, so the results of two versions are measured on identical input.
+ *
+ * The data consists of compounds with a fixed m/z which elute as Gaussian peaks. Each scan
+ * contains the compounds eluting at its retention time plus random noise peaks.
+ */
+public class SyntheticData {
+
+  public static final long DEFAULT_SEED = 42;
+
+  private static final double MIN_MZ = 100.0, MAX_MZ = 1000.0;
+  private static final double RT_LENGTH = 30.0; // minutes
+  private static final double PEAK_WIDTH = 0.05; // minutes (sigma)
+  private static final double PROFILE_WIDTH = 0.005; // m/z (sigma)
+  private static final double NOISE_LEVEL = 100.0;
+
+  private final Random random;
+
+  public SyntheticData(long seed) {
+    random = new Random(seed);
+  }
+
+  /**
+   * Compounds of the data set: m/z, retention time and maximum intensity of each compound
+   */
+  public static class Compounds {
+    public final double mz[], rt[], height[];
+
+    private Compounds(int numOfCompounds) {
+      mz = new double[numOfCompounds];
+      rt = new double[numOfCompounds];
+      height = new double[numOfCompounds];
+    }
+
+    public int size() {
+      return mz.length;
+    }
+  }
+
+  public Compounds compounds(int numOfCompounds) {
+    Compounds compounds = new Compounds(numOfCompounds);
+    for (int i = 0; i < numOfCompounds; i++) {
+      compounds.mz[i] = MIN_MZ + random.nextDouble() * (MAX_MZ - MIN_MZ);
+      compounds.rt[i] = random.nextDouble() * RT_LENGTH;
+      // Log-uniform heights between 1E3 and 1E7
+      compounds.height[i] = Math.pow(10, 3 + 4 * random.nextDouble());
+    }
+    return compounds;
+  }
+
+  /**
+   * Compounds with the isotope peaks of the given compounds: the monoisotopic peak plus the M+1 and
+   * M+2 isotopes with decreasing height, with a random charge of 1 to maximumCharge
+   */
+  public Compounds isotopePatterns(Compounds compounds, int maximumCharge) {
+    final int numOfIsotopes = 3;
+    Compounds patterns = new Compounds(compounds.size() * numOfIsotopes);
+    for (int c = 0; c < compounds.size(); c++) {
+      final int charge = 1 + random.nextInt(maximumCharge);
+      for (int i = 0; i < numOfIsotopes; i++) {
+        final int p = c * numOfIsotopes + i;
+        patterns.mz[p] = compounds.mz[c] + i * 1.0033 / charge;
+        patterns.rt[p] = compounds.rt[c];
+        patterns.height[p] = compounds.height[c] * Math.pow(0.4, i);
+      }
+    }
+    return patterns;
+  }
+
+  public static double retentionTime(int scanIndex, int numOfScans) {
+    return RT_LENGTH * scanIndex / numOfScans;
+  }
+
+  /**
+   * Centroided spectrum of a scan: the eluting compounds (with a small m/z error) and random noise
+   * peaks, sorted by m/z.
+   *
+   * @return {m/z values, intensity values}
+   */
+  public double[][] centroidScan(Compounds compounds, double rt, int numOfNoisePeaks) {
+    double mz[] = new double[compounds.size() + numOfNoisePeaks];
+    double intensity[] = new double[mz.length];
+    int n = 0;
+    for (int c = 0; c < compounds.size(); c++) {
+      final double elution = Math.exp(-0.5 * Math.pow((rt - compounds.rt[c]) / PEAK_WIDTH, 2));
+      final double height = compounds.height[c] * elution;
+      if (height < NOISE_LEVEL)
+        continue;
+      mz[n] = compounds.mz[c] + random.nextGaussian() * 0.0005;
+      intensity[n] = height;
+      n++;
+    }
+    for (int i = 0; i < numOfNoisePeaks; i++) {
+      mz[n] = MIN_MZ + random.nextDouble() * (MAX_MZ - MIN_MZ);
+      intensity[n] = NOISE_LEVEL * random.nextDouble();
+      n++;
+    }
+    return sortByMz(Arrays.copyOf(mz, n), Arrays.copyOf(intensity, n));
+  }
+
+  /**
+   * Profile spectrum: each peak of the centroided spectrum becomes a Gaussian profile of
+   * pointsPerPeak points, plus a low baseline between the peaks.
+   *
+   * @return {m/z values, intensity values}
+   */
+  public double[][] profileScan(double centroid[][], int pointsPerPeak) {
+    final int numOfPeaks = centroid[0].length;
+    double mz[] = new double[numOfPeaks * pointsPerPeak];
+    double intensity[] = new double[mz.length];
+    final double step = 6 * PROFILE_WIDTH / pointsPerPeak;
+    int n = 0;
+    for (int p = 0; p < numOfPeaks; p++) {
+      for (int i = 0; i < pointsPerPeak; i++) {
+        final double offset = (i - pointsPerPeak / 2) * step;
+        mz[n] = centroid[0][p] + offset;
+        intensity[n] = centroid[1][p] * Math.exp(-0.5 * Math.pow(offset / PROFILE_WIDTH, 2))
+            + random.nextDouble();
+        n++;
+      }
+    }
+    return sortByMz(mz, intensity);
+  }
+
+  /**
+   * Centroided spectrum of random peaks, sorted by m/z (e.g. an MS2 spectrum)
+   */
+  public DataPoint[] randomSpectrum(int numOfPeaks) {
+    double mz[] = new double[numOfPeaks];
+    double intensity[] = new double[numOfPeaks];
+    for (int i = 0; i < numOfPeaks; i++) {
+      mz[i] = MIN_MZ + random.nextDouble() * (MAX_MZ - MIN_MZ);
+      intensity[i] = Math.pow(10, 2 + 4 * random.nextDouble());
+    }
+    return toDataPoints(sortByMz(mz, intensity));
+  }
+
+  /**
+   * Similar spectrum: the same peaks with small m/z and intensity errors, some peaks removed and
+   * some random peaks added
+   */
+  public DataPoint[] similarSpectrum(DataPoint spectrum[], double fractionChanged) {
+    double mz[] = new double[spectrum.length];
+    double intensity[] = new double[spectrum.length];
+    for (int i = 0; i < spectrum.length; i++) {
+      if (random.nextDouble() < fractionChanged) {
+        mz[i] = MIN_MZ + random.nextDouble() * (MAX_MZ - MIN_MZ);
+        intensity[i] = Math.pow(10, 2 + 4 * random.nextDouble());
+      } else {
+        mz[i] = spectrum[i].getMZ() + random.nextGaussian() * 0.001;
+        intensity[i] = spectrum[i].getIntensity() * (0.8 + 0.4 * random.nextDouble());
+      }
+    }
+    return toDataPoints(sortByMz(mz, intensity));
+  }
+
+  /**
+   * Raw data file with numOfScans MS1 scans of the given compounds. The file's data points file is
+   * a temporary file, close the raw data file to remove it.
+   */
+  public RawDataFileImpl rawDataFile(String name, Compounds compounds, int numOfScans,
+      int numOfNoisePeaks, boolean profile) throws IOException {
+    RawDataFileImpl dataFile = new RawDataFileImpl(name);
+    for (int s = 0; s < numOfScans; s++) {
+      final double rt = retentionTime(s, numOfScans);
+      double spectrum[][] = centroidScan(compounds, rt, numOfNoisePeaks);
+      if (profile)
+        spectrum = profileScan(spectrum, 15);
+      DataPoint dataPoints[] = toDataPoints(spectrum);
+      SimpleScan scan = new SimpleScan(dataFile, s + 1, 1, rt, 0.0, 0.0, 0, new int[0],
+          dataPoints, profile ? MassSpectrumType.PROFILE : MassSpectrumType.CENTROIDED,
+          PolarityType.POSITIVE, "", Range.closed(MIN_MZ, MAX_MZ));
+      dataFile.addScan(scan);
+    }
+    dataFile.finishWriting();
+    return dataFile;
+  }
+
+  /**
+   * Feature list with one row per compound and one feature per data file. The m/z and retention
+   * time of the features vary slightly between the data files, as in real samples. The features
+   * refer to the scans of the data files around the compound's retention time, so the data files
+   * must contain MS1 scans, e.g. created by {@link #rawDataFile}.
+   */
+  public SimplePeakList peakList(String name, Compounds compounds, RawDataFile... dataFiles) {
+    SimplePeakList peakList = new SimplePeakList(name, dataFiles);
+    for (int c = 0; c < compounds.size(); c++) {
+      SimplePeakListRow row = new SimplePeakListRow(c + 1);
+      for (RawDataFile dataFile : dataFiles) {
+        final int fileScanNumbers[] = dataFile.getScanNumbers(1);
+        final double mz = compounds.mz[c] + random.nextGaussian() * 0.001;
+        final double rt = compounds.rt[c] + random.nextGaussian() * 0.01;
+        final double height = compounds.height[c] * (0.5 + random.nextDouble());
+        final int numOfScans = Math.min(10, fileScanNumbers.length);
+        final int apex = (int) Math.round(rt / RT_LENGTH * fileScanNumbers.length);
+        final int first =
+            Math.max(0, Math.min(apex - numOfScans / 2, fileScanNumbers.length - numOfScans));
+        int scanNumbers[] = new int[numOfScans];
+        DataPoint dataPoints[] = new DataPoint[numOfScans];
+        for (int i = 0; i < numOfScans; i++) {
+          scanNumbers[i] = fileScanNumbers[first + i];
+          final double elution = Math.exp(-0.5 * Math.pow((i - numOfScans / 2) / 2.0, 2));
+          dataPoints[i] = new SimpleDataPoint(mz, height * elution);
+        }
+        SimpleFeature feature = new SimpleFeature(dataFile, mz, rt, height, height * 0.2,
+            scanNumbers, dataPoints, FeatureStatus.DETECTED, scanNumbers[numOfScans / 2], -1,
+            new int[0], Range.closed(rt - 0.1, rt + 0.1), Range.closed(mz - 0.001, mz + 0.001),
+            Range.closed(0.0, height));
+        row.addPeak(dataFile, feature);
+      }
+      peakList.addRow(row);
+    }
+    return peakList;
+  }
+
+  public static DataPoint[] toDataPoints(double spectrum[][]) {
+    DataPoint dataPoints[] = new DataPoint[spectrum[0].length];
+    for (int i = 0; i < dataPoints.length; i++)
+      dataPoints[i] = new SimpleDataPoint(spectrum[0][i], spectrum[1][i]);
+    return dataPoints;
+  }
+
+  private static double[][] sortByMz(double mz[], double intensity[]) {
+    Integer order[] = new Integer[mz.length];
+    for (int i = 0; i < order.length; i++)
+      order[i] = i;
+    Arrays.sort(order, (a, b) -> Double.compare(mz[a], mz[b]));
+    double sortedMz[] = new double[mz.length];
+    double sortedIntensity[] = new double[mz.length];
+    for (int i = 0; i < order.length; i++) {
+      sortedMz[i] = mz[order[i]];
+      sortedIntensity[i] = intensity[order[i]];
+    }
+    return new double[][] {sortedMz, sortedIntensity};
+  }
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.dataprocessing.align_join;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import com.google.common.collect.Range;
+import io.github.mzmine.benchmarks.BenchmarkEnvironment;
+import io.github.mzmine.benchmarks.SyntheticData;
+import io.github.mzmine.datamodel.PeakList;
+import io.github.mzmine.datamodel.PeakListRow;
+import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import io.github.mzmine.parameters.parametertypes.tolerances.RTTolerance;
+import io.github.mzmine.project.impl.RawDataFileImpl;
+import io.github.mzmine.util.RangeUtils;
+
+/**
+ * Join aligner scoring: the candidate search of each row of a feature list in the aligned feature
+ * list and the score calculation, as done by {@link JoinAlignerTask}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class JoinAlignerScoreBenchmark {
+
+  @Param({"5000"})
+  public int numOfCompounds;
+
+  private RawDataFileImpl dataFiles[];
+  private PeakListRow rows[];
+  private PeakList alignedPeakList;
+  private final MZTolerance mzTolerance = new MZTolerance(0.005, 10.0);
+  private final RTTolerance rtTolerance = new RTTolerance(true, 0.2);
+  private final double mzWeight = 3.0, rtWeight = 1.0;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    BenchmarkEnvironment.init();
+    SyntheticData data = new SyntheticData(SyntheticData.DEFAULT_SEED);
+    SyntheticData.Compounds compounds = data.compounds(numOfCompounds);
+    dataFiles = new RawDataFileImpl[2];
+    for (int i = 0; i < dataFiles.length; i++)
+      dataFiles[i] = data.rawDataFile("sample " + i, data.compounds(0), 500, 0, false);
+    alignedPeakList = data.peakList("aligned", compounds, dataFiles[0]);
+    rows = data.peakList("sample", compounds, dataFiles[1]).getRows()
+        .toArray(PeakListRow[]::new);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    for (RawDataFileImpl dataFile : dataFiles)
+      dataFile.close();
+  }
+
+  @Benchmark
+  public void score(Blackhole blackhole) {
+    for (PeakListRow row : rows) {
+      Range<Double> mzRange = mzTolerance.getToleranceRange(row.getAverageMZ());
+      Range<Double> rtRange = rtTolerance.getToleranceRange(row.getAverageRT());
+      for (PeakListRow candidate : alignedPeakList.getRowsInsideScanAndMZRange(rtRange,
+          mzRange)) {
+        blackhole.consume(new RowVsRowScore(row, candidate, RangeUtils.rangeLength(mzRange) / 2.0,
+            mzWeight, RangeUtils.rangeLength(rtRange) / 2.0, rtWeight));
+      }
+    }
+  }
+
+}
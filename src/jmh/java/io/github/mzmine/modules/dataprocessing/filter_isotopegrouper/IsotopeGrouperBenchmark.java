@@ -0,0 +1,122 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+package io.github.mzmine.modules.dataprocessing.filter_isotopegrouper;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import io.github.mzmine.benchmarks.BenchmarkEnvironment;
+import io.github.mzmine.benchmarks.SyntheticData;
+import io.github.mzmine.datamodel.Feature;
+import io.github.mzmine.datamodel.PeakList;
+import io.github.mzmine.parameters.ParameterSet;
+import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import io.github.mzmine.parameters.parametertypes.tolerances.RTTolerance;
+import io.github.mzmine.project.impl.RawDataFileImpl;
+import io.github.mzmine.util.PeakSorter;
+import io.github.mzmine.util.SortingDirection;
+import io.github.mzmine.util.SortingProperty;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+/**
+ * Isotope pattern fitting of {@link IsotopeGrouperTask}: fitting the charge states around each
+ * peak one after the other, as the task does, compared to fitting them in parallel
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class IsotopeGrouperBenchmark {
+
+  @Param({"5000"})
+  public int numOfCompounds;
+
+  @Param({"1", "2", "3"})
+  public int maximumCharge;
+
+  private RawDataFileImpl dataFile;
+  private IsotopeGrouperTask task;
+  private int charges[];
+  private int numOfPeaks;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    BenchmarkEnvironment.init();
+    SyntheticData data = new SyntheticData(SyntheticData.DEFAULT_SEED);
+    SyntheticData.Compounds compounds =
+        data.isotopePatterns(data.compounds(numOfCompounds), maximumCharge);
+    dataFile = data.rawDataFile("sample", data.compounds(0), 500, 0, false);
+    PeakList peakList = data.peakList("features", compounds, dataFile);
+
+    ParameterSet parameters = new IsotopeGrouperParameters().cloneParameterSet();
+    parameters.getParameter(IsotopeGrouperParameters.suffix).setValue("deisotoped");
+    parameters.getParameter(IsotopeGrouperParameters.mzTolerance)
+        .setValue(new MZTolerance(0.005, 10.0));
+    parameters.getParameter(IsotopeGrouperParameters.rtTolerance)
+        .setValue(new RTTolerance(true, 0.1));
+    parameters.getParameter(IsotopeGrouperParameters.monotonicShape).setValue(true);
+    parameters.getParameter(IsotopeGrouperParameters.maximumCharge).setValue(maximumCharge);
+    parameters.getParameter(IsotopeGrouperParameters.representativeIsotope)
+        .setValue(IsotopeGrouperParameters.ChooseTopIntensity);
+    parameters.getParameter(IsotopeGrouperParameters.autoRemove).setValue(false);
+    task = new IsotopeGrouperTask(null, peakList, parameters);
+
+    Feature sortedPeaks[] = peakList.getPeaks(dataFile).toArray(Feature[]::new);
+    Arrays.sort(sortedPeaks, new PeakSorter(SortingProperty.Height, SortingDirection.Descending));
+    task.indexPeaks(sortedPeaks);
+    numOfPeaks = sortedPeaks.length;
+
+    charges = new int[maximumCharge];
+    for (int i = 0; i < maximumCharge; i++)
+      charges[i] = i + 1;
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    dataFile.close();
+  }
+
+  @Benchmark
+  public void sequentialCharges(Blackhole blackhole) {
+    for (int p = 0; p < numOfPeaks; p++) {
+      for (int charge : charges)
+        blackhole.consume(task.fitPattern(p, charge));
+    }
+  }
+
+  @Benchmark
+  public void parallelCharges(Blackhole blackhole) {
+    for (int p = 0; p < numOfPeaks; p++) {
+      final int peak = p;
+      blackhole.consume(IntStream.of(charges).parallel()
+          .mapToObj(charge -> task.fitPattern(peak, charge)).toArray(IntArrayList[]::new));
+    }
+  }
+
+}
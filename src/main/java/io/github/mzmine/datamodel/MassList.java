@@ -35,4 +35,27 @@ public interface MassList {
   @Nonnull
   public DataPoint[] getDataPoints();
 
+  /**
+   * @return Number of m/z and intensity data points
+   */
+  public default int getNumberOfDataPoints() {
+    return getDataPoints().length;
+  }
+
+  /**
+   * Copies the m/z and intensity values of this mass list, sorted in m/z order, into the given
+   * arrays without creating a DataPoint instance for each ion. Both arrays must have at least
+   * getNumberOfDataPoints() elements.
+   *
+   * @return Number of data points copied into the arrays
+   */
+  public default int getDataPoints(@Nonnull double mzValues[], @Nonnull double intensityValues[]) {
+    final DataPoint dataPoints[] = getDataPoints();
+    for (int i = 0; i < dataPoints.length; i++) {
+      mzValues[i] = dataPoints[i].getMZ();
+      intensityValues[i] = dataPoints[i].getIntensity();
+    }
+    return dataPoints.length;
+  }
+
 }
@@ -21,6 +21,8 @@ package io.github.mzmine.datamodel;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import com.google.common.collect.Range;
+import io.github.mzmine.util.scans.IntensityPyramid;
+import io.github.mzmine.util.scans.MS2PrecursorIndex;
 import java.util.List;
 
 public interface RawDataFile {
@@ -85,6 +87,27 @@ public interface RawDataFile {
    */
   public @Nullable Scan getScan(int scan);
 
+  /**
+   * Index of the MS2 scans of this file by precursor m/z. Implementations should cache the index.
+   *
+   * @return the index, never returns null
+   */
+  @Nonnull
+  public default MS2PrecursorIndex getMS2PrecursorIndex() {
+    return new MS2PrecursorIndex(this);
+  }
+
+  /**
+   * Maximum intensities of the scans of an MS level, in the order of getScanNumbers(msLevel).
+   * Implementations should build the pyramid only once.
+   *
+   * @return the pyramid, never returns null
+   */
+  @Nonnull
+  public default IntensityPyramid getIntensityPyramid(int msLevel) {
+    return new IntensityPyramid(this, msLevel);
+  }
+
   @Nonnull
   public Range<Double> getDataMZRange();
 
@@ -6,7 +6,9 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -19,7 +21,14 @@ import io.github.mzmine.datamodel.data.types.FeaturesType;
 import io.github.mzmine.datamodel.data.types.RawColorType;
 import io.github.mzmine.datamodel.data.types.RawFileType;
 import io.github.mzmine.datamodel.data.types.numbers.IDType;
+import io.github.mzmine.datamodel.data.types.numbers.MZType;
+import io.github.mzmine.datamodel.data.types.numbers.RTType;
+import io.github.mzmine.util.MZRTRangeIndex;
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
+import javafx.beans.property.Property;
 import javafx.collections.FXCollections;
+import javafx.collections.MapChangeListener;
 import javafx.collections.ObservableMap;
 
 public class ModularFeatureList implements PeakList {
@@ -44,6 +53,44 @@ public class ModularFeatureList implements PeakList {
   private Range<Double> mzRange;
   private Range<Float> rtRange;
 
+  // Index for the m/z and RT range queries. Appended rows and changes of the m/z or RT of a row are
+  // indexed incrementally, removing a row invalidates the index.
+  private final MZRTRangeIndex<ModularFeatureListRow> rowIndex =
+      new MZRTRangeIndex<>(row -> toDouble(row.getMZ()), row -> toDouble(row.getRT()));
+  // Observers of the m/z and RT of the rows
+  private final Map<ModularFeatureListRow, RowValuesObserver> rowValuesObservers =
+      new IdentityHashMap<>();
+
+  /**
+   * Notifies the row index when the m/z or RT of a row changes, including m/z and RT properties
+   * that are added to the row after the row was added to this list. The row maps are keyed by the
+   * raw DataType, so the map listener takes any key.
+   */
+  private class RowValuesObserver
+      implements InvalidationListener, MapChangeListener<Object, Property<?>> {
+
+    private final ModularFeatureListRow row;
+
+    private RowValuesObserver(ModularFeatureListRow row) {
+      this.row = row;
+    }
+
+    @Override
+    public void invalidated(Observable observable) {
+      rowIndex.elementChanged(row);
+    }
+
+    @Override
+    public void onChanged(
+        MapChangeListener.Change<? extends Object, ? extends Property<?>> change) {
+      if (change.wasAdded() && change.getKey() instanceof DataType
+          && isIndexedType((DataType<?>) change.getKey())) {
+        change.getValueAdded().addListener(this);
+        rowIndex.elementChanged(row);
+      }
+    }
+  }
+
   public ModularFeatureList(String name) {
     this(name, List.of());
   }
@@ -243,9 +290,52 @@ public class ModularFeatureList implements PeakList {
   public List<ModularFeatureListRow> getRowsInsideScanAndMZRange(Range<Float> rtRange,
       Range<Double> mzRange) {
     // TODO handle if mz or rt is not present
-    return stream().filter(
-        row -> rtRange.contains(row.getRT().getValue()) && mzRange.contains(row.getMZ().getValue()))
-        .collect(Collectors.toList());
+    // The index returns candidates in the bounding box of the ranges, in row order
+    final int candidates[] = rowIndex.getPositionsInside(peakListRows, mzRange, rtRange);
+
+    List<ModularFeatureListRow> rowsInside = new ArrayList<>(candidates.length);
+    for (int position : candidates) {
+      ModularFeatureListRow row = peakListRows.get(position);
+      if (rtRange.contains(row.getRT().getValue()) && mzRange.contains(row.getMZ().getValue()))
+        rowsInside.add(row);
+    }
+    return rowsInside;
+  }
+
+  private static double toDouble(Property<? extends Number> property) {
+    if ((property == null) || (property.getValue() == null))
+      return Double.NaN;
+    return property.getValue().doubleValue();
+  }
+
+  private static boolean isIndexedType(DataType<?> type) {
+    return (type instanceof MZType) || (type instanceof RTType);
+  }
+
+  /**
+   * Observes the m/z and RT of a row, to keep the row index up to date
+   */
+  private void observeRowValues(ModularFeatureListRow row, boolean observe) {
+    final RowValuesObserver observer =
+        observe ? new RowValuesObserver(row) : rowValuesObservers.remove(row);
+    if (observer == null)
+      return;
+    for (Property<?> property : new Property<?>[] {row.getMZ(), row.getRT()}) {
+      if (property == null)
+        continue;
+      if (observe)
+        property.addListener(observer);
+      else
+        property.removeListener(observer);
+    }
+    if (observe) {
+      rowValuesObservers.put(row, observer);
+      row.getMap().addListener((MapChangeListener<Object, Property<?>>) observer);
+    } else {
+      row.getMap().removeListener((MapChangeListener<Object, Property<?>>) observer);
+      // Appended rows are picked up by the index, removed rows are not
+      rowIndex.invalidate();
+    }
   }
 
   @Override
@@ -260,6 +350,7 @@ public class ModularFeatureList implements PeakList {
     peakListRows.add(row);
 
     applyRowBindings(row);
+    observeRowValues(row, true);
 
     // TODO solve with bindings
     // max intensity
@@ -309,7 +400,8 @@ public class ModularFeatureList implements PeakList {
    */
   @Override
   public void removeRow(ModularFeatureListRow row) {
-    peakListRows.remove(row);
+    if (peakListRows.remove(row))
+      observeRowValues(row, false);
     updateMaxIntensity();
   }
 
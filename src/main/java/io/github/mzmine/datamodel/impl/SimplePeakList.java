@@ -18,14 +18,19 @@
 
 package io.github.mzmine.datamodel.impl;
 
+import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Objects;
 import java.util.Vector;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import com.google.common.collect.Range;
@@ -33,7 +38,14 @@ import io.github.mzmine.datamodel.Feature;
 import io.github.mzmine.datamodel.PeakList;
 import io.github.mzmine.datamodel.PeakListRow;
 import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.main.MZmineCore;
+import io.github.mzmine.taskcontrol.AbstractTask;
+import io.github.mzmine.taskcontrol.TaskPriority;
+import io.github.mzmine.taskcontrol.TaskStatus;
+import io.github.mzmine.util.MZRTRangeIndex;
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
 
 /**
@@ -41,6 +53,26 @@ import javafx.collections.ObservableList;
  */
 public class SimplePeakList implements PeakList {
 
+  /**
+   * Loads the rows of a feature list which is opened on demand, see setPendingRows()
+   */
+  public interface RowsLoader {
+
+    /**
+     * Called when the rows are accessed the first time
+     *
+     * @return the rows, in order
+     */
+    List<PeakListRow> loadRows() throws IOException;
+
+    /**
+     * Called instead of loadRows() when the rows are not needed anymore
+     */
+    void release();
+  }
+
+  private final Logger logger = Logger.getLogger(this.getClass().getName());
+
   private String name;
   private ObservableList<RawDataFile> dataFiles = FXCollections.observableArrayList();
   private final ObservableList<PeakListRow> peakListRows = FXCollections.observableArrayList();
@@ -49,6 +81,20 @@ public class SimplePeakList implements PeakList {
   private String dateCreated;
   private Range<Double> mzRange, rtRange;
 
+  // Index for the m/z and RT range queries, updated incrementally when rows are appended or the
+  // values of a row change, and invalidated by any other change of the rows
+  private final MZRTRangeIndex<PeakListRow> rowIndex =
+      new MZRTRangeIndex<>(PeakListRow::getAverageMZ, PeakListRow::getAverageRT);
+
+  // Loads the rows which have not been loaded yet (see setPendingRows()), and the error if they
+  // could not be loaded. The rows added by the JavaFX application thread while the rows are
+  // loaded are queued. Guarded by rowsLock.
+  private final Object rowsLock = new Object();
+  private volatile RowsLoader pendingRows;
+  private volatile Exception rowsLoadingError;
+  private boolean rowsLoadingStarted = false;
+  private final List<PeakListRow> queuedRows = new ArrayList<>();
+
   public static DateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
 
   public SimplePeakList(String name, RawDataFile dataFile) {
@@ -70,6 +116,9 @@ public class SimplePeakList implements PeakList {
 
     dateCreated = dateFormat.format(new Date());
 
+    // The rows may also be modified through getRows()
+    peakListRows.addListener((ListChangeListener<PeakListRow>) rowIndex::listChanged);
+
   }
 
   @Override
@@ -108,6 +157,7 @@ public class SimplePeakList implements PeakList {
    */
   @Override
   public int getNumberOfRows() {
+    loadPendingRows();
     return peakListRows.size();
   }
 
@@ -119,6 +169,7 @@ public class SimplePeakList implements PeakList {
    */
   @Override
   public Feature getPeak(int row, RawDataFile rawDataFile) {
+    loadPendingRows();
     return peakListRows.get(row).getPeak(rawDataFile);
   }
 
@@ -127,6 +178,7 @@ public class SimplePeakList implements PeakList {
    */
   @Override
   public List<Feature> getPeaks(final RawDataFile rawDataFile) {
+    loadPendingRows();
     var result = peakListRows.stream() //
         .map(row -> row.getPeak(rawDataFile)) //
         .filter(Objects::nonNull) //
@@ -139,11 +191,13 @@ public class SimplePeakList implements PeakList {
    */
   @Override
   public PeakListRow getRow(int row) {
+    loadPendingRows();
     return peakListRows.get(row);
   }
 
   @Override
   public ObservableList<PeakListRow> getRows() {
+    loadPendingRows();
     return peakListRows;
   }
 
@@ -161,9 +215,13 @@ public class SimplePeakList implements PeakList {
 
   @Override
   public PeakListRow[] getRowsInsideScanAndMZRange(Range<Double> rtRange, Range<Double> mzRange) {
-    Vector<PeakListRow> rowsInside = new Vector<PeakListRow>();
+    loadPendingRows();
+    // The index returns candidates in the bounding box of the ranges, in row order
+    final int candidates[] = rowIndex.getPositionsInside(peakListRows, mzRange, rtRange);
 
-    for (PeakListRow row : peakListRows) {
+    ArrayList<PeakListRow> rowsInside = new ArrayList<PeakListRow>(candidates.length);
+    for (int position : candidates) {
+      PeakListRow row = peakListRows.get(position);
       if (rtRange.contains(row.getAverageRT()) && mzRange.contains(row.getAverageMZ()))
         rowsInside.add(row);
     }
@@ -171,13 +229,37 @@ public class SimplePeakList implements PeakList {
     return rowsInside.toArray(new PeakListRow[0]);
   }
 
+  /**
+   * Called by the rows of this feature list when their average m/z or RT changes
+   */
+  void rowValuesChanged(PeakListRow row) {
+    rowIndex.elementChanged(row);
+  }
+
   @Override
   public void addRow(PeakListRow row) {
+    loadPendingRows();
+    checkDataFiles(row);
+    synchronized (rowsLock) {
+      // Only the JavaFX application thread continues while the rows are loaded
+      if (pendingRows != null) {
+        queuedRows.add(row);
+        return;
+      }
+    }
+    addLoadedRow(row);
+  }
+
+  private void checkDataFiles(PeakListRow row) {
     for (RawDataFile testFile : row.getRawDataFiles()) {
       if (!dataFiles.contains(testFile))
         throw (new IllegalArgumentException(
             "Data file " + testFile + " is not in this feature list"));
     }
+  }
+
+  private void addLoadedRow(PeakListRow row) {
+    checkDataFiles(row);
 
     peakListRows.add(row);
     if (row.getDataPointMaxIntensity() > maxDataPointIntensity) {
@@ -240,6 +322,13 @@ public class SimplePeakList implements PeakList {
    */
   @Override
   public void removeRow(PeakListRow row) {
+    loadPendingRows();
+    synchronized (rowsLock) {
+      if (pendingRows != null) {
+        queuedRows.remove(row);
+        return;
+      }
+    }
     peakListRows.remove(row);
 
     updateMaxIntensity();
@@ -250,6 +339,7 @@ public class SimplePeakList implements PeakList {
    */
   @Override
   public void removeRow(int rowNum) {
+    loadPendingRows();
     removeRow(peakListRows.get(rowNum));
   }
 
@@ -273,11 +363,13 @@ public class SimplePeakList implements PeakList {
 
   @Override
   public Stream<PeakListRow> stream() {
+    loadPendingRows();
     return peakListRows.stream();
   }
 
   @Override
   public Stream<PeakListRow> parallelStream() {
+    loadPendingRows();
     return peakListRows.parallelStream();
   }
 
@@ -301,6 +393,7 @@ public class SimplePeakList implements PeakList {
    */
   @Override
   public double getDataPointMaxIntensity() {
+    loadPendingRows();
     return maxDataPointIntensity;
   }
 
@@ -311,6 +404,7 @@ public class SimplePeakList implements PeakList {
 
   @Override
   public PeakListRow getPeakRow(Feature peak) {
+    loadPendingRows();
 
     for (PeakListRow row : peakListRows) {
       if (row.hasPeak(peak))
@@ -345,16 +439,166 @@ public class SimplePeakList implements PeakList {
 
   @Override
   public Range<Double> getRowsMZRange() {
+    loadPendingRows();
     updateMaxIntensity(); // Update range before returning value
     return mzRange;
   }
 
   @Override
   public Range<Double> getRowsRTRange() {
+    loadPendingRows();
     updateMaxIntensity(); // Update range before returning value
     return rtRange;
   }
 
+  /**
+   * Defers loading the rows until they are accessed the first time. Used to open projects on
+   * demand.
+   */
+  public void setPendingRows(RowsLoader rowsLoader) {
+    synchronized (rowsLock) {
+      pendingRows = rowsLoader;
+      rowsLoadingStarted = false;
+    }
+  }
+
+  /**
+   * Releases the pending rows without loading them, e.g. when the feature list is removed from the
+   * project. Rows which are already being loaded are still added.
+   */
+  public void releasePendingRows() {
+    final RowsLoader rowsLoader;
+    synchronized (rowsLock) {
+      if ((pendingRows == null) || rowsLoadingStarted)
+        return;
+      rowsLoader = pendingRows;
+      pendingRows = null;
+      rowsLock.notifyAll();
+    }
+    rowsLoader.release();
+  }
+
+  /**
+   * @return the error if the pending rows could not be loaded, otherwise null. Such a feature list
+   *         has no rows, so it must not be saved.
+   */
+  public Exception getRowsLoadingError() {
+    loadPendingRows();
+    return rowsLoadingError;
+  }
+
+  /**
+   * Loads the pending rows, if any. Other threads load the rows or wait until they are loaded. The
+   * JavaFX application thread does not wait, it starts a task loading the rows, which adds them on
+   * the JavaFX application thread when they are loaded.
+   */
+  private void loadPendingRows() {
+    if (pendingRows == null)
+      return;
+    final boolean fxThread = Platform.isFxApplicationThread();
+    final RowsLoader rowsLoader;
+    synchronized (rowsLock) {
+      if (rowsLoadingStarted) {
+        while (!fxThread && (pendingRows != null)) {
+          try {
+            rowsLock.wait();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+          }
+        }
+        return;
+      }
+      rowsLoader = pendingRows;
+      if (rowsLoader == null)
+        return;
+      rowsLoadingStarted = true;
+    }
+    if (fxThread) {
+      MZmineCore.getTaskController().addTask(new RowsLoadingTask(rowsLoader), TaskPriority.HIGH);
+      return;
+    }
+    publishRows(loadRows(rowsLoader));
+  }
+
+  /**
+   * @return the loaded rows, or no rows if they could not be loaded
+   */
+  private List<PeakListRow> loadRows(RowsLoader rowsLoader) {
+    try {
+      final List<PeakListRow> rows = rowsLoader.loadRows();
+      for (PeakListRow row : rows)
+        checkDataFiles(row);
+      return rows;
+    } catch (Exception e) {
+      // Logged only, the task loading the rows shows its errors
+      logger.log(Level.SEVERE, "Could not load the rows of feature list " + name, e);
+      rowsLoadingError = e;
+      return Collections.emptyList();
+    }
+  }
+
+  /**
+   * Adds the loaded rows and then the rows which were queued while they were loaded
+   */
+  private void publishRows(List<PeakListRow> rows) {
+    for (PeakListRow row : rows)
+      row.setPeakList(this);
+    peakListRows.setAll(rows);
+    updateMaxIntensity();
+
+    final List<PeakListRow> addedRows;
+    synchronized (rowsLock) {
+      pendingRows = null;
+      rowsLock.notifyAll();
+      addedRows = new ArrayList<>(queuedRows);
+      queuedRows.clear();
+    }
+    if (addedRows.isEmpty())
+      return;
+    if (Platform.isFxApplicationThread())
+      addedRows.forEach(this::addLoadedRow);
+    else
+      Platform.runLater(() -> addedRows.forEach(this::addLoadedRow));
+  }
+
+  /**
+   * Loads the rows for the JavaFX application thread, which must not wait for them
+   */
+  private class RowsLoadingTask extends AbstractTask {
+
+    private final RowsLoader rowsLoader;
+
+    RowsLoadingTask(RowsLoader rowsLoader) {
+      this.rowsLoader = rowsLoader;
+    }
+
+    @Override
+    public String getTaskDescription() {
+      return "Loading the rows of feature list " + name;
+    }
+
+    @Override
+    public double getFinishedPercentage() {
+      return 0;
+    }
+
+    /**
+     * Not canceled, the rows have to be added or marked as failed. Loading the rows is canceled
+     * through the task of the rows loader.
+     */
+    @Override
+    public void cancel() {}
+
+    @Override
+    public void run() {
+      setStatus(TaskStatus.PROCESSING);
+      final List<PeakListRow> rows = loadRows(rowsLoader);
+      Platform.runLater(() -> publishRows(rows));
+      setStatus(TaskStatus.FINISHED);
+    }
+  }
+
   @Override
   public PeakListRow findRowByID(int id) {
     return stream().filter(r -> r.getID() == id).findFirst().orElse(null);
@@ -176,6 +176,16 @@ public class SimplePeakListRow implements PeakListRow {
     } else {
       rowCharge = 0;
     }
+    notifyPeakList();
+  }
+
+  /**
+   * Notifies the feature list that the average m/z or RT of this row changed, so it can update its
+   * range index
+   */
+  private void notifyPeakList() {
+    if (peakList instanceof SimplePeakList)
+      ((SimplePeakList) peakList).rowValuesChanged(this);
   }
 
   /**
@@ -224,6 +234,7 @@ public class SimplePeakListRow implements PeakListRow {
   @Override
   public void setAverageMZ(double mz) {
     this.averageMZ = mz;
+    notifyPeakList();
   }
 
   /**
@@ -232,6 +243,7 @@ public class SimplePeakListRow implements PeakListRow {
   @Override
   public void setAverageRT(double rt) {
     this.averageRT = rt;
+    notifyPeakList();
   }
 
   /**
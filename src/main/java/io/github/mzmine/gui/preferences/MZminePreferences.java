@@ -82,10 +82,16 @@ public class MZminePreferences extends SimpleParameterSet {
 
   public static final BooleanParameter darkMode = new BooleanParameter("Dark mode", "Enables dark mode throughout MZmine.", false);
   
+  public static final BooleanParameter openProjectsOnDemand = new BooleanParameter(
+      "Open projects on demand",
+      "If checked, opening a project only reads its structure. The scan data of raw data files "
+          + "and the rows of feature lists are loaded when they are accessed the first time.",
+      false);
+
   public MZminePreferences() {
     super(new Parameter[]{mzFormat, rtFormat, intensityFormat, numOfThreads,
         proxySettings, rExecPath, sendStatistics, windowSetttings, sendErrorEMail,
-        stdColorPalette, chartParam});
+        stdColorPalette, chartParam, openProjectsOnDemand});
   }
 
   @Override
@@ -46,6 +46,9 @@ public class BatchModeModule implements MZmineProcessingModule {
   private static final String MODULE_DESCRIPTION =
       "This module allows execution of multiple processing tasks in a batch.";
 
+  // Attribute of the root element of a batch file, enables pipelined processing
+  private static final String PIPELINED_ATTRIBUTE = "pipelined";
+
   @Override
   public @Nonnull String getName() {
     return MODULE_NAME;
@@ -88,6 +91,9 @@ public class BatchModeModule implements MZmineProcessingModule {
       BatchQueue newQueue = BatchQueue.loadFromXml(parsedBatchXML.getDocumentElement());
       ParameterSet parameters = new BatchModeParameters();
       parameters.getParameter(BatchModeParameters.batchQueue).setValue(newQueue);
+      String pipelined = parsedBatchXML.getDocumentElement().getAttribute(PIPELINED_ATTRIBUTE);
+      parameters.getParameter(BatchModeParameters.pipelined)
+          .setValue(Boolean.parseBoolean(pipelined));
       Task batchTask = new BatchTask(project, parameters);
       batchTask.run();
       if (batchTask.getStatus() == TaskStatus.FINISHED)
@@ -22,6 +22,7 @@ import java.util.logging.Logger;
 import io.github.mzmine.parameters.Parameter;
 import io.github.mzmine.parameters.dialogs.ParameterSetupDialog;
 import io.github.mzmine.parameters.impl.SimpleParameterSet;
+import io.github.mzmine.parameters.parametertypes.BooleanParameter;
 import io.github.mzmine.parameters.parametertypes.filenames.FileNameListSilentParameter;
 import io.github.mzmine.util.ExitCode;
 
@@ -33,8 +34,14 @@ public class BatchModeParameters extends SimpleParameterSet {
       new FileNameListSilentParameter("Last used files");
   public static final BatchQueueParameter batchQueue = new BatchQueueParameter();
 
+  public static final BooleanParameter pipelined = new BooleanParameter("Pipelined processing",
+      "Consecutive per-file steps (e.g., mass detection, chromatogram building, smoothing, "
+          + "deconvolution) start for each raw data file as soon as the previous step of this file is finished. "
+          + "Steps which need all files (e.g., alignment, gap filling) wait for all files.",
+      false);
+
   public BatchModeParameters() {
-    super(new Parameter[] {batchQueue, lastFiles});
+    super(new Parameter[] {batchQueue, pipelined, lastFiles});
   }
 
   @Override
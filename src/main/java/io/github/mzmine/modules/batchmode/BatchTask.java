@@ -20,35 +20,69 @@ package io.github.mzmine.modules.batchmode;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 import com.google.common.collect.ImmutableList;
 import io.github.mzmine.datamodel.MZmineProject;
 import io.github.mzmine.datamodel.PeakList;
 import io.github.mzmine.datamodel.RawDataFile;
 import io.github.mzmine.main.MZmineCore;
+import io.github.mzmine.modules.MZmineModuleCategory;
 import io.github.mzmine.modules.MZmineProcessingModule;
 import io.github.mzmine.modules.MZmineProcessingStep;
+import io.github.mzmine.modules.io.rawdataimport.RawDataImportModule;
 import io.github.mzmine.parameters.Parameter;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.parameters.parametertypes.selectors.PeakListsParameter;
 import io.github.mzmine.parameters.parametertypes.selectors.PeakListsSelection;
+import io.github.mzmine.parameters.parametertypes.selectors.PeakListsSelectionType;
 import io.github.mzmine.parameters.parametertypes.selectors.RawDataFilesParameter;
 import io.github.mzmine.parameters.parametertypes.selectors.RawDataFilesSelection;
+import io.github.mzmine.parameters.parametertypes.selectors.RawDataFilesSelectionType;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.Task;
 import io.github.mzmine.taskcontrol.TaskPriority;
 import io.github.mzmine.taskcontrol.TaskStatus;
 import io.github.mzmine.util.ExitCode;
+import javafx.application.Platform;
 
 /**
  * Batch mode task
+ *
+ * In pipelined mode, consecutive per-file steps (see isPerFileStep()) are not run one after the
+ * other for all files. Instead, each raw data file and its feature lists pass through these steps
+ * on their own, so the next step of a file starts as soon as the previous step of the same file is
+ * finished. All other steps, e.g., alignment and gap filling, wait until all files finished the
+ * previous steps. A raw data import directly before per-file steps starts the steps of each file
+ * as soon as the file is imported.
  */
 public class BatchTask extends AbstractTask {
 
   private Logger logger = Logger.getLogger(this.getClass().getName());
 
+  // Modules of these categories process each raw data file or feature list independently and do
+  // not create new raw data files
+  private static final Set<MZmineModuleCategory> PER_FILE_CATEGORIES =
+      EnumSet.of(MZmineModuleCategory.PEAKPICKING, MZmineModuleCategory.PEAKLISTPICKING,
+          MZmineModuleCategory.ISOTOPES, MZmineModuleCategory.SPECTRALDECONVOLUTION);
+
   private int totalSteps, processedSteps;
+  private final boolean pipelined;
+
+  // Progress of the current pipelined segment of steps, in steps
+  private volatile double segmentProgress;
+
+  // Number of requested and completed flushes of the JavaFX event queue, see requestFxFlush()
+  private int requestedFxFlushes;
+  private volatile int completedFxFlushes;
+
+  // Number of task status changes and FX flushes, guarded by this
+  private int wakeUps;
 
   private MZmineProject project;
   private final BatchQueue queue;
@@ -59,6 +93,7 @@ public class BatchTask extends AbstractTask {
   BatchTask(MZmineProject project, ParameterSet parameters) {
     this.project = project;
     this.queue = parameters.getParameter(BatchModeParameters.batchQueue).getValue();
+    this.pipelined = parameters.getParameter(BatchModeParameters.pipelined).getValue();
     totalSteps = queue.size();
     createdDataFiles = new ArrayList<>();
     createdPeakLists = new ArrayList<>();
@@ -75,10 +110,19 @@ public class BatchTask extends AbstractTask {
 
 
     // Process individual batch steps
-    for (int i = 0; i < totalSteps; i++) {
-
-      processQueueStep(i);
-      processedSteps++;
+    for (int i = 0; i < totalSteps;) {
+
+      // Pipelined processing of the following per-file steps
+      int lastStep = pipelined ? getLastPipelinedStep(i) : i - 1;
+      if (lastStep >= i && processPipelinedSteps(i, lastStep)) {
+        processedSteps = lastStep + 1;
+        segmentProgress = 0;
+        i = lastStep + 1;
+      } else {
+        processQueueStep(i);
+        processedSteps++;
+        i++;
+      }
 
       // If we are canceled or ran into error, stop here
       if (isCanceled() || (getStatus() == TaskStatus.ERROR)) {
@@ -237,6 +281,353 @@ public class BatchTask extends AbstractTask {
 
   }
 
+  /**
+   * Per-file steps can be pipelined if their module processes each file independently and if they
+   * only use the raw data files and feature lists created by the previous batch step
+   */
+  private boolean isPerFileStep(MZmineProcessingStep<MZmineProcessingModule> step) {
+
+    if (!PER_FILE_CATEGORIES.contains(step.getModule().getModuleCategory()))
+      return false;
+
+    boolean usesBatchLast = false;
+    for (Parameter<?> p : step.getParameterSet().getParameters()) {
+      if (p instanceof RawDataFilesParameter) {
+        RawDataFilesSelection selection = ((RawDataFilesParameter) p).getValue();
+        if (selection == null
+            || selection.getSelectionType() != RawDataFilesSelectionType.BATCH_LAST_FILES)
+          return false;
+        usesBatchLast = true;
+      }
+      if (p instanceof PeakListsParameter) {
+        PeakListsSelection selection = ((PeakListsParameter) p).getValue();
+        if (selection == null
+            || selection.getSelectionType() != PeakListsSelectionType.BATCH_LAST_PEAKLISTS)
+          return false;
+        usesBatchLast = true;
+      }
+    }
+    return usesBatchLast;
+  }
+
+  /**
+   * The last of the per-file steps starting at firstStep (optionally with a raw data import before
+   * them), or firstStep - 1 if there are no such steps
+   */
+  private int getLastPipelinedStep(int firstStep) {
+    int step = firstStep;
+    if (queue.get(step).getModule() instanceof RawDataImportModule)
+      step++;
+    int lastStep = step - 1;
+    while (step < totalSteps && isPerFileStep(queue.get(step))) {
+      lastStep = step;
+      step++;
+    }
+    // A raw data import alone is processed as usual
+    if (lastStep == firstStep)
+      return firstStep - 1;
+    return lastStep;
+  }
+
+  /**
+   * Raw data file and feature lists which pass through the per-file steps together
+   */
+  private static class Lane {
+
+    private final RawDataFile dataFile;
+    // Feature lists created by the previous step of this file
+    private List<PeakList> peakLists = new ArrayList<>();
+    // Queue index of the current step
+    private int step;
+    private List<Task> tasks = new ArrayList<>();
+    private Set<PeakList> peakListsBefore;
+    // FX flush which has to complete before the results of the current step are collected, or -1
+    private int fxFlush = -1;
+    private boolean finished;
+
+    private Lane(RawDataFile dataFile) {
+      this.dataFile = dataFile;
+    }
+  }
+
+  /**
+   * Processes steps firstStep ... lastStep in pipelined mode
+   *
+   * @return false if the steps cannot be pipelined, because the feature lists of the previous step
+   *         do not belong to single raw data files
+   */
+  private boolean processPipelinedSteps(int firstStep, int lastStep) {
+
+    final boolean importFirst = queue.get(firstStep).getModule() instanceof RawDataImportModule;
+    final int firstPerFileStep = importFirst ? firstStep + 1 : firstStep;
+
+    // Lanes of the files and feature lists created by the previous step
+    final Map<RawDataFile, Lane> lanes = new LinkedHashMap<>();
+    if (!importFirst) {
+      List<RawDataFile> lastDataFiles =
+          createdDataFiles.isEmpty() ? previousCreatedDataFiles : createdDataFiles;
+      List<PeakList> lastPeakLists =
+          createdPeakLists.isEmpty() ? previousCreatedPeakLists : createdPeakLists;
+      for (PeakList peakList : lastPeakLists) {
+        if (peakList.getNumberOfRawDataFiles() != 1)
+          return false;
+      }
+      for (RawDataFile dataFile : lastDataFiles)
+        lanes.put(dataFile, new Lane(dataFile));
+      for (PeakList peakList : lastPeakLists)
+        lanes.computeIfAbsent(peakList.getRawDataFile(0), Lane::new).peakLists.add(peakList);
+    }
+
+    logger.info("Starting pipelined steps # " + (firstStep + 1) + " - " + (lastStep + 1));
+
+    // The raw data import creates the lanes while the files are imported
+    List<Task> importTasks = new ArrayList<>();
+    final Set<RawDataFile> dataFilesBefore = new HashSet<>(project.getRawDataFiles());
+    int importFxFlush = -1, importFinishedTasks = 0;
+    if (importFirst) {
+      importTasks = startStep(queue.get(firstStep).getModule(),
+          queue.get(firstStep).getParameterSet());
+      if (importTasks == null)
+        return true;
+    }
+
+    for (Lane lane : lanes.values()) {
+      lane.step = firstPerFileStep;
+      if (!startLaneStep(lane))
+        return true;
+    }
+
+    while (true) {
+
+      final int seenWakeUps;
+      synchronized (this) {
+        seenWakeUps = wakeUps;
+      }
+
+      // If we canceled the batch, cancel all running tasks
+      if (isCanceled()) {
+        cancelTasks(importTasks, lanes);
+        return true;
+      }
+
+      // New imported files
+      if (importFirst && importFxFlush >= 0 && completedFxFlushes >= importFxFlush) {
+        importFxFlush = -1;
+        for (RawDataFile dataFile : project.getDataFiles()) {
+          if (dataFilesBefore.contains(dataFile) || lanes.containsKey(dataFile))
+            continue;
+          Lane lane = new Lane(dataFile);
+          lane.step = firstPerFileStep;
+          lanes.put(dataFile, lane);
+          if (!startLaneStep(lane)) {
+            cancelTasks(importTasks, lanes);
+            return true;
+          }
+        }
+      }
+      if (!checkTasks(importTasks)) {
+        cancelTasks(importTasks, lanes);
+        return true;
+      }
+      final int finishedImportTasks =
+          (int) importTasks.stream().filter(t -> t.getStatus() == TaskStatus.FINISHED).count();
+      if (finishedImportTasks > importFinishedTasks && importFxFlush < 0) {
+        // The imported files are added to the project on the JavaFX thread
+        importFinishedTasks = finishedImportTasks;
+        importFxFlush = requestFxFlush();
+      }
+      final boolean importFinished =
+          importFinishedTasks == importTasks.size() && importFxFlush < 0;
+
+      // Next steps of the lanes
+      int processedLaneSteps = 0;
+      boolean allLanesFinished = true;
+      for (Lane lane : lanes.values()) {
+        if (!lane.finished && !checkTasks(lane.tasks)) {
+          cancelTasks(importTasks, lanes);
+          return true;
+        }
+        if (!lane.finished && lane.fxFlush < 0
+            && lane.tasks.stream().allMatch(t -> t.getStatus() == TaskStatus.FINISHED)) {
+          // The created feature lists are added to the project on the JavaFX thread
+          lane.fxFlush = requestFxFlush();
+        }
+        if (!lane.finished && lane.fxFlush >= 0 && completedFxFlushes >= lane.fxFlush) {
+          finishLaneStep(lane);
+          lane.step++;
+          if (lane.step > lastStep)
+            lane.finished = true;
+          else if (!startLaneStep(lane)) {
+            cancelTasks(importTasks, lanes);
+            return true;
+          }
+        }
+        processedLaneSteps += lane.step - firstPerFileStep;
+        allLanesFinished &= lane.finished;
+      }
+
+      if (!lanes.isEmpty())
+        segmentProgress =
+            (importFirst && importFinished ? 1 : 0) + (double) processedLaneSteps / lanes.size();
+
+      if (importFinished && allLanesFinished)
+        break;
+
+      // Wait until a task changed its status, at most 1s
+      synchronized (this) {
+        if (wakeUps == seenWakeUps) {
+          try {
+            this.wait(1000);
+          } catch (InterruptedException e) {
+            // ignore
+          }
+        }
+      }
+    }
+
+    // The files and feature lists of all lanes are the results of the last step
+    createdDataFiles = new ArrayList<>(lanes.keySet());
+    createdPeakLists = new ArrayList<>();
+    for (Lane lane : lanes.values())
+      createdPeakLists.addAll(lane.peakLists);
+    if (!createdDataFiles.isEmpty())
+      previousCreatedDataFiles = createdDataFiles;
+    if (!createdPeakLists.isEmpty())
+      previousCreatedPeakLists = createdPeakLists;
+
+    logger.info("Finished pipelined steps # " + (firstStep + 1) + " - " + (lastStep + 1) + " for "
+        + lanes.size() + " files");
+    return true;
+  }
+
+  /**
+   * Runs the current step of a lane with its raw data file and feature lists
+   *
+   * @return false if the step could not be started
+   */
+  private boolean startLaneStep(Lane lane) {
+
+    MZmineProcessingStep<MZmineProcessingModule> currentStep = queue.get(lane.step);
+    ParameterSet stepParameters = currentStep.getParameterSet().cloneParameterSet();
+    for (Parameter<?> p : stepParameters.getParameters()) {
+      if (p instanceof RawDataFilesParameter)
+        ((RawDataFilesParameter) p).getValue()
+            .setBatchLastFiles(new RawDataFile[] {lane.dataFile});
+      if (p instanceof PeakListsParameter)
+        ((PeakListsParameter) p).getValue()
+            .setBatchLastPeakLists(lane.peakLists.toArray(new PeakList[0]));
+    }
+
+    lane.peakListsBefore = new HashSet<>(Arrays.asList(project.getPeakLists(lane.dataFile)));
+    lane.fxFlush = -1;
+    lane.tasks = startStep(currentStep.getModule(), stepParameters);
+    return lane.tasks != null;
+  }
+
+  /**
+   * Collects the feature lists created by the current step of a lane
+   */
+  private void finishLaneStep(Lane lane) {
+    List<PeakList> newPeakLists = new ArrayList<>();
+    for (PeakList peakList : project.getPeakLists(lane.dataFile)) {
+      if (!lane.peakListsBefore.contains(peakList))
+        newPeakLists.add(peakList);
+    }
+    // If the step did not produce any feature lists, use the ones from the previous step
+    if (!newPeakLists.isEmpty())
+      lane.peakLists = newPeakLists;
+    lane.tasks = new ArrayList<>();
+  }
+
+  /**
+   * Checks the parameters, runs the module and submits its tasks
+   *
+   * @return the submitted tasks, or null if the module could not be started
+   */
+  private List<Task> startStep(MZmineProcessingModule method, ParameterSet stepParameters) {
+
+    ArrayList<String> messages = new ArrayList<String>();
+    if (!stepParameters.checkParameterValues(messages)) {
+      setStatus(TaskStatus.ERROR);
+      setErrorMessage("Invalid parameter settings for module " + method.getName() + ": "
+          + Arrays.toString(messages.toArray()));
+      return null;
+    }
+
+    ArrayList<Task> stepTasks = new ArrayList<Task>();
+    ExitCode exitCode = method.runModule(project, stepParameters, stepTasks);
+    if (exitCode != ExitCode.OK) {
+      setStatus(TaskStatus.ERROR);
+      setErrorMessage("Could not start batch step " + method.getName());
+      return null;
+    }
+
+    // Wake up the batch when a task changed its status
+    for (Task stepTask : stepTasks) {
+      if (stepTask instanceof AbstractTask)
+        ((AbstractTask) stepTask).addTaskStatusListener((task, newStatus, oldStatus) -> wakeUp());
+    }
+
+    if (!stepTasks.isEmpty())
+      MZmineCore.getTaskController().addTasks(stepTasks.toArray(new Task[0]));
+    return stepTasks;
+  }
+
+  /**
+   * Stops the batch if one of the tasks ran into an error or was canceled
+   *
+   * @return false if the batch was stopped
+   */
+  private boolean checkTasks(List<Task> tasks) {
+    for (Task stepTask : tasks) {
+      TaskStatus stepStatus = stepTask.getStatus();
+
+      // If there was an error, we have to stop the whole batch
+      if (stepStatus == TaskStatus.ERROR) {
+        setStatus(TaskStatus.ERROR);
+        setErrorMessage(stepTask.getTaskDescription() + ": " + stepTask.getErrorMessage());
+        return false;
+      }
+
+      // If user canceled any of the tasks, we have to cancel the whole batch
+      if (stepStatus == TaskStatus.CANCELED) {
+        setStatus(TaskStatus.CANCELED);
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void cancelTasks(List<Task> importTasks, Map<RawDataFile, Lane> lanes) {
+    for (Task t : importTasks)
+      t.cancel();
+    for (Lane lane : lanes.values()) {
+      for (Task t : lane.tasks)
+        t.cancel();
+    }
+  }
+
+  /**
+   * Results of finished tasks (raw data files, feature lists) are added to the project on the
+   * JavaFX thread. The returned number is reached by completedFxFlushes after all events that were
+   * queued before this call have been processed.
+   */
+  private int requestFxFlush() {
+    final int flush = ++requestedFxFlushes;
+    Platform.runLater(() -> {
+      completedFxFlushes = flush;
+      wakeUp();
+    });
+    return flush;
+  }
+
+  private void wakeUp() {
+    synchronized (this) {
+      wakeUps++;
+      this.notifyAll();
+    }
+  }
+
   @Override
   public TaskPriority getTaskPriority() {
     // to not block mzmine when run with single thread
@@ -247,7 +638,7 @@ public class BatchTask extends AbstractTask {
   public double getFinishedPercentage() {
     if (totalSteps == 0)
       return 0;
-    return (double) processedSteps / totalSteps;
+    return (processedSteps + segmentProgress) / totalSteps;
   }
 
   @Override
@@ -20,7 +20,7 @@ package io.github.mzmine.modules.dataprocessing.align_hierarchical;
 
 public class ClusteringProgression {
 
-  private double progress = 0d;
+  private volatile double progress = 0d;
 
   public void setProgress(double value) {
     progress = value;
@@ -107,6 +107,13 @@ public class HierarAlignerGCParameters extends SimpleParameterSet {
       "RT tolerance post-recalibration",
       "Ignored if \"Use RT recalibration\" is unchecked. Maximum allowed difference between two RT values after RT recalibration");
 
+  public static final BooleanParameter useSparseMatrix = new BooleanParameter(
+      "Sparse distance matrix",
+      "If checked, only the distances of rows inside the m/z and RT tolerance are calculated and stored."
+          + " Each group of connected rows is clustered separately. Requires much less memory for many"
+          + " feature lists. The aligned rows are the same, but their order may differ.",
+      false);
+
   public static final BooleanParameter exportDendrogramTxt =
       new BooleanParameter("Export dendrogram as TXT/CDT",
           "If checked, exports the clustering resulting dendrogram to the given TXT file.", false);
@@ -138,7 +145,7 @@ public class HierarAlignerGCParameters extends SimpleParameterSet {
         //// saveRAMratherThanCPU_1, saveRAMratherThanCPU_2,
         linkageStartegyType_0,
         // hybrid_K_value,
-        peakListName, MZTolerance, MZWeight, RTTolerance, RTWeight, minScore,
+        peakListName, MZTolerance, MZWeight, RTTolerance, RTWeight, minScore, useSparseMatrix,
         // useKnownCompoundsAsRef,
         // useDetectedMzOnly,
         // RTToleranceAfter,
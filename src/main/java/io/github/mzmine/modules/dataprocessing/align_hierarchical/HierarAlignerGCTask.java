@@ -31,7 +31,9 @@ import java.util.Hashtable;
 import java.util.List;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 import org.gnf.clustering.DataSource;
 import org.gnf.clustering.DistanceMatrix;
 import org.gnf.clustering.FloatSource1D;
@@ -88,6 +90,8 @@ public class HierarAlignerGCTask extends AbstractTask {
   // private boolean useDetectedMzOnly;
   // private RTTolerance rtToleranceAfter;
 
+  private boolean useSparseMatrix;
+
   private boolean exportDendrogramAsTxt;
   private File dendrogramTxtFilename;
 
@@ -117,6 +121,7 @@ public class HierarAlignerGCTask extends AbstractTask {
   public static final boolean USE_DOUBLE_PRECISION_FOR_DIST = false;
 
   private ClusteringProgression clustProgress;
+  private ClusteringProgression distancesProgress;
 
   // Minimum score ever.
   // TODO: better use "Double.MIN_VALUE" rather than zero (it has consequences
@@ -125,6 +130,9 @@ public class HierarAlignerGCTask extends AbstractTask {
   //// public static final double MIN_SCORE_ABSOLUTE = Double.MIN_VALUE;
   public static final double MIN_SCORE_ABSOLUTE = 0.0;
 
+  // Number of rows and columns of the distance matrix blocks which are computed in parallel
+  private static final int DISTANCE_BLOCK_SIZE = 256;
+
   HierarAlignerGCTask(MZmineProject project, ParameterSet parameters) {
 
     this.project = project;
@@ -163,6 +171,9 @@ public class HierarAlignerGCTask extends AbstractTask {
     // useApex = true;
     // ***
 
+    useSparseMatrix =
+        parameters.getParameter(HierarAlignerGCParameters.useSparseMatrix).getValue();
+
     exportDendrogramAsTxt =
         parameters.getParameter(HierarAlignerGCParameters.exportDendrogramTxt).getValue();
     dendrogramTxtFilename =
@@ -210,6 +221,7 @@ public class HierarAlignerGCTask extends AbstractTask {
 
     //
     clustProgress = new ClusteringProgression();
+    distancesProgress = new ClusteringProgression();
   }
 
   /**
@@ -228,8 +240,9 @@ public class HierarAlignerGCTask extends AbstractTask {
     if (totalRows == 0)
       return 0f;
     // return (double) processedRows / (double) totalRows;
-    double progress =
-        (processedRows + (clustProgress.getProgress() * totalRows / 3.0d)) / totalRows;
+    double progress = (processedRows
+        + ((distancesProgress.getProgress() + clustProgress.getProgress()) * totalRows / 3.0d))
+        / totalRows;
     // logger.info(">> THE progress: " + progress);
     // logger.info("Caught progress: " +
     // clustProgress.getProgress());
@@ -317,6 +330,7 @@ public class HierarAlignerGCTask extends AbstractTask {
     // TriangularMatrix distances = null;
     DistanceMatrix distancesGNF_Tri = null;
     DistanceMatrix distancesGNF_Tri_Bkp = null;
+    SparseDistanceMatrix distancesSparse = null;
 
     int nbPeaks = 0;
     for (int i = 0; i < newIds.length; ++i) {
@@ -325,7 +339,8 @@ public class HierarAlignerGCTask extends AbstractTask {
     }
 
     // If 'Hybrid' or no distance matrix: no need for a matrix
-    if (CLUSTERER_TYPE == ClustererType.HYBRID || !saveRAMratherThanCPU_1) {
+    if (!useSparseMatrix
+        && (CLUSTERER_TYPE == ClustererType.HYBRID || !saveRAMratherThanCPU_1)) {
       // distances = new double[nbPeaks][nbPeaks];
 
       int nRowCount = nbPeaks;
@@ -356,30 +371,22 @@ public class HierarAlignerGCTask extends AbstractTask {
         // rtToleranceAfter,
         maximumScore);
 
-    // If 'Hybrid' or no distance matrix: no need for a matrix
-    if (CLUSTERER_TYPE == ClustererType.HYBRID || !saveRAMratherThanCPU_1) {
-
-      for (int x = 0; x < nbPeaks; ++x) {
-
-        for (int y = x; y < nbPeaks; ++y) {
-
-          float dist = (float) distProvider.getRankedDistance(x, y, mzTolerance.getMzTolerance(),
-              rtTolerance.getTolerance(), minScore);
-
-          // if (CLUSTERER_TYPE == ClustererType.CLASSIC_OLD)
-          // distances.set(x, y , dist);
-          // else
-          distancesGNF_Tri.setValue(x, y, dist);
+    if (useSparseMatrix) {
 
-        }
+      // Only the distances of rows inside the tolerance windows are calculated
+      distancesSparse = new SparseDistanceMatrix(distProvider, nbPeaks,
+          mzTolerance.getMzTolerance(), rtTolerance.getTolerance(), minScore, distancesProgress);
+      if (DEBUG)
+        logger.info("Stored distances: " + distancesSparse.getNumberOfStoredValues());
 
-        processedRows++;
-        if (DEBUG)
-          logger.info(
-              "Treating lists: " + (Math.round(100 * processedRows / (double) nbPeaks)) + " %");
+    }
+    // If 'Hybrid' or no distance matrix: no need for a matrix
+    else if (CLUSTERER_TYPE == ClustererType.HYBRID || !saveRAMratherThanCPU_1) {
 
-      }
+      computeDistances(distProvider, distancesGNF_Tri, nbPeaks);
     }
+    if (isCanceled())
+      return;
     if (DEBUG)
       printMemoryUsage(logger, run_time, prevTotal, prevFree, "DISTANCES COMPUTED");
 
@@ -430,7 +437,10 @@ public class HierarAlignerGCTask extends AbstractTask {
       if (DEBUG_2)
         logger.info(distancesGNF_Tri.toString());
 
-      if (saveRAMratherThanCPU_2) { // Requires: distances values will be
+      if (useSparseMatrix) { // The sparse matrix is not changed by the
+                             // clustering, use it to validate the clusters
+        distancesGNF_Tri_Bkp = distancesSparse;
+      } else if (saveRAMratherThanCPU_2) { // Requires: distances values will be
                                     // recomputed on demand during
                                     // "getValidatedClusters_3()"
         distancesGNF_Tri_Bkp = null; // No duplicate backup storage!
@@ -444,7 +454,11 @@ public class HierarAlignerGCTask extends AbstractTask {
 
       if (DEBUG)
         logger.info("Clustering...");
-      if (distancesGNF_Tri != null)
+      if (useSparseMatrix) {
+        arNodes = clusterConnectedRows(distancesSparse);
+        if (arNodes == null)
+          return;
+      } else if (distancesGNF_Tri != null)
         arNodes = org.gnf.clustering.sequentialcache.SequentialCacheClustering
             .clusterDM(distancesGNF_Tri, linkageStartegyType, null, nRowCount);
 
@@ -672,6 +686,129 @@ public class HierarAlignerGCTask extends AbstractTask {
 
   }
 
+  /**
+   * Fills the upper triangle of the distance matrix in parallel. The matrix is split into square
+   * blocks of DISTANCE_BLOCK_SIZE rows, so each thread works on a small range of rows and columns at
+   * a time. Every block writes distinct matrix elements.
+   */
+  private void computeDistances(RowVsRowDistanceProvider distProvider, DistanceMatrix distances,
+      int nbPeaks) {
+
+    final double mzMaxDiff = mzTolerance.getMzTolerance();
+    final double rtMaxDiff = rtTolerance.getTolerance();
+    final int nbBlocks = (nbPeaks + DISTANCE_BLOCK_SIZE - 1) / DISTANCE_BLOCK_SIZE;
+    final long nbBlockPairs = (long) nbBlocks * (nbBlocks + 1) / 2;
+    final AtomicInteger processedBlockPairs = new AtomicInteger(0);
+
+    IntStream.range(0, (int) nbBlockPairs).parallel().forEach(blockPair -> {
+
+      if (isCanceled())
+        return;
+
+      // Block pair number -> (blockX, blockY) with blockX <= blockY
+      int blockX = 0, firstPairOfRow = 0;
+      while (firstPairOfRow + (nbBlocks - blockX) <= blockPair) {
+        firstPairOfRow += nbBlocks - blockX;
+        blockX++;
+      }
+      final int blockY = blockX + (blockPair - firstPairOfRow);
+
+      final int xStart = blockX * DISTANCE_BLOCK_SIZE;
+      final int xEnd = Math.min(xStart + DISTANCE_BLOCK_SIZE, nbPeaks);
+      final int yStart = blockY * DISTANCE_BLOCK_SIZE;
+      final int yEnd = Math.min(yStart + DISTANCE_BLOCK_SIZE, nbPeaks);
+
+      for (int x = xStart; x < xEnd; ++x) {
+        for (int y = Math.max(x, yStart); y < yEnd; ++y) {
+          float dist = (float) distProvider.getRankedDistance(x, y, mzMaxDiff, rtMaxDiff, minScore);
+          distances.setValue(x, y, dist);
+        }
+      }
+
+      distancesProgress
+          .setProgress((double) processedBlockPairs.incrementAndGet() / nbBlockPairs);
+    });
+  }
+
+  /**
+   * Clusters each connected component of the sparse distance matrix separately, using a dense
+   * distance matrix of the component. Rows of different components are too far apart to be
+   * aligned, so the validated clusters are the same as for the dense matrix of all rows. The trees
+   * of the components are joined at the largest distance into one tree over all rows, using the
+   * same node numbering as SequentialCacheClustering (leaves >= 0, nodes < 0).
+   *
+   * @return the tree nodes, or null if the task was canceled or failed
+   */
+  private org.gnf.clustering.Node[] clusterConnectedRows(SparseDistanceMatrix distances) {
+
+    final int nRowCount = distances.getRowCount();
+    org.gnf.clustering.Node[] arNodes = new org.gnf.clustering.Node[Math.max(0, nRowCount - 1)];
+    int nNodes = 0;
+    int root = 0;
+    boolean first = true;
+
+    for (int[] component : distances.getConnectedComponents()) {
+
+      if (isCanceled())
+        return null;
+
+      int componentRoot;
+      if (component.length == 1) {
+        componentRoot = component[0];
+      } else {
+
+        if (component.length > org.gnf.clustering.Utils.MTX_LENGTHS.length) {
+          setStatus(TaskStatus.ERROR);
+          setErrorMessage("Cannot run alignment, " + component.length
+              + " rows are connected within the m/z and RT tolerance (maximum is "
+              + org.gnf.clustering.Utils.MTX_LENGTHS.length + "). Try smaller tolerances.");
+          return null;
+        }
+
+        DistanceMatrix componentDistances = new DistanceMatrixTriangular1D2D(component.length);
+        for (int x = 0; x < component.length; ++x) {
+          for (int y = x; y < component.length; ++y) {
+            componentDistances.setValue(x, y, distances.getValue(component[x], component[y]));
+          }
+        }
+
+        org.gnf.clustering.Node[] componentNodes =
+            org.gnf.clustering.sequentialcache.SequentialCacheClustering
+                .clusterDM(componentDistances, linkageStartegyType, null, component.length);
+
+        // Map the leaves to the rows and the nodes to their position in the tree of all rows
+        final int firstNode = nNodes;
+        for (org.gnf.clustering.Node componentNode : componentNodes) {
+          org.gnf.clustering.Node node = new org.gnf.clustering.Node(
+              getGlobalNodeRef(componentNode.m_nLeft, component, firstNode),
+              getGlobalNodeRef(componentNode.m_nRight, component, firstNode), 0f);
+          node.m_fDistance = componentNode.m_fDistance;
+          arNodes[nNodes++] = node;
+        }
+        componentRoot = -nNodes;
+      }
+
+      processedRows += component.length;
+
+      if (first) {
+        root = componentRoot;
+        first = false;
+      } else {
+        arNodes[nNodes++] = new org.gnf.clustering.Node(root, componentRoot,
+            (float) RowVsRowDistanceProvider.SAME_FILE_DISTANCE);
+        root = -nNodes;
+      }
+    }
+
+    return arNodes;
+  }
+
+  private static int getGlobalNodeRef(int nodeRef, int component[], int firstNode) {
+    if (nodeRef >= 0)
+      return component[nodeRef];
+    return -(firstNode + (-nodeRef - 1)) - 1;
+  }
+
   /**
    * Two clusters can be merged if and only if: - The resulting merged cluster: (their parent)
    * doesn't exceed 'level' leaves - The distance between them two is acceptable (close enough)
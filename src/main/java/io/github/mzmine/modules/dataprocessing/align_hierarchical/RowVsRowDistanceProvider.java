@@ -18,14 +18,23 @@
 
 package io.github.mzmine.modules.dataprocessing.align_hierarchical;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import io.github.mzmine.datamodel.Feature;
 import io.github.mzmine.datamodel.MZmineProject;
 import io.github.mzmine.datamodel.PeakListRow;
+import io.github.mzmine.datamodel.RawDataFile;
 import io.github.mzmine.modules.dataprocessing.align_hierarchical.RowVsRowScoreGC;
 
 public class RowVsRowDistanceProvider {
 
+  // Distances of rows which can not be aligned
+  public static final double SAME_FILE_DISTANCE = 1000.0d;
+  public static final double OUT_OF_TOLERANCE_DISTANCE = 100.0d;
+  public static final double LOW_SCORE_DISTANCE = 10.0d;
+
   MZmineProject project;
   // boolean useOldestRDFancestor;
   // Hashtable<RawDataFile, List<double[]>> rtAdjustementMapping;
@@ -39,6 +48,11 @@ public class RowVsRowDistanceProvider {
 
   double maximumScore;
 
+  // m/z and RT of the best peak and index of the (first) raw data file of each row, extracted once
+  // so the tolerance checks do not need to access the rows
+  private final double bestPeakMZ[], bestPeakRT[];
+  private final int fileIndex[];
+
   public RowVsRowDistanceProvider(MZmineProject project,
       // boolean useOldestRDFancestor,
       // Hashtable<RawDataFile, List<double[]>> rtAdjustementMapping,
@@ -60,6 +74,37 @@ public class RowVsRowDistanceProvider {
 
     this.maximumScore = maximumScore;
 
+    final int nRows = full_rows_list.size();
+    bestPeakMZ = new double[nRows];
+    bestPeakRT = new double[nRows];
+    fileIndex = new int[nRows];
+    Map<RawDataFile, Integer> fileIndices = new HashMap<>();
+    for (int i = 0; i < nRows; i++) {
+      PeakListRow row = full_rows_list.get(i);
+      Feature bestPeak = row.getBestPeak();
+      bestPeakMZ[i] = bestPeak.getMZ();
+      bestPeakRT[i] = bestPeak.getRT();
+      RawDataFile dataFile = row.getRawDataFiles()[0];
+      Integer index = fileIndices.get(dataFile);
+      if (index == null) {
+        index = fileIndices.size();
+        fileIndices.put(dataFile, index);
+      }
+      fileIndex[i] = index;
+    }
+
+  }
+
+  public double getBestPeakMZ(int i) {
+    return bestPeakMZ[i];
+  }
+
+  /**
+   * Index of the (first) raw data file of a row. Rows of the same raw data file have the same
+   * index.
+   */
+  public int getFileIndex(int i) {
+    return fileIndex[i];
   }
 
   public RowVsRowScoreGC getScore(int row_id, int aligned_row_id, double mzMaxDiff,
@@ -112,36 +157,14 @@ public class RowVsRowDistanceProvider {
     // aligned_row_id = tmp;
     // }
 
-    PeakListRow row = full_rows_list.get(i);
-    PeakListRow k_row = full_rows_list.get(j);
-
-    // System.out.println("(2) Rows: (" + i + "," + j + ")" + row + " | " +
-    // k_row);
-
-    // // Same list
-    // if ((row_id < 45 && aligned_row_id < 45)
-    // || (row_id >= 45 && aligned_row_id >= 45 && row_id < 102 &&
-    // aligned_row_id < 102)
-    // || (row_id >= 102 && aligned_row_id >= 102)) {
-    if (row.getRawDataFiles()[0] == k_row.getRawDataFiles()[0]) {
-      return 1000.0d;
+    if (fileIndex[i] == fileIndex[j]) {
+      return SAME_FILE_DISTANCE;
     }
     // Not candidate
     else {
-      // System.out.println("(2) CaseRT: " +
-      // Math.abs(row.getBestPeak().getRT() - k_row.getBestPeak().getRT())
-      // + " >= " + rtMaxDiff/2.0 + "? " +
-      // (Math.abs(row.getBestPeak().getRT() -
-      // k_row.getBestPeak().getRT()) >= rtMaxDiff/2.0));
-      // System.out.println("(2) CaseMZ: " +
-      // Math.abs(row.getBestPeak().getMZ() - k_row.getBestPeak().getMZ())
-      // + " >= " + mzMaxDiff/2.0 + "? " +
-      // (Math.abs(row.getBestPeak().getMZ() -
-      // k_row.getBestPeak().getMZ()) >= mzMaxDiff/2.0));
-      if ((Math.abs(row.getBestPeak().getRT() - k_row.getBestPeak().getRT()) >= rtMaxDiff / 2.0
-          || Math.abs(row.getBestPeak().getMZ() - k_row.getBestPeak().getMZ()) >= mzMaxDiff
-              / 2.0)) {
-        return 100.0d;
+      if ((Math.abs(bestPeakRT[i] - bestPeakRT[j]) >= rtMaxDiff / 2.0
+          || Math.abs(bestPeakMZ[i] - bestPeakMZ[j]) >= mzMaxDiff / 2.0)) {
+        return OUT_OF_TOLERANCE_DISTANCE;
       }
     }
 
@@ -152,7 +175,7 @@ public class RowVsRowDistanceProvider {
       // Math.max(JDXCompoundsIdentificationSingleTask.MIN_SCORE_ABSOLUTE,
       // minScore) + "!");
       // System.out.println("(2) Final dist: " + 10.0f);
-      return 10.0d;
+      return LOW_SCORE_DISTANCE;
     }
 
     // Score OK
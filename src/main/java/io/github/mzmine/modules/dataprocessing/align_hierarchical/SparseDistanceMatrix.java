@@ -0,0 +1,270 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.dataprocessing.align_hierarchical;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import org.gnf.clustering.DistanceMatrix;
+import it.unimi.dsi.fastutil.floats.FloatArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import io.github.mzmine.util.ArrayUtils;
+
+/**
+ * Distance matrix which only stores the distances of row pairs inside the m/z tolerance window.
+ * All other pairs have the same distance in the dense matrix: SAME_FILE_DISTANCE if both rows come
+ * from the same raw data file, OUT_OF_TOLERANCE_DISTANCE otherwise (see
+ * RowVsRowDistanceProvider.getRankedDistance()). Only distances which differ from these default
+ * values are stored, as sorted column indices and values of each row of the upper triangle of
+ * the matrix.
+ *
+ * Rows are connected if their distance is stored. Rows of different connected components can
+ * never be aligned, so each component can be clustered separately.
+ *
+ * setValue() stores a distance which differs from the default value, and removes the stored
+ * distance if it is set back to the default value. It is not thread-safe.
+ */
+public class SparseDistanceMatrix implements DistanceMatrix {
+
+  private final int dimension;
+
+  // Index of the raw data file of each row
+  private final int fileIndex[];
+
+  // Stored distances of each row, sorted by column. Only columns > row are stored.
+  private final int columns[][];
+  private final float values[][];
+  private long numberOfStoredValues;
+
+  /**
+   * Calculates the distances of all row pairs inside the m/z tolerance window, in parallel
+   *
+   * @param progress receives the fraction of rows processed so far
+   */
+  public SparseDistanceMatrix(RowVsRowDistanceProvider distProvider, int nRowCount,
+      double mzMaxDiff, double rtMaxDiff, double minScore, ClusteringProgression progress) {
+
+    dimension = nRowCount;
+    fileIndex = new int[dimension];
+    final double mz[] = new double[dimension];
+    for (int i = 0; i < dimension; i++) {
+      fileIndex[i] = distProvider.getFileIndex(i);
+      mz[i] = distProvider.getBestPeakMZ(i);
+    }
+
+    // Rows sorted by m/z
+    final int mzOrder[] = new int[dimension];
+    for (int i = 0; i < dimension; i++)
+      mzOrder[i] = i;
+    IntArrays.quickSort(mzOrder, (a, b) -> Double.compare(mz[a], mz[b]));
+    final double sortedMz[] = new double[dimension];
+    for (int i = 0; i < dimension; i++)
+      sortedMz[i] = mz[mzOrder[i]];
+
+    columns = new int[dimension][];
+    values = new float[dimension][];
+    final AtomicInteger processedRows = new AtomicInteger(0);
+
+    final double halfMzMaxDiff = mzMaxDiff / 2.0;
+    IntStream.range(0, dimension).parallel().forEach(i -> {
+
+      // The distance provider checks the exact tolerance, the small margin only makes sure that
+      // rounding errors do not exclude any pair
+      final double margin = 4 * Math.ulp(Math.abs(mz[i]) + halfMzMaxDiff);
+      final double minMz = mz[i] - halfMzMaxDiff - margin;
+      final double maxMz = mz[i] + halfMzMaxDiff + margin;
+      IntArrayList candidates = new IntArrayList();
+      for (int p = ArrayUtils.firstIndexNotBelow(sortedMz, minMz); p < dimension
+          && sortedMz[p] <= maxMz; p++) {
+        if (mzOrder[p] > i)
+          candidates.add(mzOrder[p]);
+      }
+      IntArrays.quickSort(candidates.elements(), 0, candidates.size());
+
+      IntArrayList columnList = new IntArrayList();
+      FloatArrayList valueList = new FloatArrayList();
+      for (int c = 0; c < candidates.size(); c++) {
+        final int j = candidates.getInt(c);
+        final float dist =
+            (float) distProvider.getRankedDistance(i, j, mzMaxDiff, rtMaxDiff, minScore);
+        if (dist != getDefaultValue(i, j)) {
+          columnList.add(j);
+          valueList.add(dist);
+        }
+      }
+      columns[i] = columnList.toIntArray();
+      values[i] = valueList.toFloatArray();
+
+      progress.setProgress((double) processedRows.incrementAndGet() / dimension);
+    });
+
+    for (int i = 0; i < dimension; i++)
+      numberOfStoredValues += columns[i].length;
+  }
+
+  /**
+   * Number of stored distances
+   */
+  public long getNumberOfStoredValues() {
+    return numberOfStoredValues;
+  }
+
+  @Override
+  public int getRowCount() {
+    return dimension;
+  }
+
+  @Override
+  public int getColCount() {
+    return dimension;
+  }
+
+  @Override
+  public float getValue(int nRow, int nCol) {
+
+    if (nRow == nCol)
+      return 0f;
+
+    final int row = Math.min(nRow, nCol), column = Math.max(nRow, nCol);
+    final int position = Arrays.binarySearch(columns[row], column);
+    if (position >= 0)
+      return values[row][position];
+
+    return getDefaultValue(nRow, nCol);
+  }
+
+  @Override
+  public void setValue(int nRow, int nCol, float fVal) {
+
+    if (nRow == nCol) {
+      if (fVal != 0f)
+        throw new IllegalArgumentException("Distance of row " + nRow + " to itself must be 0");
+      return;
+    }
+
+    final int row = Math.min(nRow, nCol), column = Math.max(nRow, nCol);
+    final int rowColumns[] = columns[row];
+    final float rowValues[] = values[row];
+    final int position = Arrays.binarySearch(rowColumns, column);
+    final boolean isDefault = fVal == getDefaultValue(row, column);
+
+    if (position >= 0) {
+      if (!isDefault) {
+        rowValues[position] = fVal;
+        return;
+      }
+      // Back to the default value, remove the stored distance
+      final int newColumns[] = new int[rowColumns.length - 1];
+      final float newValues[] = new float[rowColumns.length - 1];
+      System.arraycopy(rowColumns, 0, newColumns, 0, position);
+      System.arraycopy(rowValues, 0, newValues, 0, position);
+      System.arraycopy(rowColumns, position + 1, newColumns, position,
+          newColumns.length - position);
+      System.arraycopy(rowValues, position + 1, newValues, position,
+          newValues.length - position);
+      columns[row] = newColumns;
+      values[row] = newValues;
+      numberOfStoredValues--;
+      return;
+    }
+
+    if (isDefault)
+      return;
+
+    // Insert the new distance at its sorted position
+    final int insertion = -(position + 1);
+    final int newColumns[] = new int[rowColumns.length + 1];
+    final float newValues[] = new float[rowColumns.length + 1];
+    System.arraycopy(rowColumns, 0, newColumns, 0, insertion);
+    System.arraycopy(rowValues, 0, newValues, 0, insertion);
+    newColumns[insertion] = column;
+    newValues[insertion] = fVal;
+    System.arraycopy(rowColumns, insertion, newColumns, insertion + 1,
+        rowColumns.length - insertion);
+    System.arraycopy(rowValues, insertion, newValues, insertion + 1,
+        rowValues.length - insertion);
+    columns[row] = newColumns;
+    values[row] = newValues;
+    numberOfStoredValues++;
+  }
+
+  /**
+   * Groups the rows into connected components. Two rows are connected if their distance is stored.
+   *
+   * @return row indices of each component, sorted ascending. The components are sorted by their
+   *         first row.
+   */
+  public List<int[]> getConnectedComponents() {
+
+    // Union-find over all stored distances
+    final int parent[] = new int[dimension];
+    for (int i = 0; i < dimension; i++)
+      parent[i] = i;
+    for (int i = 0; i < dimension; i++) {
+      for (int column : columns[i]) {
+        final int rootI = findRoot(parent, i), rootJ = findRoot(parent, column);
+        if (rootI != rootJ)
+          parent[Math.max(rootI, rootJ)] = Math.min(rootI, rootJ);
+      }
+    }
+
+    // The root of each component is its first row
+    final int componentIndex[] = new int[dimension];
+    IntArrayList componentSizes = new IntArrayList();
+    for (int i = 0; i < dimension; i++) {
+      final int root = findRoot(parent, i);
+      if (root == i) {
+        componentIndex[i] = componentSizes.size();
+        componentSizes.add(0);
+      } else {
+        componentIndex[i] = componentIndex[root];
+      }
+      componentSizes.set(componentIndex[i], componentSizes.getInt(componentIndex[i]) + 1);
+    }
+
+    List<int[]> components = new ArrayList<>(componentSizes.size());
+    for (int c = 0; c < componentSizes.size(); c++)
+      components.add(new int[componentSizes.getInt(c)]);
+    final int filled[] = new int[componentSizes.size()];
+    for (int i = 0; i < dimension; i++) {
+      final int c = componentIndex[i];
+      components.get(c)[filled[c]++] = i;
+    }
+
+    return components;
+  }
+
+  private float getDefaultValue(int nRow, int nCol) {
+    if (fileIndex[nRow] == fileIndex[nCol])
+      return (float) RowVsRowDistanceProvider.SAME_FILE_DISTANCE;
+    return (float) RowVsRowDistanceProvider.OUT_OF_TOLERANCE_DISTANCE;
+  }
+
+  private static int findRoot(int parent[], int i) {
+    while (parent[i] != i) {
+      parent[i] = parent[parent[i]];
+      i = parent[i];
+    }
+    return i;
+  }
+
+}
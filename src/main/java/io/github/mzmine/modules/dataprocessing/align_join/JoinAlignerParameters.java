@@ -62,9 +62,14 @@ public class JoinAlignerParameters extends SimpleParameterSet {
           "Compare MS1 or MS2 spectra similarity",
           new JoinAlignerSpectraSimilarityScoreParameters());
 
+  public static final BooleanParameter useParallel = new BooleanParameter("Parallel",
+      "If checked, the alignment scores are calculated in parallel. The result is the same as with a single thread.",
+      true);
+
   public JoinAlignerParameters() {
     super(new Parameter[] {peakLists, peakListName, MZTolerance, MZWeight, RTTolerance, RTWeight,
-        SameChargeRequired, SameIDRequired, compareIsotopePattern, compareSpectraSimilarity});
+        SameChargeRequired, SameIDRequired, compareIsotopePattern, compareSpectraSimilarity,
+        useParallel});
   }
 
 }
@@ -18,11 +18,19 @@
 
 package io.github.mzmine.modules.dataprocessing.align_join;
 
-import java.util.Hashtable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.TreeSet;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import com.google.common.collect.Range;
 import io.github.mzmine.datamodel.DataPoint;
 import io.github.mzmine.datamodel.IsotopePattern;
@@ -52,15 +60,16 @@ public class JoinAlignerTask extends AbstractTask {
   private final MZmineProject project;
   private PeakList peakLists[], alignedPeakList;
 
-  // Processed rows counter
-  private int processedRows, totalRows;
+  // Processed rows counter, updated from multiple threads during the score calculation
+  private final AtomicInteger processedRows = new AtomicInteger();
+  private int totalRows;
 
   private String peakListName;
   private MZTolerance mzTolerance;
   private RTTolerance rtTolerance;
   private double mzWeight, rtWeight;
   private boolean sameIDRequired, sameChargeRequired, compareIsotopePattern,
-      compareSpectraSimilarity;
+      compareSpectraSimilarity, useParallel;
   private ParameterSet parameters;
 
   // ID counter for the new peaklist
@@ -99,6 +108,8 @@ public class JoinAlignerTask extends AbstractTask {
     compareSpectraSimilarity =
         parameters.getParameter(JoinAlignerParameters.compareSpectraSimilarity).getValue();
 
+    useParallel = parameters.getParameter(JoinAlignerParameters.useParallel).getValue();
+
     if (compareSpectraSimilarity) {
       simFunction = parameters.getParameter(JoinAlignerParameters.compareSpectraSimilarity)
           .getEmbeddedParameters()
@@ -129,7 +140,7 @@ public class JoinAlignerTask extends AbstractTask {
   public double getFinishedPercentage() {
     if (totalRows == 0)
       return 0f;
-    return (double) processedRows / (double) totalRows;
+    return (double) processedRows.get() / (double) totalRows;
   }
 
   /**
@@ -178,106 +189,36 @@ public class JoinAlignerTask extends AbstractTask {
     // Iterate source feature lists
     for (PeakList peakList : peakLists) {
 
-      // Create a sorted set of scores matching
-      TreeSet<RowVsRowScore> scoreSet = new TreeSet<RowVsRowScore>();
-
       PeakListRow allRows[] = peakList.getRows().toArray(PeakListRow[]::new);
 
-      // Calculate scores for all possible alignments of this row
-      for (PeakListRow row : allRows) {
+      // Calculate scores for all possible alignments of each row. The aligned feature list is not
+      // modified until all scores of this feature list are calculated, so the rows can be scored
+      // independently. The collected list keeps the row order, also for a parallel stream.
+      IntStream rowStream = IntStream.range(0, allRows.length);
+      if (useParallel)
+        rowStream = rowStream.parallel();
 
+      List<List<RowVsRowScore>> rowScores = rowStream.mapToObj(i -> {
+        // Canceled? Inside the stream, this only skips the row
         if (isCanceled())
-          return;
-
-        // Calculate limits for a row with which the row can be aligned
-        Range<Double> mzRange = mzTolerance.getToleranceRange(row.getAverageMZ());
-        Range<Double> rtRange = rtTolerance.getToleranceRange(row.getAverageRT());
-
-        // Get all rows of the aligned peaklist within parameter limits
-        PeakListRow candidateRows[] = alignedPeakList.getRowsInsideScanAndMZRange(rtRange, mzRange);
-
-        // Calculate scores and store them
-        for (PeakListRow candidate : candidateRows) {
-
-          if (sameChargeRequired) {
-            if (!PeakUtils.compareChargeState(row, candidate))
-              continue;
-          }
-
-          if (sameIDRequired) {
-            if (!PeakUtils.compareIdentities(row, candidate))
-              continue;
-          }
-
-          if (compareIsotopePattern) {
-            IsotopePattern ip1 = row.getBestIsotopePattern();
-            IsotopePattern ip2 = candidate.getBestIsotopePattern();
-
-            if ((ip1 != null) && (ip2 != null)) {
-              ParameterSet isotopeParams =
-                  parameters.getParameter(JoinAlignerParameters.compareIsotopePattern)
-                      .getEmbeddedParameters();
+          return null;
+        List<RowVsRowScore> scores = calculateScores(allRows[i]);
+        processedRows.incrementAndGet();
+        return scores;
+      }).collect(Collectors.toList());
 
-              if (!IsotopePatternScoreCalculator.checkMatch(ip1, ip2, isotopeParams)) {
-                continue;
-              }
-            }
-          }
-
-          // compare the similarity of spectra mass lists on MS1 or
-          // MS2 level
-          if (compareSpectraSimilarity) {
-            DataPoint[] rowDPs = null;
-            DataPoint[] candidateDPs = null;
-            SpectralSimilarity sim = null;
-
-            // get data points of mass list of the representative
-            // scans
-            if (msLevel == 1) {
-              rowDPs =
-                  row.getBestPeak().getRepresentativeScan().getMassList(massList).getDataPoints();
-              candidateDPs = candidate.getBestPeak().getRepresentativeScan().getMassList(massList)
-                  .getDataPoints();
-            }
-
-            // get data points of mass list of the best
-            // fragmentation scans
-            if (msLevel == 2) {
-              if (row.getBestFragmentation() != null && candidate.getBestFragmentation() != null) {
-                rowDPs = row.getBestFragmentation().getMassList(massList).getDataPoints();
-                candidateDPs =
-                    candidate.getBestFragmentation().getMassList(massList).getDataPoints();
-              } else
-                continue;
-            }
-
-            // compare mass list data points of selected scans
-            if (rowDPs != null && candidateDPs != null) {
-
-              // calculate similarity using SimilarityFunction
-              sim = createSimilarity(rowDPs, candidateDPs);
-
-              // check if similarity is null. Similarity is not
-              // null if similarity score is >= the
-              // user set threshold
-              if (sim == null) {
-                continue;
-              }
-            }
-          }
-
-          RowVsRowScore score =
-              new RowVsRowScore(row, candidate, RangeUtils.rangeLength(mzRange) / 2.0, mzWeight,
-                  RangeUtils.rangeLength(rtRange) / 2.0, rtWeight);
+      if (isCanceled())
+        return;
 
-          scoreSet.add(score);
-        }
-        processedRows++;
-      }
+      // Create a sorted set of scores matching. The scores are added in the same order as by a
+      // single-threaded calculation, because the order of equal scores in the set depends on it.
+      TreeSet<RowVsRowScore> scoreSet = new TreeSet<RowVsRowScore>();
+      for (List<RowVsRowScore> scores : rowScores)
+        scoreSet.addAll(scores);
 
       // Create a table of mappings for best scores
-      Hashtable<PeakListRow, PeakListRow> alignmentMapping =
-          new Hashtable<PeakListRow, PeakListRow>();
+      Map<PeakListRow, PeakListRow> alignmentMapping = new HashMap<PeakListRow, PeakListRow>();
+      Set<PeakListRow> filledAlignedRows = new HashSet<PeakListRow>();
 
       // Iterate scores by descending order
       Iterator<RowVsRowScore> scoreIterator = scoreSet.iterator();
@@ -290,7 +231,7 @@ public class JoinAlignerTask extends AbstractTask {
           continue;
 
         // Check if the aligned row is already filled
-        if (alignmentMapping.containsValue(score.getAlignedRow()))
+        if (!filledAlignedRows.add(score.getAlignedRow()))
           continue;
 
         alignmentMapping.put(score.getPeakListRow(), score.getAlignedRow());
@@ -318,7 +259,7 @@ public class JoinAlignerTask extends AbstractTask {
         // aligned row
         PeakUtils.copyPeakListRowProperties(row, targetRow);
 
-        processedRows++;
+        processedRows.incrementAndGet();
 
       }
 
@@ -337,6 +278,98 @@ public class JoinAlignerTask extends AbstractTask {
 
   }
 
+  /**
+   * Calculates the scores of all rows of the aligned feature list which the given row can be
+   * aligned with, in the order of the candidate rows.
+   */
+  private List<RowVsRowScore> calculateScores(PeakListRow row) {
+
+    List<RowVsRowScore> scores = new ArrayList<RowVsRowScore>();
+
+    // Calculate limits for a row with which the row can be aligned
+    Range<Double> mzRange = mzTolerance.getToleranceRange(row.getAverageMZ());
+    Range<Double> rtRange = rtTolerance.getToleranceRange(row.getAverageRT());
+
+    // Get all rows of the aligned peaklist within parameter limits
+    PeakListRow candidateRows[] = alignedPeakList.getRowsInsideScanAndMZRange(rtRange, mzRange);
+
+    // Calculate scores and store them
+    for (PeakListRow candidate : candidateRows) {
+
+      if (sameChargeRequired) {
+        if (!PeakUtils.compareChargeState(row, candidate))
+          continue;
+      }
+
+      if (sameIDRequired) {
+        if (!PeakUtils.compareIdentities(row, candidate))
+          continue;
+      }
+
+      if (compareIsotopePattern) {
+        IsotopePattern ip1 = row.getBestIsotopePattern();
+        IsotopePattern ip2 = candidate.getBestIsotopePattern();
+
+        if ((ip1 != null) && (ip2 != null)) {
+          ParameterSet isotopeParams = parameters
+              .getParameter(JoinAlignerParameters.compareIsotopePattern).getEmbeddedParameters();
+
+          if (!IsotopePatternScoreCalculator.checkMatch(ip1, ip2, isotopeParams)) {
+            continue;
+          }
+        }
+      }
+
+      // compare the similarity of spectra mass lists on MS1 or
+      // MS2 level
+      if (compareSpectraSimilarity) {
+        DataPoint[] rowDPs = null;
+        DataPoint[] candidateDPs = null;
+        SpectralSimilarity sim = null;
+
+        // get data points of mass list of the representative
+        // scans
+        if (msLevel == 1) {
+          rowDPs = row.getBestPeak().getRepresentativeScan().getMassList(massList).getDataPoints();
+          candidateDPs =
+              candidate.getBestPeak().getRepresentativeScan().getMassList(massList).getDataPoints();
+        }
+
+        // get data points of mass list of the best
+        // fragmentation scans
+        if (msLevel == 2) {
+          if (row.getBestFragmentation() != null && candidate.getBestFragmentation() != null) {
+            rowDPs = row.getBestFragmentation().getMassList(massList).getDataPoints();
+            candidateDPs = candidate.getBestFragmentation().getMassList(massList).getDataPoints();
+          } else
+            continue;
+        }
+
+        // compare mass list data points of selected scans
+        if (rowDPs != null && candidateDPs != null) {
+
+          // calculate similarity using SimilarityFunction
+          sim = createSimilarity(rowDPs, candidateDPs);
+
+          // check if similarity is null. Similarity is not
+          // null if similarity score is >= the
+          // user set threshold
+          if (sim == null) {
+            continue;
+          }
+        }
+      }
+
+      RowVsRowScore score =
+          new RowVsRowScore(row, candidate, RangeUtils.rangeLength(mzRange) / 2.0, mzWeight,
+              RangeUtils.rangeLength(rtRange) / 2.0, rtWeight);
+
+      scores.add(score);
+    }
+
+    return scores;
+  }
+
   /**
    * Uses the similarity function and filter to create similarity.
    *
@@ -21,7 +21,6 @@ package io.github.mzmine.modules.dataprocessing.featdet_chromatogrambuilder;
 import java.util.Arrays;
 import java.util.logging.Logger;
 
-import io.github.mzmine.datamodel.DataPoint;
 import io.github.mzmine.datamodel.Feature;
 import io.github.mzmine.datamodel.MZmineProject;
 import io.github.mzmine.datamodel.MassList;
@@ -139,6 +138,8 @@ public class ChromatogramBuilderTask extends AbstractTask {
     HighestDataPointConnector massConnector = new HighestDataPointConnector(dataFile,
         allScanNumbers, minimumTimeSpan, minimumHeight, mzTolerance);
 
+    double mzValues[] = new double[0], intensityValues[] = new double[0];
+
     for (Scan scan : scans) {
 
       if (isCanceled())
@@ -152,16 +153,15 @@ public class ChromatogramBuilderTask extends AbstractTask {
         return;
       }
 
-      DataPoint mzValues[] = massList.getDataPoints();
-
-      if (mzValues == null) {
-        setStatus(TaskStatus.ERROR);
-        setErrorMessage("Mass list " + massListName + " does not contain m/z values for scan #"
-            + scan.getScanNumber() + " of file " + dataFile);
-        return;
+      // Read the mass list into reusable primitive arrays
+      final int numOfDataPoints = massList.getNumberOfDataPoints();
+      if (mzValues.length < numOfDataPoints) {
+        mzValues = new double[numOfDataPoints];
+        intensityValues = new double[numOfDataPoints];
       }
+      final int numOfReadDataPoints = massList.getDataPoints(mzValues, intensityValues);
 
-      massConnector.addScan(scan.getScanNumber(), mzValues);
+      massConnector.addScan(scan.getScanNumber(), mzValues, intensityValues, numOfReadDataPoints);
       processedScans++;
     }
 
@@ -18,19 +18,15 @@
 
 package io.github.mzmine.modules.dataprocessing.featdet_chromatogrambuilder;
 
-import java.util.Arrays;
-import java.util.Iterator;
-import java.util.LinkedHashSet;
-import java.util.Set;
-
-import com.google.common.collect.Range;
+import java.util.ArrayList;
+import java.util.List;
 
 import io.github.mzmine.datamodel.DataPoint;
 import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.impl.SimpleDataPoint;
 import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
-import io.github.mzmine.util.DataPointSorter;
-import io.github.mzmine.util.SortingDirection;
-import io.github.mzmine.util.SortingProperty;
+import io.github.mzmine.util.ChromatogramConnectionIndex;
+import it.unimi.dsi.fastutil.ints.IntArrays;
 
 public class HighestDataPointConnector {
 
@@ -39,8 +35,8 @@ public class HighestDataPointConnector {
   private final RawDataFile dataFile;
   private final int allScanNumbers[];
 
-  // Mapping of last data point m/z --> chromatogram
-  private Set<Chromatogram> buildingChromatograms;
+  // Chromatograms which are being built, in a reproducible order
+  private List<Chromatogram> buildingChromatograms;
 
   public HighestDataPointConnector(RawDataFile dataFile, int allScanNumbers[],
       double minimumTimeSpan, double minimumHeight, MZTolerance mzTolerance) {
@@ -51,73 +47,95 @@ public class HighestDataPointConnector {
     this.dataFile = dataFile;
     this.allScanNumbers = allScanNumbers;
 
-    // We use LinkedHashSet to maintain a reproducible ordering. If we use
-    // plain HashSet, the resulting feature list row IDs will have different
-    // order every time the method is invoked.
-    buildingChromatograms = new LinkedHashSet<Chromatogram>();
+    // We use a list to maintain a reproducible ordering. Otherwise, the
+    // resulting feature list row IDs will have different order every time
+    // the method is invoked.
+    buildingChromatograms = new ArrayList<Chromatogram>();
 
   }
 
   public void addScan(int scanNumber, DataPoint mzValues[]) {
+    final double mzs[] = new double[mzValues.length];
+    final double intensities[] = new double[mzValues.length];
+    for (int i = 0; i < mzValues.length; i++) {
+      mzs[i] = mzValues[i].getMZ();
+      intensities[i] = mzValues[i].getIntensity();
+    }
+    addScan(scanNumber, mzs, intensities, mzValues.length);
+  }
 
-    // Sort m/z peaks by descending intensity
-    Arrays.sort(mzValues,
-        new DataPointSorter(SortingProperty.Intensity, SortingDirection.Descending));
+  /**
+   * Connects the m/z peaks given by the first numOfDataPoints values of the m/z and intensity
+   * arrays to the chromatograms. DataPoint instances are only created for m/z peaks that are
+   * added to a chromatogram. The arrays are not modified and may be reused by the caller.
+   */
+  public void addScan(int scanNumber, double mzValues[], double intensityValues[],
+      int numOfDataPoints) {
 
-    // Set of already connected chromatograms in each iteration
-    Set<Chromatogram> connectedChromatograms = new LinkedHashSet<Chromatogram>();
+    // Sort m/z peaks by descending intensity, and peaks with equal intensity by descending m/z
+    // (same order as DataPointSorter with SortingProperty.Intensity, SortingDirection.Descending)
+    final int sortedIndices[] = new int[numOfDataPoints];
+    for (int i = 0; i < numOfDataPoints; i++)
+      sortedIndices[i] = i;
+    IntArrays.mergeSort(sortedIndices, 0, numOfDataPoints, (a, b) -> {
+      final int result = Double.compare(intensityValues[b], intensityValues[a]);
+      return result != 0 ? result : Double.compare(mzValues[b], mzValues[a]);
+    });
 
-    // TODO: these two nested cycles should be optimized for speed
-    for (DataPoint mzPeak : mzValues) {
+    // Building chromatograms sorted by the m/z of their last data point
+    ChromatogramConnectionIndex<Chromatogram> chromatogramIndex =
+        new ChromatogramConnectionIndex<>(buildingChromatograms, Chromatogram::getLastMzPeak,
+            mzTolerance);
 
-      // Search for best chromatogram, which has highest last data point
-      Chromatogram bestChromatogram = null;
+    // List of already connected chromatograms in each iteration
+    List<Chromatogram> connectedChromatograms = new ArrayList<Chromatogram>();
 
-      for (Chromatogram testChrom : buildingChromatograms) {
+    for (int index : sortedIndices) {
 
-        DataPoint lastMzPeak = testChrom.getLastMzPeak();
-        Range<Double> toleranceRange = mzTolerance.getToleranceRange(lastMzPeak.getMZ());
-        if (toleranceRange.contains(mzPeak.getMZ())) {
-          if ((bestChromatogram == null) || (testChrom.getLastMzPeak()
-              .getIntensity() > bestChromatogram.getLastMzPeak().getIntensity())) {
-            bestChromatogram = testChrom;
-          }
-        }
+      final double mz = mzValues[index];
 
-      }
+      // Search for best chromatogram, which has highest last data point
+      final int best = chromatogramIndex.findBestChromatogram(mz);
+      Chromatogram bestChromatogram;
 
       // If we found best chromatogram, check if it is already connected.
       // In such case, we may discard this mass and continue. If we
       // haven't found a chromatogram, we may create a new one.
-      if (bestChromatogram != null) {
-        if (connectedChromatograms.contains(bestChromatogram)) {
+      if (best >= 0) {
+        if (chromatogramIndex.isConnected(best)) {
           continue;
         }
+        bestChromatogram = chromatogramIndex.get(best);
       } else {
         bestChromatogram = new Chromatogram(dataFile, allScanNumbers);
       }
 
       // Add this mzPeak to the chromatogram
-      bestChromatogram.addMzPeak(scanNumber, mzPeak);
+      bestChromatogram.addMzPeak(scanNumber, new SimpleDataPoint(mz, intensityValues[index]));
 
-      // Move the chromatogram to the set of connected chromatograms
+      // Move the chromatogram to the list of connected chromatograms
+      if (best >= 0) {
+        chromatogramIndex.setConnected(best);
+      }
       connectedChromatograms.add(bestChromatogram);
 
     }
 
     // Process those chromatograms which were not connected to any m/z peak
-    for (Chromatogram testChrom : buildingChromatograms) {
+    for (int i = 0; i < buildingChromatograms.size(); i++) {
 
       // Skip those which were connected
-      if (connectedChromatograms.contains(testChrom)) {
+      if (chromatogramIndex.isConnected(i)) {
         continue;
       }
 
+      Chromatogram testChrom = buildingChromatograms.get(i);
+
       // Check if we just finished a long-enough segment
       if (testChrom.getBuildingSegmentLength() >= minimumTimeSpan) {
         testChrom.commitBuildingSegment();
 
-        // Move the chromatogram to the set of connected chromatograms
+        // Move the chromatogram to the list of connected chromatograms
         connectedChromatograms.add(testChrom);
         continue;
       }
@@ -126,7 +144,7 @@ public class HighestDataPointConnector {
       if (testChrom.getNumberOfCommittedSegments() > 0) {
         testChrom.removeBuildingSegment();
 
-        // Move the chromatogram to the set of connected chromatograms
+        // Move the chromatogram to the list of connected chromatograms
         connectedChromatograms.add(testChrom);
         continue;
       }
@@ -144,17 +162,14 @@ public class HighestDataPointConnector {
     // Iterate through current chromatograms and remove those which do not
     // contain any committed segment nor long-enough building segment
 
-    Iterator<Chromatogram> chromIterator = buildingChromatograms.iterator();
-    while (chromIterator.hasNext()) {
-
-      Chromatogram chromatogram = chromIterator.next();
+    List<Chromatogram> finishedChromatograms = new ArrayList<Chromatogram>();
+    for (Chromatogram chromatogram : buildingChromatograms) {
 
       if (chromatogram.getBuildingSegmentLength() >= minimumTimeSpan) {
         chromatogram.commitBuildingSegment();
         chromatogram.finishChromatogram();
       } else {
         if (chromatogram.getNumberOfCommittedSegments() == 0) {
-          chromIterator.remove();
           continue;
         } else {
           chromatogram.removeBuildingSegment();
@@ -164,12 +179,16 @@ public class HighestDataPointConnector {
 
       // Remove chromatograms smaller then minimum height
       if (chromatogram.getHeight() < minimumHeight)
-        chromIterator.remove();
+        continue;
+
+      finishedChromatograms.add(chromatogram);
 
     }
 
+    buildingChromatograms = finishedChromatograms;
+
     // All remaining chromatograms are good, so we can return them
-    Chromatogram[] chromatograms = buildingChromatograms.toArray(new Chromatogram[0]);
+    Chromatogram[] chromatograms = finishedChromatograms.toArray(new Chromatogram[0]);
     return chromatograms;
   }
 
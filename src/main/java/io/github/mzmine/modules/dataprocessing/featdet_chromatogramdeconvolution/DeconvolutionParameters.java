@@ -72,8 +72,13 @@ public class DeconvolutionParameters extends SimpleParameterSet {
               + "considered belonging to the same feature. If not activated, the pairing of MS1 scan with the corresponding MS2 scan\n"
               + "will be done on the full retention time range of the chromatogram."));
 
+  public static final BooleanParameter PARALLEL = new BooleanParameter("Parallel",
+      "If checked, the chromatograms are resolved in parallel. Algorithms which require R use a"
+          + " pool of R sessions. The result is the same as with a single thread.",
+      true);
+
   public DeconvolutionParameters() {
     super(new Parameter[] {PEAK_LISTS, SUFFIX, PEAK_RESOLVER, MZ_CENTER_FUNCTION, mzRangeMSMS,
-        RetentionTimeMSMS, AUTO_REMOVE});
+        RetentionTimeMSMS, AUTO_REMOVE, PARALLEL});
   }
 }
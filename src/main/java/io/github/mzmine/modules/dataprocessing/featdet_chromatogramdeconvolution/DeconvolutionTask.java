@@ -19,12 +19,20 @@
 package io.github.mzmine.modules.dataprocessing.featdet_chromatogramdeconvolution;
 
 import static io.github.mzmine.modules.dataprocessing.featdet_chromatogramdeconvolution.DeconvolutionParameters.AUTO_REMOVE;
+import static io.github.mzmine.modules.dataprocessing.featdet_chromatogramdeconvolution.DeconvolutionParameters.PARALLEL;
 import static io.github.mzmine.modules.dataprocessing.featdet_chromatogramdeconvolution.DeconvolutionParameters.PEAK_RESOLVER;
 import static io.github.mzmine.modules.dataprocessing.featdet_chromatogramdeconvolution.DeconvolutionParameters.RetentionTimeMSMS;
 import static io.github.mzmine.modules.dataprocessing.featdet_chromatogramdeconvolution.DeconvolutionParameters.SUFFIX;
 import static io.github.mzmine.modules.dataprocessing.featdet_chromatogramdeconvolution.DeconvolutionParameters.mzRangeMSMS;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 import io.github.mzmine.datamodel.Feature;
 import io.github.mzmine.datamodel.MZmineProject;
 import io.github.mzmine.datamodel.PeakList;
@@ -54,14 +62,26 @@ public class DeconvolutionTask extends AbstractTask {
   private final PeakList originalPeakList;
   private PeakList newPeakList;
 
-  // Counters.
-  private int processedRows;
+  // Number of chromatograms which are resolved in parallel before their peaks are added to the new
+  // feature list
+  private static final int BATCH_SIZE = 1000;
+
+  // Maximum number of R sessions for parallel resolving
+  private static final int MAX_R_SESSIONS = 4;
+
+  // Number of chromatograms which are sent to R in one call, for resolvers which require R
+  private static final int CHROMATOGRAMS_PER_R_CALL = BATCH_SIZE / MAX_R_SESSIONS;
+
+  // Counters, updated from multiple threads while resolving.
+  private final AtomicInteger processedRows = new AtomicInteger(0);
   private int totalRows;
 
   // User parameters
   private final ParameterSet parameters;
 
-  private RSessionWrapper rSession;
+  // Open R sessions, one for each thread which may resolve chromatograms
+  private final List<RSessionWrapper> rSessions = new CopyOnWriteArrayList<>();
+  private boolean useParallel;
   private String errorMsg;
   private boolean setMSMSRange, setMSMSRT;
   private double msmsRange, RTRangeMSMS;
@@ -83,7 +103,6 @@ public class DeconvolutionTask extends AbstractTask {
     parameters = parameterSet;
     originalPeakList = list;
     newPeakList = null;
-    processedRows = 0;
     totalRows = 0;
     this.mzCenterFunction = mzCenterFunction;
   }
@@ -97,7 +116,7 @@ public class DeconvolutionTask extends AbstractTask {
   @Override
   public double getFinishedPercentage() {
 
-    return totalRows == 0 ? 0.0 : (double) processedRows / (double) totalRows;
+    return totalRows == 0 ? 0.0 : (double) processedRows.get() / (double) totalRows;
   }
 
   @Override
@@ -125,24 +144,30 @@ public class DeconvolutionTask extends AbstractTask {
           final MZmineProcessingStep<PeakResolver> resolver =
               parameters.getParameter(PEAK_RESOLVER).getValue();
 
+          useParallel = parameters.getParameter(PARALLEL).getValue();
+
           if (resolver.getModule().getRequiresR()) {
             // Check R availability, by trying to open the
-            // connection.
+            // connection. Each thread needs its own session.
             String[] reqPackages = resolver.getModule().getRequiredRPackages();
             String[] reqPackagesVersions = resolver.getModule().getRequiredRPackagesVersions();
             String callerFeatureName = resolver.getModule().getName();
 
             REngineType rEngineType =
                 resolver.getModule().getREngineType(resolver.getParameterSet());
-            this.rSession = new RSessionWrapper(rEngineType, callerFeatureName, reqPackages,
-                reqPackagesVersions);
-            this.rSession.open();
-          } else {
-            this.rSession = null;
+            final int numOfSessions = useParallel
+                ? Math.min(MAX_R_SESSIONS, Runtime.getRuntime().availableProcessors())
+                : 1;
+            for (int i = 0; i < numOfSessions; i++) {
+              RSessionWrapper rSession = new RSessionWrapper(rEngineType, callerFeatureName,
+                  reqPackages, reqPackagesVersions);
+              rSessions.add(rSession);
+              rSession.open();
+            }
           }
 
           // Deconvolve peaks.
-          newPeakList = resolvePeaks(originalPeakList, this.rSession);
+          newPeakList = resolvePeaks(originalPeakList);
 
           if (!isCanceled()) {
 
@@ -160,9 +185,9 @@ public class DeconvolutionTask extends AbstractTask {
             setStatus(TaskStatus.FINISHED);
             logger.info("Finished peak recognition on " + originalPeakList);
           }
-          // Turn off R instance.
-          if (this.rSession != null)
-            this.rSession.close(false);
+          // Turn off R instances.
+          for (RSessionWrapper rSession : rSessions)
+            rSession.close(false);
 
         } catch (RSessionWrapperException e) {
           errorMsg = "'R computing error' during CentWave detection. \n" + e.getMessage();
@@ -175,10 +200,12 @@ public class DeconvolutionTask extends AbstractTask {
           logger.log(Level.SEVERE, "Peak deconvolution error", t);
         }
 
-        // Turn off R instance, once task ended UNgracefully.
+        // Turn off R instances, once task ended UNgracefully.
         try {
-          if (this.rSession != null && !isCanceled())
-            rSession.close(isCanceled());
+          if (!isCanceled()) {
+            for (RSessionWrapper rSession : rSessions)
+              rSession.close(isCanceled());
+          }
         } catch (RSessionWrapperException e) {
           if (!isCanceled()) {
             // Do not override potential previous error message.
@@ -203,12 +230,10 @@ public class DeconvolutionTask extends AbstractTask {
    * Deconvolve a chromatogram into separate peaks.
    *
    * @param peakList holds the chromatogram to deconvolve.
-   * @param mzCenterFunction2
    * @return a new feature list holding the resolved peaks.
    * @throws RSessionWrapperException
    */
-  private PeakList resolvePeaks(final PeakList peakList, RSessionWrapper rSession)
-      throws RSessionWrapperException {
+  private PeakList resolvePeaks(final PeakList peakList) throws RSessionWrapperException {
 
     // Get data file information.
     final RawDataFile dataFile = peakList.getRawDataFile(0);
@@ -245,51 +270,119 @@ public class DeconvolutionTask extends AbstractTask {
         "Peak deconvolution by " + resolver, resolver.getParameterSet()));
 
     // Initialise counters.
-    processedRows = 0;
+    processedRows.set(0);
     totalRows = peakList.getNumberOfRows();
     int peakId = 1;
 
-    // Process each chromatogram.
+    // R sessions which are not in use
+    final BlockingQueue<RSessionWrapper> idleSessions =
+        new ArrayBlockingQueue<>(Math.max(1, rSessions.size()));
+    idleSessions.addAll(rSessions);
+
+    // Process the chromatograms in batches. The chromatograms of a batch are resolved in parallel,
+    // then their peaks are added to the new feature list in the order of the chromatograms.
     final PeakListRow[] peakListRows = peakList.getRows().toArray(PeakListRow[]::new);
     final int chromatogramCount = peakListRows.length;
-    for (int index = 0; !isCanceled() && index < chromatogramCount; index++) {
+    for (int batchStart = 0; !isCanceled() && batchStart < chromatogramCount;
+        batchStart += BATCH_SIZE) {
+
+      final int start = batchStart;
+      final int end = Math.min(batchStart + BATCH_SIZE, chromatogramCount);
+      final ResolvedPeak resolved[][] = new ResolvedPeak[end - start][];
+      final AtomicReference<RSessionWrapperException> failure = new AtomicReference<>();
+
+      // Chromatograms are resolved in chunks, so resolvers which require R can process a whole
+      // chunk with one R call
+      final int chunkSize = rSessions.isEmpty() ? 1 : CHROMATOGRAMS_PER_R_CALL;
+      final int numOfChunks = (end - start + chunkSize - 1) / chunkSize;
+
+      IntStream chunkStream = IntStream.range(0, numOfChunks);
+      if (useParallel)
+        chunkStream = chunkStream.parallel();
+
+      chunkStream.forEach(chunk -> {
+        // Canceled or failed? Only skips this element
+        if (isCanceled() || failure.get() != null)
+          return;
+        final int chunkStart = start + chunk * chunkSize;
+        final int chunkEnd = Math.min(chunkStart + chunkSize, end);
+        final Feature chromatograms[] = new Feature[chunkEnd - chunkStart];
+        for (int index = chunkStart; index < chunkEnd; index++)
+          chromatograms[index - chunkStart] = peakListRows[index].getPeak(dataFile);
+        try {
+          final ResolvedPeak chunkPeaks[][] = resolvePeaks(resolver, chromatograms, idleSessions);
+          System.arraycopy(chunkPeaks, 0, resolved, chunkStart - start, chunkPeaks.length);
+        } catch (RSessionWrapperException e) {
+          failure.compareAndSet(null, e);
+        }
+        processedRows.addAndGet(chromatograms.length);
+      });
 
-      final PeakListRow currentRow = peakListRows[index];
-      final Feature chromatogram = currentRow.getPeak(dataFile);
+      if (failure.get() != null)
+        throw failure.get();
 
-      // Resolve peaks.
-      final PeakResolver resolverModule = resolver.getModule();
-      final ParameterSet resolverParams = resolver.getParameterSet();
-      final ResolvedPeak[] peaks = resolverModule.resolvePeaks(chromatogram, resolverParams,
-          rSession, mzCenterFunction, msmsRange, RTRangeMSMS);
+      if (isCanceled())
+        break;
 
       // Add peaks to the new feature list.
-      for (final ResolvedPeak peak : peaks) {
+      for (int index = start; index < end; index++) {
+        final PeakListRow currentRow = peakListRows[index];
+        for (final ResolvedPeak peak : resolved[index - start]) {
 
-        peak.setParentChromatogramRowID(currentRow.getID());
+          peak.setParentChromatogramRowID(currentRow.getID());
 
-        final PeakListRow newRow = new SimplePeakListRow(peakId++);
-        newRow.addPeak(dataFile, peak);
-        newRow.setPeakInformation(peak.getPeakInformation());
-        resolvedPeaks.addRow(newRow);
+          final PeakListRow newRow = new SimplePeakListRow(peakId++);
+          newRow.addPeak(dataFile, peak);
+          newRow.setPeakInformation(peak.getPeakInformation());
+          resolvedPeaks.addRow(newRow);
+        }
       }
-
-      processedRows++;
     }
 
     return resolvedPeaks;
   }
 
+  /**
+   * Resolves the peaks of several chromatograms. If the resolver requires R, an idle R session is
+   * used for all of them.
+   */
+  private ResolvedPeak[][] resolvePeaks(final MZmineProcessingStep<PeakResolver> resolver,
+      final Feature chromatograms[], final BlockingQueue<RSessionWrapper> idleSessions)
+      throws RSessionWrapperException {
+
+    final PeakResolver resolverModule = resolver.getModule();
+    final ParameterSet resolverParams = resolver.getParameterSet();
+
+    if (rSessions.isEmpty())
+      return resolverModule.resolvePeaks(chromatograms, resolverParams, null, mzCenterFunction,
+          msmsRange, RTRangeMSMS);
+
+    final RSessionWrapper rSession;
+    try {
+      rSession = idleSessions.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RSessionWrapperException("Interrupted while waiting for an R session");
+    }
+    try {
+      return resolverModule.resolvePeaks(chromatograms, resolverParams, rSession,
+          mzCenterFunction, msmsRange, RTRangeMSMS);
+    } finally {
+      idleSessions.add(rSession);
+    }
+  }
+
   @Override
   public void cancel() {
 
     super.cancel();
-    // Turn off R instance, if already existing.
-    try {
-      if (this.rSession != null)
-        this.rSession.close(true);
-    } catch (RSessionWrapperException e) {
-      // Silent, always...
+    // Turn off R instances, if already existing.
+    for (RSessionWrapper rSession : rSessions) {
+      try {
+        rSession.close(true);
+      } catch (RSessionWrapperException e) {
+        // Silent, always...
+      }
     }
   }
 }
@@ -69,4 +69,22 @@ public interface PeakResolver extends MZmineModule {
       RSessionWrapper rSession, CenterFunction mzCenterFunction, double msmsRange,
       double rTRangeMSMS) throws RSessionWrapperException;
 
+  /**
+   * Resolves the peaks of several chromatograms. Resolvers which require R can override this
+   * method to process all chromatograms with a single R call instead of one call per chromatogram.
+   *
+   * @return the resolved peaks of each chromatogram
+   * @throws RSessionWrapperException
+   */
+  public default ResolvedPeak[][] resolvePeaks(Feature chromatograms[], ParameterSet parameters,
+      RSessionWrapper rSession, CenterFunction mzCenterFunction, double msmsRange,
+      double rTRangeMSMS) throws RSessionWrapperException {
+
+    final ResolvedPeak resolved[][] = new ResolvedPeak[chromatograms.length][];
+    for (int i = 0; i < chromatograms.length; i++)
+      resolved[i] = resolvePeaks(chromatograms[i], parameters, rSession, mzCenterFunction,
+          msmsRange, rTRangeMSMS);
+    return resolved;
+  }
+
 }
@@ -47,6 +47,7 @@ import io.github.mzmine.util.R.REngineType;
 import io.github.mzmine.util.R.RSessionWrapper;
 import io.github.mzmine.util.R.RSessionWrapperException;
 import io.github.mzmine.util.maths.CenterFunction;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 
 /**
  * Use XCMS findPeaks.centWave to identify peaks.
@@ -104,48 +105,56 @@ public class CentWaveDetector implements PeakResolver {
       RSessionWrapper rSession, CenterFunction mzCenterFunction, double msmsRange,
       double rTRangeMSMS) throws RSessionWrapperException {
 
-    int scanNumbers[] = chromatogram.getScanNumbers();
-    final int scanCount = scanNumbers.length;
-    double retentionTimes[] = new double[scanCount];
-    double intensities[] = new double[scanCount];
-    RawDataFile dataFile = chromatogram.getDataFile();
-    for (int i = 0; i < scanCount; i++) {
-      final int scanNum = scanNumbers[i];
-      retentionTimes[i] = dataFile.getScan(scanNum).getRetentionTime();
-      DataPoint dp = chromatogram.getDataPoint(scanNum);
-      if (dp != null)
-        intensities[i] = dp.getIntensity();
-      else
-        intensities[i] = 0.0;
+    return resolvePeaks(new Feature[] {chromatogram}, parameters, rSession, mzCenterFunction,
+        msmsRange, rTRangeMSMS)[0];
+  }
+
+  @Override
+  public ResolvedPeak[][] resolvePeaks(final Feature chromatograms[],
+      final ParameterSet parameters, RSessionWrapper rSession, CenterFunction mzCenterFunction,
+      double msmsRange, double rTRangeMSMS) throws RSessionWrapperException {
+
+    final double retentionTimes[][] = new double[chromatograms.length][];
+    final double intensities[][] = new double[chromatograms.length][];
+    for (int c = 0; c < chromatograms.length; c++) {
+      final Feature chromatogram = chromatograms[c];
+      int scanNumbers[] = chromatogram.getScanNumbers();
+      final int scanCount = scanNumbers.length;
+      retentionTimes[c] = new double[scanCount];
+      intensities[c] = new double[scanCount];
+      RawDataFile dataFile = chromatogram.getDataFile();
+      for (int i = 0; i < scanCount; i++) {
+        final int scanNum = scanNumbers[i];
+        retentionTimes[c][i] = dataFile.getScan(scanNum).getRetentionTime();
+        DataPoint dp = chromatogram.getDataPoint(scanNum);
+        if (dp != null)
+          intensities[c][i] = dp.getIntensity();
+        else
+          intensities[c][i] = 0.0;
+      }
     }
 
     // Call findPeaks.centWave.
-    double[][] peakMatrix = null;
-
-    peakMatrix = centWave(rSession, retentionTimes, intensities, chromatogram.getMZ(),
-        parameters.getParameter(SN_THRESHOLD).getValue(),
+    final double[][][] peakMatrices = centWave(rSession, chromatograms, retentionTimes,
+        intensities, parameters.getParameter(SN_THRESHOLD).getValue(),
         parameters.getParameter(PEAK_SCALES).getValue(),
         parameters.getParameter(INTEGRATION_METHOD).getValue());
 
-    final List<ResolvedPeak> resolvedPeaks;
-    if (peakMatrix == null) {
+    final Range<Double> peakDuration = parameters.getParameter(PEAK_DURATION).getValue();
+    final ResolvedPeak resolved[][] = new ResolvedPeak[chromatograms.length][];
+    for (int c = 0; c < chromatograms.length; c++) {
 
-      resolvedPeaks = new ArrayList<ResolvedPeak>(0);
-
-    } else {
-
-      logger.finest("Processing peak matrix...");
-
-      final Range<Double> peakDuration = parameters.getParameter(PEAK_DURATION).getValue();
+      final Feature chromatogram = chromatograms[c];
+      final int scanNumbers[] = chromatogram.getScanNumbers();
+      final List<ResolvedPeak> resolvedPeaks =
+          new ArrayList<ResolvedPeak>(peakMatrices[c].length);
 
       // Process peak matrix.
-      resolvedPeaks = new ArrayList<ResolvedPeak>(peakMatrix.length);
-
-      for (final double[] peakRow : peakMatrix) {
+      for (final double[] peakRow : peakMatrices[c]) {
 
         // Get peak start and end.
-        final int peakLeft = findRTIndex(retentionTimes, peakRow[4]);
-        final int peakRight = findRTIndex(retentionTimes, peakRow[5]);
+        final int peakLeft = findRTIndex(retentionTimes[c], peakRow[0]);
+        final int peakRight = findRTIndex(retentionTimes[c], peakRow[1]);
 
         // Partition into sections bounded by null data points, creating
         // a peak for each.
@@ -160,8 +169,8 @@ public class CentWaveDetector implements PeakResolver {
               end++;
             }
 
-            if ((end > start)
-                && (peakDuration.contains(retentionTimes[end] - retentionTimes[start]))) {
+            if ((end > start) && (peakDuration
+                .contains(retentionTimes[c][end] - retentionTimes[c][start]))) {
 
               resolvedPeaks.add(new ResolvedPeak(chromatogram, start, end, mzCenterFunction,
                   msmsRange, rTRangeMSMS));
@@ -171,9 +180,11 @@ public class CentWaveDetector implements PeakResolver {
           }
         }
       }
+
+      resolved[c] = resolvedPeaks.toArray(new ResolvedPeak[resolvedPeaks.size()]);
     }
 
-    return resolvedPeaks.toArray(new ResolvedPeak[resolvedPeaks.size()]);
+    return resolved;
   }
 
   private static int findRTIndex(final double[] rtMinutes, final double rtSec) {
@@ -183,84 +194,128 @@ public class CentWaveDetector implements PeakResolver {
   }
 
   /**
-   * Do peak picking using xcms::findPeaks.centWave.
+   * Do peak picking using xcms::findPeaks.centWave, for several chromatograms in one R call. The
+   * retention times, intensities and ROIs of all chromatograms are sent as packed vectors, and the
+   * peaks of all chromatograms are returned as one packed vector.
    * 
-   * @param scanTime retention times (for each scan).
-   * @param intensity intensity values (for each scan).
-   * @param mz fixed m/z value for EIC.
+   * @param chromatograms the chromatograms (EICs with a fixed m/z value).
+   * @param scanTime retention times (for each chromatogram and scan).
+   * @param intensity intensity values (for each chromatogram and scan).
    * @param snrThreshold signal:noise ratio threshold.
    * @param peakWidth peak width range.
    * @param integrationMethod integration method.
-   * @return a matrix with a row for each detected peak.
+   * @return for each chromatogram, a row with the start and end RT (in seconds) of each detected
+   *         peak.
    * @throws RSessionWrapperException
    */
-  private static double[][] centWave(RSessionWrapper rSession, final double[] scanTime,
-      final double[] intensity, final double mz, final double snrThreshold,
+  private static double[][][] centWave(RSessionWrapper rSession, final Feature[] chromatograms,
+      final double[][] scanTime, final double[][] intensity, final double snrThreshold,
       final Range<Double> peakWidth, final PeakIntegrationMethod integrationMethod)
       throws RSessionWrapperException {
 
     logger.finest("Detecting peaks.");
 
-    final double[][] peaks;
+    final int numOfChromatograms = chromatograms.length;
+    final double[][][] peaks = new double[numOfChromatograms][0][];
+
+    // Pack the chromatograms.
+    int totalScans = 0;
+    for (final double[] chromatogramIntensity : intensity)
+      totalScans += chromatogramIntensity.length;
+    final double[] packedScanTime = new double[totalScans];
+    final double[] packedIntensity = new double[totalScans];
+    final int[] scanCounts = new int[numOfChromatograms];
+    final double[] mz = new double[numOfChromatograms];
+    int offset = 0;
+    for (int c = 0; c < numOfChromatograms; c++) {
+      scanCounts[c] = intensity[c].length;
+      mz[c] = chromatograms[c].getMZ();
+      System.arraycopy(scanTime[c], 0, packedScanTime, offset, scanCounts[c]);
+      System.arraycopy(intensity[c], 0, packedIntensity, offset, scanCounts[c]);
+      offset += scanCounts[c];
+    }
 
-    // Set vectors.
-    rSession.assign("scantime", scanTime);
-    rSession.assign("intensity", intensity);
-
-    // Initialize.
-    rSession.eval("mz <- " + mz);
-    rSession.eval("numPoints <- length(intensity)");
-
-    // Construct xcmsRaw object
-    rSession.eval("xRaw <- new(\"xcmsRaw\")");
-    rSession.eval("xRaw@tic <- intensity");
-    rSession.eval("xRaw@scantime <- scantime * " + SECONDS_PER_MINUTE);
-    rSession.eval("xRaw@scanindex <- 0:(numPoints-1)");
-    rSession.eval("xRaw@env$mz <- rep(mz, numPoints)");
-    rSession.eval("xRaw@env$intensity <- intensity");
-
-    // Construct ROIs.
-    rSession.eval("ROIs <- list()");
-    int roi = 1;
-    for (int start = 0; start < intensity.length; start++) {
-
-      // Found non-zero section.
-      if (intensity[start] > 0.0) {
-
-        // Look for end.
-        int end = start + 1;
-        while (end < intensity.length && intensity[end] > 0.0) {
-
-          end++;
-        }
+    // Construct ROIs: the non-zero sections of each chromatogram.
+    final IntArrayList roiChromatogram = new IntArrayList();
+    final IntArrayList roiStart = new IntArrayList();
+    final IntArrayList roiEnd = new IntArrayList();
+    for (int c = 0; c < numOfChromatograms; c++) {
+      for (int start = 0; start < intensity[c].length; start++) {
+
+        // Found non-zero section.
+        if (intensity[c][start] > 0.0) {
+
+          // Look for end.
+          int end = start + 1;
+          while (end < intensity[c].length && intensity[c][end] > 0.0) {
 
-        // Add ROI to list.
-        rSession.eval("ROIs[[" + roi + "]] <- list('scmin'=" + (start + 1) + ", 'scmax'=" + end
-            + ", 'mzmin'=mz, 'mzmax'=mz)");
+            end++;
+          }
 
-        // Next ROI.
-        start = end;
-        roi++;
+          // Add ROI to list (R indices).
+          roiChromatogram.add(c + 1);
+          roiStart.add(start + 1);
+          roiEnd.add(end);
 
+          // Next ROI.
+          start = end;
+        }
       }
     }
 
-    // Do peak picking.
-    rSession.eval("mtx <- findPeaks.centWave(xRaw, ppm=0, mzdiff=0, verbose=TRUE" + ", peakwidth=c("
+    // Chromatograms without ROIs have no peaks.
+    if (roiChromatogram.isEmpty())
+      return peaks;
+
+    // Set vectors.
+    rSession.assign("scantimes", packedScanTime);
+    rSession.assign("intensities", packedIntensity);
+    rSession.assign("scancounts", scanCounts);
+    rSession.assign("mzs", mz);
+    rSession.assign("roichrom", roiChromatogram.toIntArray());
+    rSession.assign("roistart", roiStart.toIntArray());
+    rSession.assign("roiend", roiEnd.toIntArray());
+
+    // Do peak picking for each chromatogram which has ROIs, collecting the chromatogram index
+    // and the peak start and end RT of each peak.
+    rSession.eval("chromends <- cumsum(scancounts); chromstarts <- chromends - scancounts + 1");
+    rSession.eval("peaklist <- lapply(unique(roichrom), function(k) {"
+        + " intensity <- intensities[chromstarts[k]:chromends[k]];"
+        + " scantime <- scantimes[chromstarts[k]:chromends[k]];"
+        + " mz <- mzs[k]; numPoints <- length(intensity);"
+        + " xRaw <- new(\"xcmsRaw\"); xRaw@tic <- intensity;"
+        + " xRaw@scantime <- scantime * " + SECONDS_PER_MINUTE + ";"
+        + " xRaw@scanindex <- 0:(numPoints-1);"
+        + " xRaw@env$mz <- rep(mz, numPoints); xRaw@env$intensity <- intensity;"
+        + " ROIs <- lapply(which(roichrom == k), function(r) list('scmin'=roistart[r],"
+        + " 'scmax'=roiend[r], 'mzmin'=mz, 'mzmax'=mz));"
+        + " mtx <- findPeaks.centWave(xRaw, ppm=0, mzdiff=0, verbose=TRUE, peakwidth=c("
         + peakWidth.lowerEndpoint() * SECONDS_PER_MINUTE + ", "
-        + peakWidth.upperEndpoint() * SECONDS_PER_MINUTE + ')' + ", snthresh=" + snrThreshold
-        + ", integrate=" + integrationMethod.getIndex() + ", ROI.list=ROIs)");
+        + peakWidth.upperEndpoint() * SECONDS_PER_MINUTE + "), snthresh=" + snrThreshold
+        + ", integrate=" + integrationMethod.getIndex() + ", ROI.list=ROIs);"
+        + " if (is.null(dim(mtx)) || nrow(mtx) == 0) NULL else cbind(k, mtx[, 5], mtx[, 6]) })");
+    rSession.eval("peakmtx <- do.call(rbind, peaklist)");
+    rSession.eval("peaks <- if (is.null(peakmtx)) numeric(0) else as.numeric(t(peakmtx))");
 
     // Get rid of 'NA' values potentially found in the resulting matrix
-    rSession.eval("mtx[is.na(mtx)] <- " + RSessionWrapper.NA_DOUBLE); // +
-                                                                      // "0");//
+    rSession.eval("peaks[is.na(peaks)] <- " + RSessionWrapper.NA_DOUBLE);
 
-    final Object centWave = roi <= 1 ? null : (double[][]) rSession.collect("mtx", false);
+    final double[] packedPeaks = rSession.collectDoubleArray("peaks");
 
     // Done: Refresh R code stack
     rSession.clearCode();
 
-    peaks = (centWave == null) ? null : (double[][]) centWave;
+    // Unpack the peaks: chromatogram index, start RT and end RT of each peak.
+    final int[] peakCounts = new int[numOfChromatograms];
+    for (int p = 0; p + 2 < packedPeaks.length; p += 3)
+      peakCounts[(int) packedPeaks[p] - 1]++;
+    for (int c = 0; c < numOfChromatograms; c++)
+      peaks[c] = new double[peakCounts[c]][];
+    Arrays.fill(peakCounts, 0);
+    for (int p = 0; p + 2 < packedPeaks.length; p += 3) {
+      final int c = (int) packedPeaks[p] - 1;
+      peaks[c][peakCounts[c]++] = new double[] {packedPeaks[p + 1], packedPeaks[p + 2]};
+    }
 
     return peaks;
   }
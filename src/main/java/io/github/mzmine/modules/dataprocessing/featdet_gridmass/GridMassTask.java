@@ -39,6 +39,7 @@ import io.github.mzmine.parameters.parametertypes.selectors.ScanSelection;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
 import io.github.mzmine.util.ArrayUtils;
+import io.github.mzmine.util.scans.ScanWindowReader;
 
 public class GridMassTask extends AbstractTask {
 
@@ -586,151 +587,142 @@ public class GridMassTask extends AbstractTask {
       double timeMZSpan, int scanSpan, double mzTol, int mzPoints, double minimumHeight) {
     int[] scanNumbers = dataFile.getScanNumbers(1);
     int totalScans = scanNumbers.length;
-    DataPoint mzValues[][] = null; // [relative scan][j value]
-    DataPoint mzValuesJ[] = null;
-    int mzValuesScan[] = null;
     int mzValuesMZidx[] = null;
     IndexedDataPoint newMZValues[][] = null;
     IndexedDataPoint tmpDP[] = new IndexedDataPoint[0];
     newMZValues = new IndexedDataPoint[totalScans][];
-    int i, j, si, sj, ii, k, ssi, ssj, m;
+    int i, j, si, sj, k, ssi, ssj, m;
     double timeSmoothingMZtol = Math.max(timeMZSpan, 1e-6);
 
     int modts = Math.max(1, totalScans / 10);
 
-    for (i = 0; i < totalScans; i++) {
+    // Time smoothing reads a sliding window of scans
+    ScanWindowReader window =
+        (timeSpan > 0 || scanSpan > 0) ? new ScanWindowReader(dataFile, scanNumbers) : null;
+    try {
+      for (i = 0; i < totalScans; i++) {
 
-      if (i % 100 == 0 && isCanceled())
-        return null;
-
-      // Smoothing in TIME space
-      Scan scan = dataFile.getScan(scanNumbers[i]);
-      double rt = retentiontime[i];
-      DataPoint[] xDP = null;
-      IndexedDataPoint[] iDP = null;
-      sj = si = i;
-      ssi = ssj = i;
-      int t = 0;
-      if (timeSpan > 0 || scanSpan > 0) {
-        if (scan != null) {
-          for (si = i; si > 1; si--) {
-            if (retentiontime[si - 1] < rt - timeSpan / 2) {
-              break;
+        if (i % 100 == 0 && isCanceled())
+          return null;
+
+        // Smoothing in TIME space
+        Scan scan = dataFile.getScan(scanNumbers[i]);
+        double rt = retentiontime[i];
+        DataPoint[] xDP = null;
+        IndexedDataPoint[] iDP = null;
+        sj = si = i;
+        ssi = ssj = i;
+        int t = 0;
+        if (timeSpan > 0 || scanSpan > 0) {
+          if (scan != null) {
+            for (si = i; si > 1; si--) {
+              if (retentiontime[si - 1] < rt - timeSpan / 2) {
+                break;
+              }
             }
-          }
-          for (sj = i; sj < totalScans - 1; sj++) {
-            if (retentiontime[sj + 1] >= rt + timeSpan / 2) {
-              break;
+            for (sj = i; sj < totalScans - 1; sj++) {
+              if (retentiontime[sj + 1] >= rt + timeSpan / 2) {
+                break;
+              }
             }
-          }
-          ssi = i - (scanSpan - 1) / 2;
-          ssj = i + (scanSpan - 1) / 2;
-          if (ssi < 0) {
-            ssj += -ssi;
-            ssi = 0;
-          }
-          if (ssj >= totalScans) {
-            ssi -= (ssj - totalScans + 1);
-            ssj = totalScans - 1;
-          }
-          if (sj - si + 1 < scanSpan) {
-            si = ssi;
-            sj = ssj;
-          }
-        }
-        if (scan != null && sj > si) {
-          // Allocate
-          if (mzValues == null || mzValues.length < sj - si + 1) {
-            mzValues = new DataPoint[sj - si + 1][];
-            mzValuesScan = new int[sj - si + 1];
-            mzValuesMZidx = new int[sj - si + 1];
-          }
-          // Load Data Points
-          for (j = si; j <= sj; j++) {
-            int jsi = j - si;
-            if (mzValues[jsi] == null || jsi >= mzValuesScan.length - 1
-                || mzValuesScan[jsi + 1] != scanNumbers[j]) {
-              Scan xscan = dataFile.getScan(scanNumbers[j]);
-              mzValues[jsi] = xscan.getDataPoints();
-              mzValuesScan[jsi] = scanNumbers[j];
-            } else {
-              mzValues[jsi] = mzValues[jsi + 1];
-              mzValuesScan[jsi] = mzValuesScan[jsi + 1];
+            ssi = i - (scanSpan - 1) / 2;
+            ssj = i + (scanSpan - 1) / 2;
+            if (ssi < 0) {
+              ssj += -ssi;
+              ssi = 0;
+            }
+            if (ssj >= totalScans) {
+              ssi -= (ssj - totalScans + 1);
+              ssj = totalScans - 1;
+            }
+            if (sj - si + 1 < scanSpan) {
+              si = ssi;
+              sj = ssj;
             }
-            mzValuesMZidx[jsi] = 0;
           }
-          // Estimate Averages
-          ii = i - si;
-          if (tmpDP.length < mzValues[ii].length)
-            tmpDP = new IndexedDataPoint[mzValues[ii].length * 3 / 2];
-          for (k = 0; k < mzValues[ii].length; k++) {
-            DataPoint dp = mzValues[ii][k];
-            double mz = dp.getMZ();
-            double intensidad = 0;
-            if (dp.getIntensity() > 0) { // only process those > 0
-              double a = 0;
-              short c = 0;
-              int f = 0;
-              for (j = 0; j <= sj - si; j++) {
-                for (mzValuesJ = mzValues[j]; mzValuesMZidx[j] < mzValuesJ.length - 1
-                    && mzValuesJ[mzValuesMZidx[j] + 1].getMZ() < mz
-                        - timeSmoothingMZtol; mzValuesMZidx[j]++);
-
-                f = mzValuesMZidx[j];
-
-                for (m = mzValuesMZidx[j] + 1; m < mzValuesJ.length
-                    && mzValuesJ[m].getMZ() < mz + timeSmoothingMZtol; m++) {
-                  if (Math.abs(mzValuesJ[m].getMZ() - mz) < Math.abs(mzValuesJ[f].getMZ() - mz)) {
-                    f = m;
-                  } else {
-                    // siempre debe ser mas cercano porque
-                    // están ordenados por masa, entonces
-                    // parar la búsqueda
-                    break;
+          if (scan != null && sj > si) {
+            // Allocate
+            if (mzValuesMZidx == null || mzValuesMZidx.length < sj - si + 1)
+              mzValuesMZidx = new int[sj - si + 1];
+            // Load Data Points, each scan is only read once while the window moves
+            window.moveTo(si, sj);
+            Arrays.fill(mzValuesMZidx, 0, sj - si + 1, 0);
+            // Estimate Averages
+            final double mzValues[] = window.getMzValues(i);
+            final double intensityValues[] = window.getIntensityValues(i);
+            final int numOfDataPoints = window.getNumberOfDataPoints(i);
+            if (tmpDP.length < numOfDataPoints)
+              tmpDP = new IndexedDataPoint[numOfDataPoints * 3 / 2];
+            for (k = 0; k < numOfDataPoints; k++) {
+              double mz = mzValues[k];
+              double intensidad = 0;
+              if (intensityValues[k] > 0) { // only process those > 0
+                double a = 0;
+                short c = 0;
+                int f = 0;
+                for (j = 0; j <= sj - si; j++) {
+                  final double mzValuesJ[] = window.getMzValues(si + j);
+                  final int lengthJ = window.getNumberOfDataPoints(si + j);
+                  for (; mzValuesMZidx[j] < lengthJ - 1
+                      && mzValuesJ[mzValuesMZidx[j] + 1] < mz - timeSmoothingMZtol;
+                      mzValuesMZidx[j]++);
+
+                  f = mzValuesMZidx[j];
+
+                  for (m = mzValuesMZidx[j] + 1; m < lengthJ
+                      && mzValuesJ[m] < mz + timeSmoothingMZtol; m++) {
+                    if (Math.abs(mzValuesJ[m] - mz) < Math.abs(mzValuesJ[f] - mz)) {
+                      f = m;
+                    } else {
+                      // siempre debe ser mas cercano porque
+                      // están ordenados por masa, entonces
+                      // parar la búsqueda
+                      break;
+                    }
+                  }
+                  final double intensityValuesJ[] = window.getIntensityValues(si + j);
+                  if (f > 0 && f < lengthJ && Math.abs(mzValuesJ[f] - mz) <= timeSmoothingMZtol
+                      && intensityValuesJ[f] > 0) { // >=
+                    // minimumHeight
+                    // ?
+                    a += intensityValuesJ[f];
+                    c++;
                   }
                 }
-                if (f > 0 && f < mzValuesJ.length
-                    && Math.abs(mzValuesJ[f].getMZ() - mz) <= timeSmoothingMZtol
-                    && mzValuesJ[f].getIntensity() > 0) { // >=
-                  // minimumHeight
-                  // ?
-                  // System.out.println("mz="+mz+";
-                  // Closer="+mzValuesJ[f].getMZ()+", f="+f+",
-                  // Intensity="+mzValuesJ[f].getIntensity());
-                  a += mzValuesJ[f].getIntensity();
-                  c++;
+                intensidad = c > 0 ? a / c : 0;
+                if (intensidad >= minimumHeight) {
+                  tmpDP[t++] = new IndexedDataPoint(k, new SimpleDataPoint(mz, intensidad));
                 }
               }
-              intensidad = c > 0 ? a / c : 0;
-              if (intensidad >= minimumHeight) {
-                tmpDP[t++] = new IndexedDataPoint(k, new SimpleDataPoint(mz, intensidad));
-              }
             }
-          }
 
-        }
-      } else if (scan != null) {
-        xDP = scan.getDataPoints();
-        if (tmpDP.length < xDP.length)
-          tmpDP = new IndexedDataPoint[xDP.length];
-        for (k = 0; k < xDP.length; k++) {
-          if (xDP[k].getIntensity() >= minimumHeight) {
-            tmpDP[t++] = new IndexedDataPoint(k, xDP[k]);
+          }
+        } else if (scan != null) {
+          xDP = scan.getDataPoints();
+          if (tmpDP.length < xDP.length)
+            tmpDP = new IndexedDataPoint[xDP.length];
+          for (k = 0; k < xDP.length; k++) {
+            if (xDP[k].getIntensity() >= minimumHeight) {
+              tmpDP[t++] = new IndexedDataPoint(k, xDP[k]);
+            }
           }
         }
-      }
-      iDP = new IndexedDataPoint[t];
-      for (k = 0; k < t; k++) {
-        iDP[k] = tmpDP[k];
-      }
-      newMZValues[i] = iDP;
+        iDP = new IndexedDataPoint[t];
+        for (k = 0; k < t; k++) {
+          iDP[k] = tmpDP[k];
+        }
+        newMZValues[i] = iDP;
 
-      setProcedure(i, totalScans, 0);
+        setProcedure(i, totalScans, 0);
 
-      if (i % modts == 0) {
-        logger.info("Smoothing/Caching " + dataFile + "..." + (i / modts) * 10 + "%");
-      }
+        if (i % modts == 0) {
+          logger.info("Smoothing/Caching " + dataFile + "..." + (i / modts) * 10 + "%");
+        }
 
+      }
+    } finally {
+      if (window != null)
+        window.close();
     }
 
     return newMZValues;
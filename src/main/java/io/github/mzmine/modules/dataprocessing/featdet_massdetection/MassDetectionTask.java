@@ -19,9 +19,13 @@
 package io.github.mzmine.modules.dataprocessing.featdet_massdetection;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 
 import io.github.mzmine.datamodel.DataPoint;
 import io.github.mzmine.datamodel.RawDataFile;
@@ -30,6 +34,8 @@ import io.github.mzmine.datamodel.impl.SimpleMassList;
 import io.github.mzmine.modules.MZmineProcessingStep;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.parameters.parametertypes.selectors.ScanSelection;
+import io.github.mzmine.project.impl.RawDataFileImpl;
+import io.github.mzmine.project.impl.StorableMassList;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
 import ucar.ma2.ArrayDouble;
@@ -46,8 +52,12 @@ public class MassDetectionTask extends AbstractTask {
   private final Logger logger = Logger.getLogger(this.getClass().getName());
   private final RawDataFile dataFile;
 
+  // Number of scans which are processed in parallel before their mass lists are stored
+  private static final int BATCH_SIZE = 1000;
+
   // scan counter
-  private int processedScans = 0, totalScans = 0;
+  private final AtomicInteger processedScans = new AtomicInteger(0);
+  private int totalScans = 0;
   private final ScanSelection scanSelection;
 
   // User parameters
@@ -94,7 +104,7 @@ public class MassDetectionTask extends AbstractTask {
     if (totalScans == 0)
       return 0;
     else
-      return (double) processedScans / totalScans;
+      return (double) processedScans.get() / totalScans;
   }
 
   public RawDataFile getDataFile() {
@@ -129,39 +139,57 @@ public class MassDetectionTask extends AbstractTask {
 
       final Scan scans[] = scanSelection.getMatchingScans(dataFile);
       totalScans = scans.length;
-      // Process scans one by one
-      for (Scan scan : scans) {
+
+      final MassDetector detector = massDetector.getModule();
+      final ParameterSet detectorParameters = massDetector.getParameterSet();
+
+      // Process scans in batches. The masses of the scans of a batch are detected in parallel,
+      // then the mass lists of the batch are stored in scan order.
+      for (int batchStart = 0; batchStart < scans.length; batchStart += BATCH_SIZE) {
 
         if (isCanceled())
           return;
 
-        MassDetector detector = massDetector.getModule();
-        DataPoint mzPeaks[] = detector.getMassValues(scan, massDetector.getParameterSet());
+        final int start = batchStart;
+        final int end = Math.min(batchStart + BATCH_SIZE, scans.length);
+        final DataPoint massValues[][] = new DataPoint[end - start][];
 
-        SimpleMassList newMassList = new SimpleMassList(name, scan, mzPeaks);
+        IntStream.range(start, end).parallel().forEach(i -> {
+          if (isCanceled())
+            return;
+          massValues[i - start] = detector.getMassValues(scans[i], detectorParameters);
+          processedScans.incrementAndGet();
+        });
 
-        // Add new mass list to the scan
-        scan.addMassList(newMassList);
+        if (isCanceled())
+          return;
+
+        // Add new mass lists to the scans
+        storeMassLists(scans, start, massValues);
 
         if (this.saveToCDF) {
 
-          curTotalIntensity = 0;
-          for (int a = 0; a < mzPeaks.length; a++) {
-            DataPoint curMzPeak = mzPeaks[a];
-            allMZ.add(curMzPeak.getMZ());
-            allIntensities.add(curMzPeak.getIntensity());
-            curTotalIntensity += curMzPeak.getIntensity();
-          }
+          for (int i = start; i < end; i++) {
+            final Scan scan = scans[i];
+            final DataPoint mzPeaks[] = massValues[i - start];
 
-          scanAcquisitionTime.add(scan.getRetentionTime());
-          pointsInScans.add(0);
-          startIndex.add(mzPeaks.length + lastPointCount);
-          totalIntensity.add(curTotalIntensity);
+            curTotalIntensity = 0;
+            for (int a = 0; a < mzPeaks.length; a++) {
+              DataPoint curMzPeak = mzPeaks[a];
+              allMZ.add(curMzPeak.getMZ());
+              allIntensities.add(curMzPeak.getIntensity());
+              curTotalIntensity += curMzPeak.getIntensity();
+            }
 
-          lastPointCount = mzPeaks.length + lastPointCount;
+            scanAcquisitionTime.add(scan.getRetentionTime());
+            pointsInScans.add(0);
+            startIndex.add(mzPeaks.length + lastPointCount);
+            totalIntensity.add(curTotalIntensity);
+
+            lastPointCount = mzPeaks.length + lastPointCount;
+          }
         }
 
-        processedScans++;
       }
 
 
@@ -277,4 +305,31 @@ public class MassDetectionTask extends AbstractTask {
     logger.info("Finished mass detector on " + dataFile);
 
   }
+
+  /**
+   * Adds the detected masses of a batch of scans as mass lists to the scans. If the scans are
+   * stored in a RawDataFileImpl, the data points of all mass lists are written to its data points
+   * file in one batch.
+   * 
+   * @param scans all scans
+   * @param start index of the first scan of the batch
+   * @param massValues detected masses of each scan of the batch
+   */
+  private void storeMassLists(Scan scans[], int start, DataPoint massValues[][])
+      throws IOException {
+    if (dataFile instanceof RawDataFileImpl) {
+      final RawDataFileImpl rawDataFileImpl = (RawDataFileImpl) dataFile;
+      final int storageIDs[] = rawDataFileImpl.storeDataPoints(Arrays.asList(massValues));
+      for (int i = 0; i < massValues.length; i++) {
+        final Scan scan = scans[start + i];
+        scan.addMassList(new StorableMassList(rawDataFileImpl, storageIDs[i], name, scan));
+      }
+    } else {
+      for (int i = 0; i < massValues.length; i++) {
+        final Scan scan = scans[start + i];
+        scan.addMassList(new SimpleMassList(name, scan, massValues[i]));
+      }
+    }
+  }
+
 }
@@ -29,10 +29,35 @@ import io.github.mzmine.parameters.ParameterSet;
 public interface MassDetector extends MZmineModule {
 
   /**
-   * Returns mass and intensity values detected in given scan
+   * Returns mass and intensity values detected in the spectrum given by the first numOfDataPoints
+   * values of the m/z and intensity arrays. The arrays are not modified and may be reused by the
+   * caller afterwards.
    */
-  public DataPoint[] getMassValues(DataPoint[] dp, ParameterSet parameters);
+  public DataPoint[] getMassValues(double mzValues[], double intensityValues[],
+      int numOfDataPoints, ParameterSet parameters);
 
-  public DataPoint[] getMassValues(Scan scan, ParameterSet parameters);
+  /**
+   * Returns mass and intensity values detected in given data points
+   */
+  public default DataPoint[] getMassValues(DataPoint[] dp, ParameterSet parameters) {
+    final double mzValues[] = new double[dp.length];
+    final double intensityValues[] = new double[dp.length];
+    for (int i = 0; i < dp.length; i++) {
+      mzValues[i] = dp[i].getMZ();
+      intensityValues[i] = dp[i].getIntensity();
+    }
+    return getMassValues(mzValues, intensityValues, dp.length, parameters);
+  }
+
+  /**
+   * Returns mass and intensity values detected in given scan. The scan's data points are read as
+   * primitive arrays, without creating a DataPoint instance for each of them.
+   */
+  public default DataPoint[] getMassValues(Scan scan, ParameterSet parameters) {
+    final double mzValues[] = new double[scan.getNumberOfDataPoints()];
+    final double intensityValues[] = new double[mzValues.length];
+    final int numOfDataPoints = scan.getDataPoints(mzValues, intensityValues);
+    return getMassValues(mzValues, intensityValues, numOfDataPoints, parameters);
+  }
 
 }
@@ -21,7 +21,7 @@ package io.github.mzmine.modules.dataprocessing.featdet_massdetection.centroid;
 import javax.annotation.Nonnull;
 
 import io.github.mzmine.datamodel.DataPoint;
-import io.github.mzmine.datamodel.Scan;
+import io.github.mzmine.datamodel.impl.SimpleDataPoint;
 import io.github.mzmine.modules.dataprocessing.featdet_massdetection.MassDetector;
 import io.github.mzmine.parameters.ParameterSet;
 
@@ -34,11 +34,8 @@ import java.util.ArrayList;
  */
 public class CentroidMassDetector implements MassDetector {
 
-  public DataPoint[] getMassValues(Scan scan, ParameterSet parameters) {
-    return getMassValues(scan.getDataPoints(), parameters);
-  }
-
-  public DataPoint[] getMassValues(DataPoint dataPoints[], ParameterSet parameters) {
+  public DataPoint[] getMassValues(double mzValues[], double intensityValues[],
+      int numOfDataPoints, ParameterSet parameters) {
 
     double noiseLevel =
         parameters.getParameter(CentroidMassDetectorParameters.noiseLevel).getValue();
@@ -46,12 +43,12 @@ public class CentroidMassDetector implements MassDetector {
     ArrayList<DataPoint> mzPeaks = new ArrayList<DataPoint>();
 
     // Find possible mzPeaks
-    for (int j = 0; j < dataPoints.length; j++) {
+    for (int j = 0; j < numOfDataPoints; j++) {
 
       // Is intensity above the noise level?
-      if (dataPoints[j].getIntensity() >= noiseLevel) {
+      if (intensityValues[j] >= noiseLevel) {
         // Yes, then mark this index as mzPeak
-        mzPeaks.add(dataPoints[j]);
+        mzPeaks.add(new SimpleDataPoint(mzValues[j], intensityValues[j]));
       }
     }
     return mzPeaks.toArray(new DataPoint[0]);
@@ -18,13 +18,12 @@
 
 package io.github.mzmine.modules.dataprocessing.featdet_massdetection.exactmass;
 
-import java.util.ArrayList;
 import java.util.TreeSet;
 
 import javax.annotation.Nonnull;
 
 import io.github.mzmine.datamodel.DataPoint;
-import io.github.mzmine.datamodel.Scan;
+import io.github.mzmine.datamodel.impl.SimpleDataPoint;
 import io.github.mzmine.modules.dataprocessing.featdet_massdetection.MassDetector;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.util.DataPointSorter;
@@ -33,14 +32,12 @@ import io.github.mzmine.util.SortingProperty;
 
 public class ExactMassDetector implements MassDetector {
 
-  public DataPoint[] getMassValues(Scan scan, ParameterSet parameters) {
-    return getMassValues(scan.getDataPoints(), parameters);
-  }
-
   /**
-   * @see io.github.mzmine.modules.peakpicking.threestep.massdetection.MassDetector#getMassValues(io.github.mzmine.datamodel.Scan)
+   * @see io.github.mzmine.modules.dataprocessing.featdet_massdetection.MassDetector#getMassValues(double[],
+   *      double[], int, io.github.mzmine.parameters.ParameterSet)
    */
-  public DataPoint[] getMassValues(DataPoint dataPoints[], ParameterSet parameters) {
+  public DataPoint[] getMassValues(double mzValues[], double intensityValues[],
+      int numOfDataPoints, ParameterSet parameters) {
 
     double noiseLevel = parameters.getParameter(ExactMassDetectorParameters.noiseLevel).getValue();
 
@@ -54,7 +51,7 @@ public class ExactMassDetector implements MassDetector {
         new DataPointSorter(SortingProperty.Intensity, SortingDirection.Descending));
 
     // First get all candidate peaks (local maximum)
-    getLocalMaxima(dataPoints, candidatePeaks, noiseLevel);
+    getLocalMaxima(mzValues, intensityValues, numOfDataPoints, candidatePeaks, noiseLevel);
 
     // We calculate the exact mass for each peak,
     // starting with biggest intensity peak and so on
@@ -87,23 +84,26 @@ public class ExactMassDetector implements MassDetector {
    * @param scan
    * @return
    */
-  private void getLocalMaxima(DataPoint scanDataPoints[], TreeSet<ExactMzDataPoint> candidatePeaks,
-      double noiseLevel) {
+  private void getLocalMaxima(double mzValues[], double intensityValues[], int numOfDataPoints,
+      TreeSet<ExactMzDataPoint> candidatePeaks, double noiseLevel) {
 
-    if (scanDataPoints.length == 0)
+    if (numOfDataPoints == 0)
       return;
-    DataPoint localMaximum = scanDataPoints[0];
-    ArrayList<DataPoint> rangeDataPoints = new ArrayList<DataPoint>();
+    int localMaximum = 0;
+
+    // Indices of the data points of the current m/z peak. DataPoint instances are only created
+    // for the peaks above the noise level.
+    int rangeIndices[] = new int[numOfDataPoints];
+    int rangeSize = 0;
 
     boolean ascending = true;
 
     // Iterate through all data points
-    for (int i = 0; i < scanDataPoints.length - 1; i++) {
+    for (int i = 0; i < numOfDataPoints - 1; i++) {
 
-      boolean nextIsBigger =
-          scanDataPoints[i + 1].getIntensity() > scanDataPoints[i].getIntensity();
-      boolean nextIsZero = scanDataPoints[i + 1].getIntensity() == 0;
-      boolean currentIsZero = scanDataPoints[i].getIntensity() == 0;
+      boolean nextIsBigger = intensityValues[i + 1] > intensityValues[i];
+      boolean nextIsZero = intensityValues[i + 1] == 0;
+      boolean currentIsZero = intensityValues[i] == 0;
 
       // Ignore zero intensity regions
       if (currentIsZero) {
@@ -111,11 +111,11 @@ public class ExactMassDetector implements MassDetector {
       }
 
       // Add current (non-zero) data point to the current m/z peak
-      rangeDataPoints.add(scanDataPoints[i]);
+      rangeIndices[rangeSize++] = i;
 
       // Check for local maximum
       if (ascending && (!nextIsBigger)) {
-        localMaximum = scanDataPoints[i];
+        localMaximum = i;
         ascending = false;
         continue;
       }
@@ -124,15 +124,20 @@ public class ExactMassDetector implements MassDetector {
       if ((!ascending) && (nextIsBigger || nextIsZero)) {
 
         // Add the m/z peak if it is above the noise level
-        if (localMaximum.getIntensity() > noiseLevel) {
-
-          DataPoint[] rawDataPoints = rangeDataPoints.toArray(new DataPoint[0]);
-          candidatePeaks.add(new ExactMzDataPoint(localMaximum, rawDataPoints));
+        if (intensityValues[localMaximum] > noiseLevel) {
+
+          DataPoint[] rawDataPoints = new DataPoint[rangeSize];
+          for (int j = 0; j < rangeSize; j++) {
+            rawDataPoints[j] =
+                new SimpleDataPoint(mzValues[rangeIndices[j]], intensityValues[rangeIndices[j]]);
+          }
+          candidatePeaks.add(new ExactMzDataPoint(mzValues[localMaximum],
+              intensityValues[localMaximum], rawDataPoints));
         }
 
         // Reset and start with new peak
         ascending = true;
-        rangeDataPoints.clear();
+        rangeSize = 0;
       }
 
     }
@@ -23,7 +23,7 @@ import java.util.ArrayList;
 import javax.annotation.Nonnull;
 
 import io.github.mzmine.datamodel.DataPoint;
-import io.github.mzmine.datamodel.Scan;
+import io.github.mzmine.datamodel.impl.SimpleDataPoint;
 import io.github.mzmine.modules.dataprocessing.featdet_massdetection.MassDetector;
 import io.github.mzmine.parameters.ParameterSet;
 
@@ -32,11 +32,8 @@ import io.github.mzmine.parameters.ParameterSet;
  */
 public class LocalMaxMassDetector implements MassDetector {
 
-  public DataPoint[] getMassValues(Scan scan, ParameterSet parameters) {
-    return getMassValues(scan.getDataPoints(), parameters);
-  }
-
-  public DataPoint[] getMassValues(DataPoint dataPoints[], ParameterSet parameters) {
+  public DataPoint[] getMassValues(double mzValues[], double intensityValues[],
+      int numOfDataPoints, ParameterSet parameters) {
 
     double noiseLevel =
         parameters.getParameter(LocalMaxMassDetectorParameters.noiseLevel).getValue();
@@ -44,20 +41,18 @@ public class LocalMaxMassDetector implements MassDetector {
     // List of found mz peaks
     ArrayList<DataPoint> mzPeaks = new ArrayList<DataPoint>();
 
-    // All data points of current m/z peak
-
-    // Top data point of current m/z peak
-    DataPoint currentMzPeakTop = null;
+    // Index of the top data point of current m/z peak
+    int currentMzPeakTop = -1;
 
     // True if we haven't reached the current local maximum yet
     boolean ascending = true;
 
     // Iterate through all data points
-    for (int i = 0; i < dataPoints.length - 1; i++) {
+    for (int i = 0; i < numOfDataPoints - 1; i++) {
 
-      boolean nextIsBigger = dataPoints[i + 1].getIntensity() > dataPoints[i].getIntensity();
-      boolean nextIsZero = dataPoints[i + 1].getIntensity() == 0;
-      boolean currentIsZero = dataPoints[i].getIntensity() == 0;
+      boolean nextIsBigger = intensityValues[i + 1] > intensityValues[i];
+      boolean nextIsZero = intensityValues[i + 1] == 0;
+      boolean currentIsZero = intensityValues[i] == 0;
 
       // Ignore zero intensity regions
       if (currentIsZero)
@@ -65,19 +60,20 @@ public class LocalMaxMassDetector implements MassDetector {
 
       // Check for local maximum
       if (ascending && (!nextIsBigger)) {
-        currentMzPeakTop = dataPoints[i];
+        currentMzPeakTop = i;
         ascending = false;
         continue;
       }
 
-      assert currentMzPeakTop != null;
+      assert currentMzPeakTop >= 0;
 
       // Check for the end of the peak
       if ((!ascending) && (nextIsBigger || nextIsZero)) {
 
         // Add the m/z peak if it is above the noise level
-        if (currentMzPeakTop.getIntensity() > noiseLevel) {
-          mzPeaks.add(currentMzPeakTop);
+        if (intensityValues[currentMzPeakTop] > noiseLevel) {
+          mzPeaks.add(
+              new SimpleDataPoint(mzValues[currentMzPeakTop], intensityValues[currentMzPeakTop]));
         }
 
         // Reset and start with new peak
@@ -19,12 +19,10 @@
 package io.github.mzmine.modules.dataprocessing.featdet_massdetection.wavelet;
 
 import java.util.TreeSet;
-import java.util.Vector;
 
 import javax.annotation.Nonnull;
 
 import io.github.mzmine.datamodel.DataPoint;
-import io.github.mzmine.datamodel.Scan;
 import io.github.mzmine.datamodel.impl.SimpleDataPoint;
 import io.github.mzmine.modules.dataprocessing.featdet_massdetection.MassDetector;
 import io.github.mzmine.parameters.ParameterSet;
@@ -39,10 +37,6 @@ import io.github.mzmine.util.SortingProperty;
  */
 public class WaveletMassDetector implements MassDetector {
 
-  public DataPoint[] getMassValues(Scan scan, ParameterSet parameters) {
-    return getMassValues(scan.getDataPoints(), parameters);
-  }
-
   /**
    * Parameters of the wavelet, NPOINTS is the number of wavelet values to use The WAVELET_ESL &
    * WAVELET_ESL indicates the Effective Support boundaries
@@ -51,16 +45,19 @@ public class WaveletMassDetector implements MassDetector {
   private static final int WAVELET_ESL = -5;
   private static final int WAVELET_ESR = 5;
 
-  public DataPoint[] getMassValues(DataPoint originalDataPoints[], ParameterSet parameters) {
+  public DataPoint[] getMassValues(double mzValues[], double intensityValues[],
+      int numOfDataPoints, ParameterSet parameters) {
     double noiseLevel =
         parameters.getParameter(WaveletMassDetectorParameters.noiseLevel).getValue();
     int scaleLevel = parameters.getParameter(WaveletMassDetectorParameters.scaleLevel).getValue();
     double waveletWindow =
         parameters.getParameter(WaveletMassDetectorParameters.waveletWindow).getValue();
 
-    DataPoint waveletDataPoints[] = performCWT(originalDataPoints, waveletWindow, scaleLevel);
+    double waveletIntensities[] =
+        performCWT(intensityValues, numOfDataPoints, waveletWindow, scaleLevel);
 
-    DataPoint mzPeaks[] = getMzPeaks(noiseLevel, originalDataPoints, waveletDataPoints);
+    DataPoint mzPeaks[] =
+        getMzPeaks(noiseLevel, mzValues, intensityValues, waveletIntensities, numOfDataPoints);
 
     return mzPeaks;
   }
@@ -68,12 +65,12 @@ public class WaveletMassDetector implements MassDetector {
   /**
    * Perform the CWT over raw data points in the selected scale level
    * 
-   * @param dataPoints
+   * @param intensityValues
+   * @return wavelet intensities, the m/z values are the same as the raw data points
    */
-  private SimpleDataPoint[] performCWT(DataPoint[] dataPoints, double waveletWindow,
+  private double[] performCWT(double[] intensityValues, int length, double waveletWindow,
       int scaleLevel) {
-    int length = dataPoints.length;
-    SimpleDataPoint[] cwtDataPoints = new SimpleDataPoint[length];
+    double[] cwtIntensities = new double[length];
     double wstep = ((WAVELET_ESR - WAVELET_ESL) / NPOINTS);
     double[] W = new double[(int) NPOINTS];
 
@@ -109,16 +106,16 @@ public class WaveletMassDetector implements MassDetector {
           ind = 0;
         if (ind >= NPOINTS)
           ind = (int) NPOINTS - 1;
-        intensity += dataPoints[i].getIntensity() * W[ind];
+        intensity += intensityValues[i] * W[ind];
       }
       intensity /= sqrtScaleLevel;
       // Eliminate the negative part of the wavelet map
       if (intensity < 0)
         intensity = 0;
-      cwtDataPoints[dx] = new SimpleDataPoint(dataPoints[dx].getMZ(), (double) intensity);
+      cwtIntensities[dx] = intensity;
     }
 
-    return cwtDataPoints;
+    return cwtIntensities;
   }
 
   /**
@@ -144,19 +141,20 @@ public class WaveletMassDetector implements MassDetector {
   /**
    * This function searches for maximums from wavelet data points
    */
-  private DataPoint[] getMzPeaks(double noiseLevel, DataPoint[] originalDataPoints,
-      DataPoint[] waveletDataPoints) {
+  private DataPoint[] getMzPeaks(double noiseLevel, double[] mzValues, double[] intensityValues,
+      double[] waveletIntensities, int length) {
 
     TreeSet<DataPoint> mzPeaks =
         new TreeSet<DataPoint>(new DataPointSorter(SortingProperty.MZ, SortingDirection.Ascending));
 
-    Vector<DataPoint> rawDataPoints = new Vector<DataPoint>();
+    // Highest raw intensity of the current peak
+    double aproxIntensity = 0;
     int peakMaxInd = 0;
-    int stopInd = waveletDataPoints.length - 1;
+    int stopInd = length - 1;
 
     for (int ind = 0; ind <= stopInd; ind++) {
 
-      while ((ind <= stopInd) && (waveletDataPoints[ind].getIntensity() == 0)) {
+      while ((ind <= stopInd) && (waveletIntensities[ind] == 0)) {
         ind++;
       }
       peakMaxInd = ind;
@@ -165,12 +163,12 @@ public class WaveletMassDetector implements MassDetector {
       }
 
       // While peak is on
-      while ((ind <= stopInd) && (waveletDataPoints[ind].getIntensity() > 0)) {
+      while ((ind <= stopInd) && (waveletIntensities[ind] > 0)) {
         // Check if this is the maximum point of the peak
-        if (waveletDataPoints[ind].getIntensity() > waveletDataPoints[peakMaxInd].getIntensity()) {
+        if (waveletIntensities[ind] > waveletIntensities[peakMaxInd]) {
           peakMaxInd = ind;
         }
-        rawDataPoints.add(originalDataPoints[ind]);
+        aproxIntensity = Math.max(aproxIntensity, intensityValues[ind]);
         ind++;
       }
 
@@ -178,33 +176,21 @@ public class WaveletMassDetector implements MassDetector {
         break;
       }
 
-      rawDataPoints.add(originalDataPoints[ind]);
+      aproxIntensity = Math.max(aproxIntensity, intensityValues[ind]);
 
-      if (originalDataPoints[peakMaxInd].getIntensity() > noiseLevel) {
-        SimpleDataPoint peakDataPoint = new SimpleDataPoint(originalDataPoints[peakMaxInd].getMZ(),
-            calcAproxIntensity(rawDataPoints));
+      if (intensityValues[peakMaxInd] > noiseLevel) {
+        SimpleDataPoint peakDataPoint = new SimpleDataPoint(mzValues[peakMaxInd], aproxIntensity);
 
         mzPeaks.add(peakDataPoint);
 
       }
-      rawDataPoints.clear();
+      aproxIntensity = 0;
     }
 
     return mzPeaks.toArray(new DataPoint[0]);
 
   }
 
-  private double calcAproxIntensity(Vector<DataPoint> rawDataPoints) {
-
-    double aproxIntensity = 0;
-
-    for (DataPoint d : rawDataPoints) {
-      if (d.getIntensity() > aproxIntensity)
-        aproxIntensity = d.getIntensity();
-    }
-    return aproxIntensity;
-  }
-
   @Override
   public @Nonnull String getName() {
     return "Wavelet transform";
@@ -126,6 +126,16 @@ public class BaselineCorrectionParameters extends SimpleParameterSet {
       new BooleanParameter("Remove source file after baseline correction",
           "If checked, original file will be replaced by the corrected version", true);
 
+  /**
+   * Baseline engine.
+   */
+  public static final ComboParameter<BaselineEngine> BASELINE_ENGINE =
+      new ComboParameter<BaselineEngine>("Baseline engine",
+          "Compute the baselines in R, or in Java without R for the asymmetric, rolling ball and "
+              + "rubber band correctors. The other correctors always use R. The Java engine is "
+              + "experimental, it is not verified against R yet.",
+          BaselineEngine.values(), BaselineEngine.R);
+
   /**
    * R engine type.
    */
@@ -138,7 +148,7 @@ public class BaselineCorrectionParameters extends SimpleParameterSet {
    */
   public BaselineCorrectionParameters() {
     super(new Parameter[] {dataFiles, SUFFIX, CHROMOTAGRAM_TYPE, MS_LEVEL, USE_MZ_BINS,
-        MZ_BIN_WIDTH, BASELINE_CORRECTORS, RENGINE_TYPE, REMOVE_ORIGINAL});
+        MZ_BIN_WIDTH, BASELINE_CORRECTORS, BASELINE_ENGINE, RENGINE_TYPE, REMOVE_ORIGINAL});
     thisParameters = null;
   }
 
@@ -19,8 +19,10 @@
 package io.github.mzmine.modules.dataprocessing.filter_baselinecorrection;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 
 import com.google.common.collect.Range;
 
@@ -48,6 +50,9 @@ public abstract class BaselineCorrector implements BaselineProvider, MZmineModul
   // Logger.
   protected static final Logger logger = Logger.getLogger(BaselineCorrector.class.getName());
 
+  // Maximum number of chromatogram values which are sent to R in one call
+  private static final int MAX_VALUES_PER_R_CALL = 1 << 20;
+
   // Processing info storage
   /**
    * String: dataFile being processed. int[]: 3 values array => { progress, progressMax, isAborted }
@@ -58,6 +63,7 @@ public abstract class BaselineCorrector implements BaselineProvider, MZmineModul
   private String suffix;
 
   // General parameters (common to all baseline correction methods).
+  private BaselineEngine baselineEngine;
   private REngineType rEgineType;
   private ChromatogramType chromatogramType;
   private double binWidth;
@@ -91,6 +97,8 @@ public abstract class BaselineCorrector implements BaselineProvider, MZmineModul
       generalParameters = BaselineCorrectionParameters.getBaselineCorrectionParameters();
     }
     // Get common parameters.
+    baselineEngine =
+        generalParameters.getParameter(BaselineCorrectionParameters.BASELINE_ENGINE).getValue();
     rEgineType =
         generalParameters.getParameter(BaselineCorrectionParameters.RENGINE_TYPE).getValue();
     suffix = generalParameters.getParameter(BaselineCorrectionParameters.SUFFIX).getValue();
@@ -105,12 +113,17 @@ public abstract class BaselineCorrector implements BaselineProvider, MZmineModul
       final RawDataFile dataFile, final ParameterSet parameters,
       final ParameterSet commonParameters) throws IOException, RSessionWrapperException {
 
-    if (isAborted(dataFile) || !rSession.isSessionRunning())
-      return null;
     // Get very last information from root module setup
     // this.setGeneralParameters(MZmineCore.getConfiguration().getModuleParameters(BaselineCorrectionModule.class));
     this.collectCommonParameters(commonParameters);
 
+    // The R session is not needed (and may be null) if the baselines are computed in Java.
+    if (isAborted(dataFile) || (!usesJavaEngine(parameters) && !rSession.isSessionRunning()))
+      return null;
+    if (baselineEngine == BaselineEngine.JAVA && !usesJavaEngine(parameters))
+      logger.info(getName()
+          + " has no Java implementation for these parameters, computing the baselines in R");
+
     RawDataFile correctedDataFile = null;
 
     RawDataFile origDataFile = dataFile;
@@ -254,10 +267,14 @@ public abstract class BaselineCorrector implements BaselineProvider, MZmineModul
     // Calculate baselines: done in-place, i.e. overwrite chromatograms to
     // save memory.
     logger.finest("Calculating baselines.");
-    for (int binIndex = 0; !isAborted(origDataFile) && binIndex < numBins; binIndex++) {
-      baseChrom[binIndex] =
-          computeBaseline(rSession, origDataFile, baseChrom[binIndex], parameters);
-      progressMap.get(origDataFile)[0]++;
+    final int binsPerCall = getBinsPerCall(numScans);
+    for (int binIndex = 0; !isAborted(origDataFile) && binIndex < numBins;
+        binIndex += binsPerCall) {
+      final int numOfCallBins = Math.min(binsPerCall, numBins - binIndex);
+      final double[][] baselines = computeBaselinesWithEngine(rSession, origDataFile,
+          Arrays.copyOfRange(baseChrom, binIndex, binIndex + numOfCallBins), parameters);
+      System.arraycopy(baselines, 0, baseChrom, binIndex, numOfCallBins);
+      progressMap.get(origDataFile)[0] += numOfCallBins;
     }
 
     // Subtract baselines.
@@ -306,21 +323,27 @@ public abstract class BaselineCorrector implements BaselineProvider, MZmineModul
     // Calculate baselines: done in-place, i.e. overwrite chromatograms to
     // save memory.
     logger.finest("Calculating baselines.");
-    for (int binIndex = 0; !isAborted(origDataFile) && binIndex < numBins; binIndex++) {
-
-      // Calculate baseline.
-      // final double[] baseline = asymBaseline(baseChrom[binIndex]);
-      final double[] baseline =
-          computeBaseline(rSession, origDataFile, baseChrom[binIndex], parameters);
-
-      // Normalize the baseline w.r.t. chromatogram (TIC).
-      for (int scanIndex = 0; !isAborted(origDataFile) && scanIndex < numScans; scanIndex++) {
-        final double bc = baseChrom[binIndex][scanIndex];
-        if (bc != 0.0) {
-          baseChrom[binIndex][scanIndex] = baseline[scanIndex] / bc;
+    final int binsPerCall = getBinsPerCall(numScans);
+    for (int callStart = 0; !isAborted(origDataFile) && callStart < numBins;
+        callStart += binsPerCall) {
+
+      // Calculate baselines.
+      final int numOfCallBins = Math.min(binsPerCall, numBins - callStart);
+      final double[][] baselines = computeBaselinesWithEngine(rSession, origDataFile,
+          Arrays.copyOfRange(baseChrom, callStart, callStart + numOfCallBins), parameters);
+
+      for (int binIndex = callStart; binIndex < callStart + numOfCallBins; binIndex++) {
+        final double[] baseline = baselines[binIndex - callStart];
+
+        // Normalize the baseline w.r.t. chromatogram (TIC).
+        for (int scanIndex = 0; !isAborted(origDataFile) && scanIndex < numScans; scanIndex++) {
+          final double bc = baseChrom[binIndex][scanIndex];
+          if (bc != 0.0) {
+            baseChrom[binIndex][scanIndex] = baseline[scanIndex] / bc;
+          }
         }
+        progressMap.get(origDataFile)[0]++;
       }
-      progressMap.get(origDataFile)[0]++;
     }
 
     // Subtract baselines.
@@ -343,6 +366,81 @@ public abstract class BaselineCorrector implements BaselineProvider, MZmineModul
 
   }
 
+  /**
+   * Number of m/z bins whose baselines are computed in one call of computeBaselines().
+   */
+  private static int getBinsPerCall(final int numScans) {
+    return Math.max(1, MAX_VALUES_PER_R_CALL / Math.max(1, numScans));
+  }
+
+  /**
+   * Computes the baselines with the selected engine. In Java, the baselines of the chromatograms
+   * are computed in parallel, and the chromatograms not started yet are skipped if the processing
+   * is aborted (their baselines are null).
+   * 
+   * @throws RSessionWrapperException
+   */
+  private double[][] computeBaselinesWithEngine(final RSessionWrapper rSession,
+      final RawDataFile origDataFile, final double[][] chromatograms,
+      final ParameterSet parameters) throws RSessionWrapperException {
+
+    if (!usesJavaEngine(parameters))
+      return computeBaselines(rSession, origDataFile, chromatograms, parameters);
+
+    final JavaBaselineProvider javaProvider = (JavaBaselineProvider) this;
+    final double[][] baselines = new double[chromatograms.length][];
+    IntStream.range(0, chromatograms.length).parallel().forEach(i -> {
+      if (!isAborted(origDataFile))
+        baselines[i] = javaProvider.computeBaselineInJava(chromatograms[i], parameters);
+    });
+    return baselines;
+  }
+
+  /**
+   * Computes the baselines of several chromatograms of the same length with a single R call. The
+   * chromatograms are sent as one packed vector, and the baselines are returned the same way.
+   * 
+   * @param chromatograms the chromatograms.
+   * @param baselineFunction R function which returns the baseline of its argument "chromatogram"
+   *        as a numeric vector (or a matrix with one row).
+   * @return the baselines - one per chromatogram.
+   * @throws RSessionWrapperException
+   */
+  protected static double[][] computeBaselinesInR(final RSessionWrapper rSession,
+      final double[][] chromatograms, final String baselineFunction)
+      throws RSessionWrapperException {
+
+    final int numOfChromatograms = chromatograms.length;
+    if (numOfChromatograms == 0)
+      return new double[0][];
+    final int numScans = chromatograms[0].length;
+
+    // Pack chromatograms.
+    final double[] packed = new double[numOfChromatograms * numScans];
+    for (int i = 0; i < numOfChromatograms; i++)
+      System.arraycopy(chromatograms[i], 0, packed, i * numScans, numScans);
+    rSession.assign("chromatograms", packed);
+
+    // Calculate all baselines.
+    rSession.eval("chromatograms <- matrix(chromatograms, ncol=" + numScans + ", byrow=TRUE)");
+    rSession.eval("blfunction <- " + baselineFunction);
+    rSession.eval("baselines <- unlist(lapply(seq_len(nrow(chromatograms)),"
+        + " function(i) as.numeric(blfunction(chromatograms[i, ]))))");
+    final double[] packedBaselines = rSession.collectDoubleArray("baselines");
+    // Done: Refresh R code stack
+    rSession.clearCode();
+
+    if (packedBaselines.length != packed.length)
+      throw new RSessionWrapperException("Baseline computation returned " + packedBaselines.length
+          + " values instead of " + packed.length + '.');
+
+    // Unpack baselines.
+    final double[][] baselines = new double[numOfChromatograms][];
+    for (int i = 0; i < numOfChromatograms; i++)
+      baselines[i] = Arrays.copyOfRange(packedBaselines, i * numScans, (i + 1) * numScans);
+    return baselines;
+  }
+
   /**
    * Constructs base peak (max) chromatograms - one for each m/z bin.
    * 
@@ -550,6 +648,18 @@ public abstract class BaselineCorrector implements BaselineProvider, MZmineModul
     progressMap.remove(origDataFile);
   }
 
+  /**
+   * Whether the baselines are computed in Java, i.e. the Java engine is selected and the corrector
+   * has a Java implementation for the given parameters. No R session is needed in this case. Call
+   * after collectCommonParameters().
+   * 
+   * @param parameters parameters specific to the actual method for baseline computing.
+   */
+  public boolean usesJavaEngine(final ParameterSet parameters) {
+    return baselineEngine == BaselineEngine.JAVA && this instanceof JavaBaselineProvider
+        && ((JavaBaselineProvider) this).hasJavaImplementation(parameters);
+  }
+
   public REngineType getRengineType() {
     return this.rEgineType;
   }
@@ -42,4 +42,20 @@ public interface BaselineProvider {
   public double[] computeBaseline(final RSessionWrapper rSession, final RawDataFile origDataFile,
       final double[] chromatogram, ParameterSet parameters) throws RSessionWrapperException;
 
+  /**
+   * Returns the baselines for correcting several chromatograms of the same length. Correctors can
+   * override this method to compute all baselines with a single R call.
+   * 
+   * @throws RSessionWrapperException
+   */
+  public default double[][] computeBaselines(final RSessionWrapper rSession,
+      final RawDataFile origDataFile, final double[][] chromatograms, ParameterSet parameters)
+      throws RSessionWrapperException {
+
+    final double[][] baselines = new double[chromatograms.length][];
+    for (int i = 0; i < chromatograms.length; i++)
+      baselines[i] = computeBaseline(rSession, origDataFile, chromatograms[i], parameters);
+    return baselines;
+  }
+
 }
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ * 
+ * This file is part of MZmine.
+ * 
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.dataprocessing.filter_baselinecorrection;
+
+import io.github.mzmine.parameters.ParameterSet;
+
+/**
+ * @description Interface of the correctors which can compute their baselines in Java, without R.
+ * 
+ */
+public interface JavaBaselineProvider {
+
+  /**
+   * Whether the baselines can be computed in Java with the given parameters. Otherwise, they are
+   * computed in R.
+   */
+  public boolean hasJavaImplementation(ParameterSet parameters);
+
+  /**
+   * Returns a baseline for correcting the given chromatogram, computed in Java. Only called if
+   * hasJavaImplementation(parameters) returns true.
+   */
+  public double[] computeBaselineInJava(final double[] chromatogram, ParameterSet parameters);
+
+}
@@ -18,10 +18,12 @@
 
 package io.github.mzmine.modules.dataprocessing.filter_baselinecorrection.correctors;
 
+import java.util.Arrays;
 import javax.annotation.Nonnull;
 
 import io.github.mzmine.datamodel.RawDataFile;
 import io.github.mzmine.modules.dataprocessing.filter_baselinecorrection.BaselineCorrector;
+import io.github.mzmine.modules.dataprocessing.filter_baselinecorrection.JavaBaselineProvider;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.util.R.RSessionWrapper;
 import io.github.mzmine.util.R.RSessionWrapperException;
@@ -32,7 +34,11 @@ import io.github.mzmine.util.R.RSessionWrapperException;
  *              (http://cran.r-project.org/web/packages/ptw/ptw.pdf).
  * 
  */
-public class AsymmetryCorrector extends BaselineCorrector {
+public class AsymmetryCorrector extends BaselineCorrector implements JavaBaselineProvider {
+
+  // Same as the defaults of "asysm"
+  private static final double EPS = 1e-8;
+  private static final int MAX_ITERATIONS = 25;
 
   @Override
   public String[] getRequiredRPackages() {
@@ -43,37 +49,125 @@ public class AsymmetryCorrector extends BaselineCorrector {
   public double[] computeBaseline(final RSessionWrapper rSession, final RawDataFile origDataFile,
       double[] chromatogram, ParameterSet parameters) throws RSessionWrapperException {
 
+    return computeBaselines(rSession, origDataFile, new double[][] {chromatogram}, parameters)[0];
+  }
+
+  @Override
+  public double[][] computeBaselines(final RSessionWrapper rSession,
+      final RawDataFile origDataFile, final double[][] chromatograms, ParameterSet parameters)
+      throws RSessionWrapperException {
+
+    if (chromatograms.length == 0)
+      return new double[0][];
+
     // Smoothing and asymmetry parameters.
     final double smoothing =
         parameters.getParameter(AsymmetryCorrectorParameters.SMOOTHING).getValue();
     final double asymmetry =
         parameters.getParameter(AsymmetryCorrectorParameters.ASYMMETRY).getValue();
 
-    // Compute baseline.
-    final double[] baseline;
-
-    // try {
-    // Set chromatogram.
-    // rSession.assignDoubleArray("chromatogram", chromatogram);
-    rSession.assign("chromatogram", chromatogram);
-    // Calculate baseline.
-    rSession.eval("baseline <- asysm(chromatogram," + smoothing + ',' + asymmetry + ')');
-    // baseline = rSession.collectDoubleArray("baseline");
-    baseline = (double[]) rSession.collect("baseline");
-    // Done: Refresh R code stack
-    rSession.clearCode();
-
-    // }
-    // catch (Throwable t) {
-    // //t.printStackTrace();
-    // throw new
-    // IllegalStateException("R error during baseline correction (" +
-    // this.getName() + ").", t);
-    // }
+    // Baseline of one chromatogram.
+    String baselineFunction =
+        "function(chromatogram) asysm(chromatogram," + smoothing + ',' + asymmetry + ')';
+
+    return computeBaselinesInR(rSession, chromatograms, baselineFunction);
+  }
+
+  @Override
+  public boolean hasJavaImplementation(ParameterSet parameters) {
+    return true;
+  }
+
+  /**
+   * Same as "asysm": Whittaker smoother with asymmetric weights, i.e. the baseline z minimizes
+   * sum(w * (y - z)^2) + smoothing * sum(diff(z, differences = 2)^2). The weights are updated from
+   * the residuals until they do not change any more.
+   */
+  @Override
+  public double[] computeBaselineInJava(final double[] chromatogram, ParameterSet parameters) {
+
+    final double smoothing =
+        parameters.getParameter(AsymmetryCorrectorParameters.SMOOTHING).getValue();
+    final double asymmetry =
+        parameters.getParameter(AsymmetryCorrectorParameters.ASYMMETRY).getValue();
+
+    final int n = chromatogram.length;
+    if (n < 3)
+      return chromatogram.clone();
+
+    final double weights[] = new double[n];
+    Arrays.fill(weights, 1.0);
+    double baseline[] = null;
+    for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+      baseline = smoothWeighted(chromatogram, weights, smoothing);
 
+      boolean changed = false;
+      for (int i = 0; i < n; i++) {
+        final double y = chromatogram[i];
+        final double w = ((y > baseline[i] + EPS || y < 0) ? asymmetry : 0.0)
+            + (y <= baseline[i] + EPS ? 1.0 - asymmetry : 0.0);
+        changed |= w != weights[i];
+        weights[i] = w;
+      }
+      if (!changed)
+        break;
+    }
     return baseline;
   }
 
+  /**
+   * Solves (W + lambda * D'D) z = W y, with W the diagonal weight matrix and D the second
+   * difference matrix. The matrix is symmetric and penta-diagonal, so it is solved by a banded LDL'
+   * decomposition in O(n).
+   */
+  private static double[] smoothWeighted(final double y[], final double w[], final double lambda) {
+
+    final int n = y.length;
+
+    // Diagonal and upper diagonals of W + lambda * D'D, from the rows (1, -2, 1) of D
+    final double d[] = new double[n], l1[] = new double[n], l2[] = new double[n];
+    for (int r = 0; r < n - 2; r++) {
+      d[r] += lambda;
+      d[r + 1] += 4 * lambda;
+      d[r + 2] += lambda;
+      l1[r] -= 2 * lambda;
+      l1[r + 1] -= 2 * lambda;
+      l2[r] += lambda;
+    }
+    for (int i = 0; i < n; i++)
+      d[i] += w[i];
+
+    // Decomposition: d becomes the diagonal of D, l1 and l2 the sub-diagonals of L
+    for (int i = 0; i < n; i++) {
+      if (i >= 1)
+        d[i] -= l1[i - 1] * l1[i - 1] * d[i - 1];
+      if (i >= 2)
+        d[i] -= l2[i - 2] * l2[i - 2] * d[i - 2];
+      if (i < n - 1)
+        l1[i] = (l1[i] - (i >= 1 ? l2[i - 1] * l1[i - 1] * d[i - 1] : 0)) / d[i];
+      if (i < n - 2)
+        l2[i] /= d[i];
+    }
+
+    // Forward and backward substitution
+    final double z[] = new double[n];
+    for (int i = 0; i < n; i++) {
+      z[i] = w[i] * y[i];
+      if (i >= 1)
+        z[i] -= l1[i - 1] * z[i - 1];
+      if (i >= 2)
+        z[i] -= l2[i - 2] * z[i - 2];
+    }
+    for (int i = n - 1; i >= 0; i--) {
+      z[i] /= d[i];
+      if (i < n - 1)
+        z[i] -= l1[i] * z[i + 1];
+      if (i < n - 2)
+        z[i] -= l2[i] * z[i + 2];
+    }
+    return z;
+  }
+
   @Override
   public @Nonnull String getName() {
     return "Asymmetric baseline corrector";
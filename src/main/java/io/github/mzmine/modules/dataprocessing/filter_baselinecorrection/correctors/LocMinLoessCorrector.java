@@ -45,6 +45,17 @@ public class LocMinLoessCorrector extends BaselineCorrector {
   public double[] computeBaseline(final RSessionWrapper rSession, final RawDataFile origDataFile,
       double[] chromatogram, ParameterSet parameters) throws RSessionWrapperException {
 
+    return computeBaselines(rSession, origDataFile, new double[][] {chromatogram}, parameters)[0];
+  }
+
+  @Override
+  public double[][] computeBaselines(final RSessionWrapper rSession,
+      final RawDataFile origDataFile, final double[][] chromatograms, ParameterSet parameters)
+      throws RSessionWrapperException {
+
+    if (chromatograms.length == 0)
+      return new double[0][];
+
     // Local Minima parameters.
     String method = parameters.getParameter(LocMinLoessCorrectorParameters.METHOD).getValue();
     double bw = parameters.getParameter(LocMinLoessCorrectorParameters.BW).getValue();
@@ -53,30 +64,23 @@ public class LocMinLoessCorrector extends BaselineCorrector {
         parameters.getParameter(LocMinLoessCorrectorParameters.BREAK_WIDTH).getValue();
     double qntl = parameters.getParameter(LocMinLoessCorrectorParameters.QNTL).getValue();
 
-    final double[] baseline;
-
-    // Set chromatogram.
-    rSession.assign("chromatogram", chromatogram);
-    // Transform chromatogram.
+    // Baseline of one chromatogram (all chromatograms have the same length).
     int mini = 1;
-    int maxi = chromatogram.length;
-    rSession.eval("mat <- cbind(matrix(seq(" + ((double) mini) + ", " + ((double) maxi)
-        + ", by = 1.0), ncol=1), " + "matrix(chromatogram[" + mini + ":" + maxi + "], ncol=1))");
+    int maxi = chromatograms[0].length;
+    // Transform chromatogram.
     // Breaks
-    rSession.eval("breaks <- "
-        + ((breaks_width > 0) ? (int) Math.round((double) (maxi - mini) / (double) breaks_width)
-            : breaks));
     // Calculate baseline.
     // + Seems like "loess" method doesn't support "bw=0.0"
-    rSession.eval("bseoff <- bslnoff(mat, method=\"" + method + "\", bw="
+    String baselineFunction = "function(chromatogram) {" + " mat <- cbind(matrix(seq("
+        + ((double) mini) + ", " + ((double) maxi) + ", by = 1.0), ncol=1), "
+        + "matrix(chromatogram[" + mini + ":" + maxi + "], ncol=1));" + " breaks <- "
+        + ((breaks_width > 0) ? (int) Math.round((double) (maxi - mini) / (double) breaks_width)
+            : breaks)
+        + ";" + " bseoff <- bslnoff(mat, method=\"" + method + "\", bw="
         + ((method.equals("approx") || bw >= BW_MIN_VAL) ? bw : BW_MIN_VAL)
-        + ", breaks=breaks, qntl=" + qntl + ")");
-    rSession.eval("baseline <- mat[,2] - bseoff[,2]");
-    baseline = (double[]) rSession.collect("baseline");
-    // Done: Refresh R code stack
-    rSession.clearCode();
+        + ", breaks=breaks, qntl=" + qntl + ");" + " mat[,2] - bseoff[,2] }";
 
-    return baseline;
+    return computeBaselinesInR(rSession, chromatograms, baselineFunction);
   }
 
   @Override
@@ -46,6 +46,17 @@ public class PeakDetectionCorrector extends BaselineCorrector {
   public double[] computeBaseline(final RSessionWrapper rSession, final RawDataFile origDataFile,
       double[] chromatogram, ParameterSet parameters) throws RSessionWrapperException {
 
+    return computeBaselines(rSession, origDataFile, new double[][] {chromatogram}, parameters)[0];
+  }
+
+  @Override
+  public double[][] computeBaselines(final RSessionWrapper rSession,
+      final RawDataFile origDataFile, final double[][] chromatograms, ParameterSet parameters)
+      throws RSessionWrapperException {
+
+    if (chromatograms.length == 0)
+      return new double[0][];
+
     // Feature Detection parameters.
     int left = parameters.getParameter(PeakDetectionCorrectorParameters.LEFT).getValue();
     int right = parameters.getParameter(PeakDetectionCorrectorParameters.RIGHT).getValue();
@@ -57,37 +68,25 @@ public class PeakDetectionCorrector extends BaselineCorrector {
     double multiplier =
         parameters.getParameter(PeakDetectionCorrectorParameters.MULTIPLIER).getValue();
 
-    final double[] baseline;
-
-    // Set chromatogram.
-    rSession.assign("chromatogram", chromatogram);
-    // Transform chromatogram.
-    rSession.eval("mat <- matrix(chromatogram, nrow=1)");
-
-    // Calculate baseline.
-    rSession.eval("bl <- NULL");
+    // Baseline of one chromatogram.
     // This method can fail for some bins when "useBins" is enabled, or more
     // generally speaking for
     // abusive parameter set
-    String cmd = "tryCatch({" + "bl <- baseline(mat, left=" + left + ", right=" + right + ", lwin="
-        + lwin + ", rwin=" + rwin + ", snminimum=" + snminimum + ", mono=" + mono + ", multiplier="
-        + multiplier + ", method='peakDetection')" + "}, warning = function(war) {"
-        + "message(\"<R warning>: \", war);" + "}, error = function(err) {"
-        + "message(\"<R error>: \", err);" + "}, finally = {" +
-        // "" +
-        "})";
-    rSession.eval(cmd);
     // Return a flat baseline (passing by the lowest intensity scan -
     // "min(chromatogram)") in case of failure
     // Anyway, this usually happens when "chromatogram" is fully flat and
     // zeroed.
-    rSession.eval(
-        "if (!is.null(bl)) { baseline <- getBaseline(bl); } else { baseline <- matrix(rep(min(chromatogram), length(chromatogram)), nrow=1); }");
-    baseline = ((double[][]) rSession.collect("baseline"))[0];
-    // Done: Refresh R code stack
-    rSession.clearCode();
+    String baselineFunction = "function(chromatogram) {"
+        + " mat <- matrix(chromatogram, nrow=1); bl <- NULL;" + " tryCatch({"
+        + "bl <- baseline(mat, left=" + left + ", right=" + right + ", lwin=" + lwin + ", rwin="
+        + rwin + ", snminimum=" + snminimum + ", mono=" + mono + ", multiplier=" + multiplier
+        + ", method='peakDetection')" + "}, warning = function(war) {"
+        + "message(\"<R warning>: \", war);" + "}, error = function(err) {"
+        + "message(\"<R error>: \", err);" + "}, finally = {" + "});"
+        + " if (!is.null(bl)) { getBaseline(bl) } else {"
+        + " matrix(rep(min(chromatogram), length(chromatogram)), nrow=1) } }";
 
-    return baseline;
+    return computeBaselinesInR(rSession, chromatograms, baselineFunction);
   }
 
   @Override
@@ -22,6 +22,7 @@ import javax.annotation.Nonnull;
 
 import io.github.mzmine.datamodel.RawDataFile;
 import io.github.mzmine.modules.dataprocessing.filter_baselinecorrection.BaselineCorrector;
+import io.github.mzmine.modules.dataprocessing.filter_baselinecorrection.JavaBaselineProvider;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.util.R.RSessionWrapper;
 import io.github.mzmine.util.R.RSessionWrapperException;
@@ -34,7 +35,7 @@ import io.github.mzmine.util.R.RSessionWrapperException;
  *              width has been left out).
  * 
  */
-public class RollingBallCorrector extends BaselineCorrector {
+public class RollingBallCorrector extends BaselineCorrector implements JavaBaselineProvider {
 
   @Override
   public String[] getRequiredRPackages() {
@@ -45,43 +46,111 @@ public class RollingBallCorrector extends BaselineCorrector {
   public double[] computeBaseline(final RSessionWrapper rSession, final RawDataFile origDataFile,
       double[] chromatogram, ParameterSet parameters) throws RSessionWrapperException {
 
-    // Rolling Ball parameters.
-    double wm = parameters.getParameter(RollingBallCorrectorParameters.MIN_MAX_WIDTH).getValue();
-    double ws = parameters.getParameter(RollingBallCorrectorParameters.SMOOTHING).getValue();
+    return computeBaselines(rSession, origDataFile, new double[][] {chromatogram}, parameters)[0];
+  }
 
-    final double[] baseline;
+  @Override
+  public double[][] computeBaselines(final RSessionWrapper rSession,
+      final RawDataFile origDataFile, final double[][] chromatograms, ParameterSet parameters)
+      throws RSessionWrapperException {
 
-    // Set chromatogram.
-    rSession.assign("chromatogram", chromatogram);
+    if (chromatograms.length == 0)
+      return new double[0][];
 
-    // Transform chromatogram.
-    rSession.eval("mat <- matrix(chromatogram, nrow=1)");
+    // Rolling Ball parameters.
+    double wm = parameters.getParameter(RollingBallCorrectorParameters.MIN_MAX_WIDTH).getValue();
+    double ws = parameters.getParameter(RollingBallCorrectorParameters.SMOOTHING).getValue();
 
-    // Calculate baseline.
-    rSession.eval("bl <- NULL");
+    // Baseline of one chromatogram.
     // This method can fail for some bins when "useBins" is enabled, or more
     // generally speaking for
     // abusive parameter set
-    String cmd =
-        "tryCatch({" + "bl <- baseline(mat, wm=" + wm + ", ws=" + ws + ", method='rollingBall')"
-            + "}, warning = function(war) {" + "message(\"<R warning>: \", war);"
-            + "}, error = function(err) {" + "message(\"<R error>: \", err);" + "}, finally = {" +
-            // "" +
-            "})";
-    rSession.eval(cmd);
     // Return a flat baseline (passing by the lowest intensity scan -
     // "min(chromatogram)") in case of failure
     // Anyway, this usually happens when "chromatogram" is fully flat and
     // zeroed.
-    rSession.eval(
-        "if (!is.null(bl)) { baseline <- getBaseline(bl); } else { baseline <- matrix(rep(min(chromatogram), length(chromatogram)), nrow=1); }");
-    baseline = ((double[][]) rSession.collect("baseline"))[0];
-    // Done: Refresh R code stack
-    rSession.clearCode();
+    String baselineFunction = "function(chromatogram) {"
+        + " mat <- matrix(chromatogram, nrow=1); bl <- NULL;" + " tryCatch({"
+        + "bl <- baseline(mat, wm=" + wm + ", ws=" + ws + ", method='rollingBall')"
+        + "}, warning = function(war) {" + "message(\"<R warning>: \", war);"
+        + "}, error = function(err) {" + "message(\"<R error>: \", err);" + "}, finally = {"
+        + "});"
+        + " if (!is.null(bl)) { getBaseline(bl) } else {"
+        + " matrix(rep(min(chromatogram), length(chromatogram)), nrow=1) } }";
+
+    return computeBaselinesInR(rSession, chromatograms, baselineFunction);
+  }
+
+  @Override
+  public boolean hasJavaImplementation(ParameterSet parameters) {
+    return true;
+  }
+
+  /**
+   * Same as "rollingBall": minimum over windows of +/- wm scans, maximum of these minima over the
+   * same windows, and mean of the result over windows of +/- ws scans. Near the ends of the
+   * chromatogram, the windows stay centered: they start with the first (or last) scan only and
+   * grow by one scan on each side per position, up to their full width.
+   */
+  @Override
+  public double[] computeBaselineInJava(final double[] chromatogram, ParameterSet parameters) {
+
+    final int wm = parameters.getParameter(RollingBallCorrectorParameters.MIN_MAX_WIDTH).getValue();
+    final int ws = parameters.getParameter(RollingBallCorrectorParameters.SMOOTHING).getValue();
+
+    final double minimized[] = windowExtremum(chromatogram, wm, false);
+    final double maximized[] = windowExtremum(minimized, wm, true);
 
+    // Smooth
+    final int n = chromatogram.length;
+    final double sums[] = new double[n + 1];
+    for (int i = 0; i < n; i++)
+      sums[i + 1] = sums[i] + maximized[i];
+    final double baseline[] = new double[n];
+    for (int i = 0; i < n; i++) {
+      final int halfWidth = halfWidth(i, ws, n);
+      baseline[i] = (sums[i + halfWidth + 1] - sums[i - halfWidth]) / (2 * halfWidth + 1);
+    }
     return baseline;
   }
 
+  /**
+   * Half width of the window centered on position i: width, or less near the ends
+   */
+  private static int halfWidth(final int i, final int width, final int n) {
+    return Math.min(width, Math.min(i, n - 1 - i));
+  }
+
+  /**
+   * Minimum (or maximum) of the values inside the window of +/- halfWidth() positions around each
+   * position, in O(n) with a monotonic queue of positions. Both ends of the windows never move
+   * backwards.
+   */
+  private static double[] windowExtremum(final double values[], final int width,
+      final boolean maximum) {
+
+    final int n = values.length;
+    final double result[] = new double[n];
+    final int queue[] = new int[n];
+    int head = 0, tail = 0;
+    int next = 0;
+    for (int i = 0; i < n; i++) {
+      final int halfWidth = halfWidth(i, width, n);
+      // Add the positions up to i + halfWidth
+      for (; next <= i + halfWidth; next++) {
+        while (tail > head && (maximum ? values[queue[tail - 1]] <= values[next]
+            : values[queue[tail - 1]] >= values[next]))
+          tail--;
+        queue[tail++] = next;
+      }
+      // Remove the positions before i - halfWidth
+      while (queue[head] < i - halfWidth)
+        head++;
+      result[i] = values[queue[head]];
+    }
+    return result;
+  }
+
   @Override
   public @Nonnull String getName() {
     return "RollingBall baseline corrector";
@@ -18,10 +18,12 @@
 
 package io.github.mzmine.modules.dataprocessing.filter_baselinecorrection.correctors;
 
+import java.util.Arrays;
 import javax.annotation.Nonnull;
 
 import io.github.mzmine.datamodel.RawDataFile;
 import io.github.mzmine.modules.dataprocessing.filter_baselinecorrection.BaselineCorrector;
+import io.github.mzmine.modules.dataprocessing.filter_baselinecorrection.JavaBaselineProvider;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.util.R.RSessionWrapper;
 import io.github.mzmine.util.R.RSessionWrapperException;
@@ -33,7 +35,7 @@ import io.github.mzmine.util.R.RSessionWrapperException;
  *              (http://cran.r-project.org/web/packages /hyperSpec/vignettes/baseline.pdf).
  * 
  */
-public class RubberBandCorrector extends BaselineCorrector {
+public class RubberBandCorrector extends BaselineCorrector implements JavaBaselineProvider {
 
   @Override
   public String[] getRequiredRPackages() {
@@ -44,6 +46,17 @@ public class RubberBandCorrector extends BaselineCorrector {
   public double[] computeBaseline(final RSessionWrapper rSession, final RawDataFile origDataFile,
       double[] chromatogram, ParameterSet parameters) throws RSessionWrapperException {
 
+    return computeBaselines(rSession, origDataFile, new double[][] {chromatogram}, parameters)[0];
+  }
+
+  @Override
+  public double[][] computeBaselines(final RSessionWrapper rSession,
+      final RawDataFile origDataFile, final double[][] chromatograms, ParameterSet parameters)
+      throws RSessionWrapperException {
+
+    if (chromatograms.length == 0)
+      return new double[0][];
+
     // Rubber Band parameters.
     double noise = parameters.getParameter(RubberBandCorrectorParameters.NOISE).getValue();
     boolean autoNoise =
@@ -52,34 +65,98 @@ public class RubberBandCorrector extends BaselineCorrector {
     boolean spline = parameters.getParameter(RubberBandCorrectorParameters.SPLINE).getValue();
     double bend = parameters.getParameter(RubberBandCorrectorParameters.BEND_FACTOR).getValue();
 
-    final double[] baseline;
-
-    // Set chromatogram.
-    rSession.assign("chromatogram", chromatogram);
-    // Transform chromatogram.
-    rSession.eval("mat <- matrix(chromatogram, nrow=1)");
-    rSession.eval("spc <- new (\"hyperSpec\", spc = mat, wavelength = as.numeric(seq(" + 1 + ", "
-        + chromatogram.length + ")))");
-    // Auto noise ?
-    rSession.eval("noise <- " + ((autoNoise) ? "min(mat)" : "" + noise));
-    // Bend
-    rSession.eval("bend <- " + bend + " * wl.eval(spc, function(x) x^2, normalize.wl=normalize01)");
-    // Calculate baseline.
-    rSession.eval("baseline <- spc.rubberband(spc + bend, noise = noise, df = " + df + ", spline="
-        + (spline ? "T" : "F") + ") - bend");
+    // Baseline of one chromatogram.
     // 'NA' might appear in 'baseline' array when 'spline' parameter set to
     // 'FALSE',
     // So handle them properly if necessary...
-    rSession.eval(
-        "if (is.na(baseline)) { baseline[is.na(baseline)] <- " + RSessionWrapper.NA_DOUBLE + " }");
-    rSession.eval("baseline <- orderwl(baseline)[[1]]");
-    baseline = ((double[][]) rSession.collect("baseline"))[0];
-    // Done: Refresh R code stack
-    rSession.clearCode();
+    String baselineFunction = "function(chromatogram) {"
+        + " mat <- matrix(chromatogram, nrow=1);"
+        + " spc <- new (\"hyperSpec\", spc = mat, wavelength = as.numeric(seq(" + 1 + ", "
+        + chromatograms[0].length + ")));"
+        + " noise <- " + ((autoNoise) ? "min(mat)" : "" + noise) + ";"
+        + " bend <- " + bend + " * wl.eval(spc, function(x) x^2, normalize.wl=normalize01);"
+        + " baseline <- spc.rubberband(spc + bend, noise = noise, df = " + df + ", spline="
+        + (spline ? "T" : "F") + ") - bend;"
+        + " if (is.na(baseline)) { baseline[is.na(baseline)] <- " + RSessionWrapper.NA_DOUBLE
+        + " };" + " orderwl(baseline)[[1]] }";
+
+    return computeBaselinesInR(rSession, chromatograms, baselineFunction);
+  }
+
+  /**
+   * Only the piecewise linear baseline is computed in Java. The spline of "spc.rubberband" is a
+   * smoothing spline constrained by "df", so it is computed in R.
+   */
+  @Override
+  public boolean hasJavaImplementation(ParameterSet parameters) {
+    return !parameters.getParameter(RubberBandCorrectorParameters.SPLINE).getValue();
+  }
+
+  /**
+   * Same as "spc.rubberband" with spline = FALSE: the support points are the points of the lower
+   * convex hull of the chromatogram (plus the bend), and the baseline is interpolated linearly
+   * between them.
+   */
+  @Override
+  public double[] computeBaselineInJava(final double[] chromatogram, ParameterSet parameters) {
+
+    double bend = parameters.getParameter(RubberBandCorrectorParameters.BEND_FACTOR).getValue();
+
+    final int n = chromatogram.length;
+    if (n == 0)
+      return new double[0];
+
+    // Bend: bend * x^2, with the scan positions normalized to 0 ... 1
+    final double bendValues[] = new double[n];
+    final double bent[] = new double[n];
+    for (int i = 0; i < n; i++) {
+      final double x = n > 1 ? (double) i / (n - 1) : 0.0;
+      bendValues[i] = bend * x * x;
+      bent[i] = chromatogram[i] + bendValues[i];
+    }
+
+    // Lower convex hull (monotone chain)
+    final int hull[] = new int[n];
+    int hullSize = 0;
+    for (int i = 0; i < n; i++) {
+      while (hullSize >= 2 && cross(hull[hullSize - 2], hull[hullSize - 1], i, bent) <= 0)
+        hullSize--;
+      hull[hullSize++] = i;
+    }
 
+    final double baseline[] = linearInterpolation(hull, bent, hullSize, n);
+    for (int i = 0; i < n; i++)
+      baseline[i] -= bendValues[i];
     return baseline;
   }
 
+  /**
+   * Cross product of the vectors o -> a and o -> b, positive for a counter-clockwise turn
+   */
+  private static double cross(final int o, final int a, final int b, final double y[]) {
+    return (double) (a - o) * (y[b] - y[o]) - (y[a] - y[o]) * (b - o);
+  }
+
+  /**
+   * Linear interpolation between the support points x[0 ... size-1], evaluated at 0 ... n-1. The x
+   * values are increasing and include 0 and n-1.
+   */
+  private static double[] linearInterpolation(final int x[], final double y[], final int size,
+      final int n) {
+
+    final double result[] = new double[n];
+    if (size == 1) {
+      Arrays.fill(result, y[x[0]]);
+      return result;
+    }
+    for (int k = 0; k < size - 1; k++) {
+      final double slope = (y[x[k + 1]] - y[x[k]]) / (x[k + 1] - x[k]);
+      for (int i = x[k]; i <= x[k + 1]; i++)
+        result[i] = y[x[k]] + slope * (i - x[k]);
+    }
+    return result;
+  }
+
   @Override
   public @Nonnull String getName() {
     return "RubberBand baseline corrector";
@@ -27,13 +27,11 @@ import io.github.mzmine.datamodel.MZmineProject;
 import io.github.mzmine.datamodel.PeakList;
 import io.github.mzmine.datamodel.PeakListRow;
 import io.github.mzmine.datamodel.RawDataFile;
-import io.github.mzmine.datamodel.Scan;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import io.github.mzmine.parameters.parametertypes.tolerances.RTTolerance;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
-import it.unimi.dsi.fastutil.ints.IntArrayList;
 
 /**
  * Filters out feature list rows.
@@ -101,48 +99,18 @@ public class GroupMS2Task extends AbstractTask {
             return;
 
           RawDataFile raw = f.getDataFile();
-          IntArrayList scans = new IntArrayList();
-          int best = f.getRepresentativeScanNumber();
-          double frt = f.getRT();
-          double fmz = f.getMZ();
-          Range<Double> rtRange = f.getRawDataPointsRTRange();
-          int i = best;
-          // left
-          while (i > 1) {
-            i--;
-            Scan scan = raw.getScan(i);
-            if (scan != null) {
-              if ((!limitRTByFeature || rtRange.contains(scan.getRetentionTime()))
-                  && rtTol.checkWithinTolerance(frt, scan.getRetentionTime())) {
-                if (scan.getPrecursorMZ() != 0
-                    && mzTol.checkWithinTolerance(fmz, scan.getPrecursorMZ()))
-                  scans.add(i);
-              } else {
-                // end of loop - out of tolerance
-                break;
-              }
-            }
-          }
-          int[] scanNumbers = raw.getScanNumbers();
-          // right
-          while (i < scanNumbers[scanNumbers.length - 1]) {
-            i++;
-            Scan scan = raw.getScan(i);
-            // scanID does not have to be contiguous
-            if (scan != null) {
-              if ((!limitRTByFeature || rtRange.contains(scan.getRetentionTime()))
-                  && rtTol.checkWithinTolerance(frt, scan.getRetentionTime())) {
-                if (scan.getPrecursorMZ() != 0
-                    && mzTol.checkWithinTolerance(fmz, scan.getPrecursorMZ()))
-                  scans.add(i);
-              } else {
-                // end of loop - out of tolerance
-                break;
-              }
-            }
+          // all MS2 scans within the RT tolerance (and the RT range of the feature)
+          Range<Double> rtRange = rtTol.getToleranceRange(f.getRT());
+          Range<Double> featureRTRange = f.getRawDataPointsRTRange();
+          int[] scans = new int[0];
+          if (!limitRTByFeature || rtRange.isConnected(featureRTRange)) {
+            if (limitRTByFeature)
+              rtRange = rtRange.intersection(featureRTRange);
+            scans = raw.getMS2PrecursorIndex().getScanNumbers(mzTol.getToleranceRange(f.getMZ()),
+                rtRange);
           }
           // set list to feature
-          f.setAllMS2FragmentScanNumbers(scans.toIntArray());
+          f.setAllMS2FragmentScanNumbers(scans);
         }
         processedRows++;
       }
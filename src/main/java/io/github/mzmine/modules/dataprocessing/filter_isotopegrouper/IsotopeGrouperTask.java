@@ -19,8 +19,8 @@
 package io.github.mzmine.modules.dataprocessing.filter_isotopegrouper;
 
 import java.util.Arrays;
-import java.util.Vector;
 import java.util.logging.Logger;
+import com.google.common.collect.Range;
 import io.github.mzmine.datamodel.DataPoint;
 import io.github.mzmine.datamodel.Feature;
 import io.github.mzmine.datamodel.IsotopePattern.IsotopePatternStatus;
@@ -40,10 +40,14 @@ import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import io.github.mzmine.parameters.parametertypes.tolerances.RTTolerance;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
+import io.github.mzmine.util.ArrayUtils;
 import io.github.mzmine.util.PeakSorter;
 import io.github.mzmine.util.PeakUtils;
 import io.github.mzmine.util.SortingDirection;
 import io.github.mzmine.util.SortingProperty;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
 
 /**
  *
@@ -75,6 +79,15 @@ class IsotopeGrouperTask extends AbstractTask {
   private int maximumCharge;
   private ParameterSet parameters;
 
+  // m/z and RT of the peaks in order of descending height, and the peaks of this order which were
+  // already assigned to an isotope pattern
+  private double peakMZ[], peakRT[];
+  private boolean removed[];
+
+  // Positions of the peaks in height order, sorted by m/z
+  private int mzOrder[];
+  private double sortedMZ[];
+
   /**
    * @param rawDataFile
    * @param parameters
@@ -141,6 +154,7 @@ class IsotopeGrouperTask extends AbstractTask {
 
     // Loop through all peaks
     totalPeaks = sortedPeaks.length;
+    indexPeaks(sortedPeaks);
 
     for (int ind = 0; ind < totalPeaks; ind++) {
 
@@ -150,20 +164,20 @@ class IsotopeGrouperTask extends AbstractTask {
       Feature aPeak = sortedPeaks[ind];
 
       // Check if peak was already deleted
-      if (aPeak == null) {
+      if (removed[ind]) {
         processedPeaks++;
         continue;
       }
 
-      // Check which charge state fits best around this peak
+      // Check which charge state fits best around this peak. A fit only takes a few binary
+      // searches, which is too little work to fit the charge states in parallel (see
+      // IsotopeGrouperBenchmark)
       int bestFitCharge = 0;
       int bestFitScore = -1;
-      Vector<Feature> bestFitPeaks = null;
+      IntArrayList bestFitPeaks = null;
       for (int charge : charges) {
 
-        Vector<Feature> fittedPeaks = new Vector<Feature>();
-        fittedPeaks.add(aPeak);
-        fitPattern(fittedPeaks, aPeak, charge, sortedPeaks);
+        IntArrayList fittedPeaks = fitPattern(ind, charge);
 
         int score = fittedPeaks.size();
         if ((score > bestFitScore) || ((score == bestFitScore) && (bestFitCharge > charge))) {
@@ -187,7 +201,9 @@ class IsotopeGrouperTask extends AbstractTask {
       }
 
       // Convert the peak pattern to array
-      Feature originalPeaks[] = bestFitPeaks.toArray(new Feature[0]);
+      Feature originalPeaks[] = new Feature[bestFitPeaks.size()];
+      for (int i = 0; i < originalPeaks.length; i++)
+        originalPeaks[i] = sortedPeaks[bestFitPeaks.getInt(i)];
 
       // Create a new SimpleIsotopePattern
       DataPoint isotopes[] = new DataPoint[bestFitPeaks.size()];
@@ -220,10 +236,8 @@ class IsotopeGrouperTask extends AbstractTask {
       deisotopedPeakList.addRow(newRow);
 
       // Remove all peaks already assigned to isotope pattern
-      for (int i = 0; i < sortedPeaks.length; i++) {
-        if (bestFitPeaks.contains(sortedPeaks[i]))
-          sortedPeaks[i] = null;
-      }
+      for (int i = 0; i < bestFitPeaks.size(); i++)
+        removed[bestFitPeaks.getInt(i)] = true;
 
       // Update completion rate
       processedPeaks++;
@@ -251,27 +265,56 @@ class IsotopeGrouperTask extends AbstractTask {
 
   }
 
+  /**
+   * Indexes the m/z and RT of the peaks, which have to be sorted by descending height, for
+   * fitPattern
+   */
+  void indexPeaks(Feature sortedPeaks[]) {
+
+    // m/z and RT of the peaks in height order, and the peaks sorted by m/z
+    peakMZ = new double[sortedPeaks.length];
+    peakRT = new double[sortedPeaks.length];
+    mzOrder = new int[sortedPeaks.length];
+    for (int i = 0; i < sortedPeaks.length; i++) {
+      peakMZ[i] = sortedPeaks[i].getMZ();
+      peakRT[i] = sortedPeaks[i].getRT();
+      mzOrder[i] = i;
+    }
+    IntArrays.quickSort(mzOrder, (a, b) -> Double.compare(peakMZ[a], peakMZ[b]));
+    sortedMZ = new double[sortedPeaks.length];
+    for (int i = 0; i < sortedPeaks.length; i++)
+      sortedMZ[i] = peakMZ[mzOrder[i]];
+    removed = new boolean[sortedPeaks.length];
+  }
+
   /**
    * Fits isotope pattern around one peak.
    *
-   * @param p Pattern is fitted around this peak
+   * @param p Pattern is fitted around this peak (position in height order)
    * @param charge Charge state of the fitted pattern
+   * @return positions of the fitted peaks, starting with p
    */
-  private void fitPattern(Vector<Feature> fittedPeaks, Feature p, int charge,
-      Feature[] sortedPeaks) {
+  IntArrayList fitPattern(int p, int charge) {
+
+    IntArrayList fittedPeaks = new IntArrayList();
+    fittedPeaks.add(p);
 
     if (charge == 0) {
-      return;
+      return fittedPeaks;
     }
 
+    IntOpenHashSet fittedPeakSet = new IntOpenHashSet();
+    fittedPeakSet.add(p);
+
     // Search for peaks before the start peak
     if (!monotonicShape) {
-      fitHalfPattern(p, charge, -1, fittedPeaks, sortedPeaks);
+      fitHalfPattern(p, charge, -1, fittedPeaks, fittedPeakSet);
     }
 
     // Search for peaks after the start peak
-    fitHalfPattern(p, charge, 1, fittedPeaks, sortedPeaks);
+    fitHalfPattern(p, charge, 1, fittedPeaks, fittedPeakSet);
 
+    return fittedPeaks;
   }
 
   /**
@@ -281,14 +324,18 @@ class IsotopeGrouperTask extends AbstractTask {
    * @param charge Charge state of the fitted pattern
    * @param direction Defines which half to fit: -1=fit to peaks before start M/Z, +1=fit to peaks
    *        after start M/Z
-   * @param fittedPeaks All matching peaks will be added to this set
+   * @param fittedPeaks All matching peaks will be added to this list
+   * @param fittedPeakSet Same peaks as fittedPeaks, for fast lookup
    */
-  private void fitHalfPattern(Feature p, int charge, int direction, Vector<Feature> fittedPeaks,
-      Feature[] sortedPeaks) {
+  private void fitHalfPattern(int p, int charge, int direction, IntArrayList fittedPeaks,
+      IntOpenHashSet fittedPeakSet) {
 
     // Use M/Z and RT of the strongest peak of the pattern (peak 'p')
-    double mainMZ = p.getMZ();
-    double mainRT = p.getRT();
+    double mainMZ = peakMZ[p];
+    double mainRT = peakRT[p];
+
+    // The isotope m/z of a candidate has to be within the reverse tolerance range of mainMZ
+    Range<Double> isotopeMZRange = mzTolerance.getReverseToleranceRange(mainMZ);
 
     // Variable n is the number of peak we are currently searching. 1=first
     // peak before/after start peak, 2=peak before/after previous, 3=...
@@ -300,19 +347,23 @@ class IsotopeGrouperTask extends AbstractTask {
       // will end the loop)
       followingPeakFound = false;
 
-      // Loop through all peaks, and collect candidates for the n:th peak
-      // in the pattern
-      Vector<Feature> goodCandidates = new Vector<Feature>();
-      for (int ind = 0; ind < sortedPeaks.length; ind++) {
+      // Collect candidates for the n:th peak in the pattern from the m/z window of the peaks
+      // sorted by m/z
+      final double shift = isotopeDistance * direction * n / charge;
+      final double minMZ = isotopeMZRange.lowerEndpoint() + shift;
+      final double maxMZ = isotopeMZRange.upperEndpoint() + shift;
+      IntArrayList goodCandidates = new IntArrayList();
+      for (int i = ArrayUtils.firstIndexNotBelow(sortedMZ, minMZ); i < sortedMZ.length
+          && sortedMZ[i] <= maxMZ; i++) {
 
-        Feature candidatePeak = sortedPeaks[ind];
+        final int candidatePeak = mzOrder[i];
 
-        if (candidatePeak == null)
+        if (removed[candidatePeak])
           continue;
 
         // Get properties of the candidate peak
-        double candidatePeakMZ = candidatePeak.getMZ();
-        double candidatePeakRT = candidatePeak.getRT();
+        double candidatePeakMZ = peakMZ[candidatePeak];
+        double candidatePeakRT = peakRT[candidatePeak];
 
         // Does this peak fill all requirements of a candidate?
         // - within tolerances from the expected location (M/Z and RT)
@@ -322,7 +373,7 @@ class IsotopeGrouperTask extends AbstractTask {
 
         if (mzTolerance.checkWithinTolerance(isotopeMZ, mainMZ)
             && rtTolerance.checkWithinTolerance(candidatePeakRT, mainRT)
-            && (!fittedPeaks.contains(candidatePeak))) {
+            && (!fittedPeakSet.contains(candidatePeak))) {
           goodCandidates.add(candidatePeak);
 
         }
@@ -330,10 +381,12 @@ class IsotopeGrouperTask extends AbstractTask {
       }
 
       // Add all good candidates to the isotope pattern (note: in MZmine
-      // 2.3 and older, only the highest candidate was added)
+      // 2.3 and older, only the highest candidate was added), in height order
       if (!goodCandidates.isEmpty()) {
 
+        IntArrays.quickSort(goodCandidates.elements(), 0, goodCandidates.size());
         fittedPeaks.addAll(goodCandidates);
+        fittedPeakSet.addAll(goodCandidates);
 
         // n:th peak was found, so let's move on to n+1
         n++;
@@ -32,6 +32,7 @@ import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
+import io.github.mzmine.util.scans.ScanWindowReader;
 
 public class ScanSmoothingTask extends AbstractTask {
 
@@ -106,13 +107,16 @@ public class ScanSmoothingTask extends AbstractTask {
     totalScans = scanNumbers.length;
 
     RawDataFileWriter newRDFW = null;
+    ScanWindowReader window = null;
     int timepassed = 0;
     int mzpassed = 0;
     try {
       newRDFW = MZmineCore.createNewFile(dataFile.getName() + ' ' + suffix);
 
-      DataPoint mzValues[][] = null; // [relative scan][j value]
-      int i, j, si, sj, ii, k, ssi, ssj;
+      if (timeSpan > 0 || scanSpan > 0)
+        window = new ScanWindowReader(dataFile, scanNumbers);
+
+      int i, j, si, sj, k, ssi, ssj;
       for (i = 0; i < totalScans; i++) {
 
         if (isCanceled())
@@ -158,39 +162,36 @@ public class ScanSmoothingTask extends AbstractTask {
             }
             if (sj > si) {
               timepassed++;
-              // Allocate
-              if (mzValues == null || mzValues.length < sj - si + 1)
-                mzValues = new DataPoint[sj - si + 1][];
-              // Load Data Points
-              for (j = si; j <= sj; j++) {
-                Scan xscan = dataFile.getScan(scanNumbers[j]);
-                mzValues[j - si] = xscan.getDataPoints();
-              }
+              // Load Data Points, each scan is only read once while the window moves
+              window.moveTo(si, sj);
               // Estimate Averages
-              ii = i - si;
-              newDP = new DataPoint[mzValues[ii].length];
-              for (k = 0; k < mzValues[ii].length; k++) {
-                DataPoint dp = mzValues[ii][k];
-                double mz = dp.getMZ();
+              final double mzValues[] = window.getMzValues(i);
+              final double intensityValues[] = window.getIntensityValues(i);
+              newDP = new DataPoint[window.getNumberOfDataPoints(i)];
+              for (k = 0; k < newDP.length; k++) {
+                double mz = mzValues[k];
                 double intensidad = 0;
-                if (dp.getIntensity() > 0) { // only process
+                if (intensityValues[k] > 0) { // only process
                   // those > 0
                   double a = 0;
                   short c = 0;
                   int f = 0;
-                  for (j = 0; j < mzValues.length; j++) {
-                    // System.out.println(j);
-                    if (mzValues[j].length > k
-                        && Math.abs(mzValues[j][k].getMZ() - mz) < timeMZtol) {
+                  for (j = si; j <= sj; j++) {
+                    final double mzValuesJ[] = window.getMzValues(j);
+                    final double intensityValuesJ[] = window.getIntensityValues(j);
+                    final int lengthJ = window.getNumberOfDataPoints(j);
+                    if (lengthJ == 0)
+                      continue;
+                    if (lengthJ > k && Math.abs(mzValuesJ[k] - mz) < timeMZtol) {
                       f = k;
                     } else {
-                      f = findFirstMass(mz, mzValues[j]);
-                      if (Math.abs(mzValues[j][f].getMZ() - mz) > timeMZtol) {
+                      f = findFirstMass(mz, mzValuesJ, lengthJ);
+                      if (Math.abs(mzValuesJ[f] - mz) > timeMZtol) {
                         f = -f;
                       }
                     }
-                    if (f >= 0 && mzValues[j][f].getIntensity() >= minimumHeight) {
-                      a += mzValues[j][f].getIntensity();
+                    if (f >= 0 && intensityValuesJ[f] >= minimumHeight) {
+                      a += intensityValuesJ[f];
                       c++;
                     } else {
                       c = (short) (c + 0);
@@ -264,19 +265,22 @@ public class ScanSmoothingTask extends AbstractTask {
 
     } catch (IOException e) {
       e.printStackTrace();
+    } finally {
+      if (window != null)
+        window.close();
     }
 
   }
 
-  static int findFirstMass(double mass, DataPoint mzValues[]) {
+  static int findFirstMass(double mass, double mzValues[], int numOfDataPoints) {
     int l = 0;
-    int r = mzValues.length - 1;
+    int r = numOfDataPoints - 1;
     int mid = 0;
     while (l < r) {
       mid = (r + l) / 2;
-      if (mzValues[mid].getMZ() > mass) {
+      if (mzValues[mid] > mass) {
         r = mid - 1;
-      } else if (mzValues[mid].getMZ() < mass) {
+      } else if (mzValues[mid] < mass) {
         l = mid + 1;
       } else {
         r = mid;
@@ -26,6 +26,7 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import com.google.common.collect.Range;
 import io.github.mzmine.datamodel.PeakList;
 import io.github.mzmine.datamodel.PeakListRow;
 import io.github.mzmine.datamodel.impl.SimplePeakListAppliedMethod;
@@ -34,6 +35,7 @@ import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import io.github.mzmine.parameters.parametertypes.tolerances.RTTolerance;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
+import io.github.mzmine.util.MZRTRangeIndex;
 import io.github.mzmine.util.PeakListRowSorter;
 import io.github.mzmine.util.SortingDirection;
 import io.github.mzmine.util.SortingProperty;
@@ -127,35 +129,42 @@ public class AdductSearchTask extends AbstractTask {
     // Start with the highest peaks.
     Arrays.sort(rows, new PeakListRowSorter(SortingProperty.Height, SortingDirection.Descending));
 
-    // Compare each pair of rows against each other.
-    for (int i = 0; !isCanceled() && i < totalRows; i++) {
-      for (int j = 0; !isCanceled() && j < totalRows; j++) {
+    // Index of the rows by m/z and RT, so only the rows inside the tolerance window of each
+    // adduct are checked instead of all pairs of rows
+    final List<PeakListRow> rowList = Arrays.asList(rows);
+    final MZRTRangeIndex<PeakListRow> index =
+        new MZRTRangeIndex<>(PeakListRow::getAverageMZ, PeakListRow::getAverageRT);
 
-        if (i == j)
-          continue;
+    final AdductType adducts[] = selectedAdducts.toArray(new AdductType[0]);
+    final double massDifferences[] = new double[adducts.length];
+    for (int a = 0; a < adducts.length; a++)
+      massDifferences[a] = adducts[a].getMassDifference();
 
-        findAdducts(rows[i], rows[j]);
-      }
+    for (int i = 0; !isCanceled() && i < totalRows; i++) {
 
-      finishedRows++;
-    }
-  }
+      final PeakListRow mainRow = rows[i];
+      final Range<Double> rtRange = rtTolerance.getToleranceRange(mainRow.getAverageRT());
 
-  /**
-   * Check if candidate peak may be a possible adduct of a given main peak.
-   *
-   * @param mainRow main peak.
-   * @param possibleAdduct candidate adduct peak.
-   */
-  private void findAdducts(final PeakListRow mainRow, final PeakListRow possibleAdduct) {
+      // Identities are added to each candidate in the same order as when comparing all pairs:
+      // by main row, then by adduct
+      for (int a = 0; a < adducts.length; a++) {
+        final Range<Double> mzRange =
+            mzTolerance.getToleranceRange(mainRow.getAverageMZ() + massDifferences[a]);
+        for (int j : index.getPositionsInside(rowList, mzRange, rtRange)) {
 
-    for (final AdductType adduct : selectedAdducts) {
+          if (i == j)
+            continue;
 
-      if (checkAdduct(mainRow, possibleAdduct, adduct)) {
+          final PeakListRow possibleAdduct = rows[j];
+          if (checkAdduct(mainRow, possibleAdduct, adducts[a])) {
 
-        // Add adduct identity and notify GUI.
-        possibleAdduct.addPeakIdentity(new AdductIdentity(mainRow, adduct), false);
+            // Add adduct identity and notify GUI.
+            possibleAdduct.addPeakIdentity(new AdductIdentity(mainRow, adducts[a]), false);
+          }
+        }
       }
+
+      finishedRows++;
     }
   }
 
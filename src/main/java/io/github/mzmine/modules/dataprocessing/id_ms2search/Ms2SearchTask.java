@@ -19,6 +19,7 @@
 package io.github.mzmine.modules.dataprocessing.id_ms2search;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Logger;
 import io.github.mzmine.datamodel.DataPoint;
@@ -33,6 +34,9 @@ import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
+import io.github.mzmine.util.ArrayUtils;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
 
 class Ms2SearchResult {
   private double score;
@@ -145,34 +149,108 @@ class Ms2SearchTask extends AbstractTask {
     logger.info("Starting MS2 similarity search between " + peakList1 + " and " + peakList2
         + " with mz tolerance:" + mzTolerance.getPpmTolerance());
 
-    Ms2SearchResult searchResult;
     PeakListRow rows1[] = peakList1.getRows().toArray(PeakListRow[]::new);
     PeakListRow rows2[] = peakList2.getRows().toArray(PeakListRow[]::new);
 
-    int rows1Length = rows1.length;
-    int rows2Length = rows2.length;
+    totalRows = rows1.length;
+
+    // Fetch the fragment ions of all rows once, instead of once per pair of rows
+    DataPoint ions1[][] = getFragmentIons(rows1);
+    if (ions1 == null)
+      return;
+    DataPoint ions2[][] = getFragmentIons(rows2);
+    if (ions2 == null)
+      return;
+
+    // A pair of rows without any fragment ion inside the m/z tolerance has a score of 0 and no
+    // matched ions. Unless such pairs are reported, only the rows of the second list which share
+    // at least one fragment ion with the row of the first list have to be compared.
+    final boolean onlySharedIons = scoreThreshold >= 0 || minimumIonsMatched > 0;
+
+    // Fragment ions of all rows of the second list, sorted by m/z
+    int ionCount = 0;
+    for (DataPoint ions[] : ions2) {
+      if (ions != null)
+        ionCount += ions.length;
+    }
+    final double ionMz[] = new double[ionCount];
+    final int ionRow[] = new int[ionCount];
+    int ion = 0;
+    for (int j = 0; j < rows2.length; j++) {
+      if (ions2[j] == null)
+        continue;
+      for (DataPoint dp : ions2[j]) {
+        ionMz[ion] = dp.getMZ();
+        ionRow[ion] = j;
+        ion++;
+      }
+    }
+    final int ionOrder[] = new int[ionCount];
+    for (int k = 0; k < ionCount; k++)
+      ionOrder[k] = k;
+    IntArrays.quickSort(ionOrder, (x, y) -> Double.compare(ionMz[x], ionMz[y]));
+    final double sortedIonMz[] = new double[ionCount];
+    final int sortedIonRow[] = new int[ionCount];
+    for (int k = 0; k < ionCount; k++) {
+      sortedIonMz[k] = ionMz[ionOrder[k]];
+      sortedIonRow[k] = ionRow[ionOrder[k]];
+    }
 
-    totalRows = rows1Length;
+    final int allRows[] = new int[rows2.length];
+    for (int j = 0; j < rows2.length; j++)
+      allRows[j] = j;
 
-    for (int i = 0; i < rows1Length; i++) {
-      for (int j = 0; j < rows2Length; j++) {
-        Feature featureA = rows1[i].getBestPeak();
-        Feature featureB = rows2[j].getBestPeak();
-        // Complication. The "best" peak, may not have the "best"
-        // fragmentation
-        Scan scanA = rows1[i].getBestFragmentation();
-        Scan scanB = rows2[j].getBestFragmentation();
+    // Last row of the first list which was added to the candidates of each row of the second list
+    final int candidateOf[] = new int[rows2.length];
+    Arrays.fill(candidateOf, -1);
 
-        searchResult =
-            simpleMS2similarity(scanA, scanB, intensityThreshold, mzTolerance, massListName);
+    for (int i = 0; i < rows1.length; i++) {
+
+      if (isCanceled())
+        return;
+
+      if (ions1[i] == null) {
+        finishedRows++;
+        continue;
+      }
+
+      int candidates[] = allRows;
+      if (onlySharedIons) {
+        IntArrayList sharedRows = new IntArrayList();
+        for (DataPoint dp : ions1[i]) {
+          final double iMZ = dp.getMZ();
+          final double mzRangeAbsolute = iMZ * 1e-6 * mzTolerance.getPpmTolerance();
+          // The similarity checks the exact tolerance, the small margin only makes sure that
+          // rounding errors do not exclude any ion
+          final double margin = 4 * Math.ulp(Math.abs(iMZ) + mzRangeAbsolute);
+          final double minMz = iMZ - mzRangeAbsolute - margin;
+          final double maxMz = iMZ + mzRangeAbsolute + margin;
+          for (int k = ArrayUtils.firstIndexNotBelow(sortedIonMz, minMz);
+              k < ionCount && sortedIonMz[k] <= maxMz; k++) {
+            final int j = sortedIonRow[k];
+            if (candidateOf[j] != i) {
+              candidateOf[j] = i;
+              sharedRows.add(j);
+            }
+          }
+        }
+        // Identities are added in the order of the second list, as when comparing all pairs
+        candidates = sharedRows.toIntArray();
+        Arrays.sort(candidates);
+      }
+
+      for (int j : candidates) {
+
+        if (ions2[j] == null)
+          continue;
+
+        Ms2SearchResult searchResult = simpleMS2similarity(ions1[i], ions2[j]);
 
         // Report the final score to the peaklist identity
-        if (searchResult != null && searchResult.getScore() > scoreThreshold
+        if (searchResult.getScore() > scoreThreshold
             && searchResult.getNumIonsMatched() >= minimumIonsMatched)
-          this.addMS2Identity(rows1[i], featureA, featureB, searchResult);
-
-        if (isCanceled())
-          return;
+          this.addMS2Identity(rows1[i], rows1[i].getBestPeak(), rows2[j].getBestPeak(),
+              searchResult);
       }
 
       // Update progress bar
@@ -189,83 +267,65 @@ class Ms2SearchTask extends AbstractTask {
 
   }
 
-  private Ms2SearchResult simpleMS2similarity(Scan scanMS2A, Scan scanMS2B,
-      double intensityThreshold, MZTolerance mzRange, String massList) {
-
-    double runningScoreTotal = 0.0;
-    double mzRangePPM = mzRange.getPpmTolerance();
-
-    List<DataPoint> matchedIons = new ArrayList<DataPoint>();
-
-    // Fetch 1st feature MS2 scan.
-    // int ms2ScanNumberA = featureA.getMostIntenseFragmentScanNumber();
-    // Scan scanMS2A = featureA.getDataFile().getScan(ms2ScanNumberA);
+  /**
+   * Fetches the centroided fragment ions of the best fragmentation scan of each row. The "best"
+   * peak may not have the "best" fragmentation.
+   *
+   * @return ions of each row, null for rows without fragmentation scan or ions. Returns null and
+   *         sets the error status if a fragmentation scan does not have the mass list.
+   */
+  private DataPoint[][] getFragmentIons(PeakListRow rows[]) {
 
-    // Fetch 2nd feature MS2 scan.
-    // int ms2ScanNumberB = featureB.getMostIntenseFragmentScanNumber();
-    // Scan scanMS2B = featureB.getDataFile().getScan(ms2ScanNumberB);
+    DataPoint ions[][] = new DataPoint[rows.length][];
+    for (int i = 0; i < rows.length; i++) {
 
-    if (scanMS2A == null || scanMS2B == null) {
-      return null;
-    }
+      Scan scan = rows[i].getBestFragmentation();
+      if (scan == null)
+        continue;
 
-    // Fetch centroided data
-    MassList massListA = scanMS2A.getMassList(massListName);
-    MassList massListB = scanMS2B.getMassList(massListName);
-
-    if (massListA == null) {
-      // Will this work properly? As this function isn't directly the
-      // task?
-      setStatus(TaskStatus.ERROR);
-      setErrorMessage("Scan " + scanMS2A.getDataFile().getName() + " #" + scanMS2A.getScanNumber()
-          + " does not have a mass list " + massListName);
-      return null;
-    }
+      MassList massList = scan.getMassList(massListName);
+      if (massList == null) {
+        setStatus(TaskStatus.ERROR);
+        setErrorMessage("Scan " + scan.getDataFile().getName() + " #" + scan.getScanNumber()
+            + " does not have a mass list " + massListName);
+        return null;
+      }
 
-    if (massListB == null) {
-      // Will this work properly? As this function isn't directly the
-      // task?
-      setStatus(TaskStatus.ERROR);
-      setErrorMessage("Scan " + scanMS2B.getDataFile().getName() + " #" + scanMS2B.getScanNumber()
-          + " does not have a mass list " + massListName);
-      return null;
+      DataPoint dataPoints[] = massList.getDataPoints();
+      if (dataPoints != null && dataPoints.length > 0)
+        ions[i] = dataPoints;
     }
+    return ions;
+  }
 
-    DataPoint[] ionsA = null;
-    DataPoint[] ionsB = null;
+  private Ms2SearchResult simpleMS2similarity(DataPoint ionsA[], DataPoint ionsB[]) {
 
-    ionsA = massListA.getDataPoints();
-    ionsB = massListB.getDataPoints();
+    double runningScoreTotal = 0.0;
+    double mzRangePPM = mzTolerance.getPpmTolerance();
 
-    if (ionsA == null || ionsB == null || ionsA.length == 0 || ionsB.length == 0) {
-      // Fall back to profile data?
-      // Profile / raw data.
-      // ionsA = scanMS2A.getDataPointsOverIntensity(intensityThreshold);
-      // ionsB = scanMS2B.getDataPointsOverIntensity(intensityThreshold);
-      return null;
-    }
+    List<DataPoint> matchedIons = new ArrayList<DataPoint>();
 
-    // Compare every ion peak in MS2 scan A, to every ion peak in MS2 scan
-    // B.
-    double ionsBMaxMZ = ionsB[ionsB.length - 1].getMZ();
+    // Compare every ion peak in MS2 scan A, to the ion peaks in MS2 scan B inside its tolerance.
+    // Both mass lists are sorted by m/z, so the window of matching ions of B only moves forward.
+    int firstB = 0;
     for (int i = 0; i < ionsA.length; i++) {
 
       double iMZ = ionsA[i].getMZ();
       double mzRangeAbsolute = iMZ * 1e-6 * mzRangePPM;
 
-      if (iMZ - mzRangeAbsolute > ionsBMaxMZ)
-        break; // Potential speedup heuristic. If any i is greater than
-               // the max of j, no more
-               // matches are possible.
+      // Ions of B below the window of this ion are also below the windows of the next ions
+      while (firstB < ionsB.length && iMZ - ionsB[firstB].getMZ() >= mzRangeAbsolute)
+        firstB++;
+
+      if (firstB == ionsB.length)
+        break; // No more matches are possible.
 
-      for (int j = 0; j < ionsB.length; j++) {
+      for (int j = firstB; j < ionsB.length; j++) {
 
         double jMZ = ionsB[j].getMZ();
 
         if (iMZ < jMZ - mzRangeAbsolute)
-          break; // Potential speedup heuristic. iMZ smaller than jMZ.
-                 // Skip the rest of the j's as
-                 // they can only increase.
+          break; // The rest of the j's can only increase.
 
         if (Math.abs(iMZ - jMZ) < mzRangeAbsolute) {
           runningScoreTotal += ionsA[i].getIntensity() * ionsB[j].getIntensity();
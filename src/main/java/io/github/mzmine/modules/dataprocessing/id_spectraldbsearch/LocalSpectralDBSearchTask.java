@@ -21,6 +21,7 @@ package io.github.mzmine.modules.dataprocessing.id_spectraldbsearch;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -33,6 +34,7 @@ import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
 import io.github.mzmine.util.spectraldb.entry.SpectralDBEntry;
+import io.github.mzmine.util.spectraldb.entry.SpectralDBIndex;
 import io.github.mzmine.util.spectraldb.parser.AutoLibraryParser;
 import io.github.mzmine.util.spectraldb.parser.LibraryEntryProcessor;
 import io.github.mzmine.util.spectraldb.parser.UnsupportedFormatException;
@@ -129,7 +131,8 @@ class LocalSpectralDBSearchTask extends AbstractTask {
   }
 
   /**
-   * Load all library entries from data base file
+   * Load all library entries from data base file, create the search index and start the matching
+   * tasks, each for a part of the rows
    *
    * @param dataBaseFile
    * @return
@@ -137,20 +140,36 @@ class LocalSpectralDBSearchTask extends AbstractTask {
   private List<RowsSpectralMatchTask> parseFile(File dataBaseFile)
       throws UnsupportedFormatException, IOException {
     //
-    List<RowsSpectralMatchTask> tasks = new ArrayList<>();
-    AutoLibraryParser parser = new AutoLibraryParser(100, new LibraryEntryProcessor() {
+    List<SpectralDBEntry> entries = new ArrayList<>();
+    AutoLibraryParser parser = new AutoLibraryParser(1000, new LibraryEntryProcessor() {
       @Override
       public void processNextEntries(List<SpectralDBEntry> list, int alreadyProcessed) {
-        // start last task
-        RowsSpectralMatchTask task = new RowsSpectralMatchTask(peakList.getName(), rows, parameters,
-            alreadyProcessed + 1, list);
-        MZmineCore.getTaskController().addTask(task);
-        tasks.add(task);
+        entries.addAll(list);
       }
     });
+    parser.parse(this, dataBaseFile);
+
+    List<RowsSpectralMatchTask> tasks = new ArrayList<>();
+    if (isCanceled() || entries.isEmpty() || rows.length == 0)
+      return tasks;
+
+    // index the library once for all rows
+    SpectralDBIndex index = RowsSpectralMatchTask.createIndex(entries, parameters);
+    logger.info("Created search index of " + index.size() + " library entries");
+
+    // split the rows into one part per processor
+    int numOfTasks = Math.min(rows.length, Runtime.getRuntime().availableProcessors());
+    int rowsPerTask = (rows.length + numOfTasks - 1) / numOfTasks;
+    for (int start = 0; start < rows.length; start += rowsPerTask) {
+      int end = Math.min(rows.length, start + rowsPerTask);
+      RowsSpectralMatchTask task =
+          new RowsSpectralMatchTask(peakList.getName() + " (rows " + (start + 1) + "-" + end + ")",
+              Arrays.copyOfRange(rows, start, end), parameters, index, null);
+      MZmineCore.getTaskController().addTask(task);
+      tasks.add(task);
+    }
 
     // return tasks
-    parser.parse(this, dataBaseFile);
     return tasks;
   }
 
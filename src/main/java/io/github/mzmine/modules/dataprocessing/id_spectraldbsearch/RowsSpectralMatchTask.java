@@ -21,12 +21,12 @@ package io.github.mzmine.modules.dataprocessing.id_spectraldbsearch;
 import java.io.File;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.annotation.Nonnull;
-
 import io.github.mzmine.datamodel.DataPoint;
 import io.github.mzmine.datamodel.MassList;
 import io.github.mzmine.datamodel.PeakListRow;
@@ -52,6 +52,7 @@ import io.github.mzmine.util.scans.similarity.SpectralSimilarityFunction;
 import io.github.mzmine.util.scans.sorting.ScanSortMode;
 import io.github.mzmine.util.spectraldb.entry.DBEntryField;
 import io.github.mzmine.util.spectraldb.entry.SpectralDBEntry;
+import io.github.mzmine.util.spectraldb.entry.SpectralDBIndex;
 import io.github.mzmine.util.spectraldb.entry.SpectralDBPeakIdentity;
 
 public class RowsSpectralMatchTask extends AbstractTask {
@@ -77,7 +78,7 @@ public class RowsSpectralMatchTask extends AbstractTask {
   private final int msLevel;
   private final double noiseLevel;
   private final int minMatch;
-  private List<SpectralDBEntry> list;
+  private SpectralDBIndex index;
 
   private int count = 0;
 
@@ -110,13 +111,29 @@ public class RowsSpectralMatchTask extends AbstractTask {
   public RowsSpectralMatchTask(String description, @Nonnull PeakListRow[] rows,
       ParameterSet parameters, int startEntry, List<SpectralDBEntry> list,
       Consumer<SpectralDBPeakIdentity> matchListener) {
+    this(description, rows, parameters, startEntry, createIndex(list, parameters), matchListener);
+  }
+
+  /**
+   * Matches the rows against all entries of a library index. The index has to be created by
+   * {@link #createIndex(List, ParameterSet)} with the same parameters.
+   */
+  public RowsSpectralMatchTask(String description, @Nonnull PeakListRow[] rows,
+      ParameterSet parameters, @Nonnull SpectralDBIndex index,
+      Consumer<SpectralDBPeakIdentity> matchListener) {
+    this(description, rows, parameters, 1, index, matchListener);
+  }
+
+  private RowsSpectralMatchTask(String description, @Nonnull PeakListRow[] rows,
+      ParameterSet parameters, int startEntry, @Nonnull SpectralDBIndex index,
+      Consumer<SpectralDBPeakIdentity> matchListener) {
     this.description = description;
     this.rows = rows;
     this.parameters = parameters;
     this.startEntry = startEntry;
-    this.list = list;
+    this.index = index;
     this.matchListener = matchListener;
-    listsize = list.size();
+    listsize = index.size();
     dataBaseFile = parameters.getParameter(LocalSpectralDBSearchParameters.dataBaseFile).getValue();
     massListName = parameters.getParameter(LocalSpectralDBSearchParameters.massList).getValue();
     mzToleranceSpectra =
@@ -153,6 +170,23 @@ public class RowsSpectralMatchTask extends AbstractTask {
     totalRows = rows.length;
   }
 
+  /**
+   * Creates the search index of library entries. Deisotoping of the library spectra is applied
+   * once for each entry, if it is activated in the parameters.
+   *
+   * @param list library entries
+   * @param parameters the parameters of the search
+   * @return the index
+   */
+  public static SpectralDBIndex createIndex(List<SpectralDBEntry> list, ParameterSet parameters) {
+    boolean removeIsotopes =
+        parameters.getParameter(LocalSpectralDBSearchParameters.deisotoping).getValue();
+    MassListDeisotoperParameters deisotopeParam = parameters
+        .getParameter(LocalSpectralDBSearchParameters.deisotoping).getEmbeddedParameters();
+    return new SpectralDBIndex(list,
+        removeIsotopes ? dps -> MassListDeisotoper.filterIsotopes(dps, deisotopeParam) : null);
+  }
+
   /**
    * @see io.github.mzmine.taskcontrol.Task#getFinishedPercentage()
    */
@@ -191,20 +225,24 @@ public class RowsSpectralMatchTask extends AbstractTask {
         // check for MS1 or MSMS scan
         List<Scan> scans = getScans(row);
         List<DataPoint[]> rowMassLists = new ArrayList<>();
+        List<double[]> rowMZValues = new ArrayList<>();
         for (Scan scan : scans) {
           // get mass list and perform deisotoping if active
           DataPoint[] rowMassList = getDataPoints(scan, true);
           if (removeIsotopes)
             rowMassList = removeIsotopes(rowMassList);
           rowMassLists.add(rowMassList);
+          rowMZValues.add(getSortedMZValues(rowMassList));
         }
 
-        // match against all library entries
-        for (SpectralDBEntry ident : list) {
+        // match against all candidate library entries
+        for (int entry : getCandidateEntries(row)) {
+          SpectralDBEntry ident = index.getEntry(entry);
           SpectralDBPeakIdentity best = null;
           // match all scans against this ident to find best match
           for (int i = 0; i < scans.size(); i++) {
-            SpectralSimilarity sim = spectraDBMatch(row, rowMassLists.get(i), ident);
+            SpectralSimilarity sim =
+                spectraDBMatch(row, rowMassLists.get(i), rowMZValues.get(i), entry);
             if (sim != null
                 && (!needsIsotopePattern || SpectralMatchTask.checkForIsotopePattern(sim,
                     mzToleranceSpectra, minMatchedIsoSignals))
@@ -229,7 +267,7 @@ public class RowsSpectralMatchTask extends AbstractTask {
         logger.log(Level.WARNING, "Data base matching failed. To many missing mass lists ");
         setStatus(TaskStatus.ERROR);
         setErrorMessage("Data base matching failed. To many missing mass lists ");
-        list = null;
+        index = null;
         return;
       }
       // next row
@@ -238,7 +276,7 @@ public class RowsSpectralMatchTask extends AbstractTask {
     if (count > 0)
       logger.info("Added " + count + " spectral library matches");
 
-    list = null;
+    index = null;
 
     setStatus(TaskStatus.FINISHED);
   }
@@ -254,19 +292,49 @@ public class RowsSpectralMatchTask extends AbstractTask {
   }
 
   /**
+   * Library entries which can match the row. For MS2 matching, only the entries with a precursor
+   * m/z close to the row m/z are returned. All other criteria are checked for each entry.
    * 
    * @param row
-   * @param ident
+   * @return positions of the entries in the library index
+   */
+  private int[] getCandidateEntries(PeakListRow row) {
+    if (msLevel == 1) {
+      int all[] = new int[index.size()];
+      for (int i = 0; i < all.length; i++)
+        all[i] = i;
+      return all;
+    }
+
+    // The precursor tolerance is relative to the library precursor m/z, so search for all
+    // precursors whose tolerance range contains the row m/z. The exact tolerance is checked for
+    // each candidate.
+    return index.getEntriesByPrecursorMZ(
+        mzTolerancePrecursor.getReverseToleranceRange(row.getAverageMZ()));
+  }
+
+  /**
+   * 
+   * @param row
+   * @param rowMassList
+   * @param rowMZValues sorted m/z values of rowMassList
+   * @param entry position of the library entry in the index
    * @return spectral similarity or null if no match
    */
   private SpectralSimilarity spectraDBMatch(PeakListRow row, DataPoint[] rowMassList,
-      SpectralDBEntry ident) {
+      double rowMZValues[], int entry) {
+    SpectralDBEntry ident = index.getEntry(entry);
     // retention time
     // MS level 1 or check precursorMZ
     if (checkRT(row, ident) && (msLevel == 1 || checkPrecursorMZ(row, ident))) {
-      DataPoint[] library = ident.getDataPoints();
-      if (removeIsotopes)
-        library = removeIsotopes(library);
+      // the similarity cannot reach the minimum number of matched signals, if there are not enough
+      // signals within the tolerance
+      if (minMatch > 0 && index.countMatchingSignals(entry, rowMZValues, mzToleranceSpectra,
+          minMatch) < minMatch)
+        return null;
+
+      // library data points are already deisotoped (if active) in the index
+      DataPoint[] library = index.getDataPoints(entry);
 
       // crop the spectra to their overlapping mz range
       // helpful when comparing spectra, acquired with different
@@ -276,6 +344,9 @@ public class RowsSpectralMatchTask extends AbstractTask {
         DataPoint[][] cropped = ScanAlignment.cropToOverlap(mzToleranceSpectra, library, query);
         library = cropped[0];
         query = cropped[1];
+      } else {
+        // the alignment sorts the library data points, which are shared with other tasks
+        library = library.clone();
       }
 
       // check spectra similarity
@@ -311,6 +382,14 @@ public class RowsSpectralMatchTask extends AbstractTask {
     return (!useRT || rt == null || rtTolerance.checkWithinTolerance(rt, row.getAverageRT()));
   }
 
+  private static double[] getSortedMZValues(DataPoint[] dps) {
+    double mzValues[] = new double[dps.length];
+    for (int i = 0; i < dps.length; i++)
+      mzValues[i] = dps[i].getMZ();
+    Arrays.sort(mzValues);
+    return mzValues;
+  }
+
   /**
    * Thresholded masslist
    * 
@@ -20,16 +20,14 @@
 
 package io.github.mzmine.modules.dataprocessing.modular_featdet_adapchromatogrambuilder;
 
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
-import java.util.LinkedHashSet;
-import java.util.Set;
-
-import com.google.common.collect.Range;
+import java.util.List;
 
 import io.github.mzmine.datamodel.DataPoint;
 import io.github.mzmine.datamodel.RawDataFile;
 import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import io.github.mzmine.util.ChromatogramConnectionIndex;
 import io.github.mzmine.util.DataPointSorter;
 import io.github.mzmine.util.SortingDirection;
 import io.github.mzmine.util.SortingProperty;
@@ -41,8 +39,8 @@ public class ADAPHighestDataPointConnector {
   private final RawDataFile dataFile;
   private final int allScanNumbers[];
 
-  // Mapping of last data point m/z --> chromatogram
-  private Set<ADAPChromatogram> buildingChromatograms;
+  // Chromatograms which are being built, in a reproducible order
+  private List<ADAPChromatogram> buildingChromatograms;
 
   public ADAPHighestDataPointConnector(RawDataFile dataFile, int allScanNumbers[],
       double minimumTimeSpan, double minimumHeight, MZTolerance mzTolerance) {
@@ -53,10 +51,10 @@ public class ADAPHighestDataPointConnector {
     this.dataFile = dataFile;
     this.allScanNumbers = allScanNumbers;
 
-    // We use LinkedHashSet to maintain a reproducible ordering. If we use
-    // plain HashSet, the resulting feature list row IDs will have different
-    // order every time the method is invoked.
-    buildingChromatograms = new LinkedHashSet<ADAPChromatogram>();
+    // We use a list to maintain a reproducible ordering. Otherwise, the
+    // resulting feature list row IDs will have different order every time
+    // the method is invoked.
+    buildingChromatograms = new ArrayList<ADAPChromatogram>();
 
   }
 
@@ -66,35 +64,28 @@ public class ADAPHighestDataPointConnector {
     Arrays.sort(mzValues,
         new DataPointSorter(SortingProperty.Intensity, SortingDirection.Descending));
 
-    // Set of already connected chromatograms in each iteration
-    Set<ADAPChromatogram> connectedChromatograms = new LinkedHashSet<ADAPChromatogram>();
+    // Building chromatograms sorted by the m/z of their last data point
+    ChromatogramConnectionIndex<ADAPChromatogram> chromatogramIndex =
+        new ChromatogramConnectionIndex<>(buildingChromatograms, ADAPChromatogram::getLastMzPeak,
+            mzTolerance);
+
+    // List of already connected chromatograms in each iteration
+    List<ADAPChromatogram> connectedChromatograms = new ArrayList<ADAPChromatogram>();
 
-    // TODO: these two nested cycles should be optimized for speed
     for (DataPoint mzPeak : mzValues) {
 
       // Search for best chromatogram, which has highest last data point
-      ADAPChromatogram bestChromatogram = null;
-
-      for (ADAPChromatogram testChrom : buildingChromatograms) {
-
-        DataPoint lastMzPeak = testChrom.getLastMzPeak();
-        Range<Double> toleranceRange = mzTolerance.getToleranceRange(lastMzPeak.getMZ());
-        if (toleranceRange.contains(mzPeak.getMZ())) {
-          if ((bestChromatogram == null) || (testChrom.getLastMzPeak()
-              .getIntensity() > bestChromatogram.getLastMzPeak().getIntensity())) {
-            bestChromatogram = testChrom;
-          }
-        }
-
-      }
+      final int best = chromatogramIndex.findBestChromatogram(mzPeak.getMZ());
+      ADAPChromatogram bestChromatogram;
 
       // If we found best chromatogram, check if it is already connected.
       // In such case, we may discard this mass and continue. If we
       // haven't found a chromatogram, we may create a new one.
-      if (bestChromatogram != null) {
-        if (connectedChromatograms.contains(bestChromatogram)) {
+      if (best >= 0) {
+        if (chromatogramIndex.isConnected(best)) {
           continue;
         }
+        bestChromatogram = chromatogramIndex.get(best);
       } else {
         bestChromatogram = new ADAPChromatogram(dataFile, allScanNumbers);
       }
@@ -102,24 +93,29 @@ public class ADAPHighestDataPointConnector {
       // Add this mzPeak to the chromatogram
       bestChromatogram.addMzPeak(scanNumber, mzPeak);
 
-      // Move the chromatogram to the set of connected chromatograms
+      // Move the chromatogram to the list of connected chromatograms
+      if (best >= 0) {
+        chromatogramIndex.setConnected(best);
+      }
       connectedChromatograms.add(bestChromatogram);
 
     }
 
     // Process those chromatograms which were not connected to any m/z peak
-    for (ADAPChromatogram testChrom : buildingChromatograms) {
+    for (int i = 0; i < buildingChromatograms.size(); i++) {
 
       // Skip those which were connected
-      if (connectedChromatograms.contains(testChrom)) {
+      if (chromatogramIndex.isConnected(i)) {
         continue;
       }
 
+      ADAPChromatogram testChrom = buildingChromatograms.get(i);
+
       // Check if we just finished a long-enough segment
       if (testChrom.getBuildingSegmentLength() >= minimumTimeSpan) {
         testChrom.commitBuildingSegment();
 
-        // Move the chromatogram to the set of connected chromatograms
+        // Move the chromatogram to the list of connected chromatograms
         connectedChromatograms.add(testChrom);
         continue;
       }
@@ -128,7 +124,7 @@ public class ADAPHighestDataPointConnector {
       if (testChrom.getNumberOfCommittedSegments() > 0) {
         testChrom.removeBuildingSegment();
 
-        // Move the chromatogram to the set of connected chromatograms
+        // Move the chromatogram to the list of connected chromatograms
         connectedChromatograms.add(testChrom);
         continue;
       }
@@ -146,17 +142,14 @@ public class ADAPHighestDataPointConnector {
     // Iterate through current chromatograms and remove those which do not
     // contain any committed segment nor long-enough building segment
 
-    Iterator<ADAPChromatogram> chromIterator = buildingChromatograms.iterator();
-    while (chromIterator.hasNext()) {
-
-      ADAPChromatogram chromatogram = chromIterator.next();
+    List<ADAPChromatogram> finishedChromatograms = new ArrayList<ADAPChromatogram>();
+    for (ADAPChromatogram chromatogram : buildingChromatograms) {
 
       if (chromatogram.getBuildingSegmentLength() >= minimumTimeSpan) {
         chromatogram.commitBuildingSegment();
         chromatogram.finishChromatogram();
       } else {
         if (chromatogram.getNumberOfCommittedSegments() == 0) {
-          chromIterator.remove();
           continue;
         } else {
           chromatogram.removeBuildingSegment();
@@ -166,12 +159,16 @@ public class ADAPHighestDataPointConnector {
 
       // Remove chromatograms smaller then minimum height
       if (chromatogram.getHeight() < minimumHeight)
-        chromIterator.remove();
+        continue;
+
+      finishedChromatograms.add(chromatogram);
 
     }
 
+    buildingChromatograms = finishedChromatograms;
+
     // All remaining chromatograms are good, so we can return them
-    ADAPChromatogram[] chromatograms = buildingChromatograms.toArray(new ADAPChromatogram[0]);
+    ADAPChromatogram[] chromatograms = finishedChromatograms.toArray(new ADAPChromatogram[0]);
     return chromatograms;
   }
 
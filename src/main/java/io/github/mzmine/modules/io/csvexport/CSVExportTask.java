@@ -18,21 +18,33 @@
 
 package io.github.mzmine.modules.io.csvexport;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
-import java.text.NumberFormat;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPOutputStream;
 import io.github.mzmine.datamodel.Feature;
 import io.github.mzmine.datamodel.FeatureStatus;
 import io.github.mzmine.datamodel.PeakIdentity;
 import io.github.mzmine.datamodel.PeakList;
 import io.github.mzmine.datamodel.PeakListRow;
 import io.github.mzmine.datamodel.RawDataFile;
-import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.modules.io.gnpsexport.fbmn.GnpsFbmnExportAndSubmitParameters.RowFilter;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.taskcontrol.AbstractTask;
@@ -42,6 +54,11 @@ import io.github.mzmine.util.RangeUtils;
 
 public class CSVExportTask extends AbstractTask {
 
+  // Rows formatted by one thread at a time
+  private static final int ROWS_PER_CHUNK = 1000;
+  private static final int WRITE_BUFFER_SIZE = 1 << 16;
+  private static final Pattern CONTROL_CHARACTERS = Pattern.compile("[\\p{Cntrl}]");
+
   private PeakList[] peakLists;
   private int processedRows = 0, totalRows = 0;
 
@@ -54,6 +71,7 @@ public class CSVExportTask extends AbstractTask {
   private Boolean exportAllPeakInfo;
   private String idSeparator;
   private RowFilter filter;
+  private boolean compress;
 
   public CSVExportTask(ParameterSet parameters) {
     this.peakLists =
@@ -65,6 +83,7 @@ public class CSVExportTask extends AbstractTask {
     exportAllPeakInfo = parameters.getParameter(CSVExportParameters.exportAllPeakInfo).getValue();
     idSeparator = parameters.getParameter(CSVExportParameters.idSeparator).getValue();
     this.filter = parameters.getParameter(CSVExportParameters.filter).getValue();
+    compress = parameters.getParameter(CSVExportParameters.compress).getValue();
 
   }
 
@@ -132,11 +151,13 @@ public class CSVExportTask extends AbstractTask {
             fileName.getPath().replaceAll(Pattern.quote(plNamePattern), cleanPlName);
         curFile = new File(newFilename);
       }
+      if (compress && !curFile.getName().endsWith(".gz"))
+        curFile = new File(curFile.getPath() + ".gz");
 
       // Open file
-      FileWriter writer;
+      Writer writer;
       try {
-        writer = new FileWriter(curFile);
+        writer = openWriter(curFile);
       } catch (Exception e) {
         setStatus(TaskStatus.ERROR);
         setErrorMessage("Could not open file " + curFile + " for writing.");
@@ -145,11 +166,6 @@ public class CSVExportTask extends AbstractTask {
 
       exportPeakList(peakList, writer, curFile);
 
-      // Cancel?
-      if (isCanceled()) {
-        return;
-      }
-
       // Close file
       try {
         writer.close();
@@ -159,6 +175,11 @@ public class CSVExportTask extends AbstractTask {
         return;
       }
 
+      // Cancel?
+      if (isCanceled()) {
+        return;
+      }
+
       // If feature list substitution pattern wasn't found,
       // treat one feature list only
       if (!substitute)
@@ -170,12 +191,27 @@ public class CSVExportTask extends AbstractTask {
 
   }
 
-  private void exportPeakList(PeakList peakList, FileWriter writer, File fileName) {
-    NumberFormat mzForm = MZmineCore.getConfiguration().getMZFormat();
+  /**
+   * Buffered writer on a file channel, gzip compressed if selected
+   */
+  private Writer openWriter(File file) throws IOException {
+    OutputStream out = Channels.newOutputStream(FileChannel.open(file.toPath(),
+        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+        StandardOpenOption.WRITE));
+    if (compress)
+      out = new GZIPOutputStream(out, WRITE_BUFFER_SIZE);
+    else
+      out = new BufferedOutputStream(out, WRITE_BUFFER_SIZE);
+    return new BufferedWriter(new OutputStreamWriter(out, Charset.defaultCharset()),
+        WRITE_BUFFER_SIZE);
+  }
+
+  private void exportPeakList(PeakList peakList, Writer writer, File fileName) {
     RawDataFile rawDataFiles[] = peakList.getRawDataFiles().toArray(RawDataFile[]::new);
+    PeakListRow rows[] = peakList.getRows().toArray(PeakListRow[]::new);
 
     // Buffer for writing
-    StringBuffer line = new StringBuffer();
+    StringBuilder line = new StringBuilder();
 
     // Write column headers
 
@@ -189,22 +225,22 @@ public class CSVExportTask extends AbstractTask {
       line.append(name + fieldSeparator);
     }
 
-    // peak Information
-    Set<String> peakInformationFields = new HashSet<>();
-
-    for (PeakListRow row : peakList.getRows()) {
-      if (!filter.filter(row))
-        continue;
-      if (row.getPeakInformation() != null) {
-        for (String key : row.getPeakInformation().getAllProperties().keySet()) {
-          peakInformationFields.add(key);
+    // peak Information, only needed if it is exported
+    List<String> peakInformationFields = new ArrayList<>();
+    if (exportAllPeakInfo) {
+      Set<String> fields = new HashSet<>();
+      for (PeakListRow row : rows) {
+        if (!filter.filter(row))
+          continue;
+        if (row.getPeakInformation() != null) {
+          fields.addAll(row.getPeakInformation().getAllProperties().keySet());
         }
       }
-    }
+      peakInformationFields.addAll(fields);
 
-    if (exportAllPeakInfo)
       for (String field : peakInformationFields)
         line.append(field + fieldSeparator);
+    }
 
     // Data file elements
     length = dataFileElements.length;
@@ -227,182 +263,197 @@ public class CSVExportTask extends AbstractTask {
       return;
     }
 
-    // Write data rows
-    for (PeakListRow peakListRow : peakList.getRows()) {
-
-      if (!filter.filter(peakListRow)) {
-        processedRows++;
-        continue;
-      }
+    // Write data rows. The rows of several chunks are formatted in parallel, then the chunks are
+    // written in row order. Only one window of chunks is kept in memory.
+    final int numOfChunks = (rows.length + ROWS_PER_CHUNK - 1) / ROWS_PER_CHUNK;
+    final int chunksPerWindow = 4 * Runtime.getRuntime().availableProcessors();
+    for (int firstChunk = 0; firstChunk < numOfChunks; firstChunk += chunksPerWindow) {
 
       // Cancel?
       if (isCanceled()) {
         return;
       }
 
-      // Reset the buffer
-      line.setLength(0);
+      final int windowStart = firstChunk;
+      final int windowEnd = Math.min(numOfChunks, firstChunk + chunksPerWindow);
+      final String chunks[] = new String[windowEnd - windowStart];
+      IntStream.range(windowStart, windowEnd).parallel().forEach(chunk -> {
+        StringBuilder chunkLines = new StringBuilder();
+        final int end = Math.min(rows.length, (chunk + 1) * ROWS_PER_CHUNK);
+        for (int r = chunk * ROWS_PER_CHUNK; r < end; r++) {
+          if (!filter.filter(rows[r]))
+            continue;
+          appendRow(chunkLines, rows[r], rawDataFiles, peakInformationFields);
+          chunkLines.append("\n");
+        }
+        chunks[chunk - windowStart] = chunkLines.toString();
+      });
 
-      // Common elements
-      length = commonElements.length;
-      for (int i = 0; i < length; i++) {
-        switch (commonElements[i]) {
-          case ROW_ID:
-            line.append(peakListRow.getID() + fieldSeparator);
-            break;
-          case ROW_MZ:
-            line.append(peakListRow.getAverageMZ() + fieldSeparator);
-            break;
-          case ROW_RT:
-            line.append(peakListRow.getAverageRT() + fieldSeparator);
-            break;
-          case ROW_IDENTITY:
-            // Identity elements
-            PeakIdentity peakId = peakListRow.getPreferredPeakIdentity();
-            if (peakId == null) {
-              line.append(fieldSeparator);
-              break;
-            }
-            String propertyValue = peakId.toString();
-            propertyValue = escapeStringForCSV(propertyValue);
-            line.append(propertyValue + fieldSeparator);
-            break;
-          case ROW_IDENTITY_ALL:
-            // Identity elements
-            PeakIdentity[] peakIdentities = peakListRow.getPeakIdentities();
-            propertyValue = "";
-            for (int x = 0; x < peakIdentities.length; x++) {
-              if (x > 0)
-                propertyValue += idSeparator;
-              propertyValue += peakIdentities[x].toString();
-            }
-            propertyValue = escapeStringForCSV(propertyValue);
-            line.append(propertyValue + fieldSeparator);
-            break;
-          case ROW_IDENTITY_DETAILS:
-            peakId = peakListRow.getPreferredPeakIdentity();
-            if (peakId == null) {
-              line.append(fieldSeparator);
-              break;
-            }
-            propertyValue = peakId.getDescription();
-            if (propertyValue != null)
-              propertyValue = propertyValue.replaceAll("\\n", ";");
-            propertyValue = escapeStringForCSV(propertyValue);
-            line.append(propertyValue + fieldSeparator);
+      try {
+        for (String chunk : chunks)
+          writer.write(chunk);
+      } catch (Exception e) {
+        setStatus(TaskStatus.ERROR);
+        setErrorMessage("Could not write to file " + fileName);
+        return;
+      }
+
+      processedRows += Math.min(rows.length, windowEnd * ROWS_PER_CHUNK)
+          - windowStart * ROWS_PER_CHUNK;
+    }
+  }
+
+  /**
+   * Appends the fields of one row, without line break. Called in parallel for different rows.
+   */
+  private void appendRow(StringBuilder line, PeakListRow row, RawDataFile rawDataFiles[],
+      List<String> peakInformationFields) {
+
+    // Common elements
+    for (int i = 0; i < commonElements.length; i++) {
+      switch (commonElements[i]) {
+        case ROW_ID:
+          line.append(row.getID() + fieldSeparator);
+          break;
+        case ROW_MZ:
+          line.append(row.getAverageMZ() + fieldSeparator);
+          break;
+        case ROW_RT:
+          line.append(row.getAverageRT() + fieldSeparator);
+          break;
+        case ROW_IDENTITY:
+          // Identity elements
+          PeakIdentity peakId = row.getPreferredPeakIdentity();
+          if (peakId == null) {
+            line.append(fieldSeparator);
             break;
-          case ROW_COMMENT:
-            String comment = escapeStringForCSV(peakListRow.getComment());
-            line.append(comment + fieldSeparator);
+          }
+          String propertyValue = peakId.toString();
+          propertyValue = escapeStringForCSV(propertyValue);
+          line.append(propertyValue + fieldSeparator);
+          break;
+        case ROW_IDENTITY_ALL:
+          // Identity elements
+          PeakIdentity[] peakIdentities = row.getPeakIdentities();
+          propertyValue = "";
+          for (int x = 0; x < peakIdentities.length; x++) {
+            if (x > 0)
+              propertyValue += idSeparator;
+            propertyValue += peakIdentities[x].toString();
+          }
+          propertyValue = escapeStringForCSV(propertyValue);
+          line.append(propertyValue + fieldSeparator);
+          break;
+        case ROW_IDENTITY_DETAILS:
+          peakId = row.getPreferredPeakIdentity();
+          if (peakId == null) {
+            line.append(fieldSeparator);
             break;
-          case ROW_PEAK_NUMBER:
-            int numDetected = 0;
-            for (Feature p : peakListRow.getPeaks()) {
-              if (p.getFeatureStatus() == FeatureStatus.DETECTED) {
-                numDetected++;
-              }
+          }
+          propertyValue = peakId.getDescription();
+          if (propertyValue != null)
+            propertyValue = propertyValue.replaceAll("\\n", ";");
+          propertyValue = escapeStringForCSV(propertyValue);
+          line.append(propertyValue + fieldSeparator);
+          break;
+        case ROW_COMMENT:
+          String comment = escapeStringForCSV(row.getComment());
+          line.append(comment + fieldSeparator);
+          break;
+        case ROW_PEAK_NUMBER:
+          int numDetected = 0;
+          for (Feature p : row.getPeaks()) {
+            if (p.getFeatureStatus() == FeatureStatus.DETECTED) {
+              numDetected++;
             }
-            line.append(numDetected + fieldSeparator);
-            break;
-        }
+          }
+          line.append(numDetected + fieldSeparator);
+          break;
       }
+    }
 
-      // peak Information
-      if (exportAllPeakInfo) {
-        if (peakListRow.getPeakInformation() != null) {
-          Map<String, String> allPropertiesMap =
-              peakListRow.getPeakInformation().getAllProperties();
-
-          for (String key : peakInformationFields) {
-            String value = allPropertiesMap.get(key);
-            if (value == null)
-              value = "";
-            line.append(value + fieldSeparator);
-          }
-        }
+    // peak Information
+    // Rows without information still need the empty fields to keep the columns aligned
+    if (exportAllPeakInfo) {
+      Map<String, String> allPropertiesMap = row.getPeakInformation() != null
+          ? row.getPeakInformation().getAllProperties()
+          : Collections.emptyMap();
+
+      for (String key : peakInformationFields) {
+        String value = allPropertiesMap.get(key);
+        if (value == null)
+          value = "";
+        line.append(value + fieldSeparator);
       }
+    }
 
-      // Data file elements
-      length = dataFileElements.length;
-      for (RawDataFile dataFile : rawDataFiles) {
-        for (int i = 0; i < length; i++) {
-          Feature peak = peakListRow.getPeak(dataFile);
-          if (peak != null) {
-            switch (dataFileElements[i]) {
-              case PEAK_STATUS:
-                line.append(peak.getFeatureStatus() + fieldSeparator);
-                break;
-              case PEAK_NAME:
-                line.append(PeakUtils.peakToString(peak) + fieldSeparator);
-                break;
-              case PEAK_MZ:
-                line.append(peak.getMZ() + fieldSeparator);
-                break;
-              case PEAK_RT:
-                line.append(peak.getRT() + fieldSeparator);
-                break;
-              case PEAK_RT_START:
-                line.append(peak.getRawDataPointsRTRange().lowerEndpoint() + fieldSeparator);
-                break;
-              case PEAK_RT_END:
-                line.append(peak.getRawDataPointsRTRange().upperEndpoint() + fieldSeparator);
-                break;
-              case PEAK_DURATION:
-                line.append(
-                    RangeUtils.rangeLength(peak.getRawDataPointsRTRange()) + fieldSeparator);
-                break;
-              case PEAK_HEIGHT:
-                line.append(peak.getHeight() + fieldSeparator);
-                break;
-              case PEAK_AREA:
-                line.append(peak.getArea() + fieldSeparator);
-                break;
-              case PEAK_CHARGE:
-                line.append(peak.getCharge() + fieldSeparator);
-                break;
-              case PEAK_DATAPOINTS:
-                line.append(peak.getScanNumbers().length + fieldSeparator);
-                break;
-              case PEAK_FWHM:
-                line.append(peak.getFWHM() + fieldSeparator);
-                break;
-              case PEAK_TAILINGFACTOR:
-                line.append(peak.getTailingFactor() + fieldSeparator);
-                break;
-              case PEAK_ASYMMETRYFACTOR:
-                line.append(peak.getAsymmetryFactor() + fieldSeparator);
-                break;
-              case PEAK_MZMIN:
-                line.append(peak.getRawDataPointsMZRange().lowerEndpoint() + fieldSeparator);
-                break;
-              case PEAK_MZMAX:
-                line.append(peak.getRawDataPointsMZRange().upperEndpoint() + fieldSeparator);
-                break;
-            }
-          } else {
-            switch (dataFileElements[i]) {
-              case PEAK_STATUS:
-                line.append(FeatureStatus.UNKNOWN + fieldSeparator);
-                break;
-              default:
-                line.append("0" + fieldSeparator);
-                break;
-            }
+    // Data file elements
+    for (RawDataFile dataFile : rawDataFiles) {
+      Feature peak = row.getPeak(dataFile);
+      for (int i = 0; i < dataFileElements.length; i++) {
+        if (peak != null) {
+          switch (dataFileElements[i]) {
+            case PEAK_STATUS:
+              line.append(peak.getFeatureStatus() + fieldSeparator);
+              break;
+            case PEAK_NAME:
+              line.append(PeakUtils.peakToString(peak) + fieldSeparator);
+              break;
+            case PEAK_MZ:
+              line.append(peak.getMZ() + fieldSeparator);
+              break;
+            case PEAK_RT:
+              line.append(peak.getRT() + fieldSeparator);
+              break;
+            case PEAK_RT_START:
+              line.append(peak.getRawDataPointsRTRange().lowerEndpoint() + fieldSeparator);
+              break;
+            case PEAK_RT_END:
+              line.append(peak.getRawDataPointsRTRange().upperEndpoint() + fieldSeparator);
+              break;
+            case PEAK_DURATION:
+              line.append(
+                  RangeUtils.rangeLength(peak.getRawDataPointsRTRange()) + fieldSeparator);
+              break;
+            case PEAK_HEIGHT:
+              line.append(peak.getHeight() + fieldSeparator);
+              break;
+            case PEAK_AREA:
+              line.append(peak.getArea() + fieldSeparator);
+              break;
+            case PEAK_CHARGE:
+              line.append(peak.getCharge() + fieldSeparator);
+              break;
+            case PEAK_DATAPOINTS:
+              line.append(peak.getScanNumbers().length + fieldSeparator);
+              break;
+            case PEAK_FWHM:
+              line.append(peak.getFWHM() + fieldSeparator);
+              break;
+            case PEAK_TAILINGFACTOR:
+              line.append(peak.getTailingFactor() + fieldSeparator);
+              break;
+            case PEAK_ASYMMETRYFACTOR:
+              line.append(peak.getAsymmetryFactor() + fieldSeparator);
+              break;
+            case PEAK_MZMIN:
+              line.append(peak.getRawDataPointsMZRange().lowerEndpoint() + fieldSeparator);
+              break;
+            case PEAK_MZMAX:
+              line.append(peak.getRawDataPointsMZRange().upperEndpoint() + fieldSeparator);
+              break;
+          }
+        } else {
+          switch (dataFileElements[i]) {
+            case PEAK_STATUS:
+              line.append(FeatureStatus.UNKNOWN + fieldSeparator);
+              break;
+            default:
+              line.append("0" + fieldSeparator);
+              break;
           }
         }
       }
-
-      line.append("\n");
-
-      try {
-        writer.write(line.toString());
-      } catch (Exception e) {
-        setStatus(TaskStatus.ERROR);
-        setErrorMessage("Could not write to file " + fileName);
-        return;
-      }
-
-      processedRows++;
     }
   }
 
@@ -413,7 +464,7 @@ public class CSVExportTask extends AbstractTask {
 
     // Remove all special characters (particularly \n would mess up our CSV
     // format).
-    String result = inputString.replaceAll("[\\p{Cntrl}]", " ");
+    String result = CONTROL_CHARACTERS.matcher(inputString).replaceAll(" ");
 
     // Skip too long strings (see Excel 2007 specifications)
     if (result.length() >= 32766)
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+package io.github.mzmine.modules.io.projectload;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import com.google.common.io.CountingInputStream;
+import io.github.mzmine.modules.io.projectload.ProjectArchive.EntryReader;
+import io.github.mzmine.taskcontrol.AbstractTask;
+import io.github.mzmine.taskcontrol.TaskPriority;
+import io.github.mzmine.taskcontrol.TaskStatus;
+import io.github.mzmine.util.ExceptionUtils;
+
+/**
+ * Loads an item of a project which was opened on demand from its entry of the project file. The
+ * thread which accessed the item waits for the result, see waitForResult().
+ */
+class PendingEntryLoadingTask<T> extends AbstractTask {
+
+  private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+  private final ProjectArchive projectArchive;
+  private final ZipEntry entry;
+  private final String description;
+  private final EntryReader<T> reader;
+
+  private volatile CountingInputStream cis;
+
+  private T result;
+  private IOException error;
+  private boolean started = false, done = false;
+
+  PendingEntryLoadingTask(ProjectArchive projectArchive, ZipEntry entry, String description,
+      EntryReader<T> reader) {
+    this.projectArchive = projectArchive;
+    this.entry = entry;
+    this.description = description;
+    this.reader = reader;
+  }
+
+  @Override
+  public String getTaskDescription() {
+    return "Loading " + description;
+  }
+
+  @Override
+  public double getFinishedPercentage() {
+    final CountingInputStream currentStream = cis;
+    if ((currentStream == null) || (entry.getSize() <= 0))
+      return 0;
+    return Math.min(1.0, (double) currentStream.getCount() / entry.getSize());
+  }
+
+  /**
+   * Runs on its own thread, so a task waiting for the item never waits for a free thread
+   */
+  @Override
+  public TaskPriority getTaskPriority() {
+    return TaskPriority.HIGH;
+  }
+
+  @Override
+  public void run() {
+
+    synchronized (this) {
+      if (isCanceled()) {
+        finished();
+        return;
+      }
+      started = true;
+    }
+
+    setStatus(TaskStatus.PROCESSING);
+    logger.info("Loading " + description);
+
+    try (InputStream is = projectArchive.getInputStream(entry)) {
+
+      // Stops the reader when the task is canceled
+      cis = new CountingInputStream(new FilterInputStream(is) {
+        @Override
+        public int read() throws IOException {
+          checkCanceled();
+          return super.read();
+        }
+
+        @Override
+        public int read(byte b[], int off, int len) throws IOException {
+          checkCanceled();
+          return super.read(b, off, len);
+        }
+      });
+
+      result = reader.read(cis);
+
+      if (!isCanceled())
+        setStatus(TaskStatus.FINISHED);
+
+    } catch (IOException e) {
+      if (!isCanceled()) {
+        error = e;
+        setStatus(TaskStatus.ERROR);
+        setErrorMessage(
+            "Could not load " + description + ": " + ExceptionUtils.exceptionToString(e));
+      }
+    } finally {
+      finished();
+    }
+
+  }
+
+  @Override
+  public void cancel() {
+    synchronized (this) {
+      super.cancel();
+      // A task canceled while waiting is not run at all
+      if (!started)
+        finished();
+    }
+  }
+
+  /**
+   * Waits until the task finished
+   *
+   * @return the item read from the entry
+   * @throws IOException if the entry could not be read or the task was canceled
+   */
+  synchronized T waitForResult() throws IOException {
+    while (!done) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while loading " + description);
+      }
+    }
+    if (error != null)
+      throw new IOException("Could not load " + description, error);
+    if (getStatus() != TaskStatus.FINISHED)
+      throw new IOException("Loading " + description + " was canceled");
+    return result;
+  }
+
+  private synchronized void finished() {
+    done = true;
+    notifyAll();
+  }
+
+  private void checkCanceled() throws IOException {
+    if (isCanceled())
+      throw new InterruptedIOException("Loading " + description + " was canceled");
+  }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+package io.github.mzmine.modules.io.projectload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import io.github.mzmine.main.MZmineCore;
+
+/**
+ * Project file of a project which was opened on demand. The file stays open until each pending
+ * entry (scan data of a raw data file or rows of a feature list) was either loaded or released, or
+ * until the project file is closed by close().
+ */
+class ProjectArchive {
+
+  /**
+   * Reads a pending item from its entry of the project file
+   */
+  interface EntryReader<T> {
+    T read(InputStream is) throws IOException;
+  }
+
+  /**
+   * Entry of an item which is loaded the first time it is accessed. Each pending entry is either
+   * loaded or released once.
+   */
+  class PendingEntry {
+
+    private final String entryName, description;
+    private boolean pending = true;
+
+    private PendingEntry(String entryName, String description) {
+      this.entryName = entryName;
+      this.description = description;
+    }
+
+    /**
+     * Reads the entry in a PendingEntryLoadingTask, which shows the progress in the task list, and
+     * waits until the task finished. The entry is released afterwards, even if it could not be
+     * read.
+     */
+    <T> T load(EntryReader<T> reader) throws IOException {
+      try {
+        final ZipEntry entry;
+        synchronized (ProjectArchive.this) {
+          if (!pending)
+            throw new IOException("The " + description + " were already loaded or released");
+          entry = getEntry(entryName);
+        }
+        final PendingEntryLoadingTask<T> task =
+            new PendingEntryLoadingTask<>(ProjectArchive.this, entry, description, reader);
+        MZmineCore.getTaskController().addTask(task);
+        return task.waitForResult();
+      } finally {
+        release();
+      }
+    }
+
+    /**
+     * Releases the entry without loading it, e.g. when its raw data file or feature list is
+     * removed
+     */
+    void release() {
+      synchronized (ProjectArchive.this) {
+        if (!pending)
+          return;
+        pending = false;
+        pendingEntries--;
+        closeIfNoPendingEntries();
+      }
+    }
+  }
+
+  private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+  private final ZipFile zipFile;
+  private int pendingEntries = 0;
+  private boolean closed = false;
+
+  ProjectArchive(ZipFile zipFile) {
+    this.zipFile = zipFile;
+  }
+
+  /**
+   * @param description describes the item in the task list, e.g. "rows of feature list X"
+   */
+  synchronized PendingEntry addPendingEntry(String entryName, String description) {
+    pendingEntries++;
+    return new PendingEntry(entryName, description);
+  }
+
+  synchronized InputStream getInputStream(ZipEntry entry) throws IOException {
+    if (closed)
+      throw new IOException("Project file " + zipFile.getName() + " was closed");
+    return zipFile.getInputStream(entry);
+  }
+
+  private ZipEntry getEntry(String entryName) throws IOException {
+    if (closed)
+      throw new IOException("Project file " + zipFile.getName() + " was closed");
+    final ZipEntry entry = zipFile.getEntry(entryName);
+    if (entry == null)
+      throw new IOException("Missing entry " + entryName + " in " + zipFile.getName());
+    return entry;
+  }
+
+  synchronized void closeIfNoPendingEntries() {
+    if (pendingEntries == 0)
+      close();
+  }
+
+  /**
+   * Closes the project file, also if there are pending entries (e.g. when opening the project
+   * failed). Pending entries cannot be loaded afterwards.
+   */
+  synchronized void close() {
+    if (closed)
+      return;
+    closed = true;
+    try {
+      zipFile.close();
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Could not close project file " + zipFile.getName(), e);
+    }
+  }
+
+}
@@ -26,6 +26,8 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -35,7 +37,11 @@ import javax.xml.parsers.ParserConfigurationException;
 import org.xml.sax.SAXException;
 import com.google.common.io.CountingInputStream;
 import io.github.mzmine.datamodel.PeakList;
+import io.github.mzmine.datamodel.PeakListRow;
 import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.impl.SimplePeakList;
+import io.github.mzmine.datamodel.impl.SimplePeakList.RowsLoader;
+import io.github.mzmine.gui.preferences.MZminePreferences;
 import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.modules.io.projectload.version_2_0.PeakListOpenHandler_2_0;
 import io.github.mzmine.modules.io.projectload.version_2_0.RawDataFileOpenHandler_2_0;
@@ -45,12 +51,16 @@ import io.github.mzmine.modules.io.projectload.version_2_3.UserParameterOpenHand
 import io.github.mzmine.modules.io.projectload.version_2_5.PeakListOpenHandler_2_5;
 import io.github.mzmine.modules.io.projectload.version_2_5.RawDataFileOpenHandler_2_5;
 import io.github.mzmine.modules.io.projectload.version_2_5.UserParameterOpenHandler_2_5;
+import io.github.mzmine.modules.io.projectload.version_3_0.PeakListOpenHandler_3_0;
+import io.github.mzmine.modules.io.projectload.ProjectArchive.PendingEntry;
+import io.github.mzmine.modules.io.projectsave.PeakListSaveHandler;
 import io.github.mzmine.modules.io.projectsave.ProjectSavingTask;
 import io.github.mzmine.modules.tools.qualityparameters.QualityParameters;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.project.ProjectManager;
 import io.github.mzmine.project.impl.MZmineProjectImpl;
 import io.github.mzmine.project.impl.RawDataFileImpl;
+import io.github.mzmine.project.impl.RawDataFileImpl.DataPointsFileSource;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
 import io.github.mzmine.util.ExceptionUtils;
@@ -72,13 +82,22 @@ public class ProjectOpeningTask extends AbstractTask {
   private UserParameterOpenHandler userParameterOpenHandler;
   private StreamCopy copyMachine;
 
+  // Load the scan data and feature list rows when they are accessed the first time
+  private boolean openOnDemand;
+  private ZipFile zipFile;
+  private ProjectArchive projectArchive;
+
   private CountingInputStream cis;
   private long totalBytes, finishedBytes;
   private String currentLoadedObjectName;
 
   // This hashtable maps stored IDs to raw data file objects
   private final Hashtable<String, RawDataFile> dataFilesIDMap = new Hashtable<>();
-  private final Hashtable<String, File> scanFilesIDMap = new Hashtable<>();
+  private final Hashtable<String, DataPointsFileSource> scanFilesIDMap = new Hashtable<>();
+
+  // Feature lists in the binary format do not depend on the project version
+  private final PeakListOpenHandler binaryPeakListOpenHandler =
+      new PeakListOpenHandler_3_0(dataFilesIDMap);
 
   public ProjectOpeningTask(ParameterSet parameters) {
     this.openFile = parameters.getParameter(ProjectLoaderParameters.projectFile).getValue();
@@ -143,6 +162,10 @@ public class ProjectOpeningTask extends AbstractTask {
       logger.info("Started opening project " + openFile);
       setStatus(TaskStatus.PROCESSING);
 
+      // Read before the configuration of the project replaces the preferences
+      openOnDemand = MZmineCore.getConfiguration().getPreferences()
+          .getParameter(MZminePreferences.openProjectsOnDemand).getValue();
+
       // Create a new project
       newProject = new MZmineProjectImpl();
       newProject.setProjectFile(openFile);
@@ -154,7 +177,9 @@ public class ProjectOpeningTask extends AbstractTask {
       projectManager.setCurrentProject(newProject);
 
       // Open the ZIP file
-      ZipFile zipFile = new ZipFile(openFile);
+      zipFile = new ZipFile(openFile);
+      if (openOnDemand)
+        projectArchive = new ProjectArchive(zipFile);
 
       // Get total uncompressed size
       Enumeration<? extends ZipEntry> entries = zipFile.entries();
@@ -166,6 +191,8 @@ public class ProjectOpeningTask extends AbstractTask {
       final Pattern rawFilePattern = Pattern.compile("Raw data file #([\\d]+) (.*)\\.xml$");
       final Pattern scansFilePattern = Pattern.compile("Raw data file #([\\d]+) (.*)\\.scans$");
       final Pattern peakListPattern = Pattern.compile("Peak list #([\\d]+) (.*)\\.xml$");
+      final Pattern binaryPeakListPattern = Pattern.compile(
+          "Peak list #([\\d]+) (.*)" + Pattern.quote(PeakListSaveHandler.PEAKLIST_EXTENSION) + "$");
 
       boolean versionInformationLoaded = false;
 
@@ -174,7 +201,7 @@ public class ProjectOpeningTask extends AbstractTask {
       while (entries.hasMoreElements()) {
 
         if (isCanceled()) {
-          zipFile.close();
+          closeProjectFile();
           return;
         }
 
@@ -183,7 +210,8 @@ public class ProjectOpeningTask extends AbstractTask {
         cis = new CountingInputStream(zipFile.getInputStream(entry));
 
         // Load version
-        if (entryName.equals(ProjectSavingTask.VERSION_FILENAME)) {
+        if (entryName.equals(ProjectSavingTask.VERSION_FILENAME)
+            || entryName.equals(ProjectSavingTask.PROJECT_VERSION_FILENAME)) {
           loadVersion(cis);
           versionInformationLoaded = true;
         }
@@ -210,14 +238,27 @@ public class ProjectOpeningTask extends AbstractTask {
         if (scansFileMatcher.matches()) {
           final String fileID = scansFileMatcher.group(1);
           final String fileName = scansFileMatcher.group(2);
-          loadScansFile(cis, fileID, fileName);
+          if (openOnDemand)
+            registerScansFile(entryName, fileID, fileName);
+          else
+            loadScansFile(cis, fileID, fileName);
         }
 
         // Load a feature list
         final Matcher peakListMatcher = peakListPattern.matcher(entryName);
         if (peakListMatcher.matches()) {
           final String peakListName = peakListMatcher.group(2);
-          loadPeakList(cis, peakListName);
+          loadPeakList(cis, peakListName, peakListOpenHandler);
+        }
+
+        // Load a feature list in the binary format
+        final Matcher binaryPeakListMatcher = binaryPeakListPattern.matcher(entryName);
+        if (binaryPeakListMatcher.matches()) {
+          final String peakListName = binaryPeakListMatcher.group(2);
+          if (openOnDemand)
+            registerPeakList(cis, entryName, peakListName);
+          else
+            loadPeakList(cis, peakListName, binaryPeakListOpenHandler);
         }
 
         // Close the ZIP entry
@@ -231,17 +272,28 @@ public class ProjectOpeningTask extends AbstractTask {
 
       }
 
-      // Finish and close the project ZIP file
-      zipFile.close();
-
       if (!versionInformationLoaded) {
         throw new IOException(
             "This file is not valid MZmine project. It does not contain version information.");
       }
 
       // Final check for cancel
-      if (isCanceled())
+      if (isCanceled()) {
+        closeProjectFile();
         return;
+      }
+
+      // Scan data without a raw data file is never accessed
+      for (DataPointsFileSource scansFile : scanFilesIDMap.values())
+        scansFile.release();
+      scanFilesIDMap.clear();
+
+      // Finish and close the project ZIP file. When opening on demand, it stays open until all
+      // pending entries were loaded or released.
+      if (openOnDemand)
+        projectArchive.closeIfNoPendingEntries();
+      else
+        zipFile.close();
 
       logger.info("Finished opening project " + openFile);
       setStatus(TaskStatus.FINISHED);
@@ -251,6 +303,8 @@ public class ProjectOpeningTask extends AbstractTask {
 
     } catch (Throwable e) {
 
+      closeProjectFile();
+
       // If project opening was canceled, parser was stopped by a
       // SAXException which can be safely ignored
       if (isCanceled())
@@ -279,6 +333,8 @@ public class ProjectOpeningTask extends AbstractTask {
     if (peakListOpenHandler != null)
       peakListOpenHandler.cancel();
 
+    binaryPeakListOpenHandler.cancel();
+
     if (userParameterOpenHandler != null)
       userParameterOpenHandler.cancel();
 
@@ -388,7 +444,7 @@ public class ProjectOpeningTask extends AbstractTask {
 
     currentLoadedObjectName = fileName;
 
-    File scansFile = scanFilesIDMap.get(fileID);
+    DataPointsFileSource scansFile = scanFilesIDMap.remove(fileID);
     if (scansFile == null) {
       throw new IOException("Missing scans data for file ID " + fileID);
     }
@@ -412,18 +468,60 @@ public class ProjectOpeningTask extends AbstractTask {
     copyMachine.copy(is, os);
     os.close();
 
-    scanFilesIDMap.put(fileID, tempFile);
+    scanFilesIDMap.put(fileID, new DataPointsFileSource() {
+      @Override
+      public File getDataPointsFile() {
+        return tempFile;
+      }
+
+      @Override
+      public void release() {
+        tempFile.delete();
+      }
+    });
 
   }
 
-  private void loadPeakList(InputStream is, String peakListName) throws IOException,
-      ParserConfigurationException, SAXException, InstantiationException, IllegalAccessException {
+  /**
+   * Registers the scan data of a raw data file, which is extracted when the data points are
+   * accessed the first time
+   */
+  private void registerScansFile(String entryName, String fileID, String fileName) {
+
+    final PendingEntry pendingEntry =
+        projectArchive.addPendingEntry(entryName, "scan data of raw data file " + fileName);
+    scanFilesIDMap.put(fileID, new DataPointsFileSource() {
+      @Override
+      public File getDataPointsFile() throws IOException {
+        return pendingEntry.load(is -> {
+          final File tempFile = RawDataFileImpl.createNewDataPointsFile();
+          try (FileOutputStream os = new FileOutputStream(tempFile)) {
+            new StreamCopy().copy(is, os);
+          } catch (IOException e) {
+            tempFile.delete();
+            throw e;
+          }
+          return tempFile;
+        });
+      }
+
+      @Override
+      public void release() {
+        pendingEntry.release();
+      }
+    });
+
+  }
+
+  private void loadPeakList(InputStream is, String peakListName, PeakListOpenHandler handler)
+      throws IOException, ParserConfigurationException, SAXException, InstantiationException,
+      IllegalAccessException {
 
     logger.info("Loading feature list " + peakListName);
 
     currentLoadedObjectName = peakListName;
 
-    PeakList newPeakList = peakListOpenHandler.readPeakList(is);
+    PeakList newPeakList = handler.readPeakList(is);
 
     newProject.addPeakList(newPeakList);
 
@@ -431,6 +529,63 @@ public class ProjectOpeningTask extends AbstractTask {
     QualityParameters.calculateQualityParameters(newPeakList);
   }
 
+  /**
+   * Adds a feature list in the binary format to the project without its rows, which are loaded
+   * when they are accessed the first time
+   */
+  private void registerPeakList(InputStream is, String entryName, String peakListName)
+      throws IOException {
+
+    logger.info("Registering feature list " + peakListName);
+
+    currentLoadedObjectName = peakListName;
+
+    SimplePeakList newPeakList =
+        new PeakListOpenHandler_3_0(dataFilesIDMap).readPeakListWithoutRows(is);
+
+    final PendingEntry pendingEntry =
+        projectArchive.addPendingEntry(entryName, "rows of feature list " + peakListName);
+    newPeakList.setPendingRows(new RowsLoader() {
+      @Override
+      public List<PeakListRow> loadRows() throws IOException {
+        return pendingEntry.load(rowsStream -> {
+          final PeakList loadedPeakList =
+              new PeakListOpenHandler_3_0(dataFilesIDMap).readPeakList(rowsStream);
+
+          // Add quality parameters to peaks
+          QualityParameters.calculateQualityParameters(loadedPeakList);
+          return loadedPeakList.getRows();
+        });
+      }
+
+      @Override
+      public void release() {
+        pendingEntry.release();
+      }
+    });
+
+    newProject.addPeakList(newPeakList);
+  }
+
+  /**
+   * Closes the project file when opening failed or was canceled, also if there are pending
+   * entries
+   */
+  private void closeProjectFile() {
+    for (DataPointsFileSource scansFile : scanFilesIDMap.values())
+      scansFile.release();
+    scanFilesIDMap.clear();
+    if (projectArchive != null) {
+      projectArchive.close();
+    } else if (zipFile != null) {
+      try {
+        zipFile.close();
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Could not close project file " + openFile, e);
+      }
+    }
+  }
+
   private void loadUserParameters(InputStream is) throws IOException, ParserConfigurationException,
       SAXException, InstantiationException, IllegalAccessException {
 
@@ -18,7 +18,6 @@
 
 package io.github.mzmine.modules.io.projectload;
 
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -27,10 +26,15 @@ import javax.xml.parsers.ParserConfigurationException;
 import org.xml.sax.SAXException;
 
 import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.project.impl.RawDataFileImpl.DataPointsFileSource;
 
 public interface RawDataFileOpenHandler {
 
-  RawDataFile readRawDataFile(InputStream is, File scansFile)
+  /**
+   * @param scansFile provides the data points file when the data points are accessed the first
+   *        time
+   */
+  RawDataFile readRawDataFile(InputStream is, DataPointsFileSource scansFile)
       throws IOException, ParserConfigurationException, SAXException;
 
   void cancel();
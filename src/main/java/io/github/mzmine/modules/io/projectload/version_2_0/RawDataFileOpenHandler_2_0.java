@@ -18,10 +18,9 @@
 
 package io.github.mzmine.modules.io.projectload.version_2_0;
 
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.TreeMap;
+import java.util.NavigableMap;
 import java.util.logging.Logger;
 
 import javax.xml.parsers.ParserConfigurationException;
@@ -38,6 +37,7 @@ import io.github.mzmine.datamodel.RawDataFile;
 import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.modules.io.projectload.RawDataFileOpenHandler;
 import io.github.mzmine.project.impl.RawDataFileImpl;
+import io.github.mzmine.project.impl.RawDataFileImpl.DataPointsFileSource;
 import io.github.mzmine.project.impl.StorableScan;
 
 public class RawDataFileOpenHandler_2_0 extends DefaultHandler implements RawDataFileOpenHandler {
@@ -68,7 +68,7 @@ public class RawDataFileOpenHandler_2_0 extends DefaultHandler implements RawDat
    * @throws SAXException
    * @throws ParserConfigurationException
    */
-  public RawDataFile readRawDataFile(InputStream is, File scansFile)
+  public RawDataFile readRawDataFile(InputStream is, DataPointsFileSource scansFile)
       throws IOException, ParserConfigurationException, SAXException {
 
     storageFileOffset = 0;
@@ -76,7 +76,7 @@ public class RawDataFileOpenHandler_2_0 extends DefaultHandler implements RawDat
     charBuffer = new StringBuffer();
 
     newRawDataFile = (RawDataFileImpl) MZmineCore.createNewFile(null);
-    newRawDataFile.openDataPointsFile(scansFile);
+    newRawDataFile.openDataPointsFileOnDemand(scansFile);
 
     // Reads the XML file (raw data description)
     SAXParserFactory factory = SAXParserFactory.newInstance();
@@ -190,8 +190,8 @@ public class RawDataFileOpenHandler_2_0 extends DefaultHandler implements RawDat
 
       try {
         int newStorageID = 1;
-        TreeMap<Integer, Long> dataPointsOffsets = newRawDataFile.getDataPointsOffsets();
-        TreeMap<Integer, Integer> dataPointsLengths = newRawDataFile.getDataPointsLengths();
+        NavigableMap<Integer, Long> dataPointsOffsets = newRawDataFile.getDataPointsOffsets();
+        NavigableMap<Integer, Integer> dataPointsLengths = newRawDataFile.getDataPointsLengths();
         if (!dataPointsOffsets.isEmpty())
           newStorageID = dataPointsOffsets.lastKey().intValue() + 1;
 
@@ -18,11 +18,10 @@
 
 package io.github.mzmine.modules.io.projectload.version_2_3;
 
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.TreeMap;
+import java.util.NavigableMap;
 import java.util.logging.Logger;
 
 import javax.xml.parsers.ParserConfigurationException;
@@ -42,6 +41,7 @@ import io.github.mzmine.datamodel.impl.SimpleMassList;
 import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.modules.io.projectload.RawDataFileOpenHandler;
 import io.github.mzmine.project.impl.RawDataFileImpl;
+import io.github.mzmine.project.impl.RawDataFileImpl.DataPointsFileSource;
 import io.github.mzmine.project.impl.StorableScan;
 import io.github.mzmine.util.scans.ScanUtils;
 
@@ -75,7 +75,7 @@ public class RawDataFileOpenHandler_2_3 extends DefaultHandler implements RawDat
    * @throws SAXException
    * @throws ParserConfigurationException
    */
-  public RawDataFile readRawDataFile(InputStream is, File scansFile)
+  public RawDataFile readRawDataFile(InputStream is, DataPointsFileSource scansFile)
       throws IOException, ParserConfigurationException, SAXException {
 
     storageFileOffset = 0;
@@ -85,7 +85,7 @@ public class RawDataFileOpenHandler_2_3 extends DefaultHandler implements RawDat
     allMassLists = new ArrayList<SimpleMassList>();
 
     newRawDataFile = (RawDataFileImpl) MZmineCore.createNewFile(null);
-    newRawDataFile.openDataPointsFile(scansFile);
+    newRawDataFile.openDataPointsFileOnDemand(scansFile);
 
     // Reads the XML file (raw data description)
     SAXParserFactory factory = SAXParserFactory.newInstance();
@@ -220,8 +220,8 @@ public class RawDataFileOpenHandler_2_3 extends DefaultHandler implements RawDat
 
       try {
         int newStorageID = 1;
-        TreeMap<Integer, Long> dataPointsOffsets = newRawDataFile.getDataPointsOffsets();
-        TreeMap<Integer, Integer> dataPointsLengths = newRawDataFile.getDataPointsLengths();
+        NavigableMap<Integer, Long> dataPointsOffsets = newRawDataFile.getDataPointsOffsets();
+        NavigableMap<Integer, Integer> dataPointsLengths = newRawDataFile.getDataPointsLengths();
         if (!dataPointsOffsets.isEmpty())
           newStorageID = dataPointsOffsets.lastKey().intValue() + 1;
 
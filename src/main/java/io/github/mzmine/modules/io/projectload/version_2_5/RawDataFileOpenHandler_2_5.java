@@ -18,11 +18,10 @@
 
 package io.github.mzmine.modules.io.projectload.version_2_5;
 
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.TreeMap;
+import java.util.NavigableMap;
 import java.util.logging.Logger;
 
 import javax.xml.parsers.ParserConfigurationException;
@@ -41,6 +40,7 @@ import io.github.mzmine.datamodel.RawDataFile;
 import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.modules.io.projectload.RawDataFileOpenHandler;
 import io.github.mzmine.project.impl.RawDataFileImpl;
+import io.github.mzmine.project.impl.RawDataFileImpl.DataPointsFileSource;
 import io.github.mzmine.project.impl.StorableMassList;
 import io.github.mzmine.project.impl.StorableScan;
 import io.github.mzmine.util.RangeUtils;
@@ -64,8 +64,8 @@ public class RawDataFileOpenHandler_2_5 extends DefaultHandler implements RawDat
   private int currentStorageID;
   private int storedDataID;
   private int storedDataNumDP;
-  private TreeMap<Integer, Long> dataPointsOffsets;
-  private TreeMap<Integer, Integer> dataPointsLengths;
+  private NavigableMap<Integer, Long> dataPointsOffsets;
+  private NavigableMap<Integer, Integer> dataPointsLengths;
   private ArrayList<StorableMassList> massLists;
   private PolarityType polarity = PolarityType.UNKNOWN;
   private String scanDescription = "";
@@ -81,14 +81,14 @@ public class RawDataFileOpenHandler_2_5 extends DefaultHandler implements RawDat
    * @throws SAXException
    * @throws ParserConfigurationException
    */
-  public RawDataFile readRawDataFile(InputStream is, File scansFile)
+  public RawDataFile readRawDataFile(InputStream is, DataPointsFileSource scansFile)
       throws IOException, ParserConfigurationException, SAXException {
 
     charBuffer = new StringBuffer();
     massLists = new ArrayList<StorableMassList>();
 
     newRawDataFile = (RawDataFileImpl) MZmineCore.createNewFile(null);
-    newRawDataFile.openDataPointsFile(scansFile);
+    newRawDataFile.openDataPointsFileOnDemand(scansFile);
 
     dataPointsOffsets = newRawDataFile.getDataPointsOffsets();
     dataPointsLengths = newRawDataFile.getDataPointsLengths();
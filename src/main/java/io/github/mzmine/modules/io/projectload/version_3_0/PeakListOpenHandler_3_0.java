@@ -0,0 +1,486 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+package io.github.mzmine.modules.io.projectload.version_3_0;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+import com.google.common.collect.Range;
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.datamodel.FeatureStatus;
+import io.github.mzmine.datamodel.IsotopePattern.IsotopePatternStatus;
+import io.github.mzmine.datamodel.PeakIdentity;
+import io.github.mzmine.datamodel.PeakList;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.Scan;
+import io.github.mzmine.datamodel.impl.SimpleDataPoint;
+import io.github.mzmine.datamodel.impl.SimpleFeature;
+import io.github.mzmine.datamodel.impl.SimpleIsotopePattern;
+import io.github.mzmine.datamodel.impl.SimplePeakIdentity;
+import io.github.mzmine.datamodel.impl.SimplePeakInformation;
+import io.github.mzmine.datamodel.impl.SimplePeakList;
+import io.github.mzmine.datamodel.impl.SimplePeakListAppliedMethod;
+import io.github.mzmine.datamodel.impl.SimplePeakListRow;
+import io.github.mzmine.modules.io.projectload.PeakListOpenHandler;
+import io.github.mzmine.modules.io.projectsave.PeakListSaveHandler;
+
+/**
+ * Loads a feature list saved in the binary format of PeakListSaveHandler. The chunks of rows are
+ * read in order and decoded in parallel.
+ */
+public class PeakListOpenHandler_3_0 implements PeakListOpenHandler {
+
+  private Logger logger = Logger.getLogger(this.getClass().getName());
+
+  private Hashtable<String, RawDataFile> dataFilesIDMap;
+
+  // Raw data files referenced by the features and feature status table of the header
+  private RawDataFile columns[];
+  private FeatureStatus statuses[];
+
+  private volatile int parsedRows, totalRows;
+
+  private volatile boolean canceled = false;
+
+  public PeakListOpenHandler_3_0(Hashtable<String, RawDataFile> dataFilesIDMap) {
+    this.dataFilesIDMap = dataFilesIDMap;
+  }
+
+  /**
+   * Load the feature list from the zip file reading the binary feature list file
+   */
+  @Override
+  public PeakList readPeakList(InputStream peakListStream) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(peakListStream, 1 << 16));
+    SimplePeakList peakList = readHeader(in);
+    readRows(in, peakList);
+    return peakList;
+  }
+
+  /**
+   * Reads only the feature list information and the raw data files, without the rows. Used to open
+   * projects on demand.
+   */
+  public SimplePeakList readPeakListWithoutRows(InputStream peakListStream) throws IOException {
+    return readHeader(new DataInputStream(new BufferedInputStream(peakListStream, 1 << 16)));
+  }
+
+  private SimplePeakList readHeader(DataInputStream in) throws IOException {
+
+    totalRows = 0;
+    parsedRows = 0;
+
+    if (in.readInt() != PeakListSaveHandler.FORMAT_MAGIC)
+      throw new IOException("Invalid feature list data");
+    final int version = in.readInt();
+    if (version > PeakListSaveHandler.FORMAT_VERSION)
+      throw new IOException("Unsupported feature list format version " + version);
+
+    final String peakListName = readString(in);
+    logger.info("Loading feature list: " + peakListName);
+    final String dateCreated = readString(in);
+
+    // The size of the header is unknown, so the counts of the header are not used to allocate
+    // arrays. Invalid counts end with an EOFException.
+    final int numOfMethods = readCount(in, "applied methods");
+    final List<SimplePeakListAppliedMethod> methods = new ArrayList<>();
+    for (int i = 0; i < numOfMethods; i++) {
+      final String methodName = readString(in);
+      methods.add(new SimplePeakListAppliedMethod(methodName, readString(in)));
+    }
+
+    // The first numOfPeakListFiles columns are the raw data files of the feature list
+    final int numOfPeakListFiles = readCount(in, "raw data files");
+    final int numOfColumns = readCount(in, "feature columns");
+    if (numOfPeakListFiles > numOfColumns) {
+      throw new IOException("Invalid feature list data: " + numOfPeakListFiles
+          + " raw data files, but only " + numOfColumns + " feature columns");
+    }
+    final List<RawDataFile> columnList = new ArrayList<>();
+    for (int i = 0; i < numOfColumns; i++) {
+      final String rawDataFileID = readString(in);
+      final RawDataFile dataFile = dataFilesIDMap.get(rawDataFileID);
+      if (dataFile == null) {
+        throw new IOException(
+            "Cannot open feature list, because raw data file " + rawDataFileID + " is missing.");
+      }
+      columnList.add(dataFile);
+    }
+    columns = columnList.toArray(new RawDataFile[0]);
+
+    final int numOfStatuses = readCount(in, "feature statuses");
+    final List<FeatureStatus> statusList = new ArrayList<>();
+    for (int i = 0; i < numOfStatuses; i++)
+      statusList.add(readEnum(in, FeatureStatus.class));
+    statuses = statusList.toArray(new FeatureStatus[0]);
+
+    totalRows = readCount(in, "rows");
+
+    RawDataFile dataFiles[] = new RawDataFile[numOfPeakListFiles];
+    System.arraycopy(columns, 0, dataFiles, 0, numOfPeakListFiles);
+    SimplePeakList peakList = new SimplePeakList(peakListName, dataFiles);
+    for (SimplePeakListAppliedMethod method : methods)
+      peakList.addDescriptionOfAppliedTask(method);
+    peakList.setDateCreated(dateCreated);
+
+    return peakList;
+  }
+
+  private void readRows(DataInputStream in, SimplePeakList peakList) throws IOException {
+
+    // Read a window of chunks, decode them in parallel and add the rows in order
+    final int chunksPerWindow = 2 * Runtime.getRuntime().availableProcessors();
+    while (parsedRows < totalRows) {
+
+      if (canceled)
+        throw new IOException("Loading canceled");
+
+      byte chunks[][] = new byte[chunksPerWindow][];
+      int numOfChunks = 0;
+      int windowRows = 0;
+      while (numOfChunks < chunksPerWindow && parsedRows + windowRows < totalRows) {
+        final byte chunk[] = readBytes(in, readCount(in, "chunk bytes"));
+        if (chunk.length < Integer.BYTES)
+          throw new IOException("Invalid feature list data: chunk of " + chunk.length + " bytes");
+        chunks[numOfChunks++] = chunk;
+        // The first value of each chunk is its number of rows
+        windowRows += ByteBuffer.wrap(chunk).getInt();
+      }
+
+      final SimplePeakListRow decodedRows[][] = new SimplePeakListRow[numOfChunks][];
+      try {
+        IntStream.range(0, numOfChunks).parallel().forEach(c -> {
+          try {
+            decodedRows[c] = decodeChunk(chunks[c], columns, statuses);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+
+      for (SimplePeakListRow chunkRows[] : decodedRows) {
+        for (SimplePeakListRow row : chunkRows)
+          peakList.addRow(row);
+      }
+      parsedRows += windowRows;
+    }
+
+  }
+
+  /**
+   * Decodes the rows of one chunk, see PeakListSaveHandler.encodeChunk(). The chunk is in memory,
+   * so in.available() is the number of bytes left, which limits all counts of the chunk.
+   */
+  private SimplePeakListRow[] decodeChunk(byte chunk[], RawDataFile columns[],
+      FeatureStatus statuses[]) throws IOException {
+
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(chunk));
+
+    final int numOfRows = readCount(in, Integer.BYTES, "rows");
+    final SimplePeakListRow rows[] = new SimplePeakListRow[numOfRows];
+
+    // Row columns
+    for (int r = 0; r < numOfRows; r++)
+      rows[r] = new SimplePeakListRow(in.readInt());
+    for (int r = 0; r < numOfRows; r++)
+      rows[r].setComment(readString(in));
+
+    for (int r = 0; r < numOfRows; r++) {
+      final int numOfIdentities = readCount(in, 1 + Integer.BYTES, "identities");
+      for (int i = 0; i < numOfIdentities; i++) {
+        final boolean preferred = in.readBoolean();
+        final Map<String, String> identityProperties = new HashMap<>();
+        readProperties(in, readCount(in, 2 * Integer.BYTES, "identity properties"),
+            identityProperties);
+        if (identityProperties.get(PeakIdentity.PROPERTY_NAME) == null
+            || identityProperties.containsValue(null))
+          throw new IOException("Invalid feature list data: identity without a name or value");
+        rows[r].addPeakIdentity(new SimplePeakIdentity(new Hashtable<>(identityProperties)),
+            preferred);
+      }
+    }
+
+    for (int r = 0; r < numOfRows; r++) {
+      final int numOfProperties = in.readInt();
+      if (numOfProperties == PeakListSaveHandler.NO_VALUE)
+        continue;
+      checkCount(in, numOfProperties, 2 * Integer.BYTES, "information properties");
+      final Map<String, String> informationProperties = new HashMap<>();
+      readProperties(in, numOfProperties, informationProperties);
+      rows[r].setPeakInformation(new SimplePeakInformation(informationProperties));
+    }
+
+    final int rowPeaks[] = readInts(in, numOfRows);
+    long totalPeaks = 0;
+    for (int r = 0; r < numOfRows; r++) {
+      checkCount(in, rowPeaks[r], Integer.BYTES, "features");
+      totalPeaks += rowPeaks[r];
+    }
+    checkCount(in, totalPeaks, Integer.BYTES, "features");
+    final int numOfPeaks = (int) totalPeaks;
+
+    // Feature columns
+    final int column[] = readInts(in, numOfPeaks);
+    final double mz[] = readDoubles(in, numOfPeaks);
+    final double rt[] = readDoubles(in, numOfPeaks);
+    final double height[] = readDoubles(in, numOfPeaks);
+    final double area[] = readDoubles(in, numOfPeaks);
+    final byte status[] = readBytes(in, numOfPeaks);
+    final int charge[] = readInts(in, numOfPeaks);
+    final int parentRowID[] = readInts(in, numOfPeaks);
+    final int representativeScan[] = readInts(in, numOfPeaks);
+    final int fragmentScan[] = readInts(in, numOfPeaks);
+    for (int p = 0; p < numOfPeaks; p++) {
+      if (column[p] < 0 || column[p] >= columns.length) {
+        throw new IOException("Invalid feature list data: feature column " + column[p] + " of "
+            + columns.length);
+      }
+      if (status[p] < 0 || status[p] >= statuses.length) {
+        throw new IOException("Invalid feature list data: feature status " + status[p] + " of "
+            + statuses.length);
+      }
+    }
+
+    final int allFragmentScans[][] = new int[numOfPeaks][];
+    for (int p = 0; p < numOfPeaks; p++) {
+      final int numOfScans = in.readInt();
+      allFragmentScans[p] =
+          numOfScans == PeakListSaveHandler.NO_VALUE ? null : readInts(in, numOfScans);
+    }
+
+    final SimpleIsotopePattern isotopePatterns[] = new SimpleIsotopePattern[numOfPeaks];
+    for (int p = 0; p < numOfPeaks; p++) {
+      final int numOfIsotopes = in.readInt();
+      if (numOfIsotopes == PeakListSaveHandler.NO_VALUE)
+        continue;
+      checkCount(in, numOfIsotopes, 2 * Double.BYTES, "isotopes");
+      final IsotopePatternStatus isotopeStatus = readEnum(in, IsotopePatternStatus.class);
+      final String description = readString(in);
+      final DataPoint isotopes[] = new DataPoint[numOfIsotopes];
+      for (int i = 0; i < numOfIsotopes; i++)
+        isotopes[i] = new SimpleDataPoint(in.readDouble(), in.readDouble());
+      isotopePatterns[p] = new SimpleIsotopePattern(isotopes, isotopeStatus, description);
+    }
+
+    final int numOfDataPoints[] = readInts(in, numOfPeaks);
+    long totalDataPoints = 0;
+    for (int p = 0; p < numOfPeaks; p++) {
+      checkCount(in, numOfDataPoints[p], 3 * Integer.BYTES, "data points");
+      totalDataPoints += numOfDataPoints[p];
+    }
+    checkCount(in, totalDataPoints, 3 * Integer.BYTES, "data points");
+    final int scanNumbers[][] = new int[numOfPeaks][];
+    for (int p = 0; p < numOfPeaks; p++)
+      scanNumbers[p] = readInts(in, numOfDataPoints[p]);
+    final float masses[][] = new float[numOfPeaks][];
+    for (int p = 0; p < numOfPeaks; p++)
+      masses[p] = readFloats(in, numOfDataPoints[p]);
+    final float intensities[][] = new float[numOfPeaks][];
+    for (int p = 0; p < numOfPeaks; p++)
+      intensities[p] = readFloats(in, numOfDataPoints[p]);
+
+    int p = 0;
+    for (int r = 0; r < numOfRows; r++) {
+      for (int i = 0; i < rowPeaks[r]; i++, p++) {
+        final RawDataFile dataFile = columns[column[p]];
+
+        DataPoint[] mzPeaks = new DataPoint[numOfDataPoints[p]];
+        Range<Double> peakRTRange = null, peakMZRange = null, peakIntensityRange = null;
+        for (int j = 0; j < numOfDataPoints[p]; j++) {
+
+          Scan sc = dataFile.getScan(scanNumbers[p][j]);
+          if (sc == null) {
+            throw new IOException("Invalid feature list data: scan " + scanNumbers[p][j]
+                + " is missing in " + dataFile);
+          }
+          double retentionTime = sc.getRetentionTime();
+
+          double dpMZ = masses[p][j];
+          double intensity = intensities[p][j];
+
+          if (peakIntensityRange == null) {
+            peakIntensityRange = Range.singleton(intensity);
+          } else {
+            peakIntensityRange = peakIntensityRange.span(Range.singleton(intensity));
+          }
+          if (intensity > 0) {
+            if (peakRTRange == null) {
+              peakRTRange = Range.singleton(retentionTime);
+            } else {
+              peakRTRange = peakRTRange.span(Range.singleton(retentionTime));
+            }
+          }
+
+          if (dpMZ > 0.0) {
+            mzPeaks[j] = new SimpleDataPoint(dpMZ, intensity);
+            if (peakMZRange == null)
+              peakMZRange = Range.singleton(dpMZ);
+            else
+              peakMZRange = peakMZRange.span(Range.singleton(dpMZ));
+          }
+        }
+
+        // peakRTRange could be null if the peak consists only of 0 intensity data points
+        if (peakRTRange == null)
+          peakRTRange = Range.singleton(rt[p]);
+
+        SimpleFeature peak = new SimpleFeature(dataFile, mz[p], rt[p], height[p], area[p],
+            scanNumbers[p], mzPeaks, statuses[status[p]], representativeScan[p], fragmentScan[p],
+            allFragmentScans[p], peakRTRange, peakMZRange, peakIntensityRange);
+
+        peak.setCharge(charge[p]);
+        if (isotopePatterns[p] != null)
+          peak.setIsotopePattern(isotopePatterns[p]);
+        peak.setParentChromatogramRowID(
+            parentRowID[p] != PeakListSaveHandler.NO_PARENT_ROW ? parentRowID[p] : null);
+
+        rows[r].addPeak(dataFile, peak);
+      }
+    }
+
+    return rows;
+  }
+
+  private static void readProperties(DataInputStream in, int numOfProperties,
+      Map<String, String> properties) throws IOException {
+    for (int i = 0; i < numOfProperties; i++) {
+      final String key = readString(in);
+      if (key == null)
+        throw new IOException("Invalid feature list data: property without a key");
+      properties.put(key, readString(in));
+    }
+  }
+
+  /**
+   * Reads a count, which must not be negative
+   */
+  private static int readCount(DataInputStream in, String what) throws IOException {
+    final int count = in.readInt();
+    if (count < 0)
+      throw new IOException("Invalid feature list data: " + count + " " + what);
+    return count;
+  }
+
+  /**
+   * Reads a count of elements of a chunk, each taking at least elementBytes bytes
+   */
+  private static int readCount(DataInputStream in, int elementBytes, String what)
+      throws IOException {
+    final int count = in.readInt();
+    checkCount(in, count, elementBytes, what);
+    return count;
+  }
+
+  /**
+   * Checks that count elements of at least elementBytes bytes each fit into the rest of a chunk
+   */
+  private static void checkCount(DataInputStream in, long count, int elementBytes, String what)
+      throws IOException {
+    if (count < 0 || count * elementBytes > in.available()) {
+      throw new IOException("Invalid feature list data: " + count + " " + what + ", but only "
+          + in.available() + " bytes left");
+    }
+  }
+
+  /**
+   * Reads length bytes. The buffer grows while reading, so an invalid length ends with an
+   * EOFException instead of a huge allocation.
+   */
+  private static byte[] readBytes(InputStream in, int length) throws IOException {
+    final byte bytes[] = in.readNBytes(length);
+    if (bytes.length < length)
+      throw new EOFException("Invalid feature list data: " + length + " bytes expected");
+    return bytes;
+  }
+
+  private static <E extends Enum<E>> E readEnum(DataInputStream in, Class<E> enumType)
+      throws IOException {
+    final String name = readString(in);
+    try {
+      return Enum.valueOf(enumType, name);
+    } catch (IllegalArgumentException | NullPointerException e) {
+      throw new IOException("Invalid feature list data: unknown " + enumType.getSimpleName()
+          + " " + name);
+    }
+  }
+
+  private static int[] readInts(DataInputStream in, int length) throws IOException {
+    checkCount(in, length, Integer.BYTES, "values");
+    final int values[] = new int[length];
+    for (int i = 0; i < length; i++)
+      values[i] = in.readInt();
+    return values;
+  }
+
+  private static double[] readDoubles(DataInputStream in, int length) throws IOException {
+    checkCount(in, length, Double.BYTES, "values");
+    final double values[] = new double[length];
+    for (int i = 0; i < length; i++)
+      values[i] = in.readDouble();
+    return values;
+  }
+
+  private static float[] readFloats(DataInputStream in, int length) throws IOException {
+    checkCount(in, length, Float.BYTES, "values");
+    final float values[] = new float[length];
+    for (int i = 0; i < length; i++)
+      values[i] = in.readFloat();
+    return values;
+  }
+
+  /**
+   * Reads a string written by PeakListSaveHandler, null for NO_VALUE
+   */
+  private static String readString(DataInputStream in) throws IOException {
+    final int length = in.readInt();
+    if (length == PeakListSaveHandler.NO_VALUE)
+      return null;
+    if (length < 0)
+      throw new IOException("Invalid feature list data: string of " + length + " bytes");
+    return new String(readBytes(in, length), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @return the progress of these functions loading the feature list from the zip file.
+   */
+  public double getProgress() {
+    if (totalRows == 0)
+      return 0;
+    return (double) parsedRows / totalRows;
+  }
+
+  @Override
+  public void cancel() {
+    canceled = true;
+  }
+}
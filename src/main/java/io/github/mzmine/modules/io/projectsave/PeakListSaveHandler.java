@@ -22,23 +22,19 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerConfigurationException;
-import javax.xml.transform.sax.SAXTransformerFactory;
-import javax.xml.transform.sax.TransformerHandler;
-import javax.xml.transform.stream.StreamResult;
-import org.xml.sax.SAXException;
-import org.xml.sax.helpers.AttributesImpl;
-import com.Ostermiller.util.Base64;
+import java.util.stream.IntStream;
 import io.github.mzmine.datamodel.DataPoint;
 import io.github.mzmine.datamodel.Feature;
+import io.github.mzmine.datamodel.FeatureStatus;
 import io.github.mzmine.datamodel.IsotopePattern;
 import io.github.mzmine.datamodel.PeakIdentity;
 import io.github.mzmine.datamodel.PeakInformation;
@@ -48,14 +44,31 @@ import io.github.mzmine.datamodel.PeakListRow;
 import io.github.mzmine.datamodel.RawDataFile;
 import io.github.mzmine.datamodel.impl.SimplePeakList;
 
+/**
+ * Saves a feature list in the binary project format (see PeakListOpenHandler_3_0).
+ *
+ * The header contains the feature list information and the IDs of the raw data files. The rows
+ * follow in chunks of ROWS_PER_CHUNK rows. Each chunk stores its values column by column (all row
+ * IDs, then all comments, ..., then all m/z values of the features, ...), so it is written and
+ * read without any parsing. The chunks are encoded in parallel and written in row order.
+ */
 public class PeakListSaveHandler {
 
+  public static final String PEAKLIST_EXTENSION = ".features";
+
+  public static final int FORMAT_MAGIC = 0x4D5A464C; // "MZFL"
+  public static final int FORMAT_VERSION = 1;
+  public static final int NO_VALUE = -1;
+  public static final int NO_PARENT_ROW = Integer.MIN_VALUE;
+
+  private static final int ROWS_PER_CHUNK = 1024;
+
   public static DateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
 
   private Hashtable<RawDataFile, String> dataFilesIDMap;
 
-  private int numberOfRows, finishedRows;
-  private boolean canceled = false;
+  private volatile int numberOfRows, finishedRows;
+  private volatile boolean canceled = false;
 
   private OutputStream finalStream;
 
@@ -66,368 +79,247 @@ public class PeakListSaveHandler {
   }
 
   /**
-   * Create an XML document with the feature list information an save it into the project zip file
+   * Save the feature list into the project zip file
    *
    * @param peakList
-   * @param peakListSavedName name of the feature list
    * @throws java.io.IOException
    */
-  public void savePeakList(PeakList peakList)
-      throws IOException, TransformerConfigurationException, SAXException {
+  public void savePeakList(PeakList peakList) throws IOException {
+
+    // A feature list of a project opened on demand has no rows if they could not be loaded
+    if (peakList instanceof SimplePeakList) {
+      final Exception rowsLoadingError = ((SimplePeakList) peakList).getRowsLoadingError();
+      if (rowsLoadingError != null)
+        throw new IOException("The rows of feature list " + peakList.getName()
+            + " could not be loaded, saving the feature list would lose them", rowsLoadingError);
+    }
 
     numberOfRows = peakList.getNumberOfRows();
     finishedRows = 0;
 
-    StreamResult streamResult = new StreamResult(finalStream);
-    SAXTransformerFactory tf = (SAXTransformerFactory) SAXTransformerFactory.newInstance();
-
-    TransformerHandler hd = tf.newTransformerHandler();
-
-    Transformer serializer = hd.getTransformer();
-    serializer.setOutputProperty(OutputKeys.INDENT, "yes");
-    serializer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+    final PeakListRow rows[] = peakList.getRows().toArray(PeakListRow[]::new);
 
-    hd.setResult(streamResult);
-    hd.startDocument();
-    AttributesImpl atts = new AttributesImpl();
+    // Raw data files of the feature list, followed by any other raw data file of a feature
+    final RawDataFile dataFiles[] = peakList.getRawDataFiles().toArray(RawDataFile[]::new);
+    final Map<RawDataFile, Integer> columns = new LinkedHashMap<>();
+    for (RawDataFile dataFile : dataFiles)
+      columns.putIfAbsent(dataFile, columns.size());
+    for (PeakListRow row : rows) {
+      for (Feature p : row.getPeaks())
+        columns.putIfAbsent(p.getDataFile(), columns.size());
+    }
 
-    hd.startElement("", "", PeakListElementName.PEAKLIST.getElementName(), atts);
-    atts.clear();
+    // Not closed, the zip stream stays open for the next entries
+    DataOutputStream out = new DataOutputStream(finalStream);
 
-    // <NAME>
-    hd.startElement("", "", PeakListElementName.PEAKLIST_NAME.getElementName(), atts);
-    hd.characters(peakList.getName().toCharArray(), 0, peakList.getName().length());
-    hd.endElement("", "", PeakListElementName.PEAKLIST_NAME.getElementName());
+    out.writeInt(FORMAT_MAGIC);
+    out.writeInt(FORMAT_VERSION);
 
-    // <PEAKLIST_DATE>
-    String dateText = "";
-    if (((SimplePeakList) peakList).getDateCreated() == null) {
-      dateText = ((SimplePeakList) peakList).getDateCreated();
-    } else {
-      Date date = new Date();
-      dateText = dateFormat.format(date);
-    }
-    hd.startElement("", "", PeakListElementName.PEAKLIST_DATE.getElementName(), atts);
-    hd.characters(dateText.toCharArray(), 0, dateText.length());
-    hd.endElement("", "", PeakListElementName.PEAKLIST_DATE.getElementName());
+    writeString(out, peakList.getName());
 
-    // <QUANTITY>
-    hd.startElement("", "", PeakListElementName.QUANTITY.getElementName(), atts);
-    hd.characters(String.valueOf(numberOfRows).toCharArray(), 0,
-        String.valueOf(numberOfRows).length());
-    hd.endElement("", "", PeakListElementName.QUANTITY.getElementName());
+    String dateText = ((SimplePeakList) peakList).getDateCreated();
+    if (dateText == null)
+      dateText = dateFormat.format(new Date());
+    writeString(out, dateText);
 
-    // <PROCESS>
     PeakListAppliedMethod[] processes = peakList.getAppliedMethods();
+    out.writeInt(processes.length);
     for (PeakListAppliedMethod proc : processes) {
-
-      hd.startElement("", "", PeakListElementName.METHOD.getElementName(), atts);
-
-      hd.startElement("", "", PeakListElementName.METHOD_NAME.getElementName(), atts);
-      String methodName = proc.getDescription();
-      hd.characters(methodName.toCharArray(), 0, methodName.length());
-      hd.endElement("", "", PeakListElementName.METHOD_NAME.getElementName());
-
-      hd.startElement("", "", PeakListElementName.METHOD_PARAMETERS.getElementName(), atts);
-      String methodParameters = proc.getParameters();
-      hd.characters(methodParameters.toCharArray(), 0, methodParameters.length());
-      hd.endElement("", "", PeakListElementName.METHOD_PARAMETERS.getElementName());
-
-      hd.endElement("", "", PeakListElementName.METHOD.getElementName());
-
+      writeString(out, proc.getDescription());
+      writeString(out, proc.getParameters());
     }
-    atts.clear();
 
-    // <RAWFILE>
-    RawDataFile[] dataFiles = peakList.getRawDataFiles().toArray(RawDataFile[]::new);
+    out.writeInt(dataFiles.length);
+    out.writeInt(columns.size());
+    for (RawDataFile dataFile : columns.keySet())
+      writeString(out, dataFilesIDMap.get(dataFile));
 
-    for (int i = 0; i < dataFiles.length; i++) {
+    final FeatureStatus statuses[] = FeatureStatus.values();
+    out.writeInt(statuses.length);
+    for (FeatureStatus status : statuses)
+      writeString(out, status.name());
 
-      String ID = dataFilesIDMap.get(dataFiles[i]);
+    out.writeInt(rows.length);
 
-      hd.startElement("", "", PeakListElementName.RAWFILE.getElementName(), atts);
-      char idChars[] = ID.toCharArray();
-      hd.characters(idChars, 0, idChars.length);
-
-      hd.endElement("", "", PeakListElementName.RAWFILE.getElementName());
-    }
-
-    // <ROW>
-    PeakListRow row;
-    for (int i = 0; i < numberOfRows; i++) {
+    // Encode a window of chunks in parallel, then write them in order
+    final int numOfChunks = (rows.length + ROWS_PER_CHUNK - 1) / ROWS_PER_CHUNK;
+    final int chunksPerWindow = 2 * Runtime.getRuntime().availableProcessors();
+    for (int firstChunk = 0; firstChunk < numOfChunks; firstChunk += chunksPerWindow) {
 
       if (canceled)
         return;
 
-      atts.clear();
-      row = peakList.getRow(i);
-      atts.addAttribute("", "", PeakListElementName.ID.getElementName(), "CDATA",
-          String.valueOf(row.getID()));
-      if (row.getComment() != null) {
-        atts.addAttribute("", "", PeakListElementName.COMMENT.getElementName(), "CDATA",
-            row.getComment());
+      final int windowStart = firstChunk;
+      final int windowEnd = Math.min(numOfChunks, firstChunk + chunksPerWindow);
+      final byte chunks[][] = new byte[windowEnd - windowStart][];
+      try {
+        IntStream.range(windowStart, windowEnd).parallel().forEach(chunk -> {
+          final int start = chunk * ROWS_PER_CHUNK;
+          final int end = Math.min(rows.length, start + ROWS_PER_CHUNK);
+          try {
+            chunks[chunk - windowStart] = encodeChunk(rows, start, end, columns);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
       }
 
-      hd.startElement("", "", PeakListElementName.ROW.getElementName(), atts);
-      fillRowElement(row, hd);
-      hd.endElement("", "", PeakListElementName.ROW.getElementName());
+      for (byte chunk[] : chunks) {
+        out.writeInt(chunk.length);
+        out.write(chunk);
+      }
+      out.flush();
 
-      finishedRows++;
+      finishedRows = Math.min(rows.length, windowEnd * ROWS_PER_CHUNK);
     }
-
-    hd.endElement("", "", PeakListElementName.PEAKLIST.getElementName());
-    hd.endDocument();
   }
 
   /**
-   * Add the row information into the XML document
-   *
-   * @param row
-   * @param element
-   * @throws IOException
+   * Encodes the rows start ... end - 1 column by column
    */
-  private void fillRowElement(PeakListRow row, TransformerHandler hd)
-      throws SAXException, IOException {
-
-    // <PEAK_IDENTITY>
-    PeakIdentity preferredIdentity = row.getPreferredPeakIdentity();
-    PeakIdentity[] identities = row.getPeakIdentities();
-    AttributesImpl atts = new AttributesImpl();
-
-    for (int i = 0; i < identities.length; i++) {
-
-      if (canceled)
-        return;
-
-      atts.addAttribute("", "", PeakListElementName.ID.getElementName(), "CDATA",
-          String.valueOf(i));
-      atts.addAttribute("", "", PeakListElementName.PREFERRED.getElementName(), "CDATA",
-          String.valueOf(identities[i] == preferredIdentity));
-      hd.startElement("", "", PeakListElementName.PEAK_IDENTITY.getElementName(), atts);
-      fillIdentityElement(identities[i], hd);
-      hd.endElement("", "", PeakListElementName.PEAK_IDENTITY.getElementName());
+  private byte[] encodeChunk(PeakListRow rows[], int start, int end,
+      Map<RawDataFile, Integer> columns) throws IOException {
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+
+    final int numOfRows = end - start;
+    out.writeInt(numOfRows);
+
+    // Row columns
+    for (int r = start; r < end; r++)
+      out.writeInt(rows[r].getID());
+    for (int r = start; r < end; r++)
+      writeString(out, rows[r].getComment());
+
+    for (int r = start; r < end; r++) {
+      final PeakIdentity preferredIdentity = rows[r].getPreferredPeakIdentity();
+      final PeakIdentity identities[] = rows[r].getPeakIdentities();
+      out.writeInt(identities.length);
+      for (PeakIdentity identity : identities) {
+        out.writeBoolean(identity == preferredIdentity);
+        writeProperties(out, identity.getAllProperties());
+      }
     }
 
-    // <PEAK_INFORMATION>
-
-    // atts.clear();
-
-    if (canceled)
-      return;
-
-    // atts.addAttribute("", "", PeakListElementName.ID.getElementName(),
-    // "CDATA", "INFORMATION");
-    hd.startElement("", "", PeakListElementName.PEAK_INFORMATION.getElementName(), atts);
-    fillInformationElement(row.getPeakInformation(), hd);
-    hd.endElement("", "", PeakListElementName.PEAK_INFORMATION.getElementName());
-
-    // <PEAK>
-    Feature[] peaks = row.getPeaks();
-    for (Feature p : peaks) {
-      if (canceled)
-        return;
-
-      atts.clear();
-      String dataFileID = dataFilesIDMap.get(p.getDataFile());
-      atts.addAttribute("", "", PeakListElementName.COLUMN.getElementName(), "CDATA", dataFileID);
-      atts.addAttribute("", "", PeakListElementName.MZ.getElementName(), "CDATA",
-          String.valueOf(p.getMZ()));
-      // In the project file, retention time is represented in seconds,
-      // for historical reasons
-      double rt = p.getRT() * 60d;
-      atts.addAttribute("", "", PeakListElementName.RT.getElementName(), "CDATA",
-          String.valueOf(rt));
-      atts.addAttribute("", "", PeakListElementName.HEIGHT.getElementName(), "CDATA",
-          String.valueOf(p.getHeight()));
-      atts.addAttribute("", "", PeakListElementName.AREA.getElementName(), "CDATA",
-          String.valueOf(p.getArea()));
-      atts.addAttribute("", "", PeakListElementName.STATUS.getElementName(), "CDATA",
-          p.getFeatureStatus().toString());
-      atts.addAttribute("", "", PeakListElementName.CHARGE.getElementName(), "CDATA",
-          String.valueOf(p.getCharge()));
-      atts.addAttribute("", "", PeakListElementName.PARENT_CHROMATOGRAM_ROW_ID.getElementName(),
-          "CDATA",
-          p.getParentChromatogramRowID() != null ? String.valueOf(p.getParentChromatogramRowID())
-              : "");
-      hd.startElement("", "", PeakListElementName.PEAK.getElementName(), atts);
-
-      fillPeakElement(p, hd);
-      hd.endElement("", "", PeakListElementName.PEAK.getElementName());
+    for (int r = start; r < end; r++) {
+      final PeakInformation information = rows[r].getPeakInformation();
+      if (information == null)
+        out.writeInt(NO_VALUE);
+      else
+        writeProperties(out, information.getAllProperties());
     }
 
-  }
-
-  /**
-   * Add the peak identity information into the XML document
-   *
-   * @param identity
-   * @param element
-   */
-  private void fillIdentityElement(PeakIdentity identity, TransformerHandler hd)
-      throws SAXException {
-
-    AttributesImpl atts = new AttributesImpl();
-
-    Map<String, String> idProperties = identity.getAllProperties();
-
-    for (Entry<String, String> property : idProperties.entrySet()) {
-      String propertyValue = property.getValue();
-      atts.clear();
-      atts.addAttribute("", "", PeakListElementName.NAME.getElementName(), "CDATA",
-          property.getKey());
-
-      hd.startElement("", "", PeakListElementName.IDPROPERTY.getElementName(), atts);
-      hd.characters(propertyValue.toCharArray(), 0, propertyValue.length());
-      hd.endElement("", "", PeakListElementName.IDPROPERTY.getElementName());
+    int numOfPeaks = 0;
+    for (int r = start; r < end; r++) {
+      out.writeInt(rows[r].getNumberOfPeaks());
+      numOfPeaks += rows[r].getNumberOfPeaks();
     }
 
-  }
-
-  private void fillInformationElement(PeakInformation information, TransformerHandler hd)
-      throws SAXException {
-    if (information == null)
-      return;
-
-    AttributesImpl atts = new AttributesImpl();
-
-    for (Entry<String, String> property : information.getAllProperties().entrySet()) {
-      String value = property.getValue();
-
-      atts.clear();
-      atts.addAttribute("", "", PeakListElementName.NAME.getElementName(), "CDATA",
-          property.getKey());
-
-      hd.startElement("", "", PeakListElementName.INFO_PROPERTY.getElementName(), atts);
-      hd.characters(property.getValue().toCharArray(), 0, value.length());
-      hd.endElement("", "", PeakListElementName.INFO_PROPERTY.getElementName());
+    // Feature columns
+    final Feature peaks[] = new Feature[numOfPeaks];
+    int p = 0;
+    for (int r = start; r < end; r++) {
+      for (Feature peak : rows[r].getPeaks())
+        peaks[p++] = peak;
     }
-  }
-
-  /**
-   * Add the peaks information into the XML document
-   *
-   * @param peak
-   * @param element
-   * @param dataFileID
-   * @throws IOException
-   */
-  private void fillPeakElement(Feature peak, TransformerHandler hd)
-      throws SAXException, IOException {
-    AttributesImpl atts = new AttributesImpl();
-
-    // <REPRESENTATIVE_SCAN>
-    hd.startElement("", "", PeakListElementName.REPRESENTATIVE_SCAN.getElementName(), atts);
-    hd.characters(String.valueOf(peak.getRepresentativeScanNumber()).toCharArray(), 0,
-        String.valueOf(peak.getRepresentativeScanNumber()).length());
-    hd.endElement("", "", PeakListElementName.REPRESENTATIVE_SCAN.getElementName());
-
-    // <FRAGMENT_SCAN>
-    hd.startElement("", "", PeakListElementName.FRAGMENT_SCAN.getElementName(), atts);
-    hd.characters(String.valueOf(peak.getMostIntenseFragmentScanNumber()).toCharArray(), 0,
-        String.valueOf(peak.getMostIntenseFragmentScanNumber()).length());
-    hd.endElement("", "", PeakListElementName.FRAGMENT_SCAN.getElementName());
 
-    // <ALL_MS2_FRAGMENT_SCANS>
-    fillAllMS2FragmentScanNumbers(peak.getAllMS2FragmentScanNumbers(), hd);
-
-    int scanNumbers[] = peak.getScanNumbers();
-
-    // <ISOTOPE_PATTERN>
-    IsotopePattern isotopePattern = peak.getIsotopePattern();
-    if (isotopePattern != null) {
-      atts.addAttribute("", "", PeakListElementName.STATUS.getElementName(), "CDATA",
-          String.valueOf(isotopePattern.getStatus()));
-      atts.addAttribute("", "", PeakListElementName.DESCRIPTION.getElementName(), "CDATA",
-          isotopePattern.getDescription());
-      hd.startElement("", "", PeakListElementName.ISOTOPE_PATTERN.getElementName(), atts);
-      atts.clear();
-
-      fillIsotopePatternElement(isotopePattern, hd);
-
-      hd.endElement("", "", PeakListElementName.ISOTOPE_PATTERN.getElementName());
+    for (Feature peak : peaks)
+      out.writeInt(columns.get(peak.getDataFile()));
+    for (Feature peak : peaks)
+      out.writeDouble(peak.getMZ());
+    for (Feature peak : peaks)
+      out.writeDouble(peak.getRT());
+    for (Feature peak : peaks)
+      out.writeDouble(peak.getHeight());
+    for (Feature peak : peaks)
+      out.writeDouble(peak.getArea());
+    for (Feature peak : peaks)
+      out.writeByte(peak.getFeatureStatus().ordinal());
+    for (Feature peak : peaks)
+      out.writeInt(peak.getCharge());
+    for (Feature peak : peaks) {
+      final Integer parentRowID = peak.getParentChromatogramRowID();
+      out.writeInt(parentRowID != null ? parentRowID : NO_PARENT_ROW);
+    }
+    for (Feature peak : peaks)
+      out.writeInt(peak.getRepresentativeScanNumber());
+    for (Feature peak : peaks)
+      out.writeInt(peak.getMostIntenseFragmentScanNumber());
+
+    for (Feature peak : peaks) {
+      final int fragmentScans[] = peak.getAllMS2FragmentScanNumbers();
+      if (fragmentScans == null) {
+        out.writeInt(NO_VALUE);
+        continue;
+      }
+      out.writeInt(fragmentScans.length);
+      for (int scan : fragmentScans)
+        out.writeInt(scan);
+    }
 
+    for (Feature peak : peaks) {
+      final IsotopePattern isotopePattern = peak.getIsotopePattern();
+      if (isotopePattern == null) {
+        out.writeInt(NO_VALUE);
+        continue;
+      }
+      final DataPoint isotopes[] = isotopePattern.getDataPoints();
+      out.writeInt(isotopes.length);
+      writeString(out, isotopePattern.getStatus().name());
+      writeString(out, isotopePattern.getDescription());
+      for (DataPoint isotope : isotopes) {
+        out.writeDouble(isotope.getMZ());
+        out.writeDouble(isotope.getIntensity());
+      }
     }
 
-    // <MZPEAK>
-    atts.addAttribute("", "", PeakListElementName.QUANTITY.getElementName(), "CDATA",
-        String.valueOf(scanNumbers.length));
-    hd.startElement("", "", PeakListElementName.MZPEAKS.getElementName(), atts);
-    atts.clear();
-
-    // <SCAN_ID> <MASS> <HEIGHT>
-    ByteArrayOutputStream byteScanStream = new ByteArrayOutputStream();
-    DataOutputStream dataScanStream = new DataOutputStream(byteScanStream);
-
-    ByteArrayOutputStream byteMassStream = new ByteArrayOutputStream();
-    DataOutputStream dataMassStream = new DataOutputStream(byteMassStream);
-
-    ByteArrayOutputStream byteHeightStream = new ByteArrayOutputStream();
-    DataOutputStream dataHeightStream = new DataOutputStream(byteHeightStream);
-
-    float mass, height;
-    for (int scan : scanNumbers) {
-      dataScanStream.writeInt(scan);
-      dataScanStream.flush();
-      DataPoint mzPeak = peak.getDataPoint(scan);
-      if (mzPeak != null) {
-        mass = (float) mzPeak.getMZ();
-        height = (float) mzPeak.getIntensity();
-      } else {
-        mass = 0f;
-        height = 0f;
+    // Data points, with the same float precision as the XML format
+    for (Feature peak : peaks)
+      out.writeInt(peak.getScanNumbers().length);
+    for (Feature peak : peaks) {
+      for (int scan : peak.getScanNumbers())
+        out.writeInt(scan);
+    }
+    for (Feature peak : peaks) {
+      for (int scan : peak.getScanNumbers()) {
+        DataPoint mzPeak = peak.getDataPoint(scan);
+        out.writeFloat(mzPeak != null ? (float) mzPeak.getMZ() : 0f);
+      }
+    }
+    for (Feature peak : peaks) {
+      for (int scan : peak.getScanNumbers()) {
+        DataPoint mzPeak = peak.getDataPoint(scan);
+        out.writeFloat(mzPeak != null ? (float) mzPeak.getIntensity() : 0f);
       }
-      dataMassStream.writeFloat(mass);
-      dataMassStream.flush();
-      dataHeightStream.writeFloat(height);
-      dataHeightStream.flush();
     }
 
-    byte[] bytes = Base64.encode(byteScanStream.toByteArray());
-    hd.startElement("", "", PeakListElementName.SCAN_ID.getElementName(), atts);
-    String sbytes = new String(bytes);
-    hd.characters(sbytes.toCharArray(), 0, sbytes.length());
-    hd.endElement("", "", PeakListElementName.SCAN_ID.getElementName());
-
-    bytes = Base64.encode(byteMassStream.toByteArray());
-    hd.startElement("", "", PeakListElementName.MZ.getElementName(), atts);
-    sbytes = new String(bytes);
-    hd.characters(sbytes.toCharArray(), 0, sbytes.length());
-    hd.endElement("", "", PeakListElementName.MZ.getElementName());
-
-    bytes = Base64.encode(byteHeightStream.toByteArray());
-    hd.startElement("", "", PeakListElementName.HEIGHT.getElementName(), atts);
-    sbytes = new String(bytes);
-    hd.characters(sbytes.toCharArray(), 0, sbytes.length());
-    hd.endElement("", "", PeakListElementName.HEIGHT.getElementName());
-
-    hd.endElement("", "", PeakListElementName.MZPEAKS.getElementName());
+    out.flush();
+    return bytes.toByteArray();
   }
 
-  private void fillIsotopePatternElement(IsotopePattern isotopePattern, TransformerHandler hd)
-      throws SAXException, IOException {
-
-    AttributesImpl atts = new AttributesImpl();
-
-    DataPoint isotopes[] = isotopePattern.getDataPoints();
-
-    for (DataPoint isotope : isotopes) {
-      hd.startElement("", "", PeakListElementName.ISOTOPE.getElementName(), atts);
-      String isotopeString = isotope.getMZ() + ":" + isotope.getIntensity();
-      hd.characters(isotopeString.toCharArray(), 0, isotopeString.length());
-      hd.endElement("", "", PeakListElementName.ISOTOPE.getElementName());
+  private static void writeProperties(DataOutputStream out, Map<String, String> properties)
+      throws IOException {
+    out.writeInt(properties.size());
+    for (Entry<String, String> property : properties.entrySet()) {
+      writeString(out, property.getKey());
+      writeString(out, property.getValue());
     }
   }
 
-  private void fillAllMS2FragmentScanNumbers(int[] scanNumbers, TransformerHandler hd)
-      throws SAXException, IOException {
-    AttributesImpl atts = new AttributesImpl();
-    if (scanNumbers != null) {
-      for (int scan : scanNumbers) {
-        hd.startElement("", "", PeakListElementName.ALL_MS2_FRAGMENT_SCANS.getElementName(), atts);
-        hd.characters(String.valueOf(scan).toCharArray(), 0, String.valueOf(scan).length());
-        hd.endElement("", "", PeakListElementName.ALL_MS2_FRAGMENT_SCANS.getElementName());
-      }
+  /**
+   * Writes the UTF-8 length and bytes of a string, or NO_VALUE for null
+   */
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(NO_VALUE);
+      return;
     }
+    final byte bytes[] = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
   }
 
   /**
@@ -24,6 +24,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Hashtable;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -47,6 +48,12 @@ import io.github.mzmine.util.StreamCopy;
 public class ProjectSavingTask extends AbstractTask {
 
   public static final String VERSION_FILENAME = "MZMINE_VERSION";
+  /**
+   * Version entry of projects with feature lists in the binary format. Older MZmine versions only
+   * know VERSION_FILENAME, so they refuse to open these projects instead of skipping the feature
+   * lists.
+   */
+  public static final String PROJECT_VERSION_FILENAME = "MZMINE_PROJECT_VERSION";
   public static final String CONFIG_FILENAME = "configuration.xml";
   public static final String PARAMETERS_FILENAME = "User parameters.xml";
 
@@ -252,7 +259,7 @@ public class ProjectSavingTask extends AbstractTask {
    */
   private void saveVersion(ZipOutputStream zipStream) throws IOException {
 
-    zipStream.putNextEntry(new ZipEntry(VERSION_FILENAME));
+    zipStream.putNextEntry(new ZipEntry(PROJECT_VERSION_FILENAME));
 
     String MZmineVersion = MZmineCore.getMZmineVersion();
 
@@ -317,15 +324,14 @@ public class ProjectSavingTask extends AbstractTask {
 
   /**
    * Save the feature lists
-   * 
-   * @throws SAXException
-   * @throws TransformerConfigurationException
    */
-  private void savePeakLists(ZipOutputStream zipStream)
-      throws IOException, TransformerConfigurationException, SAXException {
+  private void savePeakLists(ZipOutputStream zipStream) throws IOException {
 
     PeakList peakLists[] = savedProject.getPeakLists();
 
+    // The binary feature lists compress well already, the fastest level is sufficient
+    zipStream.setLevel(Deflater.BEST_SPEED);
+
     for (int i = 0; i < peakLists.length; i++) {
 
       if (isCanceled())
@@ -335,7 +341,8 @@ public class ProjectSavingTask extends AbstractTask {
 
       String peakListSavedName = "Peak list #" + (i + 1) + " " + peakLists[i].getName();
 
-      zipStream.putNextEntry(new ZipEntry(peakListSavedName + ".xml"));
+      zipStream.putNextEntry(
+          new ZipEntry(peakListSavedName + PeakListSaveHandler.PEAKLIST_EXTENSION));
 
       peakListSaveHandler = new PeakListSaveHandler(zipStream, dataFilesIDMap);
 
@@ -343,6 +350,8 @@ public class ProjectSavingTask extends AbstractTask {
       peakListSaveHandler.savePeakList(peakLists[i]);
       finishedSaveItems++;
     }
+
+    zipStream.setLevel(Deflater.DEFAULT_COMPRESSION);
   }
 
   /**
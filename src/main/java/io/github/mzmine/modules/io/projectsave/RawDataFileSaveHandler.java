@@ -24,6 +24,7 @@ import java.io.RandomAccessFile;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.logging.Logger;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -86,14 +87,17 @@ class RawDataFileSaveHandler {
 
     String rawDataSavedName = "Raw data file #" + number + " " + rawDataFile.getName();
 
-    zipOutputStream.putNextEntry(new ZipEntry(rawDataSavedName + ".scans"));
-
     // We save only those data points that still have a reference in the
     // dataPointsOffset table. Some deleted mass lists may still be present
     // in the data points file, we don't want to copy those.
     long newOffset = 0;
     byte buffer[] = new byte[1 << 20];
     RandomAccessFile dataPointsFile = rawDataFile.getDataPointsFile();
+
+    // The data points are stored without compression (they hardly compress and deflating them
+    // takes most of the saving time), which requires their size and CRC before the entry is
+    // written
+    CRC32 crc = new CRC32();
     for (Integer storageID : dataPointsOffsets.keySet()) {
 
       if (canceled)
@@ -107,10 +111,31 @@ class RawDataFileSaveHandler {
       if (buffer.length < bytes) {
         buffer = new byte[bytes * 2];
       }
-      dataPointsFile.read(buffer, 0, bytes);
-      zipOutputStream.write(buffer, 0, bytes);
+      dataPointsFile.readFully(buffer, 0, bytes);
+      crc.update(buffer, 0, bytes);
       newOffset += bytes;
-      progress = 0.9 * ((double) offset / dataPointsFile.length());
+      progress = 0.3 * ((double) offset / dataPointsFile.length());
+    }
+
+    ZipEntry scansEntry = new ZipEntry(rawDataSavedName + ".scans");
+    scansEntry.setMethod(ZipEntry.STORED);
+    scansEntry.setSize(newOffset);
+    scansEntry.setCompressedSize(newOffset);
+    scansEntry.setCrc(crc.getValue());
+    zipOutputStream.putNextEntry(scansEntry);
+
+    for (Integer storageID : dataPointsOffsets.keySet()) {
+
+      if (canceled)
+        return;
+
+      final long offset = dataPointsOffsets.get(storageID);
+      dataPointsFile.seek(offset);
+
+      final int bytes = dataPointsLengths.get(storageID) * 4 * 2;
+      dataPointsFile.readFully(buffer, 0, bytes);
+      zipOutputStream.write(buffer, 0, bytes);
+      progress = 0.3 + 0.6 * ((double) offset / dataPointsFile.length());
     }
 
     if (canceled)
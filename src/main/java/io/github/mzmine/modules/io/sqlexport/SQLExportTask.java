@@ -19,12 +19,16 @@
 package io.github.mzmine.modules.io.sqlexport;
 
 import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Types;
-import io.github.mzmine.datamodel.DataPoint;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
 import io.github.mzmine.datamodel.Feature;
 import io.github.mzmine.datamodel.IsotopePattern;
 import io.github.mzmine.datamodel.MassList;
@@ -39,28 +43,61 @@ import io.github.mzmine.taskcontrol.TaskStatus;
 import io.github.mzmine.util.RangeUtils;
 import io.github.mzmine.util.scans.ScanUtils;
 
+/**
+ * Exports the rows of a feature list into a database table, in one transaction. The records are
+ * sent in batches of batchSize records. PostgreSQL tables are filled by the COPY protocol unless
+ * binary (BLOB) columns are exported, all other databases by JDBC batch inserts.
+ */
 class SQLExportTask extends AbstractTask {
 
+  private Logger logger = Logger.getLogger(this.getClass().getName());
+
   private final PeakList peakList;
   private final String connectionString;
   private final String tableName;
   private final SQLColumnSettings exportColumns;
   private final boolean emptyExport;
+  private final int batchSize;
 
   private int processedRows = 0, totalRows = 0;
 
   private Connection dbConnection;
 
+  /**
+   * Receives the column values of each exported record
+   */
+  private interface RecordWriter {
+    void write(Object values[]) throws SQLException;
+  }
+
+  /**
+   * Receives the CSV text of each chunk of batchSize records sent by COPY
+   */
+  interface CSVChunkWriter {
+    void write(String chunk) throws SQLException;
+  }
+
   SQLExportTask(ParameterSet parameters) {
 
-    this.peakList =
-        parameters.getParameter(SQLExportParameters.peakList).getValue().getMatchingPeakLists()[0];
-    this.connectionString =
-        parameters.getParameter(SQLExportParameters.connectionString).getValue();
+    this(parameters.getParameter(SQLExportParameters.peakList).getValue()
+        .getMatchingPeakLists()[0],
+        parameters.getParameter(SQLExportParameters.connectionString).getValue(),
+        parameters.getParameter(SQLExportParameters.tableName).getValue(),
+        parameters.getParameter(SQLExportParameters.exportColumns).getValue(),
+        parameters.getParameter(SQLExportParameters.emptyExport).getValue(),
+        parameters.getParameter(SQLExportParameters.batchSize).getValue());
 
-    this.tableName = parameters.getParameter(SQLExportParameters.tableName).getValue();
-    this.exportColumns = parameters.getParameter(SQLExportParameters.exportColumns).getValue();
-    this.emptyExport = parameters.getParameter(SQLExportParameters.emptyExport).getValue();
+  }
+
+  SQLExportTask(PeakList peakList, String connectionString, String tableName,
+      SQLColumnSettings exportColumns, boolean emptyExport, int batchSize) {
+
+    this.peakList = peakList;
+    this.connectionString = connectionString;
+    this.tableName = tableName;
+    this.exportColumns = exportColumns;
+    this.emptyExport = emptyExport;
+    this.batchSize = batchSize;
 
   }
 
@@ -97,24 +134,27 @@ class SQLExportTask extends AbstractTask {
     try {
       dbConnection.setAutoCommit(false);
 
-      // If select, an empty row with just the raw data file
-      // information will be exported
-      if (rows.length < 1 && emptyExport) {
-        exportPeakListRow(null);
-      } else {
-        for (PeakListRow row : rows) {
-          if (getStatus() != TaskStatus.PROCESSING)
-            break;
-          exportPeakListRow(row);
-          processedRows++;
-        }
-      }
-      dbConnection.commit();
-      dbConnection.close();
+      if (dbConnection.isWrapperFor(PGConnection.class) && !hasBlobColumns())
+        exportWithCopy(rows);
+      else
+        exportWithBatchInserts(rows);
+
+      // Nothing is stored if the export was canceled
+      if (getStatus() == TaskStatus.PROCESSING)
+        dbConnection.commit();
+      else
+        dbConnection.rollback();
     } catch (SQLException e) {
+      rollback();
       setStatus(TaskStatus.ERROR);
       setErrorMessage("Error running SQL query: " + e.toString());
       return;
+    } finally {
+      try {
+        dbConnection.close();
+      } catch (SQLException e) {
+        logger.log(Level.WARNING, "Could not close the database connection", e);
+      }
     }
 
     if (getStatus() == TaskStatus.PROCESSING)
@@ -122,25 +162,16 @@ class SQLExportTask extends AbstractTask {
 
   }
 
-  private void exportPeakListRow(PeakListRow row) throws SQLException {
-
-    // Cancel?
-    if (isCanceled()) {
-      return;
-    }
-
-    // Value for looping through raw data files
-    boolean loopDataFiles = false;
+  /**
+   * Inserts the records by JDBC batches of batchSize records
+   */
+  private void exportWithBatchInserts(PeakListRow rows[]) throws SQLException {
 
     StringBuilder sql = new StringBuilder();
     sql.append("INSERT INTO ");
     sql.append(tableName);
     sql.append(" (");
-    for (int i = 0; i < exportColumns.getRowCount(); i++) {
-      sql.append(exportColumns.getValueAt(i, 0));
-      if (i < exportColumns.getRowCount() - 1)
-        sql.append(",");
-    }
+    sql.append(getColumnNames());
     sql.append(" ) VALUES (");
     for (int i = 0; i < exportColumns.getRowCount(); i++) {
       sql.append("?");
@@ -149,7 +180,89 @@ class SQLExportTask extends AbstractTask {
     }
     sql.append(")");
 
-    PreparedStatement statement = dbConnection.prepareStatement(sql.toString());
+    try (PreparedStatement statement = dbConnection.prepareStatement(sql.toString())) {
+      final int batchRecords[] = {0};
+      exportRows(rows, values -> {
+        setValues(statement, values);
+        statement.addBatch();
+        if (++batchRecords[0] == batchSize) {
+          statement.executeBatch();
+          batchRecords[0] = 0;
+        }
+      });
+      if (batchRecords[0] > 0)
+        statement.executeBatch();
+    }
+  }
+
+  /**
+   * Streams the records to a PostgreSQL table by the COPY protocol, in CSV format. The records are
+   * sent in chunks of batchSize records.
+   */
+  private void exportWithCopy(PeakListRow rows[]) throws SQLException {
+
+    final String sql = "COPY " + tableName + " (" + getColumnNames() + ") FROM STDIN WITH CSV";
+    final CopyIn copyIn = dbConnection.unwrap(PGConnection.class).getCopyAPI().copyIn(sql);
+
+    try {
+      exportCSVChunks(rows, chunk -> {
+        final byte bytes[] = chunk.getBytes(StandardCharsets.UTF_8);
+        copyIn.writeToCopy(bytes, 0, bytes.length);
+      });
+
+      if (getStatus() == TaskStatus.PROCESSING)
+        copyIn.endCopy();
+    } finally {
+      if (copyIn.isActive())
+        copyIn.cancelCopy();
+    }
+  }
+
+  /**
+   * Passes the records of all rows in the CSV format of the PostgreSQL COPY command to the writer,
+   * in chunks of batchSize records
+   */
+  void exportCSVChunks(PeakListRow rows[], CSVChunkWriter writer) throws SQLException {
+    final StringBuilder buffer = new StringBuilder();
+    final int batchRecords[] = {0};
+    exportRows(rows, values -> {
+      appendCSVRecord(buffer, values);
+      if (++batchRecords[0] == batchSize) {
+        writer.write(buffer.toString());
+        buffer.setLength(0);
+        batchRecords[0] = 0;
+      }
+    });
+    if (buffer.length() > 0)
+      writer.write(buffer.toString());
+  }
+
+  /**
+   * Passes the records of all rows to the writer
+   */
+  private void exportRows(PeakListRow rows[], RecordWriter writer) throws SQLException {
+    // If select, an empty row with just the raw data file
+    // information will be exported
+    if (rows.length < 1 && emptyExport) {
+      exportPeakListRow(null, writer);
+    } else {
+      for (PeakListRow row : rows) {
+        if (getStatus() != TaskStatus.PROCESSING)
+          break;
+        exportPeakListRow(row, writer);
+        processedRows++;
+      }
+    }
+  }
+
+  private void exportPeakListRow(PeakListRow row, RecordWriter writer) throws SQLException {
+
+    // Cancel?
+    if (isCanceled()) {
+      return;
+    }
+
+    final Object values[] = new Object[exportColumns.getRowCount()];
 
     if (row == null) {
       for (int i = 0; i < exportColumns.getRowCount(); i++) {
@@ -157,157 +270,210 @@ class SQLExportTask extends AbstractTask {
         String dataValue = (String) exportColumns.getValueAt(i, 2);
         switch (dataType) {
           case CONSTANT:
-            statement.setString(i + 1, dataValue);
+            values[i] = dataValue;
             break;
           case RAWFILE:
             RawDataFile rawdatafiles[] = peakList.getRawDataFiles().toArray(RawDataFile[]::new);
-            statement.setString(i + 1, rawdatafiles[0].getName());
+            values[i] = rawdatafiles[0].getName();
             break;
           default:
-            statement.setString(i + 1, null);
+            values[i] = null;
             break;
         }
       }
-      statement.executeUpdate();
+      writer.write(values);
+      return;
     }
 
-    else {
-      for (RawDataFile rawDataFile : row.getRawDataFiles()) {
-        Feature peak = row.getPeak(rawDataFile);
-
-        for (int i = 0; i < exportColumns.getRowCount(); i++) {
-          SQLExportDataType dataType = (SQLExportDataType) exportColumns.getValueAt(i, 1);
-          String dataValue = (String) exportColumns.getValueAt(i, 2);
-          switch (dataType) {
-            case CONSTANT:
-              statement.setString(i + 1, dataValue);
-              break;
-            case MZ:
-              statement.setDouble(i + 1, row.getAverageMZ());
-              break;
-            case RT:
-              statement.setDouble(i + 1, row.getAverageRT());
-              break;
-            case ID:
-              statement.setInt(i + 1, row.getID());
-              break;
-            case PEAKCHARGE:
-              statement.setDouble(i + 1, peak.getCharge());
-              loopDataFiles = true;
-              break;
-            case PEAKDURATION:
-              statement.setDouble(i + 1, RangeUtils.rangeLength(peak.getRawDataPointsRTRange()));
-              loopDataFiles = true;
-              break;
-            case PEAKSTATUS:
-              statement.setString(i + 1, peak.getFeatureStatus().name());
-              loopDataFiles = true;
-              break;
-            case PEAKMZ:
-              statement.setDouble(i + 1, peak.getMZ());
-              loopDataFiles = true;
-              break;
-            case PEAKRT:
-              statement.setDouble(i + 1, peak.getRT());
-              loopDataFiles = true;
-              break;
-            case PEAKRT_START:
-              statement.setDouble(i + 1, peak.getRawDataPointsRTRange().lowerEndpoint());
-              loopDataFiles = true;
-              break;
-            case PEAKRT_END:
-              statement.setDouble(i + 1, peak.getRawDataPointsRTRange().upperEndpoint());
-              loopDataFiles = true;
-              break;
-            case PEAKHEIGHT:
-              statement.setDouble(i + 1, peak.getHeight());
-              loopDataFiles = true;
-              break;
-            case PEAKAREA:
-              statement.setDouble(i + 1, peak.getArea());
-              loopDataFiles = true;
-              break;
-            case DATAPOINTS:
-              statement.setDouble(i + 1, peak.getScanNumbers().length);
-              loopDataFiles = true;
-              break;
-            case FWHM:
-              statement.setDouble(i + 1, peak.getFWHM());
-              loopDataFiles = true;
-              break;
-            case TAILINGFACTOR:
-              statement.setDouble(i + 1, peak.getTailingFactor());
-              loopDataFiles = true;
-              break;
-            case ASYMMETRYFACTOR:
-              statement.setDouble(i + 1, peak.getAsymmetryFactor());
-              loopDataFiles = true;
-              break;
-            case RAWFILE:
-              statement.setString(i + 1, rawDataFile.getName());
-              loopDataFiles = true;
-              break;
-            case HEIGHT:
-              statement.setDouble(i + 1, row.getAverageHeight());
-              break;
-            case AREA:
-              statement.setDouble(i + 1, row.getAverageArea());
-              break;
-            case COMMENT:
-              statement.setString(i + 1, row.getComment());
-              break;
-            case IDENTITY:
-              PeakIdentity id = row.getPreferredPeakIdentity();
-              if (id != null) {
-                statement.setString(i + 1, id.getName());
-              } else {
-                statement.setNull(i + 1, Types.VARCHAR);
-              }
-              break;
-            case ISOTOPEPATTERN:
-              IsotopePattern isotopes = row.getBestIsotopePattern();
-              if (isotopes == null) {
-                statement.setNull(i + 1, Types.BLOB);
-                break;
-              }
-              DataPoint dataPoints[] = isotopes.getDataPoints();
-              byte bytes[] = ScanUtils.encodeDataPointsToBytes(dataPoints);
-              ByteArrayInputStream is = new ByteArrayInputStream(bytes);
-              statement.setBlob(i + 1, is);
-              break;
-            case MSMS:
-              int msmsScanNum = row.getBestPeak().getMostIntenseFragmentScanNumber();
-              // Check if there is any MS/MS scan
-              if (msmsScanNum <= 0) {
-                statement.setNull(i + 1, Types.BLOB);
-                break;
-              }
-              RawDataFile dataFile = row.getBestPeak().getDataFile();
-              Scan msmsScan = dataFile.getScan(msmsScanNum);
-              MassList msmsMassList = msmsScan.getMassList(dataValue);
-              // Check if there is a masslist for the scan
-              if (msmsMassList == null) {
-                statement.setNull(i + 1, Types.BLOB);
-                break;
-              }
-              dataPoints = msmsMassList.getDataPoints();
-              bytes = ScanUtils.encodeDataPointsToBytes(dataPoints);
-              is = new ByteArrayInputStream(bytes);
-              statement.setBlob(i + 1, is);
-              break;
-            default:
-              break;
-          }
-        }
-        statement.executeUpdate();
+    // If no data file elements are selected then don't loop through all data files in feature
+    // list
+    final boolean loopDataFiles = hasDataFileColumns();
+
+    for (RawDataFile rawDataFile : row.getRawDataFiles()) {
+      Feature peak = row.getPeak(rawDataFile);
+
+      for (int i = 0; i < exportColumns.getRowCount(); i++) {
+        SQLExportDataType dataType = (SQLExportDataType) exportColumns.getValueAt(i, 1);
+        String dataValue = (String) exportColumns.getValueAt(i, 2);
+        values[i] = getValue(dataType, dataValue, row, rawDataFile, peak);
+      }
+      writer.write(values);
+
+      if (!loopDataFiles) {
+        break;
+      }
+    }
+  }
+
+  /**
+   * Value of one column: a String, Integer, Double or byte array (BLOB), or null
+   */
+  private Object getValue(SQLExportDataType dataType, String dataValue, PeakListRow row,
+      RawDataFile rawDataFile, Feature peak) {
+    switch (dataType) {
+      case CONSTANT:
+        return dataValue;
+      case MZ:
+        return row.getAverageMZ();
+      case RT:
+        return row.getAverageRT();
+      case ID:
+        return row.getID();
+      case PEAKCHARGE:
+        return peak.getCharge();
+      case PEAKDURATION:
+        return RangeUtils.rangeLength(peak.getRawDataPointsRTRange());
+      case PEAKSTATUS:
+        return peak.getFeatureStatus().name();
+      case PEAKMZ:
+        return peak.getMZ();
+      case PEAKRT:
+        return peak.getRT();
+      case PEAKRT_START:
+        return peak.getRawDataPointsRTRange().lowerEndpoint();
+      case PEAKRT_END:
+        return peak.getRawDataPointsRTRange().upperEndpoint();
+      case PEAKHEIGHT:
+        return peak.getHeight();
+      case PEAKAREA:
+        return peak.getArea();
+      case DATAPOINTS:
+        return peak.getScanNumbers().length;
+      case FWHM:
+        return peak.getFWHM();
+      case TAILINGFACTOR:
+        return peak.getTailingFactor();
+      case ASYMMETRYFACTOR:
+        return peak.getAsymmetryFactor();
+      case RAWFILE:
+        return rawDataFile.getName();
+      case HEIGHT:
+        return row.getAverageHeight();
+      case AREA:
+        return row.getAverageArea();
+      case COMMENT:
+        return row.getComment();
+      case IDENTITY:
+        PeakIdentity id = row.getPreferredPeakIdentity();
+        return id != null ? id.getName() : null;
+      case ISOTOPEPATTERN:
+        IsotopePattern isotopes = row.getBestIsotopePattern();
+        if (isotopes == null)
+          return null;
+        return ScanUtils.encodeDataPointsToBytes(isotopes.getDataPoints());
+      case MSMS:
+        int msmsScanNum = row.getBestPeak().getMostIntenseFragmentScanNumber();
+        // Check if there is any MS/MS scan
+        if (msmsScanNum <= 0)
+          return null;
+        RawDataFile dataFile = row.getBestPeak().getDataFile();
+        Scan msmsScan = dataFile.getScan(msmsScanNum);
+        MassList msmsMassList = msmsScan.getMassList(dataValue);
+        // Check if there is a masslist for the scan
+        if (msmsMassList == null)
+          return null;
+        return ScanUtils.encodeDataPointsToBytes(msmsMassList.getDataPoints());
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Binds the values of one record. The row ID is bound as INT, all other numbers (including the
+   * charge and the number of data points) as DOUBLE.
+   */
+  private void setValues(PreparedStatement statement, Object values[]) throws SQLException {
+    for (int i = 0; i < values.length; i++) {
+      final Object value = values[i];
+      final SQLExportDataType dataType = (SQLExportDataType) exportColumns.getValueAt(i, 1);
+      if (value == null) {
+        statement.setNull(i + 1, isBlob(dataType) ? Types.BLOB : Types.VARCHAR);
+      } else if (dataType == SQLExportDataType.ID) {
+        statement.setInt(i + 1, ((Number) value).intValue());
+      } else if (value instanceof Number) {
+        statement.setDouble(i + 1, ((Number) value).doubleValue());
+      } else if (value instanceof byte[]) {
+        statement.setBlob(i + 1, new ByteArrayInputStream((byte[]) value));
+      } else {
+        statement.setString(i + 1, value.toString());
+      }
+    }
+  }
 
-        // If no data file elements are selected then don't loop through
-        // all
-        // data files in feature list
-        if (!loopDataFiles) {
+  /**
+   * Appends one record in the CSV format of the PostgreSQL COPY command. Null values are empty,
+   * strings are quoted so that empty strings are not read as null.
+   */
+  private static void appendCSVRecord(StringBuilder buffer, Object values[]) {
+    for (int i = 0; i < values.length; i++) {
+      if (i > 0)
+        buffer.append(',');
+      final Object value = values[i];
+      if (value == null)
+        continue;
+      if (value instanceof Number) {
+        buffer.append(value);
+      } else {
+        buffer.append('"');
+        buffer.append(value.toString().replace("\"", "\"\""));
+        buffer.append('"');
+      }
+    }
+    buffer.append('\n');
+  }
+
+  private String getColumnNames() {
+    StringBuilder columns = new StringBuilder();
+    for (int i = 0; i < exportColumns.getRowCount(); i++) {
+      columns.append(exportColumns.getValueAt(i, 0));
+      if (i < exportColumns.getRowCount() - 1)
+        columns.append(",");
+    }
+    return columns.toString();
+  }
+
+  private boolean hasBlobColumns() {
+    for (int i = 0; i < exportColumns.getRowCount(); i++) {
+      if (isBlob((SQLExportDataType) exportColumns.getValueAt(i, 1)))
+        return true;
+    }
+    return false;
+  }
+
+  private boolean hasDataFileColumns() {
+    for (int i = 0; i < exportColumns.getRowCount(); i++) {
+      switch ((SQLExportDataType) exportColumns.getValueAt(i, 1)) {
+        case PEAKCHARGE:
+        case PEAKDURATION:
+        case PEAKSTATUS:
+        case PEAKMZ:
+        case PEAKRT:
+        case PEAKRT_START:
+        case PEAKRT_END:
+        case PEAKHEIGHT:
+        case PEAKAREA:
+        case DATAPOINTS:
+        case FWHM:
+        case TAILINGFACTOR:
+        case ASYMMETRYFACTOR:
+        case RAWFILE:
+          return true;
+        default:
           break;
-        }
       }
     }
+    return false;
+  }
+
+  private static boolean isBlob(SQLExportDataType dataType) {
+    return "BLOB".equals(dataType.valueType());
+  }
+
+  private void rollback() {
+    try {
+      dbConnection.rollback();
+    } catch (SQLException e) {
+      logger.log(Level.WARNING, "Could not roll back the SQL export", e);
+    }
   }
 }
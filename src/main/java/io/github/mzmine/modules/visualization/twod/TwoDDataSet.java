@@ -34,6 +34,7 @@ import io.github.mzmine.taskcontrol.TaskStatus;
 import io.github.mzmine.util.DataPointSorter;
 import io.github.mzmine.util.SortingDirection;
 import io.github.mzmine.util.SortingProperty;
+import io.github.mzmine.util.scans.IntensityPyramid;
 import javafx.application.Platform;
 
 class TwoDDataSet extends AbstractXYDataset implements Task {
@@ -46,6 +47,11 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
   private double basePeaks[];
   private SoftReference<DataPoint[]> dataPointMatrix[];
 
+  // Maximum intensities of the scans, null until the task has finished. The scans are at
+  // pyramidOffset ... pyramidOffset + totalScans - 1 of the pyramid.
+  private volatile IntensityPyramid intensityPyramid;
+  private int pyramidOffset;
+
   private final Range<Double> totalRTRange, totalMZRange;
   private int totalScans, processedScans;
   private final Scan scans[];
@@ -91,17 +97,41 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
       DataPoint scanBasePeak = scan.getHighestDataPoint();
       retentionTimes[index] = scan.getRetentionTime();
       basePeaks[index] = (scanBasePeak == null ? 0 : scanBasePeak.getIntensity());
-      DataPoint scanDataPoints[] = scan.getDataPoints();
-      dataPointMatrix[index] = new SoftReference<DataPoint[]>(scanDataPoints);
       processedScans++;
     }
 
+    intensityPyramid = createIntensityPyramid();
+
     Platform.runLater(() -> fireDatasetChanged());
 
     status = TaskStatus.FINISHED;
 
   }
 
+  /**
+   * Uses the intensity pyramid of the raw data file if the scans are consecutive scans of one MS
+   * level, which is the case unless the scans were filtered by other properties than the MS level
+   * and RT range. Otherwise a pyramid of the scans is built.
+   */
+  private IntensityPyramid createIntensityPyramid() {
+    if (totalScans == 0)
+      return null;
+
+    final int msLevel = scans[0].getMSLevel();
+    final int fileScanNumbers[] = rawDataFile.getScanNumbers(msLevel);
+    final int offset = Arrays.binarySearch(fileScanNumbers, scans[0].getScanNumber());
+    boolean consecutive = offset >= 0 && offset + totalScans <= fileScanNumbers.length;
+    for (int index = 0; consecutive && index < totalScans; index++)
+      consecutive = fileScanNumbers[offset + index] == scans[index].getScanNumber();
+
+    if (consecutive) {
+      pyramidOffset = offset;
+      return rawDataFile.getIntensityPyramid(msLevel);
+    }
+    pyramidOffset = 0;
+    return new IntensityPyramid(scans, totalMZRange);
+  }
+
   /**
    * @see org.jfree.data.general.AbstractSeriesDataset#getSeriesCount()
    */
@@ -184,6 +214,16 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
         return upperEndpointIntensity(startScanIndex, mzRange, plotMode);
     }
 
+    // Read the maximum from the intensity pyramid once it is available
+    final IntensityPyramid pyramid = intensityPyramid;
+    if (pyramid != null) {
+      int endScanIndex = Arrays.binarySearch(searchRetentionTimes, startScanIndex,
+          searchRetentionTimes.length, rtRange.upperEndpoint());
+      if (endScanIndex < 0)
+        endScanIndex = (endScanIndex * -1) - 2;
+      return upperEndpointIntensity(pyramid, startScanIndex, endScanIndex, mzRange, plotMode);
+    }
+
     for (int scanIndex = startScanIndex; ((scanIndex < searchRetentionTimes.length)
         && (searchRetentionTimes[scanIndex] <= rtRange.upperEndpoint())); scanIndex++) {
 
@@ -202,6 +242,34 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
 
   }
 
+  /**
+   * Maximum intensity of the scans startScanIndex ... endScanIndex from the intensity pyramid,
+   * same as checking each scan by upperEndpointIntensity(int, Range, PlotMode)
+   */
+  private double upperEndpointIntensity(IntensityPyramid pyramid, int startScanIndex,
+      int endScanIndex, Range<Double> mzRange, PlotMode plotMode) {
+
+    final double mzMin = mzRange.lowerEndpoint(), mzMax = mzRange.upperEndpoint();
+    double maxIntensity = pyramid.getMaxIntensity(pyramidOffset + startScanIndex,
+        pyramidOffset + endScanIndex, mzMin, mzMax,
+        (scanIndex, min, max) -> upperEndpointIntensity(scanIndex - pyramidOffset,
+            Range.closed(min, max), PlotMode.CENTROID));
+
+    // In continuous mode, a scan without data points in the m/z range shows the intensity of the
+    // closest data point
+    if (plotMode != PlotMode.CENTROID) {
+      for (int scanIndex = startScanIndex; scanIndex <= endScanIndex; scanIndex++) {
+        if (basePeaks[scanIndex] <= maxIntensity
+            || pyramid.hasDataPointInRange(pyramidOffset + scanIndex, mzMin, mzMax))
+          continue;
+        maxIntensity =
+            Math.max(maxIntensity, upperEndpointIntensity(scanIndex, mzRange, plotMode));
+      }
+    }
+
+    return maxIntensity;
+  }
+
   public ArrayList getrtValuesInUserRange() {
     return rtValuesInUserRange;
   }
@@ -241,7 +309,7 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
     for (int scanIndex = startScanIndex; ((scanIndex < searchRetentionTimes.length)
         && (searchRetentionTimes[scanIndex] <= rtRange.upperEndpoint())); scanIndex++) {
       // get the list of data points
-      DataPoint dataPoints[] = dataPointMatrix[scanIndex].get();
+      DataPoint dataPoints[] = getDataPoints(scanIndex);
       // Binary search for the mz values in the range you want
 
       DataPoint searchMZ = new SimpleDataPoint(mzRange.lowerEndpoint(), 0);
@@ -281,13 +349,21 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
 
   private double upperEndpointIntensity(int dataPointMatrixIndex, Range<Double> mzRange,
       PlotMode plotMode) {
-    DataPoint dataPoints[] = dataPointMatrix[dataPointMatrixIndex].get();
+    return upperEndpointIntensity(getDataPoints(dataPointMatrixIndex), mzRange, plotMode);
+  }
+
+  /**
+   * Data points of a scan, loaded on demand and kept as long as there is enough memory
+   */
+  private DataPoint[] getDataPoints(int dataPointMatrixIndex) {
+    SoftReference<DataPoint[]> reference = dataPointMatrix[dataPointMatrixIndex];
+    DataPoint dataPoints[] = (reference == null ? null : reference.get());
     if (dataPoints == null) {
       Scan scan = scans[dataPointMatrixIndex];
       dataPoints = scan.getDataPoints();
       dataPointMatrix[dataPointMatrixIndex] = new SoftReference<DataPoint[]>(dataPoints);
     }
-    return upperEndpointIntensity(dataPoints, mzRange, plotMode);
+    return dataPoints;
   }
 
   private double upperEndpointIntensity(DataPoint dataPoints[], Range<Double> mzRange,
@@ -64,6 +64,23 @@ public class MZTolerance {
         mzRange.upperEndpoint() + getMzToleranceForMass(mzRange.upperEndpoint()));
   }
 
+  /**
+   * The range of all m/z values whose tolerance range contains the given m/z value. The tolerance
+   * is relative to the m/z value it is centered on, so this range is slightly wider than
+   * {@link #getToleranceRange(double)}. A small margin covers rounding errors, callers should
+   * check the exact tolerance for each value inside this range.
+   */
+  public Range<Double> getReverseToleranceRange(final double mzValue) {
+    final double relativeTolerance = ppmTolerance / MILLION;
+    final double margin = Math.abs(mzValue) * 1E-12;
+    final double min =
+        Math.min(mzValue - mzTolerance, mzValue / (1 + relativeTolerance)) - margin;
+    final double max = relativeTolerance < 1
+        ? Math.max(mzValue + mzTolerance, mzValue / (1 - relativeTolerance)) + margin
+        : Double.POSITIVE_INFINITY;
+    return Range.closed(min, max);
+  }
+
   public boolean checkWithinTolerance(final double mz1, final double mz2) {
     return getToleranceRange(mz1).contains(mz2);
   }
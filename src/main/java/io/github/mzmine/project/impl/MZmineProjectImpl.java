@@ -25,6 +25,7 @@ import java.util.concurrent.atomic.AtomicReference;
 import io.github.mzmine.datamodel.MZmineProject;
 import io.github.mzmine.datamodel.PeakList;
 import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.impl.SimplePeakList;
 import io.github.mzmine.parameters.UserParameter;
 import javafx.application.Platform;
 import javafx.beans.property.ListProperty;
@@ -190,6 +191,10 @@ public class MZmineProjectImpl implements MZmineProject {
     Platform.runLater(() -> {
       featureListsProperty.get().remove(peakList);
     });
+
+    // Rows which were never loaded are not needed anymore
+    if (peakList instanceof SimplePeakList)
+      ((SimplePeakList) peakList).releasePendingRows();
   }
 
   @Override
@@ -20,7 +20,9 @@ package io.github.mzmine.project.impl;
 
 import java.io.File;
 import io.github.mzmine.datamodel.MZmineProject;
+import io.github.mzmine.datamodel.PeakList;
 import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.impl.SimplePeakList;
 import io.github.mzmine.gui.MZmineGUI;
 import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.modules.io.projectload.ProjectLoadModule;
@@ -56,12 +58,16 @@ public class ProjectManagerImpl implements ProjectManager {
     if (project == currentProject)
       return;
 
-    // Close previous data files
+    // Close previous data files and release the rows of feature lists which were never loaded
     if (currentProject != null) {
       RawDataFile prevDataFiles[] = currentProject.getDataFiles();
       for (RawDataFile prevDataFile : prevDataFiles) {
         prevDataFile.close();
       }
+      for (PeakList prevPeakList : currentProject.getPeakLists()) {
+        if (prevPeakList instanceof SimplePeakList)
+          ((SimplePeakList) prevPeakList).releasePendingRows();
+      }
     }
 
     this.currentProject = project;
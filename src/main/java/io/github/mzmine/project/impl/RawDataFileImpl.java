@@ -18,21 +18,27 @@
 
 package io.github.mzmine.project.impl;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.NavigableMap;
 import java.util.Set;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.annotation.Nonnull;
@@ -46,21 +52,46 @@ import io.github.mzmine.datamodel.RawDataFile;
 import io.github.mzmine.datamodel.RawDataFileWriter;
 import io.github.mzmine.datamodel.Scan;
 import io.github.mzmine.datamodel.impl.SimpleDataPoint;
+import io.github.mzmine.util.scans.IntensityPyramid;
+import io.github.mzmine.util.scans.MS2PrecursorIndex;
 import java.util.EnumSet;
 import java.util.stream.Collectors;
 
 /**
  * RawDataFile implementation. It provides storage of data points for scans and mass lists using the
  * storeDataPoints() and readDataPoints() methods. The data points are stored in a temporary file
- * (dataPointsFile) and the structure of the file is stored in two TreeMaps. The dataPointsOffsets
+ * (dataPointsFile) and the structure of the file is stored in two sorted maps. The dataPointsOffsets
  * maps storage ID to the offset in the dataPointsFile. The dataPointsLength maps the storage ID to
  * the number of data points stored under this ID. When stored data points are deleted using
  * removeStoredDataPoints(), the dataPointsFile is not modified, the storage ID is just deleted from
- * the two TreeMaps. When the project is saved, the contents of the dataPointsFile are consolidated
- * - only data points referenced by the TreeMaps are saved (see the RawDataFileSaveHandler class).
+ * the two maps. When the project is saved, the contents of the dataPointsFile are consolidated
+ * - only data points referenced by the maps are saved (see the RawDataFileSaveHandler class).
+ * 
+ * The dataPointsFile is append-only. Completed segments of the file (SEGMENT_SIZE bytes each) are
+ * memory-mapped read-only, so readDataPoints() does not need to lock the RawDataFileImpl and can be
+ * called concurrently from any number of threads. Only the writers (storeDataPoints()) are
+ * synchronized.
  */
 public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 
+  /**
+   * Provides the data points file of a raw data file which is opened on demand, see
+   * openDataPointsFileOnDemand()
+   */
+  public interface DataPointsFileSource {
+
+    /**
+     * Called when the data points are accessed the first time
+     */
+    File getDataPointsFile() throws IOException;
+
+    /**
+     * Called instead of getDataPointsFile() when the raw data file is closed before its data points
+     * were accessed
+     */
+    void release();
+  }
+
   private final Logger logger = Logger.getLogger(this.getClass().getName());
 
   // Name of this raw data file - may be changed by the user
@@ -70,14 +101,40 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
   private final Hashtable<Integer, Double> dataMaxBasePeakIntensity, dataMaxTIC;
   private final Hashtable<Integer, int[]> scanNumbersCache;
 
+  /**
+   * Size of the memory-mapped segments of the data points file. A MappedByteBuffer is limited to
+   * Integer.MAX_VALUE bytes, so large files have to be mapped in several segments.
+   */
+  private static final int SEGMENT_SIZE = 1 << 28;
+
+  /**
+   * Maximum size of the temporary write buffer of storeDataPoints(List)
+   */
+  private static final int MAX_BATCH_BUFFER_SIZE = 1 << 24;
+
+  // Only used by the (synchronized) writers
   private ByteBuffer buffer = ByteBuffer.allocate(20000);
-  private final TreeMap<Integer, Long> dataPointsOffsets;
-  private final TreeMap<Integer, Integer> dataPointsLengths;
+
+  // Concurrent maps, so readers can look up the storage IDs without locking
+  private final NavigableMap<Integer, Long> dataPointsOffsets;
+  private final NavigableMap<Integer, Integer> dataPointsLengths;
 
   // Temporary file for scan data storage
   private File dataPointsFileName;
   private RandomAccessFile dataPointsFile;
 
+  // Provides the data points file when it is accessed the first time, see
+  // openDataPointsFileOnDemand(), and the error if it could not be provided
+  private volatile DataPointsFileSource pendingDataPointsFile;
+  private volatile IOException dataPointsFileError;
+
+  // Number of bytes written to the data points file so far
+  private volatile long dataPointsFileLength = 0;
+
+  // Read-only mappings of the completed segments of the data points file. The array is replaced
+  // (never modified) when a new segment is completed.
+  private volatile MappedByteBuffer[] mappedSegments = new MappedByteBuffer[0];
+
   // To store mass lists that have been added but not yet reflected in the GUI
   // by the
   // notifyUpdatedMassLists() method
@@ -88,6 +145,13 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
    */
   private final Hashtable<Integer, StorableScan> scans;
 
+  // MS2 scans by precursor m/z, created on first use
+  private MS2PrecursorIndex ms2PrecursorIndex;
+
+  // Intensity pyramids of each MS level, written next to the data points file by finishWriting()
+  // or on first use
+  private final Hashtable<Integer, File> intensityPyramidFiles = new Hashtable<>();
+
   public RawDataFileImpl(String dataFileName) throws IOException {
 
     this.dataFileName = dataFileName;
@@ -99,8 +163,8 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
     dataMaxBasePeakIntensity = new Hashtable<Integer, Double>();
     dataMaxTIC = new Hashtable<Integer, Double>();
     scans = new Hashtable<Integer, StorableScan>();
-    dataPointsOffsets = new TreeMap<Integer, Long>();
-    dataPointsLengths = new TreeMap<Integer, Integer>();
+    dataPointsOffsets = new ConcurrentSkipListMap<Integer, Long>();
+    dataPointsLengths = new ConcurrentSkipListMap<Integer, Integer>();
 
   }
 
@@ -121,13 +185,18 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
    * been added yet to this RawDataFileImpl instance
    */
   public RandomAccessFile getDataPointsFile() {
+    try {
+      openPendingDataPointsFile();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
     return dataPointsFile;
   }
 
   /**
    * Opens the given file as a data points file for this RawDataFileImpl instance. If the file is
-   * not empty, the TreeMaps supplied as parameters have to describe the mapping of storage IDs to
-   * data points in the file.
+   * not empty, the maps returned by getDataPointsOffsets() and getDataPointsLengths() have to
+   * describe the mapping of storage IDs to data points in the file.
    */
   public synchronized void openDataPointsFile(File dataPointsFileName) throws IOException {
 
@@ -154,6 +223,103 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
     // shutdown hook registered in the main.ShutDownHook class
     dataPointsFileName.deleteOnExit();
 
+    // The file may already contain data points (e.g. when loading a project)
+    dataPointsFileLength = dataPointsFile.length();
+    mapCompletedSegments();
+
+  }
+
+  /**
+   * Opens the data points file provided by the given source when the data points are accessed the
+   * first time (e.g. extracted from a project file). Until then, the maps returned by
+   * getDataPointsOffsets() and getDataPointsLengths() describe the data points of the file.
+   */
+  public synchronized void openDataPointsFileOnDemand(DataPointsFileSource dataPointsFileSource)
+      throws IOException {
+
+    if ((this.dataPointsFile != null) || (pendingDataPointsFile != null)) {
+      throw new IOException("Cannot open another data points file, because one is already open");
+    }
+
+    pendingDataPointsFile = dataPointsFileSource;
+
+  }
+
+  /**
+   * Opens the pending data points file, if any. Other threads wait until the file is open. The
+   * source is only called once, if it fails all later reads fail with its error.
+   */
+  private void openPendingDataPointsFile() throws IOException {
+    if ((pendingDataPointsFile == null) && (dataPointsFileError == null))
+      return;
+    synchronized (this) {
+      if (dataPointsFileError != null)
+        throw new IOException("Could not open the data points file of " + dataFileName,
+            dataPointsFileError);
+      final DataPointsFileSource dataPointsFileSource = pendingDataPointsFile;
+      if (dataPointsFileSource == null)
+        return;
+      try {
+        openDataPointsFile(dataPointsFileSource.getDataPointsFile());
+      } catch (IOException e) {
+        dataPointsFileError = e;
+        throw e;
+      } finally {
+        pendingDataPointsFile = null;
+      }
+    }
+  }
+
+  /**
+   * Maps all segments of the data points file that have been completely written and are not mapped
+   * yet. Must be called while holding the lock of this RawDataFileImpl.
+   */
+  private void mapCompletedSegments() throws IOException {
+    final int completedSegments = (int) (dataPointsFileLength / SEGMENT_SIZE);
+    final MappedByteBuffer[] currentSegments = mappedSegments;
+    if (completedSegments <= currentSegments.length)
+      return;
+
+    final FileChannel fileChannel = dataPointsFile.getChannel();
+    final MappedByteBuffer[] newSegments = Arrays.copyOf(currentSegments, completedSegments);
+    for (int i = currentSegments.length; i < completedSegments; i++) {
+      newSegments[i] = fileChannel.map(MapMode.READ_ONLY, (long) i * SEGMENT_SIZE, SEGMENT_SIZE);
+    }
+    mappedSegments = newSegments;
+  }
+
+  /**
+   * Returns a buffer with the given region of the data points file. Regions inside a completed
+   * segment are served directly from the memory-mapped segment, the rest (the unfinished last
+   * segment or regions crossing a segment border) is read using a positional read, which does not
+   * modify the file pointer. Neither requires locking.
+   */
+  private ByteBuffer readDataPointsRegion(long offset, int numOfBytes) throws IOException {
+
+    openPendingDataPointsFile();
+
+    final MappedByteBuffer[] segments = mappedSegments;
+    final int segmentIndex = (int) (offset / SEGMENT_SIZE);
+    final int segmentOffset = (int) (offset % SEGMENT_SIZE);
+
+    if ((segmentIndex < segments.length) && (segmentOffset + numOfBytes <= SEGMENT_SIZE)) {
+      // Duplicate the buffer, so each reader has its own position and limit
+      ByteBuffer region = segments[segmentIndex].duplicate();
+      ((Buffer) region).limit(segmentOffset + numOfBytes);
+      ((Buffer) region).position(segmentOffset);
+      return region.slice();
+    }
+
+    final ByteBuffer region = ByteBuffer.allocate(numOfBytes);
+    final FileChannel fileChannel = dataPointsFile.getChannel();
+    while (region.hasRemaining()) {
+      final int read = fileChannel.read(region, offset + region.position());
+      if (read < 0) {
+        throw new EOFException("Unexpected end of file " + dataPointsFileName);
+      }
+    }
+    ((Buffer) region).flip();
+    return region;
   }
 
   /**
@@ -172,6 +338,58 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
     return scans.get(scanNumber);
   }
 
+  /**
+   * @see io.github.mzmine.datamodel.RawDataFile#getMS2PrecursorIndex()
+   */
+  @Override
+  public synchronized @Nonnull MS2PrecursorIndex getMS2PrecursorIndex() {
+    if (ms2PrecursorIndex == null)
+      ms2PrecursorIndex = new MS2PrecursorIndex(this);
+    return ms2PrecursorIndex;
+  }
+
+  /**
+   * @see io.github.mzmine.datamodel.RawDataFile#getIntensityPyramid(int)
+   */
+  @Override
+  public synchronized @Nonnull IntensityPyramid getIntensityPyramid(int msLevel) {
+    final File pyramidFile = intensityPyramidFiles.get(msLevel);
+    if (pyramidFile != null) {
+      try {
+        return IntensityPyramid.readFromFile(pyramidFile);
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Could not read the intensity pyramid " + pyramidFile, e);
+      }
+    }
+    return writeIntensityPyramid(msLevel);
+  }
+
+  /**
+   * Builds the intensity pyramid of an MS level and stores it in a temporary file next to the data
+   * points file
+   */
+  private IntensityPyramid writeIntensityPyramid(int msLevel) {
+    IntensityPyramid pyramid = new IntensityPyramid(this, msLevel);
+    try {
+      final File directory = dataPointsFileName != null ? dataPointsFileName.getParentFile() : null;
+      final File pyramidFile = File.createTempFile("mzmine", ".pyramid", directory);
+      pyramidFile.deleteOnExit();
+      pyramid.writeToFile(pyramidFile);
+      final File previousFile = intensityPyramidFiles.put(msLevel, pyramidFile);
+      if (previousFile != null)
+        previousFile.delete();
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Could not store the intensity pyramid of " + dataFileName, e);
+    }
+    return pyramid;
+  }
+
+  private void removeIntensityPyramids() {
+    for (File pyramidFile : intensityPyramidFiles.values())
+      pyramidFile.delete();
+    intensityPyramidFiles.clear();
+  }
+
   /**
    * @see io.github.mzmine.datamodel.RawDataFile#getScanNumbers(int)
    */
@@ -325,52 +543,121 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
   }
 
   public synchronized int storeDataPoints(DataPoint dataPoints[]) throws IOException {
+    return storeDataPoints(Collections.singletonList(dataPoints))[0];
+  }
 
+  /**
+   * Stores several data point arrays at once. The data points are appended to the data points file
+   * in large sequential writes instead of one write per array.
+   * 
+   * @return Storage IDs of the data point arrays, in the same order
+   */
+  public synchronized int[] storeDataPoints(List<DataPoint[]> dataPointsList) throws IOException {
+
+    openPendingDataPointsFile();
     if (dataPointsFile == null) {
       File newFile = RawDataFileImpl.createNewDataPointsFile();
       openDataPointsFile(newFile);
     }
 
-    final long currentOffset = dataPointsFile.length();
+    final int storageIDs[] = new int[dataPointsList.size()];
+    final int numOfDataPoints[] = new int[dataPointsList.size()];
+    final long offsets[] = new long[dataPointsList.size()];
 
-    final int currentID;
+    int nextID;
     if (!dataPointsOffsets.isEmpty())
-      currentID = dataPointsOffsets.lastKey() + 1;
+      nextID = dataPointsOffsets.lastKey() + 1;
     else
-      currentID = 1;
+      nextID = 1;
+
+    long batchSize = 0;
+    for (DataPoint dataPoints[] : dataPointsList)
+      batchSize += dataPoints.length * 2 * 4;
+
+    // Batches are written from a temporary buffer, so the large buffer is not kept around after
+    // the batch
+    ByteBuffer batchBuffer = buffer;
+    if (dataPointsList.size() > 1 && batchSize > buffer.capacity())
+      batchBuffer = ByteBuffer.allocate((int) Math.min(MAX_BATCH_BUFFER_SIZE, batchSize));
+
+    // JDK 9 breaks compatibility with JRE8: need to cast
+    // https://stackoverflow.com/questions/48693695/java-nio-buffer-not-loading-clear-method-on-runtime
+    ((Buffer) batchBuffer).clear();
+
+    // First array in the buffer which was not written yet
+    int firstBuffered = 0;
+    long currentOffset = dataPointsFileLength;
+
+    for (int i = 0; i < dataPointsList.size(); i++) {
+
+      final DataPoint dataPoints[] = dataPointsList.get(i);
+
+      // Convert the dataPoints into a byte array. Each float takes 4 bytes
+      final int numOfBytes = dataPoints.length * 2 * 4;
+
+      if (batchBuffer.remaining() < numOfBytes) {
+        writeBuffer(batchBuffer, storageIDs, numOfDataPoints, offsets, firstBuffered, i);
+        firstBuffered = i;
+        if (batchBuffer.capacity() < numOfBytes) {
+          batchBuffer = ByteBuffer.allocate(numOfBytes * 2);
+          // Single arrays keep the grown buffer for the next call
+          if (dataPointsList.size() == 1)
+            buffer = batchBuffer;
+        }
+      }
 
-    final int numOfDataPoints = dataPoints.length;
+      FloatBuffer floatBuffer = batchBuffer.asFloatBuffer();
+      for (DataPoint dp : dataPoints) {
+        floatBuffer.put((float) dp.getMZ());
+        floatBuffer.put((float) dp.getIntensity());
+      }
+      ((Buffer) batchBuffer).position(((Buffer) batchBuffer).position() + numOfBytes);
 
-    // Convert the dataPoints into a byte array. Each float takes 4 bytes,
-    // so we get the current float offset by dividing the size of the file
-    // by 4
-    final int numOfBytes = numOfDataPoints * 2 * 4;
+      storageIDs[i] = nextID++;
+      numOfDataPoints[i] = dataPoints.length;
+      offsets[i] = currentOffset;
+      currentOffset += numOfBytes;
 
-    if (buffer.capacity() < numOfBytes) {
-      buffer = ByteBuffer.allocate(numOfBytes * 2);
-    } else {
-      // JDK 9 breaks compatibility with JRE8: need to cast
-      // https://stackoverflow.com/questions/48693695/java-nio-buffer-not-loading-clear-method-on-runtime
-      ((Buffer) buffer).clear();
     }
 
-    FloatBuffer floatBuffer = buffer.asFloatBuffer();
-    for (DataPoint dp : dataPoints) {
-      floatBuffer.put((float) dp.getMZ());
-      floatBuffer.put((float) dp.getIntensity());
+    writeBuffer(batchBuffer, storageIDs, numOfDataPoints, offsets, firstBuffered,
+        dataPointsList.size());
+
+    return storageIDs;
+
+  }
+
+  /**
+   * Appends the contents of the given buffer to the data points file and publishes the storage
+   * IDs of the data point arrays from (inclusive) to (exclusive), which are contained in the
+   * buffer
+   */
+  private void writeBuffer(ByteBuffer buffer, int storageIDs[], int numOfDataPoints[],
+      long offsets[], int from, int to) throws IOException {
+
+    ((Buffer) buffer).flip();
+
+    // Positional write, so concurrent readers are not affected
+    final FileChannel fileChannel = dataPointsFile.getChannel();
+    long writePosition = dataPointsFileLength;
+    while (buffer.hasRemaining()) {
+      writePosition += fileChannel.write(buffer, writePosition);
     }
 
-    dataPointsFile.seek(currentOffset);
-    dataPointsFile.write(buffer.array(), 0, numOfBytes);
+    dataPointsFileLength = writePosition;
+    mapCompletedSegments();
 
-    dataPointsOffsets.put(currentID, currentOffset);
-    dataPointsLengths.put(currentID, numOfDataPoints);
+    // Publish the new storage IDs only after the data points are written
+    for (int i = from; i < to; i++) {
+      dataPointsLengths.put(storageIDs[i], numOfDataPoints[i]);
+      dataPointsOffsets.put(storageIDs[i], offsets[i]);
+    }
 
-    return currentID;
+    ((Buffer) buffer).clear();
 
   }
 
-  public synchronized DataPoint[] readDataPoints(int ID) throws IOException {
+  public DataPoint[] readDataPoints(int ID) throws IOException {
 
     final Long currentOffset = dataPointsOffsets.get(ID);
     final Integer numOfDataPoints = dataPointsLengths.get(ID);
@@ -381,18 +668,7 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 
     final int numOfBytes = numOfDataPoints * 2 * 4;
 
-    if (buffer.capacity() < numOfBytes) {
-      buffer = ByteBuffer.allocate(numOfBytes * 2);
-    } else {
-      // JDK 9 breaks compatibility with JRE8: need to cast
-      // https://stackoverflow.com/questions/48693695/java-nio-buffer-not-loading-clear-method-on-runtime
-      ((Buffer) buffer).clear();
-    }
-
-    dataPointsFile.seek(currentOffset);
-    dataPointsFile.read(buffer.array(), 0, numOfBytes);
-
-    FloatBuffer floatBuffer = buffer.asFloatBuffer();
+    FloatBuffer floatBuffer = readDataPointsRegion(currentOffset, numOfBytes).asFloatBuffer();
 
     DataPoint dataPoints[] = new DataPoint[numOfDataPoints];
 
@@ -406,7 +682,50 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 
   }
 
-  public synchronized void removeStoredDataPoints(int ID) throws IOException {
+  /**
+   * Reads the data points stored under the given ID directly into the given m/z and intensity
+   * arrays, without creating DataPoint instances. The arrays must be large enough to hold all the
+   * data points.
+   * 
+   * @return Number of data points read
+   */
+  public int readDataPoints(int ID, double mzValues[], double intensityValues[])
+      throws IOException {
+
+    final Long currentOffset = dataPointsOffsets.get(ID);
+    final Integer numOfDataPoints = dataPointsLengths.get(ID);
+
+    if ((currentOffset == null) || (numOfDataPoints == null)) {
+      throw new IllegalArgumentException("Unknown storage ID " + ID);
+    }
+
+    if ((mzValues.length < numOfDataPoints) || (intensityValues.length < numOfDataPoints)) {
+      throw new IllegalArgumentException("Arrays too small for " + numOfDataPoints
+          + " data points stored under storage ID " + ID);
+    }
+
+    final int numOfBytes = numOfDataPoints * 2 * 4;
+
+    FloatBuffer floatBuffer = readDataPointsRegion(currentOffset, numOfBytes).asFloatBuffer();
+
+    for (int i = 0; i < numOfDataPoints; i++) {
+      mzValues[i] = floatBuffer.get();
+      intensityValues[i] = floatBuffer.get();
+    }
+
+    return numOfDataPoints;
+
+  }
+
+  /**
+   * @return Number of data points stored under the given ID, or 0 if the ID is unknown
+   */
+  public int getNumOfStoredDataPoints(int ID) {
+    final Integer numOfDataPoints = dataPointsLengths.get(ID);
+    return numOfDataPoints == null ? 0 : numOfDataPoints;
+  }
+
+  public void removeStoredDataPoints(int ID) throws IOException {
     dataPointsOffsets.remove(ID);
     dataPointsLengths.remove(ID);
   }
@@ -414,6 +733,9 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
   @Override
   public synchronized void addScan(Scan newScan) throws IOException {
 
+    ms2PrecursorIndex = null;
+    removeIntensityPyramids();
+
     // When we are loading the project, scan data file is already prepare
     // and we just need store the reference
     if (newScan instanceof StorableScan) {
@@ -435,8 +757,14 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
    */
   @Override
   public synchronized RawDataFile finishWriting() throws IOException {
-    for (StorableScan scan : scans.values()) {
-      scan.updateValues();
+    // Scans of a data points file which is not open yet calculate their values on first use
+    if (pendingDataPointsFile == null) {
+      for (StorableScan scan : scans.values()) {
+        scan.updateValues();
+      }
+      // Built once after the import, so the 2D plot does not have to read all scans again
+      for (int msLevel : getMSLevels())
+        writeIntensityPyramid(msLevel);
     }
     logger.finest("Writing of scans to file " + dataPointsFileName + " finished");
     return this;
@@ -541,11 +869,11 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
     return getScanNumbers(msLevel).length;
   }
 
-  public synchronized TreeMap<Integer, Long> getDataPointsOffsets() {
+  public NavigableMap<Integer, Long> getDataPointsOffsets() {
     return dataPointsOffsets;
   }
 
-  public synchronized TreeMap<Integer, Integer> getDataPointsLengths() {
+  public NavigableMap<Integer, Integer> getDataPointsLengths() {
     return dataPointsLengths;
   }
 
@@ -564,10 +892,23 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 
   @Override
   public synchronized void close() {
+    // Data points which were never accessed do not need to be provided anymore
+    final DataPointsFileSource dataPointsFileSource = pendingDataPointsFile;
+    pendingDataPointsFile = null;
+    if (dataPointsFileSource != null)
+      dataPointsFileSource.release();
+    removeIntensityPyramids();
     try {
       if (dataPointsFileName != null) {
+        // Drop the mapped segments before deleting the file. They are only unmapped by the garbage
+        // collector, and a mapped file cannot be deleted on Windows. In that case, the file is
+        // removed on exit (see openDataPointsFile()) or by TmpFileCleanup on the next start.
+        mappedSegments = new MappedByteBuffer[0];
         dataPointsFile.close();
-        dataPointsFileName.delete();
+        if (!dataPointsFileName.delete()) {
+          logger.fine("Could not delete " + dataPointsFileName + " yet, it is deleted on exit");
+          dataPointsFileName.deleteOnExit();
+        }
       }
     } catch (IOException e) {
       logger.warning("Could not close file " + dataPointsFileName + ": " + e.toString());
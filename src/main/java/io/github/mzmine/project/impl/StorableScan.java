@@ -20,7 +20,6 @@ package io.github.mzmine.project.impl;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Vector;
 import java.util.logging.Logger;
 
 import javax.annotation.Nonnull;
@@ -33,6 +32,7 @@ import io.github.mzmine.datamodel.MassSpectrumType;
 import io.github.mzmine.datamodel.PolarityType;
 import io.github.mzmine.datamodel.RawDataFile;
 import io.github.mzmine.datamodel.Scan;
+import io.github.mzmine.datamodel.impl.SimpleDataPoint;
 import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.util.scans.ScanUtils;
 
@@ -127,30 +127,48 @@ public class StorableScan implements Scan {
 
   }
 
+  /**
+   * Reads the scan's datapoints from temporary file into the given arrays.
+   */
+  @Override
+  public int getDataPoints(@Nonnull double mzValues[], @Nonnull double intensityValues[]) {
+
+    try {
+      return rawDataFile.readDataPoints(storageID, mzValues, intensityValues);
+    } catch (IOException e) {
+      logger.severe("Could not read data from temporary file " + e.toString());
+      return 0;
+    }
+
+  }
+
   /**
    * @return Returns scan datapoints within a given range
    */
   public @Nonnull DataPoint[] getDataPointsByMass(@Nonnull Range<Double> mzRange) {
 
-    DataPoint dataPoints[] = getDataPoints();
+    final double mzValues[] = new double[numberOfDataPoints];
+    final double intensityValues[] = new double[numberOfDataPoints];
+    final int numOfDataPoints = getDataPoints(mzValues, intensityValues);
 
     int startIndex, endIndex;
-    for (startIndex = 0; startIndex < dataPoints.length; startIndex++) {
-      if (dataPoints[startIndex].getMZ() >= mzRange.lowerEndpoint()) {
+    for (startIndex = 0; startIndex < numOfDataPoints; startIndex++) {
+      if (mzValues[startIndex] >= mzRange.lowerEndpoint()) {
         break;
       }
     }
 
-    for (endIndex = startIndex; endIndex < dataPoints.length; endIndex++) {
-      if (dataPoints[endIndex].getMZ() > mzRange.upperEndpoint()) {
+    for (endIndex = startIndex; endIndex < numOfDataPoints; endIndex++) {
+      if (mzValues[endIndex] > mzRange.upperEndpoint()) {
         break;
       }
     }
 
+    // Only create the relevant points
     DataPoint pointsWithinRange[] = new DataPoint[endIndex - startIndex];
-
-    // Copy the relevant points
-    System.arraycopy(dataPoints, startIndex, pointsWithinRange, 0, endIndex - startIndex);
+    for (int i = startIndex; i < endIndex; i++) {
+      pointsWithinRange[i - startIndex] = new SimpleDataPoint(mzValues[i], intensityValues[i]);
+    }
 
     return pointsWithinRange;
   }
@@ -159,19 +177,19 @@ public class StorableScan implements Scan {
    * @return Returns scan datapoints over certain intensity
    */
   public @Nonnull DataPoint[] getDataPointsOverIntensity(double intensity) {
-    int index;
-    Vector<DataPoint> points = new Vector<DataPoint>();
-    DataPoint dataPoints[] = getDataPoints();
 
-    for (index = 0; index < dataPoints.length; index++) {
-      if (dataPoints[index].getIntensity() >= intensity) {
-        points.add(dataPoints[index]);
+    final double mzValues[] = new double[numberOfDataPoints];
+    final double intensityValues[] = new double[numberOfDataPoints];
+    final int numOfDataPoints = getDataPoints(mzValues, intensityValues);
+
+    ArrayList<DataPoint> points = new ArrayList<DataPoint>();
+    for (int index = 0; index < numOfDataPoints; index++) {
+      if (intensityValues[index] >= intensity) {
+        points.add(new SimpleDataPoint(mzValues[index], intensityValues[index]));
       }
     }
 
-    DataPoint pointsOverIntensity[] = points.toArray(new DataPoint[0]);
-
-    return pointsOverIntensity;
+    return points.toArray(new DataPoint[0]);
   }
 
   public @Nonnull RawDataFile getDataFile() {
@@ -225,26 +243,31 @@ public class StorableScan implements Scan {
   }
 
   void updateValues() {
-    DataPoint dataPoints[] = getDataPoints();
+    final double mzValues[] = new double[numberOfDataPoints];
+    final double intensityValues[] = new double[numberOfDataPoints];
+    final int numOfDataPoints = getDataPoints(mzValues, intensityValues);
 
     // find m/z range and base peak
-    if (dataPoints.length > 0) {
+    if (numOfDataPoints > 0) {
 
-      basePeak = dataPoints[0];
-      mzRange = Range.singleton(dataPoints[0].getMZ());
+      int basePeakIndex = 0;
+      double minMz = mzValues[0], maxMz = mzValues[0];
       double tic = 0;
 
-      for (DataPoint dp : dataPoints) {
+      for (int i = 0; i < numOfDataPoints; i++) {
 
-        if (dp.getIntensity() > basePeak.getIntensity())
-          basePeak = dp;
+        if (intensityValues[i] > intensityValues[basePeakIndex])
+          basePeakIndex = i;
 
-        mzRange = mzRange.span(Range.singleton(dp.getMZ()));
+        minMz = Math.min(minMz, mzValues[i]);
+        maxMz = Math.max(maxMz, mzValues[i]);
 
-        tic += dp.getIntensity();
+        tic += intensityValues[i];
 
       }
 
+      basePeak = new SimpleDataPoint(mzValues[basePeakIndex], intensityValues[basePeakIndex]);
+      mzRange = Range.closed(minMz, maxMz);
       totalIonCurrent = new Double(tic);
 
     } else {
@@ -290,7 +313,10 @@ public class StorableScan implements Scan {
    */
   public MassSpectrumType getSpectrumType() {
     if (spectrumType == null) {
-      spectrumType = ScanUtils.detectSpectrumType(getDataPoints());
+      final double mzValues[] = new double[numberOfDataPoints];
+      final double intensityValues[] = new double[numberOfDataPoints];
+      final int numOfDataPoints = getDataPoints(mzValues, intensityValues);
+      spectrumType = ScanUtils.detectSpectrumType(mzValues, intensityValues, numOfDataPoints);
     }
     return spectrumType;
   }
@@ -20,8 +20,13 @@ package io.github.mzmine.taskcontrol.impl;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
-import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import io.github.mzmine.gui.Desktop;
@@ -33,10 +38,12 @@ import io.github.mzmine.taskcontrol.Task;
 import io.github.mzmine.taskcontrol.TaskControlListener;
 import io.github.mzmine.taskcontrol.TaskController;
 import io.github.mzmine.taskcontrol.TaskPriority;
-import io.github.mzmine.taskcontrol.TaskStatus;
 
 /**
- * Task controller implementation
+ * Task controller implementation. Tasks are started as soon as they are added: NORMAL priority
+ * tasks are queued in a thread pool, which is limited to the number of threads specified in the
+ * preferences dialog. HIGH priority tasks are always executed immediately on an unbounded thread
+ * pool. The task controller thread only updates the task progress listeners.
  */
 public class TaskControllerImpl implements TaskController, Runnable {
 
@@ -49,15 +56,25 @@ public class TaskControllerImpl implements TaskController, Runnable {
    */
   private final int TASKCONTROLLER_THREAD_SLEEP = 300;
 
+  /**
+   * Idle worker threads are released after this time
+   */
+  private final long WORKER_THREAD_KEEP_ALIVE_SECONDS = 60;
+
   private Thread taskControllerThread;
 
   private TaskQueue taskQueue;
 
   /**
-   * This vector contains references to all running threads of NORMAL priority. Maximum number of
-   * concurrent threads is specified in the preferences dialog.
+   * Executes the tasks of NORMAL priority. Maximum number of concurrent threads is specified in the
+   * preferences dialog.
+   */
+  private ThreadPoolExecutor normalPriorityExecutor;
+
+  /**
+   * Executes the tasks of HIGH priority, each on its own thread
    */
-  private Vector<WorkerThread> runningThreads;
+  private ExecutorService highPriorityExecutor;
 
   /**
    * Initialize the task controller
@@ -67,10 +84,17 @@ public class TaskControllerImpl implements TaskController, Runnable {
     logger.finest("Starting task controller thread");
     taskQueue = new TaskQueue();
 
-    runningThreads = new Vector<WorkerThread>();
-
-    // Create a low-priority thread that will manage the queue and start
-    // worker threads for tasks
+    ThreadFactory workerThreadFactory = Executors.defaultThreadFactory();
+    final int numOfThreads = Runtime.getRuntime().availableProcessors();
+    normalPriorityExecutor = new ThreadPoolExecutor(numOfThreads, numOfThreads,
+        WORKER_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+        workerThreadFactory);
+    normalPriorityExecutor.allowCoreThreadTimeOut(true);
+    highPriorityExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+        WORKER_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+        new SynchronousQueue<Runnable>(), workerThreadFactory);
+
+    // Create a low-priority thread that will update the task progress
     taskControllerThread = new Thread(this, "Task controller thread");
     taskControllerThread.setPriority(Thread.MIN_PRIORITY);
     taskControllerThread.start();
@@ -112,6 +136,8 @@ public class TaskControllerImpl implements TaskController, Runnable {
     if ((tasks == null) || (tasks.length == 0))
       return;
 
+    updateMaxRunningThreads();
+
     for (int i = 0; i < tasks.length; i++) {
       Task task = tasks[i];
       TaskPriority priority = priorities[i];
@@ -119,6 +145,12 @@ public class TaskControllerImpl implements TaskController, Runnable {
       taskQueue.addWrappedTask(newQueueEntry);
       // logger.finest("Added wrapped task for " +
       // task.getTaskDescription());
+
+      TaskWorker worker = new TaskWorker(newQueueEntry, taskQueue);
+      if (priority == TaskPriority.HIGH)
+        highPriorityExecutor.execute(worker);
+      else
+        normalPriorityExecutor.execute(worker);
     }
 
     // Wake up the task controller thread
@@ -128,7 +160,33 @@ public class TaskControllerImpl implements TaskController, Runnable {
   }
 
   /**
-   * Task controller thread main method.
+   * Applies the settings of max concurrent threads to the executor of NORMAL priority tasks
+   */
+  private void updateMaxRunningThreads() {
+    int maxRunningThreads = Runtime.getRuntime().availableProcessors();
+    if (MZmineCore.getConfiguration() != null) {
+      NumOfThreadsParameter parameter = MZmineCore.getConfiguration().getPreferences()
+          .getParameter(MZminePreferences.numOfThreads);
+      if (!parameter.isAutomatic() && (parameter.getValue() != null))
+        maxRunningThreads = Math.max(1, parameter.getValue());
+    }
+
+    synchronized (normalPriorityExecutor) {
+      if (maxRunningThreads == normalPriorityExecutor.getMaximumPoolSize())
+        return;
+      // The core size must never exceed the maximum size
+      if (maxRunningThreads > normalPriorityExecutor.getMaximumPoolSize()) {
+        normalPriorityExecutor.setMaximumPoolSize(maxRunningThreads);
+        normalPriorityExecutor.setCorePoolSize(maxRunningThreads);
+      } else {
+        normalPriorityExecutor.setCorePoolSize(maxRunningThreads);
+        normalPriorityExecutor.setMaximumPoolSize(maxRunningThreads);
+      }
+    }
+  }
+
+  /**
+   * Task controller thread main method, notifies the listeners about the progress of the tasks.
    * 
    * @see java.lang.Runnable#run()
    */
@@ -161,53 +219,6 @@ public class TaskControllerImpl implements TaskController, Runnable {
         }
       }
 
-      // Check if all tasks in the queue are finished
-      if (taskQueue.allTasksFinished()) {
-        taskQueue.clear();
-        continue;
-      }
-
-      // Remove already finished threads from runningThreads
-      Iterator<WorkerThread> threadIterator = runningThreads.iterator();
-      while (threadIterator.hasNext()) {
-        WorkerThread thread = threadIterator.next();
-        if (thread.isFinished())
-          threadIterator.remove();
-      }
-
-      // Get a snapshot of the queue
-      WrappedTask[] queueSnapshot = taskQueue.getQueueSnapshot();
-
-      // Obtain the settings of max concurrent threads
-      NumOfThreadsParameter parameter = MZmineCore.getConfiguration().getPreferences()
-          .getParameter(MZminePreferences.numOfThreads);
-      int maxRunningThreads;
-      if (parameter.isAutomatic() || (parameter.getValue() == null))
-        maxRunningThreads = Runtime.getRuntime().availableProcessors();
-      else
-        maxRunningThreads = parameter.getValue();
-
-      // Check all tasks in the queue
-      for (WrappedTask task : queueSnapshot) {
-
-        // Skip assigned and canceled tasks
-        if (task.isAssigned() || (task.getActualTask().getStatus() == TaskStatus.CANCELED))
-          continue;
-
-        // Create a new thread if the task is high-priority or if we
-        // have less then maximum # of threads running
-        if ((task.getPriority() == TaskPriority.HIGH)
-            || (runningThreads.size() < maxRunningThreads)) {
-          WorkerThread newThread = new WorkerThread(task);
-
-          if (task.getPriority() == TaskPriority.NORMAL) {
-            runningThreads.add(newThread);
-          }
-
-          newThread.start();
-        }
-      }
-
       // Refresh the tasks window
       Desktop desktop = MZmineCore.getDesktop();
       if ((desktop != null) && (!(desktop instanceof HeadLessDesktop))) {
@@ -238,6 +249,11 @@ public class TaskControllerImpl implements TaskController, Runnable {
         logger.finest(
             "Setting priority of task \"" + task.getTaskDescription() + "\" to " + priority);
         wrappedTask.setPriority(priority);
+
+        // Start a waiting task immediately. The worker in the queue of NORMAL priority tasks will
+        // skip the task.
+        if ((priority == TaskPriority.HIGH) && !wrappedTask.isAssigned())
+          highPriorityExecutor.execute(new TaskWorker(wrappedTask, taskQueue));
       }
     }
 
@@ -18,15 +18,20 @@
 
 package io.github.mzmine.taskcontrol.impl;
 
+import java.util.HashSet;
+import java.util.Set;
 import java.util.logging.Logger;
 
-import io.github.mzmine.taskcontrol.TaskStatus;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 
 /**
  * This class stores all tasks (as WrappedTasks) in the queue of task controller and also provides
  * data for TaskProgressWindow (as TableModel).
+ *
+ * The number of waiting tasks and the progress of finished tasks are counted when tasks are added
+ * and finished, so status queries do not need to iterate over the whole queue. The queue is
+ * cleared when all tasks are finished.
  */
 public class TaskQueue {
 
@@ -38,45 +43,62 @@ public class TaskQueue {
   private final ObservableList<WrappedTask> queue =
       FXCollections.synchronizedObservableList(FXCollections.observableArrayList());
 
+  /**
+   * Tasks that are waiting or being processed
+   */
+  private int numOfWaitingTasks = 0;
+
+  /**
+   * Tasks that are being processed, their progress is still changing
+   */
+  private final Set<WrappedTask> processedTasks = new HashSet<>();
+
+  /**
+   * Sum of the finished percentage of all tasks that are done
+   */
+  private double finishedTasksPercentage = 0.0;
+
   public synchronized int getNumOfWaitingTasks() {
-    final long numOfWaitingTasks =
-        queue.stream().filter(task -> ((task.getActualTask().getStatus() == TaskStatus.PROCESSING)
-            || (task.getActualTask().getStatus() == TaskStatus.WAITING))).count();
-    return (int) numOfWaitingTasks;
+    return numOfWaitingTasks;
   }
 
   public synchronized int getTotalPercentComplete() {
-    double totalFinished = 0.0;
-
-    WrappedTask snapshot[] = getQueueSnapshot();
+    double totalFinished = finishedTasksPercentage;
 
-    for (WrappedTask task : snapshot) {
+    for (WrappedTask task : processedTasks) {
       totalFinished += task.getActualTask().getFinishedPercentage();
     }
     final int totalPercentFinished =
-        (int) Math.floor(totalFinished / (double) snapshot.length * 100);
+        (int) Math.floor(totalFinished / (double) queue.size() * 100);
     return totalPercentFinished;
   }
 
   synchronized void addWrappedTask(WrappedTask task) {
     logger.finest("Adding task \"" + task + "\" to the task controller queue");
     queue.add(task);
+    numOfWaitingTasks++;
+  }
 
+  synchronized void taskStarted(WrappedTask task) {
+    processedTasks.add(task);
   }
 
-  synchronized void clear() {
-    queue.clear();
+  synchronized void taskFinished(WrappedTask task) {
+    processedTasks.remove(task);
+    finishedTasksPercentage += task.getActualTask().getFinishedPercentage();
+    numOfWaitingTasks--;
+
+    // Check if all tasks in the queue are finished
+    if (numOfWaitingTasks == 0) {
+      queue.clear();
+      finishedTasksPercentage = 0.0;
+    }
   }
 
   synchronized boolean isEmpty() {
     return queue.isEmpty();
   }
 
-  synchronized boolean allTasksFinished() {
-    final int numOfWaitingTasks = getNumOfWaitingTasks();
-    return numOfWaitingTasks == 0;
-  }
-
   public synchronized WrappedTask[] getQueueSnapshot() {
     return queue.toArray(new WrappedTask[0]);
   }
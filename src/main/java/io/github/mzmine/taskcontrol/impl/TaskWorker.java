@@ -27,19 +27,20 @@ import io.github.mzmine.taskcontrol.TaskStatus;
 import io.github.mzmine.util.ExceptionUtils;
 
 /**
- * Task controller worker thread, this thread will process one task and then finish
+ * Task controller worker, processes one task on a thread of the task controller's executors. The
+ * same task may be submitted to more than one executor (when its priority is raised while it is
+ * waiting), but it is only processed by the worker that starts first.
  */
-class WorkerThread extends Thread {
+class TaskWorker implements Runnable {
 
   private Logger logger = Logger.getLogger(this.getClass().getName());
 
-  private WrappedTask wrappedTask;
-  private boolean finished = false;
+  private final WrappedTask wrappedTask;
+  private final TaskQueue taskQueue;
 
-  WorkerThread(WrappedTask wrappedTask) {
-    super("Thread executing task " + wrappedTask);
+  TaskWorker(WrappedTask wrappedTask, TaskQueue taskQueue) {
     this.wrappedTask = wrappedTask;
-    wrappedTask.assignTo(this);
+    this.taskQueue = taskQueue;
   }
 
   /**
@@ -47,8 +48,24 @@ class WorkerThread extends Thread {
    */
   public void run() {
 
+    // Already processed by another worker
+    if (!wrappedTask.markStarted())
+      return;
+
     Task actualTask = wrappedTask.getActualTask();
 
+    // Skip tasks that were canceled while waiting
+    if (actualTask.getStatus() == TaskStatus.CANCELED) {
+      taskQueue.taskFinished(wrappedTask);
+      return;
+    }
+
+    final Thread thread = Thread.currentThread();
+    final String threadName = thread.getName();
+    thread.setName("Thread executing task " + wrappedTask);
+    wrappedTask.assignTo(thread);
+    taskQueue.taskStarted(wrappedTask);
+
     try {
 
       // Log the start (INFO level events go to the Status bar, too)
@@ -96,17 +113,16 @@ class WorkerThread extends Thread {
       MZmineCore.getDesktop().displayErrorMessage("Unhandled exception in task "
           + actualTask.getTaskDescription() + ": " + ExceptionUtils.exceptionToString(e));
 
-    }
+    } finally {
 
-    /*
-     * Mark this thread as finished
-     */
-    finished = true;
+      // The thread is reused for other tasks
+      wrappedTask.assignTo(null);
+      thread.setPriority(Thread.NORM_PRIORITY);
+      thread.setName(threadName);
 
-  }
+      taskQueue.taskFinished(wrappedTask);
+    }
 
-  boolean isFinished() {
-    return finished;
   }
 
 }
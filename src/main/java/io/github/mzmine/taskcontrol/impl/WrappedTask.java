@@ -18,6 +18,7 @@
 
 package io.github.mzmine.taskcontrol.impl;
 
+import java.util.concurrent.atomic.AtomicBoolean;
 import io.github.mzmine.taskcontrol.Task;
 import io.github.mzmine.taskcontrol.TaskPriority;
 import javafx.beans.property.SimpleStringProperty;
@@ -43,8 +44,9 @@ public class WrappedTask {
   }
 
   private Task task;
-  private TaskPriority priority;
-  private WorkerThread assignedTo;
+  private volatile TaskPriority priority;
+  private final AtomicBoolean started = new AtomicBoolean(false);
+  private Thread assignedTo;
 
   WrappedTask(Task task, TaskPriority priority) {
     this.task = task;
@@ -61,8 +63,36 @@ public class WrappedTask {
   /**
    * @param priority The priority to set.
    */
-  void setPriority(TaskPriority priority) {
+  synchronized void setPriority(TaskPriority priority) {
     this.priority = priority;
+    updateThreadPriority();
+  }
+
+  /**
+   * @return Returns the assigned.
+   */
+  boolean isAssigned() {
+    return started.get();
+  }
+
+  /**
+   * Marks the task as started
+   *
+   * @return false if the task was already started before
+   */
+  boolean markStarted() {
+    return started.compareAndSet(false, true);
+  }
+
+  /**
+   * Sets the thread which processes the task, null when processing is done
+   */
+  synchronized void assignTo(Thread thread) {
+    assignedTo = thread;
+    updateThreadPriority();
+  }
+
+  private void updateThreadPriority() {
     if (assignedTo != null) {
       switch (priority) {
         case HIGH:
@@ -75,17 +105,6 @@ public class WrappedTask {
     }
   }
 
-  /**
-   * @return Returns the assigned.
-   */
-  boolean isAssigned() {
-    return assignedTo != null;
-  }
-
-  void assignTo(WorkerThread thread) {
-    assignedTo = thread;
-  }
-
   /**
    * @return Returns the task.
    */
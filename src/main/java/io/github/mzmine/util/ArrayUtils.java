@@ -29,4 +29,21 @@ public class ArrayUtils {
     return -1;
   }
 
+  /**
+   * Index of the first value >= key in a sorted array, or the array length if there is none. Like
+   * {@link java.util.Arrays#binarySearch(double[], double)}, but returns the lower bound also if
+   * the key is not found or occurs several times.
+   */
+  public static int firstIndexNotBelow(double sortedValues[], double key) {
+    int low = 0, high = sortedValues.length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (sortedValues[mid] < key)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+    return low;
+  }
+
 }
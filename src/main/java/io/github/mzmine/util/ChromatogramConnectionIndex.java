@@ -0,0 +1,172 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.util;
+
+import java.util.List;
+import java.util.TreeMap;
+import java.util.function.Function;
+import javax.annotation.Nonnull;
+import com.google.common.collect.Range;
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+
+/**
+ * Index of the chromatograms which are built while the scans of a raw data file are processed one
+ * by one (see the highest data point connectors of the chromatogram builders). The chromatograms
+ * are sorted by the m/z of their last data point, so the chromatogram that a new m/z peak is
+ * connected to is found by binary search instead of comparing the m/z peak with every
+ * chromatogram.
+ *
+ * An index is created for each scan. Chromatograms which were connected to an m/z peak of the scan
+ * have to be marked by setConnected(), because their last data point changed. They are kept in a
+ * separate map sorted by their new m/z, so they are still found by later m/z peaks of the scan.
+ *
+ * The result of findBestChromatogram() is the same as checking all chromatograms in list order:
+ * the chromatogram with the most intense last data point whose m/z tolerance range contains the
+ * m/z peak, the first one in the list if several have the same intensity.
+ *
+ * @param <T> type of the chromatograms
+ */
+public class ChromatogramConnectionIndex<T> {
+
+  private final List<? extends T> chromatograms;
+  private final Function<? super T, DataPoint> lastDataPointFunction;
+  private final MZTolerance mzTolerance;
+
+  // Positions of the chromatograms which were not connected yet, sorted by the m/z of the last
+  // data point when the index was created
+  private final int mzOrder[];
+  private final double sortedMz[];
+
+  private final boolean connected[];
+
+  // Positions of the connected chromatograms by the m/z of their new last data point
+  private final TreeMap<Double, IntArrayList> connectedByMz = new TreeMap<>();
+
+  /**
+   * @param chromatograms the chromatograms which are being built, in their reproducible order
+   * @param lastDataPointFunction provides the last data point of a chromatogram
+   * @param mzTolerance m/z tolerance around the m/z of the last data point
+   */
+  public ChromatogramConnectionIndex(@Nonnull List<? extends T> chromatograms,
+      @Nonnull Function<? super T, DataPoint> lastDataPointFunction,
+      @Nonnull MZTolerance mzTolerance) {
+    this.chromatograms = chromatograms;
+    this.lastDataPointFunction = lastDataPointFunction;
+    this.mzTolerance = mzTolerance;
+
+    final int size = chromatograms.size();
+    final double mz[] = new double[size];
+    int order[] = new int[size];
+    for (int i = 0; i < size; i++) {
+      mz[i] = lastDataPointFunction.apply(chromatograms.get(i)).getMZ();
+      order[i] = i;
+    }
+    IntArrays.quickSort(order, (a, b) -> Double.compare(mz[a], mz[b]));
+    mzOrder = order;
+    sortedMz = new double[size];
+    for (int i = 0; i < size; i++)
+      sortedMz[i] = mz[order[i]];
+    connected = new boolean[size];
+  }
+
+  public int size() {
+    return connected.length;
+  }
+
+  public T get(int position) {
+    return chromatograms.get(position);
+  }
+
+  public boolean isConnected(int position) {
+    return connected[position];
+  }
+
+  /**
+   * Marks a chromatogram as connected. Call after a data point was added to the chromatogram.
+   */
+  public void setConnected(int position) {
+    if (connected[position])
+      return;
+    connected[position] = true;
+    final double mz = lastDataPointFunction.apply(chromatograms.get(position)).getMZ();
+    connectedByMz.computeIfAbsent(mz, k -> new IntArrayList()).add(position);
+  }
+
+  /**
+   * Finds the chromatogram with the most intense last data point whose m/z tolerance range
+   * contains the given m/z value. Connected chromatograms are included, with their new last data
+   * point.
+   *
+   * @param mz m/z value of an m/z peak
+   * @return position of the chromatogram in the list, or -1 if there is none
+   */
+  public int findBestChromatogram(double mz) {
+    // The tolerance is relative to the m/z of the chromatogram, so search a slightly wider range
+    // and check the exact tolerance for each candidate
+    final Range<Double> searchRange = mzTolerance.getReverseToleranceRange(mz);
+    final double min = searchRange.lowerEndpoint(), max = searchRange.upperEndpoint();
+
+    int best = -1;
+    double bestIntensity = 0;
+
+    for (int i = ArrayUtils.firstIndexNotBelow(sortedMz, min); i < sortedMz.length
+        && sortedMz[i] <= max; i++) {
+      final int position = mzOrder[i];
+      if (connected[position])
+        continue;
+      final DataPoint last = lastDataPointFunction.apply(chromatograms.get(position));
+      if (isBetter(last, mz, position, best, bestIntensity)) {
+        best = position;
+        bestIntensity = last.getIntensity();
+      }
+    }
+
+    if (!connectedByMz.isEmpty()) {
+      for (IntArrayList positions : connectedByMz.subMap(min, true, max, true).values()) {
+        for (int j = 0; j < positions.size(); j++) {
+          final int position = positions.getInt(j);
+          final DataPoint last = lastDataPointFunction.apply(chromatograms.get(position));
+          if (isBetter(last, mz, position, best, bestIntensity)) {
+            best = position;
+            bestIntensity = last.getIntensity();
+          }
+        }
+      }
+    }
+
+    return best;
+  }
+
+  private boolean isBetter(DataPoint last, double mz, int position, int best,
+      double bestIntensity) {
+    final double lastMz = last.getMZ();
+    final double tolerance = mzTolerance.getMzToleranceForMass(lastMz);
+    if (!(lastMz - tolerance <= mz && mz <= lastMz + tolerance))
+      return false;
+    if (best == -1)
+      return true;
+    // Same as iterating in list order and replacing only by a higher intensity
+    return last.getIntensity() > bestIntensity
+        || (last.getIntensity() == bestIntensity && position < best);
+  }
+
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.util;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToDoubleFunction;
+import javax.annotation.Nonnull;
+import com.google.common.collect.Range;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import javafx.collections.ListChangeListener;
+
+/**
+ * Index of the m/z and retention time values of the elements of a list (usually feature list
+ * rows), used to answer m/z and RT range queries without iterating over the whole list. The index
+ * keeps the list positions sorted by m/z and by RT, so a range query is a binary search followed
+ * by a scan of the matching window.
+ *
+ * The index is maintained incrementally. Elements appended at the end of the list are picked up
+ * automatically, and the owner of the list calls elementChanged() when the m/z or RT value of an
+ * element changes. Until the sorted positions are rebuilt, these unsorted elements are checked one
+ * by one with their current values. The sorted positions are rebuilt once the number of unsorted
+ * elements exceeds about the square root of the list size, so a sequence of additions or changes
+ * interleaved with queries does not sort the whole list for every query. Other changes (removing,
+ * inserting or reordering elements) require a call to invalidate(), which rebuilds the index on the
+ * next query. As a safety net, the index is also rebuilt when the list gets shorter.
+ *
+ * Queries are thread-safe, as long as the list is not modified concurrently.
+ *
+ * @param <T> type of the indexed elements
+ */
+public class MZRTRangeIndex<T> {
+
+  // Number of unsorted elements which is always accepted before the sorted positions are rebuilt
+  private static final int MIN_UNSORTED_ELEMENTS = 256;
+
+  private final ToDoubleFunction<? super T> mzFunction, rtFunction;
+
+  // Immutable state of the index, null if the index needs to be rebuilt
+  private volatile State state;
+
+  /**
+   * @param mzFunction provides the m/z value of an element, NaN if it has no m/z value
+   * @param rtFunction provides the retention time of an element, NaN if it has no RT value
+   */
+  public MZRTRangeIndex(@Nonnull ToDoubleFunction<? super T> mzFunction,
+      @Nonnull ToDoubleFunction<? super T> rtFunction) {
+    this.mzFunction = mzFunction;
+    this.rtFunction = rtFunction;
+  }
+
+  /**
+   * Marks the index as outdated. It will be rebuilt on the next query.
+   */
+  public void invalidate() {
+    state = null;
+  }
+
+  /**
+   * Updates the index after a change of the indexed observable list. Elements appended at the end
+   * are picked up by the next query, any other change invalidates the index.
+   */
+  public void listChanged(@Nonnull ListChangeListener.Change<?> change) {
+    while (change.next()) {
+      if (change.wasRemoved() || change.wasPermutated() || change.wasUpdated()
+          || (change.getTo() != change.getList().size())) {
+        invalidate();
+        return;
+      }
+    }
+  }
+
+  /**
+   * Notifies the index that the m/z or RT value of the given element changed. The element is
+   * checked with its current values until the index is rebuilt.
+   */
+  public synchronized void elementChanged(@Nonnull T element) {
+    final State current = state;
+    if (current == null)
+      return;
+    final Integer position = current.sorted.positions.get(element);
+    // Elements which are not sorted yet are always checked with their current values
+    if (position == null)
+      return;
+    final int index = Arrays.binarySearch(current.changed, position);
+    if (index >= 0)
+      return;
+    // Insert the position into a copy of the changed positions, queries may still use the old one
+    final int insertion = -index - 1;
+    final int changed[] = new int[current.changed.length + 1];
+    System.arraycopy(current.changed, 0, changed, 0, insertion);
+    changed[insertion] = position;
+    System.arraycopy(current.changed, insertion, changed, insertion + 1,
+        current.changed.length - insertion);
+    state = new State(current.sorted, changed);
+  }
+
+  /**
+   * Returns the positions of all elements of the list whose m/z and RT values are inside the
+   * bounding box of the given ranges, in ascending order (that is, in list order). Range endpoints
+   * are treated as closed, so callers should check the exact Range.contains() on the returned
+   * candidates if they use open ranges.
+   *
+   * @param elements the indexed list, must be the same list on every call
+   * @param mzRange m/z range, may be unbounded
+   * @param rtRange retention time range, may be unbounded
+   * @return positions of the elements in the list
+   */
+  public @Nonnull int[] getPositionsInside(@Nonnull List<? extends T> elements,
+      @Nonnull Range<? extends Number> mzRange, @Nonnull Range<? extends Number> rtRange) {
+
+    final int size = elements.size();
+    State current = state;
+    if (needsRebuild(current, size))
+      current = rebuild(elements);
+    final Snapshot sorted = current.sorted;
+
+    final double mzMin = lowerBound(mzRange), mzMax = upperBound(mzRange);
+    final double rtMin = lowerBound(rtRange), rtMax = upperBound(rtRange);
+
+    final boolean mzBounded = mzRange.hasLowerBound() || mzRange.hasUpperBound();
+    final boolean rtBounded = rtRange.hasLowerBound() || rtRange.hasUpperBound();
+
+    // Nothing to search for, all elements are inside
+    if (!mzBounded && !rtBounded) {
+      final int all[] = new int[size];
+      for (int i = 0; i < all.length; i++)
+        all[i] = i;
+      return all;
+    }
+
+    // Search the window in the m/z order if possible, it is usually much narrower than the RT
+    // window. Check the other dimension for each element of the window.
+    final double sortedValues[] = mzBounded ? sorted.sortedMz : sorted.sortedRt;
+    final int order[] = mzBounded ? sorted.mzOrder : sorted.rtOrder;
+    final double min = mzBounded ? mzMin : rtMin, max = mzBounded ? mzMax : rtMax;
+    final double otherValues[] = mzBounded ? sorted.rt : sorted.mz;
+    final double otherMin = mzBounded ? rtMin : mzMin, otherMax = mzBounded ? rtMax : mzMax;
+    final boolean otherBounded = mzBounded && rtBounded;
+
+    final int start = ArrayUtils.firstIndexNotBelow(sortedValues, min);
+    int end = start;
+    while ((end < sortedValues.length) && (sortedValues[end] <= max))
+      end++;
+
+    final int unsorted = size - sorted.size + current.changed.length;
+    int positions[] = new int[end - start + unsorted];
+    int count = 0;
+    for (int i = start; i < end; i++) {
+      final int position = order[i];
+      if (otherBounded) {
+        final double otherValue = otherValues[position];
+        if (!(otherValue >= otherMin) || !(otherValue <= otherMax))
+          continue;
+      }
+      // Changed elements are checked below
+      if ((current.changed.length > 0) && (Arrays.binarySearch(current.changed, position) >= 0))
+        continue;
+      positions[count++] = position;
+    }
+
+    // Elements which are not sorted: check their current values
+    for (int position : current.changed) {
+      if (isInside(elements.get(position), mzMin, mzMax, mzBounded, rtMin, rtMax, rtBounded))
+        positions[count++] = position;
+    }
+    for (int position = sorted.size; position < size; position++) {
+      if (isInside(elements.get(position), mzMin, mzMax, mzBounded, rtMin, rtMax, rtBounded))
+        positions[count++] = position;
+    }
+
+    positions = Arrays.copyOf(positions, count);
+    Arrays.sort(positions);
+    return positions;
+  }
+
+  private boolean isInside(T element, double mzMin, double mzMax, boolean mzBounded, double rtMin,
+      double rtMax, boolean rtBounded) {
+    if (mzBounded) {
+      final double mz = mzFunction.applyAsDouble(element);
+      if (!(mz >= mzMin) || !(mz <= mzMax))
+        return false;
+    }
+    if (rtBounded) {
+      final double rt = rtFunction.applyAsDouble(element);
+      if (!(rt >= rtMin) || !(rt <= rtMax))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Whether the index has to be rebuilt, because it was invalidated, the list got shorter or too
+   * many elements are not sorted
+   */
+  private static boolean needsRebuild(State current, int size) {
+    if ((current == null) || (current.sorted.size > size))
+      return true;
+    final int unsorted = size - current.sorted.size + current.changed.length;
+    return unsorted > Math.max(MIN_UNSORTED_ELEMENTS, 4 * (int) Math.sqrt(size));
+  }
+
+  private synchronized State rebuild(List<? extends T> elements) {
+    State current = state;
+    if (!needsRebuild(current, elements.size()))
+      return current;
+    current = new State(new Snapshot(elements, mzFunction, rtFunction), new int[0]);
+    state = current;
+    return current;
+  }
+
+  private static double lowerBound(Range<? extends Number> range) {
+    return range.hasLowerBound() ? range.lowerEndpoint().doubleValue() : Double.NEGATIVE_INFINITY;
+  }
+
+  private static double upperBound(Range<? extends Number> range) {
+    return range.hasUpperBound() ? range.upperEndpoint().doubleValue() : Double.POSITIVE_INFINITY;
+  }
+
+  /**
+   * Sorted snapshot of the first elements of the list, and the (sorted) positions of the elements
+   * whose values changed since the snapshot was taken
+   */
+  private static class State {
+
+    private final Snapshot sorted;
+    private final int changed[];
+
+    private State(Snapshot sorted, int changed[]) {
+      this.sorted = sorted;
+      this.changed = changed;
+    }
+  }
+
+  /**
+   * The m/z and RT values of all elements at the time the index was built, and the element
+   * positions sorted by each of them. Elements with a NaN value are not part of the sorted order
+   * of that dimension, so they are only returned by queries that do not limit it.
+   */
+  private static class Snapshot {
+
+    private final int size;
+    private final double mz[], rt[];
+    private final int mzOrder[], rtOrder[];
+    private final double sortedMz[], sortedRt[];
+    // Positions of the elements, to find the position of a changed element
+    private final Map<Object, Integer> positions;
+
+    private <T> Snapshot(List<? extends T> elements, ToDoubleFunction<? super T> mzFunction,
+        ToDoubleFunction<? super T> rtFunction) {
+      size = elements.size();
+      mz = new double[size];
+      rt = new double[size];
+      positions = new IdentityHashMap<>(size);
+      int i = 0;
+      for (T element : elements) {
+        mz[i] = mzFunction.applyAsDouble(element);
+        rt[i] = rtFunction.applyAsDouble(element);
+        positions.put(element, i);
+        i++;
+      }
+      mzOrder = sortedPositions(mz);
+      rtOrder = sortedPositions(rt);
+      sortedMz = new double[mzOrder.length];
+      for (int j = 0; j < mzOrder.length; j++)
+        sortedMz[j] = mz[mzOrder[j]];
+      sortedRt = new double[rtOrder.length];
+      for (int j = 0; j < rtOrder.length; j++)
+        sortedRt[j] = rt[rtOrder[j]];
+    }
+
+    private static int[] sortedPositions(double values[]) {
+      int positions[] = new int[values.length];
+      int count = 0;
+      for (int i = 0; i < values.length; i++) {
+        if (!Double.isNaN(values[i]))
+          positions[count++] = i;
+      }
+      positions = Arrays.copyOf(positions, count);
+      IntArrays.quickSort(positions, (a, b) -> Double.compare(values[a], values[b]));
+      return positions;
+    }
+  }
+
+}
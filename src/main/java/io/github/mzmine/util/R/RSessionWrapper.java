@@ -892,6 +892,24 @@ public class RSessionWrapper {
   }
 
   // < Rsession/RCaller: adaptable collect >
+  /**
+   * Collects a numeric vector. Unlike collect(), vectors of length 0 and 1 are also returned as
+   * arrays, so packed results of batched calls can be read the same way regardless of their size.
+   */
+  public double[] collectDoubleArray(String objOrExp) throws RSessionWrapperException {
+
+    final Object o = collect(objOrExp);
+    if (o == null)
+      return new double[0];
+    if (o instanceof Double)
+      return new double[] {(Double) o};
+    if (o instanceof double[])
+      return (double[]) o;
+
+    throw new RSessionWrapperException(
+        this.rEngineType + ": '" + objOrExp + "' is not a numeric vector!");
+  }
+
   public Object collect(String objOrExp) throws RSessionWrapperException {
     return this.collect(objOrExp, false, true);
   }
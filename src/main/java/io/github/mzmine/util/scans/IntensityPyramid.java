@@ -0,0 +1,371 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.util.scans;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import javax.annotation.Nonnull;
+import com.google.common.collect.Range;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.Scan;
+
+/**
+ * Multi-resolution summary of the maximum intensities of a sequence of scans, used to find the
+ * maximum intensity inside an RT x m/z rectangle (e.g. a pixel of the 2D plot) without reading
+ * all data points of the scans. The finest level divides the scans into at most MAX_COLUMNS
+ * columns of consecutive scans and the m/z range into MZ_BINS bins, and stores the maximum
+ * intensity of each tile. Each further level halves the number of columns and bins.
+ *
+ * Queries are exact: tiles completely inside the rectangle are read from the coarsest possible
+ * level, the scans of tiles of the finest level which are only partly inside are checked by the
+ * caller. Tiles whose maximum is not above the maximum found so far are skipped, so usually only
+ * a few scans have to be read.
+ *
+ * The pyramid of all scans of an MS level of a raw data file is created by
+ * RawDataFile.getIntensityPyramid(). It can be written to a file, so it only has to be built once.
+ */
+public class IntensityPyramid {
+
+  /**
+   * Maximum intensity of the data points of a scan inside an m/z range
+   */
+  @FunctionalInterface
+  public interface ScanMaxIntensity {
+    double getMaxIntensity(int scanIndex, double mzMin, double mzMax);
+  }
+
+  private static final int MAX_COLUMNS = 2048;
+  private static final int MZ_BINS = 1024;
+
+  // Identifies the file format, see writeToFile()
+  private static final int FILE_MAGIC = 0x4d5a4950, FILE_VERSION = 1;
+
+  private final int totalScans, scansPerColumn;
+  private final double mzMin, mzMax, binWidth;
+
+  // Data points of each scan: lowest and highest m/z, largest m/z gap between two neighboring data
+  // points and the maximum intensity
+  private final double scanMinMZ[], scanMaxMZ[], scanMaxGap[], scanMaxIntensity[];
+
+  // Maximum intensities of each level, tile (column, bin) at column * bins[level] + bin
+  private final float levels[][];
+  private final int columns[], bins[];
+
+  /**
+   * Builds the pyramid of all scans of the given MS level, in the order of
+   * RawDataFile.getScanNumbers(msLevel)
+   */
+  public IntensityPyramid(@Nonnull RawDataFile dataFile, int msLevel) {
+    this(getScans(dataFile, msLevel), dataFile.getDataMZRange(msLevel));
+  }
+
+  /**
+   * Builds the pyramid of the given scans. Data points outside of the m/z range are ignored.
+   */
+  public IntensityPyramid(@Nonnull Scan scans[], @Nonnull Range<Double> mzRange) {
+
+    this(scans.length, mzRange.lowerEndpoint(), mzRange.upperEndpoint(),
+        Math.max(1, (scans.length + MAX_COLUMNS - 1) / MAX_COLUMNS));
+    levels[0] = new float[columns[0] * bins[0]];
+
+    double mzValues[] = new double[0], intensityValues[] = new double[0];
+    for (int index = 0; index < totalScans; index++) {
+      final Scan scan = scans[index];
+      if (scan.getNumberOfDataPoints() > mzValues.length) {
+        mzValues = new double[scan.getNumberOfDataPoints()];
+        intensityValues = new double[scan.getNumberOfDataPoints()];
+      }
+      final int numOfDataPoints = scan.getDataPoints(mzValues, intensityValues);
+      addScan(index, mzValues, intensityValues, numOfDataPoints);
+    }
+
+    for (int level = 1; level < levels.length; level++) {
+      final float finer[] = levels[level - 1];
+      final float coarser[] = new float[columns[level] * bins[level]];
+      final int finerBins = bins[level - 1];
+      for (int column = 0; column < columns[level - 1]; column++) {
+        for (int bin = 0; bin < finerBins; bin++) {
+          final int target = (column / 2) * bins[level] + bin / 2;
+          coarser[target] = Math.max(coarser[target], finer[column * finerBins + bin]);
+        }
+      }
+      levels[level] = coarser;
+    }
+  }
+
+  private IntensityPyramid(int totalScans, double mzMin, double mzMax, int scansPerColumn) {
+
+    this.totalScans = totalScans;
+    this.scansPerColumn = scansPerColumn;
+    this.mzMin = mzMin;
+    this.mzMax = mzMax;
+    binWidth = (mzMax - mzMin) / MZ_BINS;
+
+    scanMinMZ = new double[totalScans];
+    scanMaxMZ = new double[totalScans];
+    scanMaxGap = new double[totalScans];
+    scanMaxIntensity = new double[totalScans];
+
+    int numOfLevels = 1;
+    int c = (totalScans + scansPerColumn - 1) / scansPerColumn, b = MZ_BINS;
+    while (c > 1 || b > 1) {
+      c = (c + 1) / 2;
+      b = (b + 1) / 2;
+      numOfLevels++;
+    }
+
+    levels = new float[numOfLevels][];
+    columns = new int[numOfLevels];
+    bins = new int[numOfLevels];
+    columns[0] = (totalScans + scansPerColumn - 1) / scansPerColumn;
+    bins[0] = MZ_BINS;
+    for (int level = 1; level < numOfLevels; level++) {
+      columns[level] = (columns[level - 1] + 1) / 2;
+      bins[level] = (bins[level - 1] + 1) / 2;
+    }
+  }
+
+  private static Scan[] getScans(RawDataFile dataFile, int msLevel) {
+    final int scanNumbers[] = dataFile.getScanNumbers(msLevel);
+    Scan scans[] = new Scan[scanNumbers.length];
+    for (int i = 0; i < scanNumbers.length; i++)
+      scans[i] = dataFile.getScan(scanNumbers[i]);
+    return scans;
+  }
+
+  private void addScan(int scanIndex, double mzValues[], double intensityValues[],
+      int numOfDataPoints) {
+
+    scanMinMZ[scanIndex] = numOfDataPoints > 0 ? mzValues[0] : Double.NaN;
+    scanMaxMZ[scanIndex] = numOfDataPoints > 0 ? mzValues[numOfDataPoints - 1] : Double.NaN;
+    for (int i = 0; i < numOfDataPoints; i++) {
+      if (i > 0)
+        scanMaxGap[scanIndex] = Math.max(scanMaxGap[scanIndex], mzValues[i] - mzValues[i - 1]);
+      scanMaxIntensity[scanIndex] = Math.max(scanMaxIntensity[scanIndex], intensityValues[i]);
+    }
+
+    if (binWidth <= 0)
+      return;
+
+    final float level[] = levels[0];
+    final int offset = (scanIndex / scansPerColumn) * bins[0];
+    for (int i = 0; i < numOfDataPoints; i++) {
+      final double mz = mzValues[i];
+      if (mz < mzMin || mz > mzMax)
+        continue;
+      final int bin = Math.min(bins[0] - 1, (int) ((mz - mzMin) / binWidth));
+      if (intensityValues[i] > level[offset + bin])
+        level[offset + bin] = (float) intensityValues[i];
+    }
+  }
+
+  /**
+   * Writes the pyramid to a file, see readFromFile()
+   */
+  public void writeToFile(@Nonnull File file) throws IOException {
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+      out.writeInt(FILE_MAGIC);
+      out.writeInt(FILE_VERSION);
+      out.writeInt(totalScans);
+      out.writeInt(scansPerColumn);
+      out.writeDouble(mzMin);
+      out.writeDouble(mzMax);
+      for (double values[] : new double[][] {scanMinMZ, scanMaxMZ, scanMaxGap, scanMaxIntensity}) {
+        for (double value : values)
+          out.writeDouble(value);
+      }
+      for (float level[] : levels) {
+        for (float value : level)
+          out.writeFloat(value);
+      }
+    }
+  }
+
+  /**
+   * Reads a pyramid written by writeToFile()
+   */
+  public static @Nonnull IntensityPyramid readFromFile(@Nonnull File file) throws IOException {
+    // Read into memory instead of mapping the file, so the file can be removed at any time
+    final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+    try {
+      if (buffer.getInt() != FILE_MAGIC || buffer.getInt() != FILE_VERSION)
+        throw new IOException(file + " is not an intensity pyramid file of this version");
+      final int totalScans = buffer.getInt(), scansPerColumn = buffer.getInt();
+      final double mzMin = buffer.getDouble(), mzMax = buffer.getDouble();
+      IntensityPyramid pyramid = new IntensityPyramid(totalScans, mzMin, mzMax, scansPerColumn);
+      // The views do not move the position of the buffer
+      for (double values[] : new double[][] {pyramid.scanMinMZ, pyramid.scanMaxMZ,
+          pyramid.scanMaxGap, pyramid.scanMaxIntensity}) {
+        buffer.asDoubleBuffer().get(values);
+        buffer.position(buffer.position() + values.length * Double.BYTES);
+      }
+      for (int level = 0; level < pyramid.levels.length; level++) {
+        final float values[] = new float[pyramid.columns[level] * pyramid.bins[level]];
+        buffer.asFloatBuffer().get(values);
+        buffer.position(buffer.position() + values.length * Float.BYTES);
+        pyramid.levels[level] = values;
+      }
+      return pyramid;
+    } catch (BufferUnderflowException e) {
+      throw new IOException(file + " is truncated", e);
+    }
+  }
+
+  /**
+   * Number of scans
+   */
+  public int size() {
+    return totalScans;
+  }
+
+  /**
+   * Maximum intensity of the data points of the scans firstScan ... lastScan inside the m/z range.
+   * Scans which have to be checked data point by data point are passed to scanMaxIntensity. The
+   * tiles store the maximum intensities in float precision.
+   */
+  public double getMaxIntensity(int firstScan, int lastScan, double mzMin, double mzMax,
+      @Nonnull ScanMaxIntensity scanMaxIntensity) {
+
+    final Query query = new Query(Math.max(0, firstScan), Math.min(totalScans - 1, lastScan),
+        mzMin, mzMax, scanMaxIntensity);
+    if (query.firstScan > query.lastScan || mzMax < this.mzMin || mzMin > this.mzMax)
+      return 0;
+
+    if (binWidth <= 0) {
+      for (int scan = query.firstScan; scan <= query.lastScan; scan++)
+        query.checkScan(scan);
+    } else {
+      final int top = levels.length - 1;
+      for (int column = 0; column < columns[top]; column++) {
+        for (int bin = 0; bin < bins[top]; bin++)
+          query.checkTile(top, column, bin);
+      }
+    }
+    return query.maxIntensity;
+  }
+
+  /**
+   * Checks whether the scan has a data point inside the m/z range
+   *
+   * @return true if the scan certainly has a data point inside the range, false if it has none or
+   *         this cannot be decided without reading the data points
+   */
+  public boolean hasDataPointInRange(int scanIndex, double mzMin, double mzMax) {
+    final double first = scanMinMZ[scanIndex], last = scanMaxMZ[scanIndex];
+    if (Double.isNaN(first) || mzMax < first || mzMin > last)
+      return false;
+    if (mzMin <= first || mzMax >= last)
+      return true;
+    // A range which is wider than every gap between two data points contains a data point
+    final double margin = 4 * Math.ulp(Math.abs(last));
+    return mzMax - mzMin > scanMaxGap[scanIndex] + margin;
+  }
+
+  /**
+   * State of a running getMaxIntensity() call
+   */
+  private class Query {
+
+    private final int firstScan, lastScan;
+    private final double queryMZMin, queryMZMax;
+    private final ScanMaxIntensity scanFunction;
+    private final boolean checkedScans[];
+    private double maxIntensity = 0;
+
+    private Query(int firstScan, int lastScan, double queryMZMin, double queryMZMax,
+        ScanMaxIntensity scanMaxIntensity) {
+      this.firstScan = firstScan;
+      this.lastScan = lastScan;
+      this.queryMZMin = queryMZMin;
+      this.queryMZMax = queryMZMax;
+      this.scanFunction = scanMaxIntensity;
+      checkedScans = new boolean[Math.max(0, lastScan - firstScan + 1)];
+    }
+
+    private void checkTile(int level, int column, int bin) {
+
+      final float tileMax = levels[level][column * bins[level] + bin];
+      if (tileMax <= maxIntensity)
+        return;
+
+      final int tileFirstScan = (column * scansPerColumn) << level;
+      final int tileLastScan =
+          Math.min(totalScans, ((column + 1) * scansPerColumn) << level) - 1;
+      final double tileMZMin = mzMin + binWidth * (bin << level);
+      final double tileMZMax = mzMin + binWidth * Math.min(bins[0], (bin + 1) << level);
+      if (tileLastScan < firstScan || tileFirstScan > lastScan || tileMZMax < queryMZMin
+          || tileMZMin > queryMZMax)
+        return;
+
+      // The margin makes sure that data points which are assigned to a bin by rounding are
+      // inside the range
+      final double margin = binWidth * 1e-6;
+      if (tileFirstScan >= firstScan && tileLastScan <= lastScan
+          && tileMZMin - margin >= queryMZMin && tileMZMax + margin <= queryMZMax) {
+        maxIntensity = tileMax;
+        return;
+      }
+
+      if (level == 0) {
+        for (int scan = Math.max(firstScan, tileFirstScan); scan <= Math.min(lastScan,
+            tileLastScan); scan++)
+          checkScan(scan);
+        return;
+      }
+
+      // Children with the higher maximum first, to skip as many tiles as possible
+      final float finer[] = levels[level - 1];
+      final int finerBins = bins[level - 1];
+      int children[] = new int[4];
+      int numOfChildren = 0;
+      for (int c = column * 2; c <= Math.min(column * 2 + 1, columns[level - 1] - 1); c++) {
+        for (int b = bin * 2; b <= Math.min(bin * 2 + 1, finerBins - 1); b++)
+          children[numOfChildren++] = c * finerBins + b;
+      }
+      for (int i = 1; i < numOfChildren; i++) {
+        final int child = children[i];
+        int j = i - 1;
+        while (j >= 0 && finer[children[j]] < finer[child]) {
+          children[j + 1] = children[j];
+          j--;
+        }
+        children[j + 1] = child;
+      }
+      for (int i = 0; i < numOfChildren; i++)
+        checkTile(level - 1, children[i] / finerBins, children[i] % finerBins);
+    }
+
+    private void checkScan(int scan) {
+      if (checkedScans[scan - firstScan] || scanMaxIntensity[scan] <= maxIntensity)
+        return;
+      checkedScans[scan - firstScan] = true;
+      maxIntensity = Math.max(maxIntensity,
+          scanFunction.getMaxIntensity(scan, queryMZMin, queryMZMax));
+    }
+
+  }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.util.scans;
+
+import java.util.Arrays;
+import javax.annotation.Nonnull;
+import com.google.common.collect.Range;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.Scan;
+import io.github.mzmine.util.ArrayUtils;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+
+/**
+ * Index of the MS2 scans of a raw data file, sorted by precursor m/z. The MS2 scans with a
+ * precursor m/z and retention time inside given ranges are found by binary search over the
+ * precursor m/z instead of checking all scans of the file.
+ *
+ * The index is immutable, see RawDataFile.getMS2PrecursorIndex().
+ */
+public class MS2PrecursorIndex {
+
+  // Sorted by precursor m/z
+  private final double precursorMZ[];
+  private final double rt[];
+  private final int scanNumbers[];
+
+  public MS2PrecursorIndex(@Nonnull RawDataFile dataFile) {
+
+    final int numbers[] = dataFile.getScanNumbers(2);
+    final double mz[] = new double[numbers.length];
+    final double scanRT[] = new double[numbers.length];
+    for (int i = 0; i < numbers.length; i++) {
+      Scan scan = dataFile.getScan(numbers[i]);
+      mz[i] = scan.getPrecursorMZ();
+      scanRT[i] = scan.getRetentionTime();
+    }
+
+    final int order[] = new int[numbers.length];
+    for (int i = 0; i < order.length; i++)
+      order[i] = i;
+    IntArrays.quickSort(order, (a, b) -> Double.compare(mz[a], mz[b]));
+
+    precursorMZ = new double[numbers.length];
+    rt = new double[numbers.length];
+    scanNumbers = new int[numbers.length];
+    for (int i = 0; i < order.length; i++) {
+      precursorMZ[i] = mz[order[i]];
+      rt[i] = scanRT[order[i]];
+      scanNumbers[i] = numbers[order[i]];
+    }
+  }
+
+  /**
+   * Number of MS2 scans
+   */
+  public int size() {
+    return scanNumbers.length;
+  }
+
+  /**
+   * Finds all MS2 scans with precursor m/z and retention time inside the given ranges
+   *
+   * @return sorted array of scan numbers, never returns null
+   */
+  public @Nonnull int[] getScanNumbers(@Nonnull Range<Double> mzRange,
+      @Nonnull Range<Double> rtRange) {
+
+    IntArrayList result = new IntArrayList();
+    int i = mzRange.hasLowerBound()
+        ? ArrayUtils.firstIndexNotBelow(precursorMZ, mzRange.lowerEndpoint())
+        : 0;
+    for (; i < precursorMZ.length; i++) {
+      if (mzRange.hasUpperBound() && precursorMZ[i] > mzRange.upperEndpoint())
+        break;
+      if (mzRange.contains(precursorMZ[i]) && rtRange.contains(rt[i]))
+        result.add(scanNumbers[i]);
+    }
+
+    final int numbers[] = result.toIntArray();
+    Arrays.sort(numbers);
+    return numbers;
+  }
+
+}
@@ -116,15 +116,24 @@ public class ScanUtils {
   public static @Nonnull DataPoint findBasePeak(@Nonnull Scan scan,
       @Nonnull Range<Double> mzRange) {
 
-    DataPoint dataPoints[] = scan.getDataPointsByMass(mzRange);
-    DataPoint basePeak = null;
-
-    for (DataPoint dp : dataPoints) {
-      if ((basePeak == null) || (dp.getIntensity() > basePeak.getIntensity()))
-        basePeak = dp;
+    final double mzValues[] = new double[scan.getNumberOfDataPoints()];
+    final double intensityValues[] = new double[mzValues.length];
+    final int numOfDataPoints = scan.getDataPoints(mzValues, intensityValues);
+
+    // Compare primitives instead of boxing every m/z value for Range.contains()
+    final double mzMin = mzRange.lowerEndpoint(), mzMax = mzRange.upperEndpoint();
+    int basePeakIndex = -1;
+    for (int i = 0; i < numOfDataPoints; i++) {
+      if (mzValues[i] < mzMin || mzValues[i] > mzMax)
+        continue;
+      if ((basePeakIndex < 0) || (intensityValues[i] > intensityValues[basePeakIndex]))
+        basePeakIndex = i;
     }
 
-    return basePeak;
+    if (basePeakIndex < 0)
+      return null;
+
+    return new SimpleDataPoint(mzValues[basePeakIndex], intensityValues[basePeakIndex]);
   }
 
   /**
@@ -136,9 +145,15 @@ public class ScanUtils {
    */
   public static double calculateTIC(Scan scan, Range<Double> mzRange) {
 
+    final double mzValues[] = new double[scan.getNumberOfDataPoints()];
+    final double intensityValues[] = new double[mzValues.length];
+    final int numOfDataPoints = scan.getDataPoints(mzValues, intensityValues);
+
+    final double mzMin = mzRange.lowerEndpoint(), mzMax = mzRange.upperEndpoint();
     double tic = 0.0;
-    for (final DataPoint dataPoint : scan.getDataPointsByMass(mzRange)) {
-      tic += dataPoint.getIntensity();
+    for (int i = 0; i < numOfDataPoints; i++) {
+      if (mzValues[i] >= mzMin && mzValues[i] <= mzMax)
+        tic += intensityValues[i];
     }
     return tic;
   }
@@ -466,20 +481,31 @@ public class ScanUtils {
     double[] intensityValues = new double[dataPoints.length];
     double[] mzValues = new double[dataPoints.length];
 
+    for (int i = 0; i < dataPoints.length; i++) {
+      intensityValues[i] = dataPoints[i].getIntensity();
+      mzValues[i] = dataPoints[i].getMZ();
+    }
+
+    return detectSpectrumType(mzValues, intensityValues, dataPoints.length);
+  }
+
+  /**
+   * Same as {@link #detectSpectrumType(DataPoint[])}, for a spectrum given by the first size values
+   * of the m/z and intensity arrays.
+   */
+  public static MassSpectrumType detectSpectrumType(@Nonnull double[] mzValues,
+      @Nonnull double[] intensityValues, int size) {
+
     // If the spectrum has less than 5 data points, it should be centroided.
-    if (dataPoints.length < 5)
+    if (size < 5)
       return MassSpectrumType.CENTROIDED;
 
     int basePeakIndex = 0;
     boolean hasZeroDataPoint = false;
 
     // Go through the data points and find the highest one
-    int size = dataPoints.length;
     for (int i = 0; i < size; i++) {
 
-      intensityValues[i] = dataPoints[i].getIntensity();
-      mzValues[i] = dataPoints[i].getMZ();
-
       // Update the maxDataPointIndex accordingly
       if (intensityValues[i] > intensityValues[basePeakIndex])
         basePeakIndex = i;
@@ -534,24 +560,21 @@ public class ScanUtils {
     int bestFragmentScan = -1;
     double topBasePeak = 0;
 
-    int[] fragmentScanNumbers = dataFile.getScanNumbers(2, rtRange);
+    int[] fragmentScanNumbers = dataFile.getMS2PrecursorIndex().getScanNumbers(mzRange, rtRange);
 
     for (int number : fragmentScanNumbers) {
 
       Scan scan = dataFile.getScan(number);
 
-      if (mzRange.contains(scan.getPrecursorMZ())) {
-
-        DataPoint basePeak = scan.getHighestDataPoint();
+      DataPoint basePeak = scan.getHighestDataPoint();
 
-        // If there is no peak in the scan, basePeak can be null
-        if (basePeak == null)
-          continue;
+      // If there is no peak in the scan, basePeak can be null
+      if (basePeak == null)
+        continue;
 
-        if (basePeak.getIntensity() > topBasePeak) {
-          bestFragmentScan = scan.getScanNumber();
-          topBasePeak = basePeak.getIntensity();
-        }
+      if (basePeak.getIntensity() > topBasePeak) {
+        bestFragmentScan = scan.getScanNumber();
+        topBasePeak = basePeak.getIntensity();
       }
 
     }
@@ -571,24 +594,7 @@ public class ScanUtils {
     assert rtRange != null;
     assert mzRange != null;
 
-    int[] fragmentScanNumbers = dataFile.getScanNumbers(2, rtRange);
-    ArrayList<Integer> fragmentScanNumbersInMZRange = new ArrayList<Integer>();
-
-    for (int number : fragmentScanNumbers) {
-
-      Scan scan = dataFile.getScan(number);
-
-      if (mzRange.contains(scan.getPrecursorMZ())) {
-        fragmentScanNumbersInMZRange.add(number);
-      }
-    }
-    int[] resultScans = new int[fragmentScanNumbersInMZRange.size()];
-    if (resultScans.length > 0) {
-      resultScans = fragmentScanNumbersInMZRange.stream().mapToInt(i -> i).toArray();
-    } else {
-      resultScans = new int[] {};
-    }
-    return resultScans;
+    return dataFile.getMS2PrecursorIndex().getScanNumbers(mzRange, rtRange);
   }
 
   /**
@@ -833,9 +839,12 @@ public class ScanUtils {
         throw new MissingMassListException("", massListName);
 
       // minimum number of signals >= noiseLevel
+      final double mzValues[] = new double[massList.getNumberOfDataPoints()];
+      final double intensityValues[] = new double[mzValues.length];
+      final int numOfDataPoints = massList.getDataPoints(mzValues, intensityValues);
       int signals = 0;
-      for (DataPoint dp : massList.getDataPoints())
-        if (dp.getIntensity() >= noiseLevel)
+      for (int i = 0; i < numOfDataPoints; i++)
+        if (intensityValues[i] >= noiseLevel)
           signals++;
       if (signals >= minNumberOfSignals)
         filtered.add(scan);
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.util.scans;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import javax.annotation.Nonnull;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.Scan;
+
+/**
+ * Reads the data points of consecutive scans for algorithms which process a sliding window of
+ * scans, such as scan smoothing. Each scan is decoded only once: the scans of the current window
+ * are kept in a ring buffer of primitive m/z and intensity arrays, and the following scans are
+ * read ahead on a background thread. The arrays of scans which left the window are reused.
+ *
+ * The window is set by moveTo(). It usually only moves forward. Scans which already left the
+ * window are read again if a later window starts before them. The arrays returned for a scan are
+ * valid until it leaves the window, and contain getNumberOfDataPoints() values.
+ *
+ * Instances are not thread-safe and have to be closed to stop the background thread.
+ */
+public class ScanWindowReader implements AutoCloseable {
+
+  // Number of scans read ahead of the window
+  private static final int PREFETCH_SCANS = 32;
+
+  private final RawDataFile dataFile;
+  private final int scanNumbers[];
+
+  // Scan index i of the window first ... last is stored in slot i % slots.length
+  private ScanData slots[];
+  private int first = 0, last = -1;
+
+  // Scans read by the background thread, in scan order
+  private final BlockingQueue<ScanData> prefetched = new ArrayBlockingQueue<>(PREFETCH_SCANS);
+  private final ConcurrentLinkedQueue<ScanData> recycled = new ConcurrentLinkedQueue<>();
+  private int nextPrefetched = 0;
+  private final Thread prefetchThread;
+  private volatile boolean closed = false;
+
+  /**
+   * @param dataFile raw data file
+   * @param scanNumbers the scans which are processed, in processing order. Window positions are
+   *        indexes into this array.
+   */
+  public ScanWindowReader(@Nonnull RawDataFile dataFile, @Nonnull int scanNumbers[]) {
+    this.dataFile = dataFile;
+    this.scanNumbers = scanNumbers;
+    slots = new ScanData[16];
+
+    prefetchThread = new Thread(this::prefetch, "Scan reader for " + dataFile.getName());
+    prefetchThread.setDaemon(true);
+    prefetchThread.start();
+  }
+
+  /**
+   * Makes the scans at positions first ... last available
+   */
+  public void moveTo(int first, int last) {
+
+    if (first < 0 || last >= scanNumbers.length || first > last)
+      throw new IllegalArgumentException("Invalid scan window " + first + " - " + last);
+
+    // Release the scans which left the window
+    for (int i = this.first; i <= this.last; i++) {
+      if (i < first || i > last)
+        release(i);
+    }
+
+    final int oldFirst = this.first, oldLast = this.last;
+    final boolean overlaps = oldLast >= oldFirst && first <= oldLast && last >= oldFirst;
+    this.first = first;
+    this.last = last;
+    ensureCapacity(last - first + 1);
+
+    for (int i = first; i <= last; i++) {
+      if (overlaps && i >= oldFirst && i <= oldLast)
+        continue;
+      slots[i % slots.length] = take(i);
+    }
+  }
+
+  /**
+   * Number of data points of the scan at the given position of the window
+   */
+  public int getNumberOfDataPoints(int position) {
+    return get(position).numOfDataPoints;
+  }
+
+  /**
+   * m/z values of the scan at the given position of the window, sorted. The array may be longer
+   * than the number of data points.
+   */
+  public @Nonnull double[] getMzValues(int position) {
+    return get(position).mzValues;
+  }
+
+  /**
+   * Intensity values of the scan at the given position of the window. The array may be longer than
+   * the number of data points.
+   */
+  public @Nonnull double[] getIntensityValues(int position) {
+    return get(position).intensityValues;
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    prefetchThread.interrupt();
+  }
+
+  private ScanData get(int position) {
+    if (position < first || position > last)
+      throw new IllegalArgumentException(
+          "Scan " + position + " is outside of the window " + first + " - " + last);
+    return slots[position % slots.length];
+  }
+
+  private void ensureCapacity(int size) {
+    if (size <= slots.length)
+      return;
+    ScanData newSlots[] = new ScanData[Math.max(size, slots.length * 2)];
+    for (ScanData data : slots) {
+      if (data != null)
+        newSlots[data.position % newSlots.length] = data;
+    }
+    slots = newSlots;
+  }
+
+  private void release(int position) {
+    final int slot = position % slots.length;
+    if (slots[slot] != null && slots[slot].position == position) {
+      recycled.add(slots[slot]);
+      slots[slot] = null;
+    }
+  }
+
+  /**
+   * Returns the scan at the given position, from the background thread if it was not returned yet
+   */
+  private ScanData take(int position) {
+
+    // The scan already left an earlier window, read it again
+    if (position < nextPrefetched)
+      return read(position);
+
+    try {
+      while (true) {
+        final ScanData data = prefetched.take();
+        if (data.failure != null)
+          throw new IllegalStateException("Could not read scans of " + dataFile, data.failure);
+        nextPrefetched = data.position + 1;
+        if (data.position == position)
+          return data;
+        // Skipped by the window
+        recycled.add(data);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while reading scans of " + dataFile, e);
+    }
+  }
+
+  private void prefetch() {
+    try {
+      for (int i = 0; i < scanNumbers.length && !closed; i++)
+        prefetched.put(read(i));
+    } catch (InterruptedException e) {
+      // Closed
+    } catch (Throwable t) {
+      ScanData failed = new ScanData();
+      failed.failure = t;
+      try {
+        prefetched.put(failed);
+      } catch (InterruptedException e) {
+        // Closed
+      }
+    }
+  }
+
+  private ScanData read(int position) {
+
+    ScanData data = recycled.poll();
+    if (data == null)
+      data = new ScanData();
+    data.position = position;
+
+    final Scan scan = dataFile.getScan(scanNumbers[position]);
+    if (scan == null) {
+      data.numOfDataPoints = 0;
+      return data;
+    }
+
+    final int numOfDataPoints = scan.getNumberOfDataPoints();
+    if (data.mzValues.length < numOfDataPoints) {
+      data.mzValues = new double[numOfDataPoints];
+      data.intensityValues = new double[numOfDataPoints];
+    }
+    data.numOfDataPoints = scan.getDataPoints(data.mzValues, data.intensityValues);
+    return data;
+  }
+
+  private static class ScanData {
+    private int position;
+    private int numOfDataPoints;
+    private double mzValues[] = new double[0];
+    private double intensityValues[] = new double[0];
+    private Throwable failure;
+  }
+
+}
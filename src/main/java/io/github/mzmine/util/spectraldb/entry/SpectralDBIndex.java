@@ -0,0 +1,179 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.util.spectraldb.entry;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.UnaryOperator;
+import java.util.stream.IntStream;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import com.google.common.collect.Range;
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import io.github.mzmine.util.ArrayUtils;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+
+/**
+ * Search index of a spectral library. The entries are sorted by precursor m/z, so the candidates
+ * for a precursor m/z range are found by binary search. The data points of each entry are
+ * (optionally) filtered once when the index is built and their m/z values are stored as sorted
+ * primitive arrays, which allows a cheap check of the number of matching signals before a spectral
+ * similarity is calculated.
+ *
+ * The index is immutable and can be shared by multiple threads.
+ *
+ */
+public class SpectralDBIndex {
+
+  private final SpectralDBEntry entries[];
+
+  // data points of each entry, after the filter was applied
+  private final DataPoint dataPoints[][];
+
+  // m/z values of the data points of each entry, sorted ascending
+  private final double mzValues[][];
+
+  // positions of all entries with a precursor m/z, sorted by precursor m/z
+  private final int precursorOrder[];
+  private final double sortedPrecursorMZ[];
+
+  /**
+   * @param entries library entries
+   * @param dataPointsFilter applied once to the data points of each entry (e.g., deisotoping), may
+   *        be null
+   */
+  public SpectralDBIndex(@Nonnull List<SpectralDBEntry> entries,
+      @Nullable UnaryOperator<DataPoint[]> dataPointsFilter) {
+    this.entries = entries.toArray(new SpectralDBEntry[0]);
+    final int size = this.entries.length;
+
+    dataPoints = new DataPoint[size][];
+    mzValues = new double[size][];
+    IntStream.range(0, size).parallel().forEach(i -> {
+      DataPoint dps[] = this.entries[i].getDataPoints();
+      if (dps == null)
+        dps = new DataPoint[0];
+      if (dataPointsFilter != null)
+        dps = dataPointsFilter.apply(dps);
+      double mz[] = new double[dps.length];
+      for (int j = 0; j < dps.length; j++)
+        mz[j] = dps[j].getMZ();
+      Arrays.sort(mz);
+      dataPoints[i] = dps;
+      mzValues[i] = mz;
+    });
+
+    int order[] = new int[size];
+    int count = 0;
+    for (int i = 0; i < size; i++) {
+      Double precursorMZ = this.entries[i].getPrecursorMZ();
+      if (precursorMZ != null && !precursorMZ.isNaN())
+        order[count++] = i;
+    }
+    order = Arrays.copyOf(order, count);
+    final SpectralDBEntry sorted[] = this.entries;
+    IntArrays.mergeSort(order,
+        (a, b) -> Double.compare(sorted[a].getPrecursorMZ(), sorted[b].getPrecursorMZ()));
+    precursorOrder = order;
+    sortedPrecursorMZ = new double[count];
+    for (int i = 0; i < count; i++)
+      sortedPrecursorMZ[i] = this.entries[order[i]].getPrecursorMZ();
+  }
+
+  /**
+   * Number of library entries
+   */
+  public int size() {
+    return entries.length;
+  }
+
+  public SpectralDBEntry getEntry(int index) {
+    return entries[index];
+  }
+
+  /**
+   * The filtered data points of an entry. The array is shared, callers must not modify it (or sort
+   * it in place).
+   */
+  public DataPoint[] getDataPoints(int index) {
+    return dataPoints[index];
+  }
+
+  /**
+   * The m/z values of the filtered data points of an entry, sorted ascending
+   */
+  public double[] getMZValues(int index) {
+    return mzValues[index];
+  }
+
+  /**
+   * Positions of all entries with a precursor m/z inside the given range, in library order
+   */
+  public int[] getEntriesByPrecursorMZ(@Nonnull Range<Double> precursorMZRange) {
+    final int start = precursorMZRange.hasLowerBound()
+        ? ArrayUtils.firstIndexNotBelow(sortedPrecursorMZ, precursorMZRange.lowerEndpoint())
+        : 0;
+
+    int result[] = new int[16];
+    int count = 0;
+    for (int i = start; i < sortedPrecursorMZ.length; i++) {
+      if (!precursorMZRange.contains(sortedPrecursorMZ[i])) {
+        if (precursorMZRange.hasUpperBound()
+            && sortedPrecursorMZ[i] > precursorMZRange.upperEndpoint())
+          break;
+        continue;
+      }
+      if (count == result.length)
+        result = Arrays.copyOf(result, count * 2);
+      result[count++] = precursorOrder[i];
+    }
+
+    result = Arrays.copyOf(result, count);
+    Arrays.sort(result);
+    return result;
+  }
+
+  /**
+   * Counts the signals of a library entry that have a signal of the query within the m/z tolerance
+   * of the library signal. This is the maximum number of signals that can be aligned by
+   * {@link io.github.mzmine.util.scans.ScanAlignment#align(MZTolerance, DataPoint[], DataPoint[])},
+   * so entries with fewer matching signals than the minimum can be skipped without calculating the
+   * similarity.
+   *
+   * @param index library entry
+   * @param queryMZValues m/z values of the query, sorted ascending
+   * @param mzTol m/z tolerance of the alignment
+   * @param stopAt stop counting when this number of matching signals was reached
+   * @return number of matching signals, at most stopAt
+   */
+  public int countMatchingSignals(int index, double queryMZValues[], MZTolerance mzTol,
+      int stopAt) {
+    final double library[] = mzValues[index];
+    int count = 0;
+    for (int i = 0; i < library.length && count < stopAt; i++) {
+      Range<Double> range = mzTol.getToleranceRange(library[i]);
+      final int first = ArrayUtils.firstIndexNotBelow(queryMZValues, range.lowerEndpoint());
+      if (first < queryMZValues.length && range.contains(queryMZValues[first]))
+        count++;
+    }
+    return count;
+  }
+
+}
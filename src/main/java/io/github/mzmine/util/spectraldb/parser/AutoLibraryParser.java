@@ -20,13 +20,15 @@ package io.github.mzmine.util.spectraldb.parser;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.util.files.FileTypeFilter;
 
 /**
- * Auto detects library format
+ * Auto detects library format. Libraries are read from their binary cache if it is up to date,
+ * otherwise the cache is written while the library is parsed.
  * 
  * @author Robin Schmid
  *
@@ -42,6 +44,23 @@ public class AutoLibraryParser extends SpectralDBParser {
   @Override
   public boolean parse(AbstractTask mainTask, File dataBaseFile)
       throws UnsupportedFormatException, IOException {
+    // read the binary cache of the library
+    if (SpectralDBCacheParser.isCacheValid(dataBaseFile)) {
+      SpectralDBCacheParser cacheParser = new SpectralDBCacheParser(bufferEntries, processor);
+      try {
+        return cacheParser.parse(mainTask, dataBaseFile);
+      } catch (IOException | RuntimeException e) {
+        // remove the unreadable cache, it is written again while the library is parsed
+        File cacheFile = SpectralDBCacheParser.getCacheFile(dataBaseFile);
+        logger.log(Level.WARNING, "Cannot read spectral library cache " + cacheFile, e);
+        if (!cacheFile.delete())
+          logger.warning("Cannot delete spectral library cache " + cacheFile);
+        // entries which were passed on cannot be taken back
+        if (cacheParser.hasPassedOnEntries())
+          throw e;
+      }
+    }
+
     FileTypeFilter json = new FileTypeFilter("json", "");
     FileTypeFilter msp = new FileTypeFilter("msp", "");
     FileTypeFilter mgf = new FileTypeFilter("mgf", "");
@@ -54,14 +73,19 @@ public class AutoLibraryParser extends SpectralDBParser {
       for (SpectralDBParser p : parser) {
         if (mainTask.isCanceled())
           return false;
+        SpectralDBCacheWriter cacheWriter = createCacheWriter(p, dataBaseFile);
         try {
           boolean state = p.parse(mainTask, dataBaseFile);
-          if (state)
+          if (state) {
+            commitCache(mainTask, cacheWriter);
             return state;
-          else
+          } else {
+            discardCache(cacheWriter);
             continue;
+          }
         } catch (Exception ex) {
           // do nothing and try next json format
+          discardCache(cacheWriter);
         }
       }
     } else {
@@ -81,9 +105,19 @@ public class AutoLibraryParser extends SpectralDBParser {
       }
 
       // parse the file
-      boolean state = parser.parse(mainTask, dataBaseFile);
-      if (state)
+      SpectralDBCacheWriter cacheWriter = createCacheWriter(parser, dataBaseFile);
+      boolean state;
+      try {
+        state = parser.parse(mainTask, dataBaseFile);
+      } catch (IOException | RuntimeException e) {
+        discardCache(cacheWriter);
+        throw e;
+      }
+      if (state) {
+        commitCache(mainTask, cacheWriter);
         return state;
+      }
+      discardCache(cacheWriter);
     }
     if (mainTask.isCanceled())
       return false;
@@ -92,4 +126,31 @@ public class AutoLibraryParser extends SpectralDBParser {
           "Format not supported: " + dataBaseFile.getAbsolutePath()));
   }
 
+  /**
+   * Lets the parser pass all entries through a cache writer
+   *
+   * @return the cache writer or null if the cache cannot be written
+   */
+  private SpectralDBCacheWriter createCacheWriter(SpectralDBParser parser, File dataBaseFile) {
+    SpectralDBCacheWriter cacheWriter = SpectralDBCacheWriter.create(dataBaseFile, processor);
+    if (cacheWriter != null)
+      parser.processor = cacheWriter;
+    return cacheWriter;
+  }
+
+  private void commitCache(AbstractTask mainTask, SpectralDBCacheWriter cacheWriter) {
+    if (cacheWriter == null)
+      return;
+    // a canceled task may have stopped parsing before the end of the file
+    if (mainTask.isCanceled())
+      cacheWriter.discard();
+    else
+      cacheWriter.commit();
+  }
+
+  private void discardCache(SpectralDBCacheWriter cacheWriter) {
+    if (cacheWriter != null)
+      cacheWriter.discard();
+  }
+
 }
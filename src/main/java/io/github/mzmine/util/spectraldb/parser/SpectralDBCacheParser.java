@@ -0,0 +1,262 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.util.spectraldb.parser;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.logging.Logger;
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.datamodel.impl.SimpleDataPoint;
+import io.github.mzmine.taskcontrol.AbstractTask;
+import io.github.mzmine.util.spectraldb.entry.DBEntryField;
+import io.github.mzmine.util.spectraldb.entry.SpectralDBEntry;
+
+/**
+ * Reads the binary cache of a spectral library, which is written by {@link SpectralDBCacheWriter}
+ * next to the library file on the first import. The cache is only valid as long as the size and
+ * the modification time of the library file did not change.
+ *
+ * Cache file layout (big endian): magic number, format version, size and modification time of the
+ * library file, table of the DBEntryField names, followed by the entries. Each entry consists of
+ * its metadata fields (index in the field table, type tag, value), the number of data points, and
+ * the m/z and intensity values as two blocks of doubles. The file is read through a memory-mapped
+ * window, so the data point blocks are copied directly into the arrays.
+ *
+ */
+public class SpectralDBCacheParser extends SpectralDBParser {
+
+  private static Logger logger = Logger.getLogger(SpectralDBCacheParser.class.getName());
+
+  static final int MAGIC = 0x4d5a4c43; // "MZLC"
+  static final int VERSION = 1;
+  static final String CACHE_FILE_EXTENSION = ".mzlibcache";
+
+  static final byte TYPE_STRING = 'S', TYPE_DOUBLE = 'D', TYPE_FLOAT = 'F', TYPE_INTEGER = 'I',
+      TYPE_LONG = 'L';
+
+  // size of the memory-mapped window
+  private static final int WINDOW_SIZE = 1 << 26;
+
+  private FileChannel channel;
+  private MappedByteBuffer window;
+  private long windowPosition;
+  private boolean entriesPassedOn = false;
+
+  public SpectralDBCacheParser(int bufferEntries, LibraryEntryProcessor processor) {
+    super(bufferEntries, processor);
+  }
+
+  /**
+   * The cache file of a library file
+   */
+  public static File getCacheFile(File dataBaseFile) {
+    return new File(dataBaseFile.getParentFile(), dataBaseFile.getName() + CACHE_FILE_EXTENSION);
+  }
+
+  /**
+   * Checks if a complete cache of the current version exists for the library file and if the
+   * library file did not change since the cache was written
+   */
+  public static boolean isCacheValid(File dataBaseFile) {
+    File cacheFile = getCacheFile(dataBaseFile);
+    if (!cacheFile.isFile() || !dataBaseFile.isFile())
+      return false;
+    try (DataInputStream in = new DataInputStream(new FileInputStream(cacheFile))) {
+      return in.readInt() == MAGIC && in.readInt() == VERSION
+          && in.readLong() == dataBaseFile.length()
+          && in.readLong() == dataBaseFile.lastModified();
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Reads the cache. The structure of all entries is checked before the first entry is passed on,
+   * so a truncated or corrupt cache fails with an IOException before any entry was processed.
+   */
+  @Override
+  public boolean parse(AbstractTask mainTask, File dataBaseFile) throws IOException {
+    File cacheFile = getCacheFile(dataBaseFile);
+    logger.info("Reading spectral library cache " + cacheFile.getAbsolutePath());
+
+    try (RandomAccessFile raf = new RandomAccessFile(cacheFile, "r")) {
+      channel = raf.getChannel();
+      map(0, WINDOW_SIZE);
+
+      ensure(24);
+      if (window.getInt() != MAGIC || window.getInt() != VERSION)
+        throw new IOException("Invalid spectral library cache " + cacheFile);
+      window.getLong(); // library file size
+      window.getLong(); // library file modification time
+
+      // field table, fields which do not exist anymore are skipped
+      ensure(4);
+      final int numOfFields = window.getInt();
+      if (numOfFields < 0)
+        throw new IOException("Invalid field table in spectral library cache");
+      DBEntryField fieldTable[] = new DBEntryField[numOfFields];
+      for (int i = 0; i < fieldTable.length; i++) {
+        String name = readString();
+        for (DBEntryField f : DBEntryField.values()) {
+          if (f.name().equals(name))
+            fieldTable[i] = f;
+        }
+      }
+
+      final long entriesPosition = windowPosition + ((Buffer) window).position();
+      if (!readEntries(mainTask, fieldTable, false))
+        return false;
+
+      map(entriesPosition, WINDOW_SIZE);
+      entriesPassedOn = true;
+      if (!readEntries(mainTask, fieldTable, true))
+        return false;
+
+      // finish and process all entries
+      finish();
+      return true;
+    } finally {
+      channel = null;
+      window = null;
+    }
+  }
+
+  /**
+   * Whether parse() started to pass entries on to the processor. Only an error before this point
+   * leaves the processor untouched.
+   */
+  public boolean hasPassedOnEntries() {
+    return entriesPassedOn;
+  }
+
+  /**
+   * Reads all entries, from the current position to the end of the cache file
+   *
+   * @param addEntries if false, the entries are only checked and not passed on
+   * @return false if the main task was canceled
+   */
+  private boolean readEntries(AbstractTask mainTask, DBEntryField fieldTable[],
+      boolean addEntries) throws IOException {
+
+    while (windowPosition + ((Buffer) window).position() < channel.size()) {
+      // main task was canceled?
+      if (mainTask != null && mainTask.isCanceled()) {
+        return false;
+      }
+
+      ensure(4);
+      final int numOfFields = window.getInt();
+      if (numOfFields < 0)
+        throw new IOException("Invalid number of fields in spectral library cache");
+      Map<DBEntryField, Object> fields = new EnumMap<>(DBEntryField.class);
+      for (int i = 0; i < numOfFields; i++) {
+        ensure(5);
+        final int fieldIndex = window.getInt();
+        if (fieldIndex < 0 || fieldIndex >= fieldTable.length)
+          throw new IOException("Invalid field in spectral library cache");
+        DBEntryField field = fieldTable[fieldIndex];
+        Object value = readValue(window.get());
+        if (field != null)
+          fields.put(field, value);
+      }
+
+      ensure(4);
+      final int numOfDataPoints = window.getInt();
+      ensure(numOfDataPoints * 16L);
+      if (!addEntries) {
+        ((Buffer) window).position(((Buffer) window).position() + numOfDataPoints * 16);
+        continue;
+      }
+      double mzValues[] = new double[numOfDataPoints];
+      double intensityValues[] = new double[numOfDataPoints];
+      window.asDoubleBuffer().get(mzValues);
+      ((Buffer) window).position(((Buffer) window).position() + numOfDataPoints * 8);
+      window.asDoubleBuffer().get(intensityValues);
+      ((Buffer) window).position(((Buffer) window).position() + numOfDataPoints * 8);
+
+      DataPoint dps[] = new DataPoint[numOfDataPoints];
+      for (int i = 0; i < numOfDataPoints; i++)
+        dps[i] = new SimpleDataPoint(mzValues[i], intensityValues[i]);
+
+      addLibraryEntry(new SpectralDBEntry(fields, dps));
+    }
+    return true;
+  }
+
+  private Object readValue(byte type) throws IOException {
+    switch (type) {
+      case TYPE_STRING:
+        return readString();
+      case TYPE_DOUBLE:
+        ensure(8);
+        return window.getDouble();
+      case TYPE_FLOAT:
+        ensure(4);
+        return window.getFloat();
+      case TYPE_INTEGER:
+        ensure(4);
+        return window.getInt();
+      case TYPE_LONG:
+        ensure(8);
+        return window.getLong();
+      default:
+        throw new IOException("Unknown value type " + type + " in spectral library cache");
+    }
+  }
+
+  private String readString() throws IOException {
+    ensure(4);
+    final int length = window.getInt();
+    ensure(length);
+    byte bytes[] = new byte[length];
+    window.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Makes sure that the next numOfBytes bytes are inside the mapped window
+   */
+  private void ensure(long numOfBytes) throws IOException {
+    final long position = windowPosition + ((Buffer) window).position();
+    if (numOfBytes < 0 || position + numOfBytes > channel.size())
+      throw new IOException("Spectral library cache is truncated");
+    if (((Buffer) window).remaining() < numOfBytes) {
+      if (numOfBytes > Integer.MAX_VALUE)
+        throw new IOException("Spectral library cache entry is too large");
+      map(position, Math.max(WINDOW_SIZE, numOfBytes));
+    }
+  }
+
+  private void map(long position, long windowSize) throws IOException {
+    final long size = Math.min(windowSize, channel.size() - position);
+    window = channel.map(MapMode.READ_ONLY, position, size);
+    windowPosition = position;
+  }
+
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.util.spectraldb.parser;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.util.spectraldb.entry.DBEntryField;
+import io.github.mzmine.util.spectraldb.entry.SpectralDBEntry;
+
+/**
+ * Writes the binary cache of a spectral library while the library is parsed. All entries are
+ * written to a temporary file and passed on to the next processor. The cache file is only created
+ * by {@link #commit()}, after the library was parsed successfully. See
+ * {@link SpectralDBCacheParser} for the file layout.
+ *
+ */
+public class SpectralDBCacheWriter implements LibraryEntryProcessor {
+
+  private static Logger logger = Logger.getLogger(SpectralDBCacheWriter.class.getName());
+
+  private final File dataBaseFile, tmpFile;
+  private final long dataBaseFileLength, dataBaseFileLastModified;
+  private final LibraryEntryProcessor processor;
+  private DataOutputStream out;
+
+  private SpectralDBCacheWriter(File dataBaseFile, File tmpFile, LibraryEntryProcessor processor)
+      throws IOException {
+    this.dataBaseFile = dataBaseFile;
+    this.tmpFile = tmpFile;
+    this.processor = processor;
+    // remember the state of the library before it is parsed
+    dataBaseFileLength = dataBaseFile.length();
+    dataBaseFileLastModified = dataBaseFile.lastModified();
+
+    out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 16));
+    out.writeInt(SpectralDBCacheParser.MAGIC);
+    out.writeInt(SpectralDBCacheParser.VERSION);
+    out.writeLong(dataBaseFileLength);
+    out.writeLong(dataBaseFileLastModified);
+    DBEntryField fieldTable[] = DBEntryField.values();
+    out.writeInt(fieldTable.length);
+    for (DBEntryField field : fieldTable)
+      writeString(field.name());
+  }
+
+  /**
+   * Creates a cache writer for a library file
+   *
+   * @param dataBaseFile the library file
+   * @param processor receives all entries after they were written
+   * @return the writer or null if the cache cannot be written (e.g., the directory is read-only)
+   */
+  public static @Nullable SpectralDBCacheWriter create(File dataBaseFile,
+      LibraryEntryProcessor processor) {
+    File tmpFile = null;
+    try {
+      File cacheFile = SpectralDBCacheParser.getCacheFile(dataBaseFile);
+      tmpFile = File.createTempFile(cacheFile.getName(), ".tmp", cacheFile.getParentFile());
+      return new SpectralDBCacheWriter(dataBaseFile, tmpFile, processor);
+    } catch (IOException | SecurityException e) {
+      logger.info("Cannot create spectral library cache for " + dataBaseFile + ": " + e);
+      if (tmpFile != null)
+        tmpFile.delete();
+      return null;
+    }
+  }
+
+  @Override
+  public void processNextEntries(List<SpectralDBEntry> list, int alreadyProcessed) {
+    // write before passing the entries on, the processor may modify them in another thread
+    if (out != null) {
+      try {
+        for (SpectralDBEntry entry : list)
+          writeEntry(entry);
+      } catch (IOException e) {
+        logger.warning("Cannot write spectral library cache " + tmpFile + ": " + e);
+        discard();
+      }
+    }
+    processor.processNextEntries(list, alreadyProcessed);
+  }
+
+  /**
+   * Finishes the cache file. Call after the library was parsed completely.
+   */
+  public void commit() {
+    if (out == null)
+      return;
+    try {
+      out.close();
+      out = null;
+      // the library changed while it was parsed
+      if (dataBaseFile.length() != dataBaseFileLength
+          || dataBaseFile.lastModified() != dataBaseFileLastModified) {
+        discard();
+        return;
+      }
+      File cacheFile = SpectralDBCacheParser.getCacheFile(dataBaseFile);
+      Files.move(tmpFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      logger.info("Created spectral library cache " + cacheFile);
+    } catch (IOException e) {
+      logger.warning("Cannot write spectral library cache " + tmpFile + ": " + e);
+      discard();
+    }
+  }
+
+  /**
+   * Deletes the temporary cache file
+   */
+  public void discard() {
+    if (out != null) {
+      try {
+        out.close();
+      } catch (IOException e) {
+        // ignore, the file is deleted anyway
+      }
+      out = null;
+    }
+    tmpFile.delete();
+  }
+
+  private void writeEntry(SpectralDBEntry entry) throws IOException {
+    DBEntryField fieldTable[] = DBEntryField.values();
+    int numOfFields = 0;
+    for (DBEntryField field : fieldTable) {
+      if (entry.getField(field).isPresent())
+        numOfFields++;
+    }
+    out.writeInt(numOfFields);
+    for (DBEntryField field : fieldTable) {
+      Object value = entry.getField(field).orElse(null);
+      if (value != null) {
+        out.writeInt(field.ordinal());
+        writeValue(value);
+      }
+    }
+
+    DataPoint dps[] = entry.getDataPoints();
+    out.writeInt(dps.length);
+    for (DataPoint dp : dps)
+      out.writeDouble(dp.getMZ());
+    for (DataPoint dp : dps)
+      out.writeDouble(dp.getIntensity());
+  }
+
+  private void writeValue(Object value) throws IOException {
+    if (value instanceof String) {
+      out.writeByte(SpectralDBCacheParser.TYPE_STRING);
+      writeString((String) value);
+    } else if (value instanceof Double) {
+      out.writeByte(SpectralDBCacheParser.TYPE_DOUBLE);
+      out.writeDouble((Double) value);
+    } else if (value instanceof Float) {
+      out.writeByte(SpectralDBCacheParser.TYPE_FLOAT);
+      out.writeFloat((Float) value);
+    } else if (value instanceof Integer) {
+      out.writeByte(SpectralDBCacheParser.TYPE_INTEGER);
+      out.writeInt((Integer) value);
+    } else if (value instanceof Long) {
+      out.writeByte(SpectralDBCacheParser.TYPE_LONG);
+      out.writeLong((Long) value);
+    } else {
+      // the entry could not be restored with the same value types
+      throw new IOException("Unsupported value type "
+          + (value == null ? "null" : value.getClass().getName()) + " in library entry");
+    }
+  }
+
+  private void writeString(String value) throws IOException {
+    byte bytes[] = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+}
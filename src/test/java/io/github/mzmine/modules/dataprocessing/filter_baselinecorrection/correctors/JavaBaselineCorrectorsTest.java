@@ -0,0 +1,373 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.dataprocessing.filter_baselinecorrection.correctors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.BeforeClass;
+import org.junit.Ignore;
+import org.junit.Test;
+import io.github.mzmine.main.MZmineCore;
+import io.github.mzmine.main.impl.MZmineConfigurationImpl;
+import io.github.mzmine.modules.dataprocessing.filter_baselinecorrection.BaselineCorrectionParameters;
+import io.github.mzmine.modules.dataprocessing.filter_baselinecorrection.BaselineEngine;
+import io.github.mzmine.modules.dataprocessing.filter_baselinecorrection.ChromatogramType;
+import io.github.mzmine.parameters.ParameterSet;
+import io.github.mzmine.util.R.REngineType;
+
+/**
+ * Java implementations of the baseline correctors, compared with straightforward reference
+ * implementations and with the baselines computed in R by r_baselines.R
+ */
+public class JavaBaselineCorrectorsTest {
+
+  private static final String R_BASELINES = "r_baselines.csv";
+
+  @BeforeClass
+  public static void setUpConfiguration() throws ReflectiveOperationException {
+    // MZmineCore creates it in main(), BaselineCorrectionParameters needs its number formats
+    Field configuration = MZmineCore.class.getDeclaredField("configuration");
+    configuration.setAccessible(true);
+    if (configuration.get(null) == null)
+      configuration.set(null, new MZmineConfigurationImpl());
+  }
+
+  @Test
+  public void asymmetryMatchesDenseSolution() {
+    final double chromatogram[] = chromatogram(new Random(1), 120);
+    final ParameterSet parameters = asymmetryParameters(1e3, 0.01);
+
+    final double baseline[] = new AsymmetryCorrector().computeBaselineInJava(chromatogram,
+        parameters);
+
+    assertArrayEquals(referenceAsysm(chromatogram, 1e3, 0.01), baseline, 1e-6);
+  }
+
+  @Test
+  public void rollingBallEdgeWindowsGrow() {
+    final double chromatogram[] = {5, 1, 4, 3, 2, 6, 0, 7};
+
+    final double baseline[] = new RollingBallCorrector().computeBaselineInJava(chromatogram,
+        rollingBallParameters(2, 0));
+
+    // Windows of +/- 0, 1, 2, 2, 2, 2, 1, 0 scans
+    assertArrayEquals(new double[] {5, 5, 5, 1, 1, 7, 7, 7}, baseline, 0.0);
+  }
+
+  @Test
+  public void rollingBallMatchesBruteForce() {
+    final Random random = new Random(2);
+    for (int n : new int[] {1, 2, 7, 50, 301}) {
+      final double chromatogram[] = chromatogram(random, n);
+      for (int wm : new int[] {0, 1, 3, 20, 400}) {
+        for (int ws : new int[] {0, 2, 10, 400}) {
+          final double baseline[] = new RollingBallCorrector()
+              .computeBaselineInJava(chromatogram, rollingBallParameters(wm, ws));
+          assertArrayEquals("n=" + n + " wm=" + wm + " ws=" + ws,
+              referenceRollingBall(chromatogram, wm, ws), baseline, 1e-9);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void rubberBandMatchesBruteForceHull() {
+    final Random random = new Random(3);
+    for (int n : new int[] {1, 2, 3, 40, 200}) {
+      final double chromatogram[] = chromatogram(random, n);
+      for (double bend : new double[] {0.0, 625.0}) {
+        final double baseline[] = new RubberBandCorrector().computeBaselineInJava(chromatogram,
+            rubberBandParameters(false, bend));
+
+        final double bendValues[] = new double[n];
+        final double bent[] = new double[n];
+        for (int i = 0; i < n; i++) {
+          final double x = n > 1 ? (double) i / (n - 1) : 0.0;
+          bendValues[i] = bend * x * x;
+          bent[i] = chromatogram[i] + bendValues[i];
+        }
+        final double expected[] = referenceLowerHull(bent);
+        for (int i = 0; i < n; i++)
+          expected[i] -= bendValues[i];
+        assertArrayEquals("n=" + n + " bend=" + bend, expected, baseline, 1e-6);
+      }
+    }
+  }
+
+  @Test
+  public void rubberBandTouchesTheChromatogramWithoutNoiseShift() {
+    final double chromatogram[] = {10, 4, 6, 3, 8, 2, 9};
+
+    final ParameterSet parameters = rubberBandParameters(false, 0.0);
+    parameters.getParameter(RubberBandCorrectorParameters.NOISE).setValue(5.0);
+    final double baseline[] = new RubberBandCorrector().computeBaselineInJava(chromatogram,
+        parameters);
+
+    // Support points 0, 1, 5 and 6
+    assertArrayEquals(new double[] {10, 4, 3.5, 3, 2.5, 2, 9}, baseline, 1e-12);
+  }
+
+  @Test
+  public void rubberBandSplineIsComputedInR() {
+    final RubberBandCorrector corrector = new RubberBandCorrector();
+    corrector.collectCommonParameters(commonParameters(BaselineEngine.JAVA));
+
+    assertTrue(corrector.usesJavaEngine(rubberBandParameters(false, 0.0)));
+    assertFalse(corrector.usesJavaEngine(rubberBandParameters(true, 0.0)));
+
+    corrector.collectCommonParameters(commonParameters(BaselineEngine.R));
+    assertFalse(corrector.usesJavaEngine(rubberBandParameters(false, 0.0)));
+  }
+
+  @Test
+  public void correctorsWithoutJavaImplementationUseR() {
+    final PeakDetectionCorrector corrector = new PeakDetectionCorrector();
+    corrector.collectCommonParameters(commonParameters(BaselineEngine.JAVA));
+
+    assertFalse(corrector.usesJavaEngine(new PeakDetectionCorrectorParameters()));
+  }
+
+  /**
+   * The Java engine is experimental until baselinesMatchR() runs
+   */
+  @Test
+  public void rIsTheDefaultEngine() {
+    assertEquals(BaselineEngine.R, new BaselineCorrectionParameters()
+        .getParameter(BaselineCorrectionParameters.BASELINE_ENGINE).getValue());
+  }
+
+  /**
+   * Baselines computed in R by r_baselines.R. Ignored until r_baselines.csv is generated and added
+   * next to r_baselines.R, then it fails if the file is missing.
+   */
+  @Ignore("r_baselines.csv not generated yet, run r_baselines.R")
+  @Test
+  public void baselinesMatchR() throws IOException {
+    final InputStream in = getClass().getResourceAsStream(R_BASELINES);
+    assertNotNull(R_BASELINES + " is missing, run r_baselines.R", in);
+
+    final List<double[]> rows = new ArrayList<>();
+    try (BufferedReader reader =
+        new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+      reader.readLine(); // header
+      String line;
+      while ((line = reader.readLine()) != null)
+        rows.add(Arrays.stream(line.split(",")).mapToDouble(Double::parseDouble).toArray());
+    }
+
+    final double columns[][] = new double[4][rows.size()];
+    for (int i = 0; i < rows.size(); i++) {
+      for (int c = 0; c < columns.length; c++)
+        columns[c][i] = rows.get(i)[c];
+    }
+    final double chromatogram[] = columns[0];
+
+    // Same parameters as in r_baselines.R
+    assertArrayEquals("asysm", columns[1], new AsymmetryCorrector()
+        .computeBaselineInJava(chromatogram, asymmetryParameters(1e5, 0.01)), 1e-4);
+    assertArrayEquals("rollingBall", columns[2], new RollingBallCorrector()
+        .computeBaselineInJava(chromatogram, rollingBallParameters(20, 10)), 1e-6);
+    assertArrayEquals("spc.rubberband", columns[3], new RubberBandCorrector()
+        .computeBaselineInJava(chromatogram, rubberBandParameters(false, 0.0)), 1e-6);
+  }
+
+  /**
+   * Sloped background with two peaks and noise
+   */
+  private static double[] chromatogram(final Random random, final int n) {
+    final double chromatogram[] = new double[n];
+    for (int i = 0; i < n; i++) {
+      chromatogram[i] = 1000 + 2 * i + 5000 * Math.exp(-0.5 * Math.pow((i - 0.3 * n) / 8, 2))
+          + 3000 * Math.exp(-0.5 * Math.pow((i - 0.75 * n) / 15, 2)) + 100 * random.nextDouble();
+    }
+    return chromatogram;
+  }
+
+  /**
+   * asysm with the linear system of each iteration solved by dense Gaussian elimination
+   */
+  private static double[] referenceAsysm(final double y[], final double lambda, final double p) {
+    final int n = y.length;
+    final double w[] = new double[n];
+    Arrays.fill(w, 1.0);
+    double z[] = null;
+    for (int iteration = 0; iteration < 25; iteration++) {
+      final double a[][] = new double[n][n + 1];
+      for (int r = 0; r < n - 2; r++) {
+        final double d[] = {1, -2, 1};
+        for (int j = 0; j < 3; j++) {
+          for (int k = 0; k < 3; k++)
+            a[r + j][r + k] += lambda * d[j] * d[k];
+        }
+      }
+      for (int i = 0; i < n; i++) {
+        a[i][i] += w[i];
+        a[i][n] = w[i] * y[i];
+      }
+      z = solve(a);
+
+      boolean changed = false;
+      for (int i = 0; i < n; i++) {
+        final double newWeight = ((y[i] > z[i] + 1e-8 || y[i] < 0) ? p : 0.0)
+            + (y[i] <= z[i] + 1e-8 ? 1.0 - p : 0.0);
+        changed |= newWeight != w[i];
+        w[i] = newWeight;
+      }
+      if (!changed)
+        break;
+    }
+    return z;
+  }
+
+  /**
+   * Gaussian elimination with partial pivoting of the augmented matrix a
+   */
+  private static double[] solve(final double a[][]) {
+    final int n = a.length;
+    for (int col = 0; col < n; col++) {
+      int pivot = col;
+      for (int r = col + 1; r < n; r++) {
+        if (Math.abs(a[r][col]) > Math.abs(a[pivot][col]))
+          pivot = r;
+      }
+      final double swap[] = a[col];
+      a[col] = a[pivot];
+      a[pivot] = swap;
+      for (int r = col + 1; r < n; r++) {
+        final double factor = a[r][col] / a[col][col];
+        for (int c = col; c <= n; c++)
+          a[r][c] -= factor * a[col][c];
+      }
+    }
+    final double x[] = new double[n];
+    for (int r = n - 1; r >= 0; r--) {
+      double sum = a[r][n];
+      for (int c = r + 1; c < n; c++)
+        sum -= a[r][c] * x[c];
+      x[r] = sum / a[r][r];
+    }
+    return x;
+  }
+
+  /**
+   * Rolling ball with every window evaluated separately
+   */
+  private static double[] referenceRollingBall(final double y[], final int wm, final int ws) {
+    final int n = y.length;
+    final double minimized[] = new double[n], maximized[] = new double[n], result[] = new double[n];
+    for (int i = 0; i < n; i++) {
+      final int h = Math.min(wm, Math.min(i, n - 1 - i));
+      minimized[i] = Double.POSITIVE_INFINITY;
+      for (int j = i - h; j <= i + h; j++)
+        minimized[i] = Math.min(minimized[i], y[j]);
+    }
+    for (int i = 0; i < n; i++) {
+      final int h = Math.min(wm, Math.min(i, n - 1 - i));
+      maximized[i] = Double.NEGATIVE_INFINITY;
+      for (int j = i - h; j <= i + h; j++)
+        maximized[i] = Math.max(maximized[i], minimized[j]);
+    }
+    for (int i = 0; i < n; i++) {
+      final int h = Math.min(ws, Math.min(i, n - 1 - i));
+      double sum = 0;
+      for (int j = i - h; j <= i + h; j++)
+        sum += maximized[j];
+      result[i] = sum / (2 * h + 1);
+    }
+    return result;
+  }
+
+  /**
+   * Lower convex hull: at each position, the highest line through two points which lies below all
+   * points
+   */
+  private static double[] referenceLowerHull(final double y[]) {
+    final int n = y.length;
+    final double result[] = new double[n];
+    Arrays.fill(result, Double.NEGATIVE_INFINITY);
+    if (n == 1)
+      result[0] = y[0];
+    for (int a = 0; a < n; a++) {
+      for (int b = a + 1; b < n; b++) {
+        final double slope = (y[b] - y[a]) / (b - a);
+        boolean below = true;
+        for (int i = 0; below && i < n; i++)
+          below = y[a] + slope * (i - a) <= y[i] + 1e-9 * Math.abs(y[i]);
+        if (!below)
+          continue;
+        for (int i = a; i <= b; i++)
+          result[i] = Math.max(result[i], y[a] + slope * (i - a));
+      }
+    }
+    return result;
+  }
+
+  private static ParameterSet asymmetryParameters(final double smoothing,
+      final double asymmetry) {
+    final ParameterSet parameters = new AsymmetryCorrectorParameters().cloneParameterSet();
+    parameters.getParameter(AsymmetryCorrectorParameters.SMOOTHING).setValue(smoothing);
+    parameters.getParameter(AsymmetryCorrectorParameters.ASYMMETRY).setValue(asymmetry);
+    return parameters;
+  }
+
+  private static ParameterSet rollingBallParameters(final int wm, final int ws) {
+    final ParameterSet parameters = new RollingBallCorrectorParameters().cloneParameterSet();
+    parameters.getParameter(RollingBallCorrectorParameters.MIN_MAX_WIDTH).setValue(wm);
+    parameters.getParameter(RollingBallCorrectorParameters.SMOOTHING).setValue(ws);
+    return parameters;
+  }
+
+  private static ParameterSet rubberBandParameters(final boolean spline, final double bend) {
+    final ParameterSet parameters = new RubberBandCorrectorParameters().cloneParameterSet();
+    parameters.getParameter(RubberBandCorrectorParameters.NOISE).setValue(0.0);
+    parameters.getParameter(RubberBandCorrectorParameters.AUTO_NOISE).setValue(false);
+    parameters.getParameter(RubberBandCorrectorParameters.DF).setValue(30.0);
+    parameters.getParameter(RubberBandCorrectorParameters.SPLINE).setValue(spline);
+    parameters.getParameter(RubberBandCorrectorParameters.BEND_FACTOR).setValue(bend);
+    return parameters;
+  }
+
+  private static ParameterSet commonParameters(final BaselineEngine engine) {
+    final ParameterSet parameters = new BaselineCorrectionParameters().cloneParameterSet();
+    parameters.getParameter(BaselineCorrectionParameters.BASELINE_ENGINE).setValue(engine);
+    parameters.getParameter(BaselineCorrectionParameters.RENGINE_TYPE)
+        .setValue(REngineType.RCALLER);
+    parameters.getParameter(BaselineCorrectionParameters.SUFFIX).setValue("baseline-corrected");
+    parameters.getParameter(BaselineCorrectionParameters.CHROMOTAGRAM_TYPE)
+        .setValue(ChromatogramType.TIC);
+    parameters.getParameter(BaselineCorrectionParameters.MZ_BIN_WIDTH).setValue(1.0);
+    parameters.getParameter(BaselineCorrectionParameters.USE_MZ_BINS).setValue(true);
+    parameters.getParameter(BaselineCorrectionParameters.MS_LEVEL).setValue(1);
+    return parameters;
+  }
+
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.io.projectload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import io.github.mzmine.datamodel.PeakListRow;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.impl.SimplePeakList;
+import io.github.mzmine.datamodel.impl.SimplePeakList.RowsLoader;
+import io.github.mzmine.datamodel.impl.SimplePeakListRow;
+import io.github.mzmine.gui.HeadLessDesktop;
+import io.github.mzmine.main.MZmineCore;
+import io.github.mzmine.modules.io.projectload.ProjectArchive.PendingEntry;
+import io.github.mzmine.modules.io.projectsave.PeakListSaveHandler;
+import io.github.mzmine.project.impl.RawDataFileImpl;
+import io.github.mzmine.taskcontrol.impl.TaskControllerImpl;
+
+/**
+ * Pending entries of a project opened on demand: the project file is closed once every pending
+ * entry was loaded or released, and feature lists whose rows could not be loaded are not saved
+ */
+public class ProjectArchiveTest {
+
+  private File projectFile;
+  private ProjectArchive projectArchive;
+
+  @BeforeClass
+  public static void setUpTaskController() throws ReflectiveOperationException {
+    // MZmineCore creates these in main()
+    Field taskController = MZmineCore.class.getDeclaredField("taskController");
+    taskController.setAccessible(true);
+    if (taskController.get(null) == null) {
+      TaskControllerImpl newTaskController = new TaskControllerImpl();
+      newTaskController.initModule();
+      taskController.set(null, newTaskController);
+    }
+    Field desktop = MZmineCore.class.getDeclaredField("desktop");
+    desktop.setAccessible(true);
+    if (desktop.get(null) == null)
+      desktop.set(null, new HeadLessDesktop());
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    projectFile = File.createTempFile("mzmine", ".mzmine");
+    try (ZipOutputStream zipStream = new ZipOutputStream(new FileOutputStream(projectFile))) {
+      for (String entryName : new String[] {"first", "second"}) {
+        zipStream.putNextEntry(new ZipEntry(entryName));
+        zipStream.write(entryName.getBytes(StandardCharsets.UTF_8));
+        zipStream.closeEntry();
+      }
+    }
+    projectArchive = new ProjectArchive(new ZipFile(projectFile));
+  }
+
+  @After
+  public void tearDown() {
+    projectArchive.close();
+    projectFile.delete();
+  }
+
+  private static String readText(InputStream is) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    is.transferTo(bytes);
+    return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  private boolean isClosed() {
+    try {
+      projectArchive.getInputStream(new ZipEntry("first")).close();
+      return false;
+    } catch (IOException e) {
+      return true;
+    }
+  }
+
+  @Test
+  public void releasedEntriesCloseTheProjectFile() {
+    PendingEntry first = projectArchive.addPendingEntry("first", "first item");
+    PendingEntry second = projectArchive.addPendingEntry("second", "second item");
+
+    first.release();
+    // Releasing twice must not release the other entry
+    first.release();
+    assertFalse(isClosed());
+
+    second.release();
+    assertTrue(isClosed());
+  }
+
+  @Test
+  public void loadReleasesTheEntry() throws IOException {
+    PendingEntry first = projectArchive.addPendingEntry("first", "first item");
+    PendingEntry second = projectArchive.addPendingEntry("second", "second item");
+
+    assertEquals("first", first.load(ProjectArchiveTest::readText));
+    assertFalse(isClosed());
+
+    // A failed load also releases its entry
+    try {
+      second.load(is -> {
+        throw new IOException("Corrupt entry");
+      });
+      fail("The error of the reader was not passed on");
+    } catch (IOException e) {
+      assertNotNull(e.getCause());
+    }
+    assertTrue(isClosed());
+
+    try {
+      first.load(ProjectArchiveTest::readText);
+      fail("An entry was loaded twice");
+    } catch (IOException e) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void closeWithPendingEntries() {
+    PendingEntry first = projectArchive.addPendingEntry("first", "first item");
+    projectArchive.close();
+    assertTrue(isClosed());
+    try {
+      first.load(ProjectArchiveTest::readText);
+      fail("An entry was loaded from a closed project file");
+    } catch (IOException e) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void closedRawDataFileReleasesItsScanData() throws IOException {
+    PendingEntry first = projectArchive.addPendingEntry("first", "scan data of a.mzML");
+    RawDataFileImpl dataFile = new RawDataFileImpl("a.mzML");
+    dataFile.openDataPointsFileOnDemand(new RawDataFileImpl.DataPointsFileSource() {
+      @Override
+      public File getDataPointsFile() throws IOException {
+        throw new IOException("Not accessed");
+      }
+
+      @Override
+      public void release() {
+        first.release();
+      }
+    });
+    dataFile.close();
+    assertTrue(isClosed());
+  }
+
+  @Test
+  public void featureListWithFailedRowsIsNotSaved() throws IOException {
+    PendingEntry first = projectArchive.addPendingEntry("first", "rows of features");
+    RawDataFile dataFile = new RawDataFileImpl("a.mzML");
+    SimplePeakList peakList = new SimplePeakList("features", dataFile);
+    peakList.setPendingRows(new RowsLoader() {
+      @Override
+      public List<PeakListRow> loadRows() throws IOException {
+        return first.load(is -> {
+          throw new IOException("Corrupt entry");
+        });
+      }
+
+      @Override
+      public void release() {
+        first.release();
+      }
+    });
+
+    assertEquals(0, peakList.getNumberOfRows());
+    assertNotNull(peakList.getRowsLoadingError());
+    assertTrue(isClosed());
+
+    try {
+      new PeakListSaveHandler(new ByteArrayOutputStream(), new Hashtable<>())
+          .savePeakList(peakList);
+      fail("A feature list without its rows was saved");
+    } catch (IOException e) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void featureListWithUnexpectedLoadingErrorIsNotSaved() throws IOException {
+    SimplePeakList peakList = new SimplePeakList("features", new RawDataFileImpl("a.mzML"));
+    peakList.setPendingRows(new RowsLoader() {
+      @Override
+      public List<PeakListRow> loadRows() {
+        throw new IllegalStateException("Unexpected error");
+      }
+
+      @Override
+      public void release() {}
+    });
+
+    assertEquals(0, peakList.getNumberOfRows());
+    assertNotNull(peakList.getRowsLoadingError());
+    try {
+      new PeakListSaveHandler(new ByteArrayOutputStream(), new Hashtable<>())
+          .savePeakList(peakList);
+      fail("A feature list without its rows was saved");
+    } catch (IOException e) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void rowsAreLoadedOnceForAllThreads() throws IOException, InterruptedException {
+    RawDataFile dataFile = new RawDataFileImpl("a.mzML");
+    SimplePeakList peakList = new SimplePeakList("features", dataFile);
+    AtomicInteger numOfLoads = new AtomicInteger();
+    peakList.setPendingRows(new RowsLoader() {
+      @Override
+      public List<PeakListRow> loadRows() throws IOException {
+        numOfLoads.incrementAndGet();
+        try {
+          Thread.sleep(100);
+        } catch (InterruptedException e) {
+          throw new InterruptedIOException();
+        }
+        return List.of(new SimplePeakListRow(1), new SimplePeakListRow(2));
+      }
+
+      @Override
+      public void release() {}
+    });
+
+    AtomicInteger wrongCounts = new AtomicInteger();
+    Thread threads[] = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread(() -> {
+        if (peakList.getNumberOfRows() != 2)
+          wrongCounts.incrementAndGet();
+      });
+      threads[i].start();
+    }
+    for (Thread thread : threads)
+      thread.join();
+
+    assertEquals(1, numOfLoads.get());
+    assertEquals(0, wrongCounts.get());
+    assertEquals(peakList, peakList.getRow(0).getPeakList());
+  }
+
+  @Test
+  public void removedFeatureListReleasesItsRows() throws IOException {
+    PendingEntry first = projectArchive.addPendingEntry("first", "rows of features");
+    SimplePeakList peakList = new SimplePeakList("features", new RawDataFileImpl("a.mzML"));
+    peakList.setPendingRows(new RowsLoader() {
+      @Override
+      public List<PeakListRow> loadRows() throws IOException {
+        throw new IOException("Not accessed");
+      }
+
+      @Override
+      public void release() {
+        first.release();
+      }
+    });
+    peakList.releasePendingRows();
+    assertTrue(isClosed());
+    assertEquals(0, peakList.getNumberOfRows());
+  }
+
+}
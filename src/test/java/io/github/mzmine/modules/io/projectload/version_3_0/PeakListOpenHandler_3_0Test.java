@@ -0,0 +1,159 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+package io.github.mzmine.modules.io.projectload.version_3_0;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Hashtable;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import com.google.common.collect.Range;
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.datamodel.FeatureStatus;
+import io.github.mzmine.datamodel.IsotopePattern.IsotopePatternStatus;
+import io.github.mzmine.datamodel.MassSpectrumType;
+import io.github.mzmine.datamodel.PeakList;
+import io.github.mzmine.datamodel.PolarityType;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.impl.SimpleDataPoint;
+import io.github.mzmine.datamodel.impl.SimpleFeature;
+import io.github.mzmine.datamodel.impl.SimpleIsotopePattern;
+import io.github.mzmine.datamodel.impl.SimplePeakIdentity;
+import io.github.mzmine.datamodel.impl.SimplePeakInformation;
+import io.github.mzmine.datamodel.impl.SimplePeakList;
+import io.github.mzmine.datamodel.impl.SimplePeakListRow;
+import io.github.mzmine.datamodel.impl.SimpleScan;
+import io.github.mzmine.modules.io.projectsave.PeakListSaveHandler;
+import io.github.mzmine.project.impl.RawDataFileImpl;
+
+/**
+ * Feature lists in the binary format: loading a saved feature list, and corrupt data, which must
+ * fail with an IOException
+ */
+public class PeakListOpenHandler_3_0Test {
+
+  private static final String DATA_FILE_ID = "Raw data file #1";
+  private static final int NUM_OF_SCANS = 20, NUM_OF_ROWS = 30;
+
+  private RawDataFileImpl dataFile;
+  private byte savedPeakList[];
+
+  @Before
+  public void setUp() throws IOException {
+    dataFile = new RawDataFileImpl("a.mzML");
+    for (int s = 1; s <= NUM_OF_SCANS; s++) {
+      DataPoint dataPoints[] = {new SimpleDataPoint(100.0 + s, 1000.0)};
+      dataFile.addScan(new SimpleScan(dataFile, s, 1, 0.1 * s, 0.0, 0.0, 0, new int[0],
+          dataPoints, MassSpectrumType.CENTROIDED, PolarityType.POSITIVE, "",
+          Range.closed(100.0, 200.0)));
+    }
+    dataFile.finishWriting();
+
+    SimplePeakList peakList = new SimplePeakList("features", dataFile);
+    for (int r = 1; r <= NUM_OF_ROWS; r++) {
+      SimplePeakListRow row = new SimplePeakListRow(r);
+      row.setComment("row " + r);
+      row.addPeakIdentity(new SimplePeakIdentity("compound " + r), true);
+      row.setPeakInformation(new SimplePeakInformation("source", "test"));
+      final int scanNumbers[] = {r % NUM_OF_SCANS + 1};
+      final double mz = 100.0 + r, rt = 0.1 * scanNumbers[0];
+      DataPoint dataPoints[] = {new SimpleDataPoint(mz, 1000.0)};
+      SimpleFeature feature = new SimpleFeature(dataFile, mz, rt, 1000.0, 100.0, scanNumbers,
+          dataPoints, FeatureStatus.DETECTED, scanNumbers[0], -1, new int[0], Range.singleton(rt),
+          Range.singleton(mz), Range.singleton(1000.0));
+      DataPoint isotopes[] = {dataPoints[0], new SimpleDataPoint(mz + 1.0033, 300.0)};
+      feature.setIsotopePattern(
+          new SimpleIsotopePattern(isotopes, IsotopePatternStatus.DETECTED, "pattern " + r));
+      row.addPeak(dataFile, feature);
+      peakList.addRow(row);
+    }
+
+    Hashtable<RawDataFile, String> dataFilesIDMap = new Hashtable<>();
+    dataFilesIDMap.put(dataFile, DATA_FILE_ID);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new PeakListSaveHandler(out, dataFilesIDMap).savePeakList(peakList);
+    savedPeakList = out.toByteArray();
+  }
+
+  @After
+  public void tearDown() {
+    dataFile.close();
+  }
+
+  private PeakList load(byte data[]) throws IOException {
+    Hashtable<String, RawDataFile> dataFilesIDMap = new Hashtable<>();
+    dataFilesIDMap.put(DATA_FILE_ID, dataFile);
+    return new PeakListOpenHandler_3_0(dataFilesIDMap)
+        .readPeakList(new ByteArrayInputStream(data));
+  }
+
+  @Test
+  public void loadsTheSavedFeatureList() throws IOException {
+    PeakList peakList = load(savedPeakList);
+    assertEquals("features", peakList.getName());
+    assertEquals(NUM_OF_ROWS, peakList.getNumberOfRows());
+    assertEquals("row 1", peakList.getRow(0).getComment());
+    assertEquals("compound 1", peakList.getRow(0).getPreferredPeakIdentity().getName());
+    assertEquals(101.0, peakList.getRow(0).getAverageMZ(), 1e-6);
+    assertEquals(2, peakList.getRow(0).getBestIsotopePattern().getNumberOfDataPoints());
+  }
+
+  @Test
+  public void truncatedDataFails() {
+    for (int length = 0; length < savedPeakList.length; length++) {
+      byte data[] = new byte[length];
+      System.arraycopy(savedPeakList, 0, data, 0, length);
+      assertFailsWithIOException(data, "truncated to " + length + " bytes");
+    }
+  }
+
+  @Test
+  public void invalidCountsAndIndicesFail() {
+    // Every int of the data replaced by values which are invalid as counts, lengths or indices
+    for (int value : new int[] {-2, 1 << 20, Integer.MAX_VALUE}) {
+      for (int position = 8; position + 4 <= savedPeakList.length; position++) {
+        byte data[] = savedPeakList.clone();
+        ByteBuffer.wrap(data).putInt(position, value);
+        try {
+          load(data);
+        } catch (IOException e) {
+          // Expected, unless the value was valid at this position
+        } catch (RuntimeException | OutOfMemoryError e) {
+          throw new AssertionError(value + " at position " + position + " failed with " + e, e);
+        }
+      }
+    }
+  }
+
+  private void assertFailsWithIOException(byte data[], String message) {
+    try {
+      load(data);
+      fail("Corrupt feature list was loaded: " + message);
+    } catch (IOException e) {
+      // Expected
+    } catch (RuntimeException e) {
+      throw new AssertionError(message + ": " + e, e);
+    }
+  }
+
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.modules.io.sqlexport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import com.google.common.collect.Range;
+import io.github.mzmine.datamodel.DataPoint;
+import io.github.mzmine.datamodel.FeatureStatus;
+import io.github.mzmine.datamodel.PeakListRow;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.impl.SimpleDataPoint;
+import io.github.mzmine.datamodel.impl.SimpleFeature;
+import io.github.mzmine.datamodel.impl.SimplePeakList;
+import io.github.mzmine.datamodel.impl.SimplePeakListRow;
+import io.github.mzmine.project.impl.RawDataFileImpl;
+import io.github.mzmine.taskcontrol.TaskStatus;
+
+/**
+ * Exports a small feature list to an in-memory H2 database, by JDBC batch inserts and by loading
+ * the CSV text which would be sent by the PostgreSQL COPY command
+ */
+public class SQLExportTaskTest {
+
+  private static final String CONNECTION = "jdbc:h2:mem:sqlexport;DB_CLOSE_DELAY=-1";
+  private static final int NUM_OF_ROWS = 5;
+
+  private Connection connection;
+  private RawDataFile dataFiles[];
+  private SimplePeakList peakList;
+
+  @Before
+  public void setUp() throws IOException, SQLException {
+    connection = DriverManager.getConnection(CONNECTION);
+    try (Statement statement = connection.createStatement()) {
+      statement.execute("CREATE TABLE features (ID INT, MZ DOUBLE, CHARGE VARCHAR(20), "
+          + "DATAPOINTS VARCHAR(20), CHARGE_INT INT, STATUS VARCHAR(20), FWHM DOUBLE, "
+          + "FILENAME VARCHAR(100), COMMENT VARCHAR(100), NOTE VARCHAR(100))");
+    }
+
+    dataFiles = new RawDataFile[] {new RawDataFileImpl("a.mzML"), new RawDataFileImpl("b.mzML")};
+    peakList = new SimplePeakList("features", dataFiles);
+    for (int id = 1; id <= NUM_OF_ROWS; id++) {
+      SimplePeakListRow row = new SimplePeakListRow(id);
+      for (RawDataFile dataFile : dataFiles) {
+        final double mz = 100.0 + id;
+        DataPoint dataPoints[] = new DataPoint[id];
+        int scanNumbers[] = new int[id];
+        for (int i = 0; i < id; i++) {
+          dataPoints[i] = new SimpleDataPoint(mz, 1000.0 * (i + 1));
+          scanNumbers[i] = i + 1;
+        }
+        SimpleFeature feature = new SimpleFeature(dataFile, mz, 1.0, 1000.0 * id, 500.0,
+            scanNumbers, dataPoints, FeatureStatus.DETECTED, 1, -1, new int[0],
+            Range.closed(0.9, 1.1), Range.closed(mz, mz), Range.closed(1000.0, 1000.0 * id));
+        feature.setCharge(id % 3);
+        row.addPeak(dataFile, feature);
+      }
+      // Quotes and commas have to be escaped in CSV
+      row.setComment(id == 2 ? "say \"hi\", twice" : null);
+      peakList.addRow(row);
+    }
+  }
+
+  @After
+  public void tearDown() throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      statement.execute("DROP TABLE features");
+    }
+    connection.close();
+    for (RawDataFile dataFile : dataFiles)
+      dataFile.close();
+  }
+
+  private static SQLColumnSettings createColumns() {
+    SQLColumnSettings columns = new SQLColumnSettings();
+    addColumn(columns, "ID", SQLExportDataType.ID, null);
+    addColumn(columns, "MZ", SQLExportDataType.PEAKMZ, null);
+    addColumn(columns, "CHARGE", SQLExportDataType.PEAKCHARGE, null);
+    addColumn(columns, "DATAPOINTS", SQLExportDataType.DATAPOINTS, null);
+    addColumn(columns, "CHARGE_INT", SQLExportDataType.PEAKCHARGE, null);
+    addColumn(columns, "STATUS", SQLExportDataType.PEAKSTATUS, null);
+    addColumn(columns, "FWHM", SQLExportDataType.FWHM, null);
+    addColumn(columns, "FILENAME", SQLExportDataType.RAWFILE, null);
+    addColumn(columns, "COMMENT", SQLExportDataType.COMMENT, null);
+    addColumn(columns, "NOTE", SQLExportDataType.CONSTANT, "exported");
+    return columns;
+  }
+
+  private static void addColumn(SQLColumnSettings columns, String name, SQLExportDataType type,
+      String value) {
+    columns.addNewRow();
+    final int row = columns.getRowCount() - 1;
+    columns.setValueAt(name, row, 0);
+    columns.setValueAt(type, row, 1);
+    if (value != null)
+      columns.setValueAt(value, row, 2);
+  }
+
+  @Test
+  public void batchInserts() throws SQLException {
+    // 10 records in batches of 3, the last batch is incomplete
+    SQLExportTask task =
+        new SQLExportTask(peakList, CONNECTION, "features", createColumns(), false, 3);
+    task.run();
+    assertEquals(task.getErrorMessage(), TaskStatus.FINISHED, task.getStatus());
+
+    assertEquals(NUM_OF_ROWS * dataFiles.length, count());
+    try (Statement statement = connection.createStatement(); ResultSet result =
+        statement.executeQuery("SELECT * FROM features WHERE ID = 2 AND FILENAME = 'b.mzML'")) {
+      assertTrue(result.next());
+      assertEquals(102.0, result.getDouble("MZ"), 0.0);
+      // The charge and the number of data points are bound as DOUBLE
+      assertEquals("2.0", result.getString("CHARGE"));
+      assertEquals("2.0", result.getString("DATAPOINTS"));
+      assertEquals(2, result.getInt("CHARGE_INT"));
+      assertEquals("DETECTED", result.getString("STATUS"));
+      result.getDouble("FWHM");
+      assertTrue(result.wasNull());
+      assertEquals("say \"hi\", twice", result.getString("COMMENT"));
+      assertEquals("exported", result.getString("NOTE"));
+      assertFalse(result.next());
+    }
+  }
+
+  @Test
+  public void emptyExport() throws SQLException {
+    SimplePeakList emptyList = new SimplePeakList("empty", dataFiles);
+    SQLExportTask task =
+        new SQLExportTask(emptyList, CONNECTION, "features", createColumns(), true, 3);
+    task.run();
+    assertEquals(task.getErrorMessage(), TaskStatus.FINISHED, task.getStatus());
+
+    try (Statement statement = connection.createStatement();
+        ResultSet result = statement.executeQuery("SELECT * FROM features")) {
+      assertTrue(result.next());
+      assertEquals("a.mzML", result.getString("FILENAME"));
+      assertEquals("exported", result.getString("NOTE"));
+      assertNull(result.getString("CHARGE"));
+      assertFalse(result.next());
+    }
+  }
+
+  @Test
+  public void failedExportIsRolledBack() throws SQLException {
+    SQLColumnSettings columns = createColumns();
+    addColumn(columns, "MISSING", SQLExportDataType.CONSTANT, "x");
+    SQLExportTask task = new SQLExportTask(peakList, CONNECTION, "features", columns, false, 3);
+    task.run();
+    assertEquals(TaskStatus.ERROR, task.getStatus());
+    assertEquals(0, count());
+  }
+
+  @Test
+  public void copyChunks() throws SQLException, IOException {
+    SQLExportTask task =
+        new SQLExportTask(peakList, CONNECTION, "features", createColumns(), false, 4);
+    List<String> chunks = new ArrayList<>();
+    // As in run(), which only exports while the task is processing
+    task.setStatus(TaskStatus.PROCESSING);
+    task.exportCSVChunks(peakList.getRows().toArray(PeakListRow[]::new), chunks::add);
+
+    // 10 records in chunks of 4 records
+    assertEquals(3, chunks.size());
+    assertEquals(4, chunks.get(0).split("\n").length);
+    assertEquals(2, chunks.get(2).split("\n").length);
+    // The features of a row are not ordered by raw data file
+    assertTrue(Arrays.asList(String.join("", chunks).split("\n")).contains(
+        "2,102.0,2,2,2,\"DETECTED\",,\"a.mzML\",\"say \"\"hi\"\", twice\",\"exported\""));
+
+    // The CSV text is loaded into the same columns, as the COPY command would do. Empty unquoted
+    // fields are null, quoted fields are strings.
+    File csvFile = File.createTempFile("sqlexport", ".csv");
+    try {
+      Files.write(csvFile.toPath(), String.join("", chunks).getBytes(StandardCharsets.UTF_8));
+      try (Statement statement = connection.createStatement()) {
+        statement.execute("INSERT INTO features SELECT * FROM CSVREAD('"
+            + csvFile.getAbsolutePath().replace("'", "''")
+            + "', 'ID,MZ,CHARGE,DATAPOINTS,CHARGE_INT,STATUS,FWHM,FILENAME,COMMENT,NOTE', "
+            + "'charset=UTF-8 nullString=')");
+      }
+    } finally {
+      csvFile.delete();
+    }
+
+    assertEquals(NUM_OF_ROWS * dataFiles.length, count());
+    try (Statement statement = connection.createStatement(); ResultSet result =
+        statement.executeQuery("SELECT * FROM features WHERE ID = 2 AND FILENAME = 'b.mzML'")) {
+      assertTrue(result.next());
+      assertEquals(102.0, result.getDouble("MZ"), 0.0);
+      assertEquals(2, result.getInt("CHARGE_INT"));
+      result.getDouble("FWHM");
+      assertTrue(result.wasNull());
+      assertEquals("say \"hi\", twice", result.getString("COMMENT"));
+    }
+  }
+
+  private int count() throws SQLException {
+    try (Statement statement = connection.createStatement();
+        ResultSet result = statement.executeQuery("SELECT COUNT(*) FROM features")) {
+      result.next();
+      return result.getInt(1);
+    }
+  }
+
+}
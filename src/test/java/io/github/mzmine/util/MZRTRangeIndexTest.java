@@ -0,0 +1,107 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import com.google.common.collect.Range;
+
+/**
+ * Range queries of the incrementally maintained index, compared with a scan of the whole list while
+ * elements are appended, changed and removed between the queries
+ */
+public class MZRTRangeIndexTest {
+
+  private static class Element {
+    double mz, rt;
+
+    Element(double mz, double rt) {
+      this.mz = mz;
+      this.rt = rt;
+    }
+  }
+
+  private final Random random = new Random(1);
+  private final List<Element> elements = new ArrayList<>();
+  private final MZRTRangeIndex<Element> index =
+      new MZRTRangeIndex<>(element -> element.mz, element -> element.rt);
+
+  @Test
+  public void appendsAndChangesBetweenQueries() {
+    for (int i = 0; i < 3000; i++) {
+      elements.add(randomElement());
+      checkRandomQuery();
+
+      if (i % 3 == 0) {
+        Element changed = elements.get(random.nextInt(elements.size()));
+        changed.mz = 100 + 900 * random.nextDouble();
+        index.elementChanged(changed);
+        checkRandomQuery();
+      }
+      if (i % 500 == 0) {
+        elements.remove(random.nextInt(elements.size()));
+        index.invalidate();
+        checkRandomQuery();
+      }
+    }
+  }
+
+  @Test
+  public void missingValues() {
+    for (int i = 0; i < 500; i++) {
+      Element element = randomElement();
+      if (i % 7 == 0)
+        element.mz = Double.NaN;
+      if (i % 11 == 0)
+        element.rt = Double.NaN;
+      elements.add(element);
+      checkRandomQuery();
+    }
+    checkQuery(Range.all(), Range.closed(5.0, 20.0));
+    checkQuery(Range.closed(200.0, 600.0), Range.all());
+    checkQuery(Range.all(), Range.all());
+  }
+
+  private Element randomElement() {
+    return new Element(100 + 900 * random.nextDouble(), 30 * random.nextDouble());
+  }
+
+  private void checkRandomQuery() {
+    final double mz = 100 + 900 * random.nextDouble(), rt = 30 * random.nextDouble();
+    checkQuery(Range.closed(mz - 20, mz + 20), Range.closed(rt - 2, rt + 2));
+    checkQuery(Range.closed(mz - 5, mz + 5), Range.all());
+  }
+
+  private void checkQuery(Range<Double> mzRange, Range<Double> rtRange) {
+    final int expected[] = new int[elements.size()];
+    int count = 0;
+    for (int i = 0; i < elements.size(); i++) {
+      final Element element = elements.get(i);
+      if (mzRange.contains(element.mz) && rtRange.contains(element.rt))
+        expected[count++] = i;
+    }
+    assertArrayEquals(Arrays.copyOf(expected, count),
+        index.getPositionsInside(elements, mzRange, rtRange));
+  }
+
+}
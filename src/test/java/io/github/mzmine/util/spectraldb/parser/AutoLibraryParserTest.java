@@ -0,0 +1,132 @@
+/*
+ * Copyright 2006-2020 The MZmine Development Team
+ *
+ * This file is part of MZmine.
+ *
+ * MZmine is free software; you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation; either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * MZmine is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with MZmine; if not,
+ * write to the Free Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301
+ * USA
+ */
+
+package io.github.mzmine.util.spectraldb.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import io.github.mzmine.taskcontrol.AbstractTask;
+import io.github.mzmine.util.spectraldb.entry.DBEntryField;
+import io.github.mzmine.util.spectraldb.entry.SpectralDBEntry;
+
+/**
+ * Spectral libraries read from the binary cache, and the fallback to the library file if the cache
+ * cannot be read
+ */
+public class AutoLibraryParserTest {
+
+  private static final int NUM_OF_ENTRIES = 20;
+
+  private File directory, libraryFile;
+  private final List<SpectralDBEntry> entries = new ArrayList<>();
+
+  private final AbstractTask task = new AbstractTask() {
+    @Override
+    public String getTaskDescription() {
+      return "Library import test";
+    }
+
+    @Override
+    public double getFinishedPercentage() {
+      return 0;
+    }
+
+    @Override
+    public void run() {}
+  };
+
+  @Before
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("mzmine").toFile();
+    libraryFile = new File(directory, "library.msp");
+    StringBuilder library = new StringBuilder();
+    for (int i = 0; i < NUM_OF_ENTRIES; i++) {
+      library.append("Name: compound ").append(i).append('\n');
+      library.append("PrecursorMZ: ").append(100 + i).append('\n');
+      library.append("Num Peaks: 2\n");
+      library.append(50 + i).append(" 100\n");
+      library.append(60 + i).append(" 200\n\n");
+    }
+    Files.write(libraryFile.toPath(), library.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  @After
+  public void tearDown() {
+    for (File file : directory.listFiles())
+      file.delete();
+    directory.delete();
+  }
+
+  @Test
+  public void readsTheCache() throws Exception {
+    assertTrue(parse());
+    assertTrue(SpectralDBCacheParser.isCacheValid(libraryFile));
+    final List<SpectralDBEntry> parsedEntries = new ArrayList<>(entries);
+
+    entries.clear();
+    assertTrue(parse());
+    assertEquals(NUM_OF_ENTRIES, entries.size());
+    for (int i = 0; i < NUM_OF_ENTRIES; i++) {
+      SpectralDBEntry parsed = parsedEntries.get(i), cached = entries.get(i);
+      assertEquals(parsed.getField(DBEntryField.NAME), cached.getField(DBEntryField.NAME));
+      assertEquals(parsed.getPrecursorMZ(), cached.getPrecursorMZ());
+      assertEquals(parsed.getDataPoints().length, cached.getDataPoints().length);
+    }
+  }
+
+  @Test
+  public void truncatedCacheFallsBackToTheLibrary() throws Exception {
+    assertTrue(parse());
+    final File cacheFile = SpectralDBCacheParser.getCacheFile(libraryFile);
+    try (RandomAccessFile raf = new RandomAccessFile(cacheFile, "rw")) {
+      raf.setLength(raf.length() - 10);
+    }
+    // The header is still valid
+    assertTrue(SpectralDBCacheParser.isCacheValid(libraryFile));
+
+    // The entries are only passed on once, from the library file, and the cache is written again
+    entries.clear();
+    assertTrue(parse());
+    assertEquals(NUM_OF_ENTRIES, entries.size());
+    assertTrue(SpectralDBCacheParser.isCacheValid(libraryFile));
+
+    entries.clear();
+    assertTrue(parse());
+    assertEquals(NUM_OF_ENTRIES, entries.size());
+  }
+
+  private boolean parse() throws Exception {
+    AutoLibraryParser parser = new AutoLibraryParser(7, (list, alreadyProcessed) -> {
+      synchronized (entries) {
+        entries.addAll(list);
+      }
+    });
+    return parser.parse(task, libraryFile);
+  }
+
+}